@@ -0,0 +1,206 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands logging events from the calling thread to its attached appenders on a single worker thread,
+ * through a bounded buffer of {@code bufferSize} events.
+ *
+ * <p>The calling thread only pins down what belongs to it, the thread name and the MDC, and enqueues the
+ * event; formatting the message, the key-value pairs and the stack trace, and writing them out, happen on
+ * the worker. Arguments of a log call are therefore rendered later and must not be changed after the call.
+ * Events at warn and above are always buffered: the last fifth of the buffer is kept for them and, should
+ * that fill up as well, the caller waits for room, so the errors of a burst, stack traces included, are
+ * never lost. For info and below, {@code overflow} decides: {@code drop} discards the event and counts it once
+ * only that last fifth is left, see {@link #getDroppedCount()}, {@code block} makes the caller wait for room,
+ * which never loses an event but lets a slow console slow the requests down again.
+ *
+ * <p>With {@code async} off, events are passed through on the calling thread.
+ *
+ * <p>Configured in {@code logback-spring.xml} from {@code logging.async.*}.
+ */
+public class BoundedAsyncAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent> {
+
+    public enum Overflow {
+        DROP, BLOCK
+    }
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private final LongAdder dropped = new LongAdder();
+
+    private boolean async = true;
+    private int bufferSize = 8192;
+    private Overflow overflow = Overflow.DROP;
+    private int maxFlushTime = 1000;
+
+    private BlockingQueue<ILoggingEvent> buffer;
+    private int reserved;
+    private Thread worker;
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setOverflow(String overflow) {
+        this.overflow = Overflow.valueOf(overflow.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * How long to wait, in milliseconds, for the buffered events to be written on stop.
+     */
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    /**
+     * Events below warn discarded because the buffer was full, since start.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Events waiting in the buffer.
+     */
+    public int getQueuedCount() {
+        return null == buffer ? 0 : buffer.size();
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (bufferSize < 1) {
+            addError("bufferSize must be positive, got %d.".formatted(bufferSize));
+            return;
+        }
+        if (!appenders.iteratorForAppenders().hasNext()) {
+            addWarn("No appender attached to [%s], events are discarded.".formatted(getName()));
+        }
+
+        super.start();
+        if (async) {
+            buffer = new ArrayBlockingQueue<>(bufferSize);
+            reserved = bufferSize / 5;
+            worker = new Thread(this::drain, "async-log-" + getName());
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+
+        super.stop();
+        if (null != worker) {
+            worker.interrupt();
+            try {
+                worker.join(maxFlushTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (worker.isAlive()) {
+                addWarn("%d events not written within %d ms on stop.".formatted(buffer.size(), maxFlushTime));
+            }
+            worker = null;
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!async) {
+            appenders.appendLoopOnAppenders(event);
+            return;
+        }
+
+        // Both are resolved lazily and would be those of the worker otherwise.
+        event.getThreadName();
+        event.getMDCPropertyMap();
+
+        if (overflow == Overflow.DROP && !event.getLevel().isGreaterOrEqual(Level.WARN)) {
+            // The reserved room is left to warnings and errors.
+            if (buffer.remainingCapacity() <= reserved || !buffer.offer(event)) {
+                dropped.increment();
+            }
+            return;
+        }
+        try {
+            buffer.put(event);
+        } catch (InterruptedException e) {
+            dropped.increment();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (isStarted()) {
+                ILoggingEvent event = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (null != event) {
+                    appenders.appendLoopOnAppenders(event);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopping, write out what is left.
+        }
+        for (ILoggingEvent event = buffer.poll(); null != event; event = buffer.poll()) {
+            appenders.appendLoopOnAppenders(event);
+        }
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
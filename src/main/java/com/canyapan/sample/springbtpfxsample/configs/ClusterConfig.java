@@ -0,0 +1,33 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import com.canyapan.sample.springbtpfxsample.services.ClusterMembership;
+import com.canyapan.sample.springbtpfxsample.services.InMemoryClusterMembership;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Membership is static: every instance assumes instances {@code 0..instance-count-1} are running, nothing
+ * checks that they are. {@code cluster.instance-count}, {@code CLUSTER_INSTANCE_COUNT} in manifest.yml, has to
+ * be kept equal to the app's {@code instances} by hand, including after {@code cf scale}. With too high a count
+ * the pairs of the missing instances aren't synced on schedule, left to the staleness watchdog; with too low a
+ * count the extra instances fail to start. Because of that it is off by default, and for now the service runs as
+ * a single instance anyway, see {@link SingleInstanceConfig}.
+ */
+@Configuration
+public class ClusterConfig {
+
+    @Bean
+    public ClusterMembership clusterMembership(ClusterProperties properties) {
+        if (properties.enabled() && (properties.instanceCount() < 1
+                || properties.instanceIndex() < 0 || properties.instanceIndex() >= properties.instanceCount())) {
+            throw new IllegalStateException(("cluster.instance-index %d is outside of cluster.instance-count %d, "
+                    + "keep CLUSTER_INSTANCE_COUNT in line with the instances the app is scaled to.")
+                    .formatted(properties.instanceIndex(), properties.instanceCount()));
+        }
+        InMemoryClusterMembership.Registry registry = new InMemoryClusterMembership.Registry();
+        for (int i = 0; i < properties.instanceCount(); i++) {
+            registry.join(String.valueOf(i));
+        }
+        return new InMemoryClusterMembership(registry, String.valueOf(properties.instanceIndex()));
+    }
+}
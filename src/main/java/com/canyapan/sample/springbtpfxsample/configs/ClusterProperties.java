@@ -0,0 +1,21 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Splitting the scheduled syncs across the app's instances under {@code cluster}.
+ *
+ * @param enabled       whether pairs are split across instances; otherwise every instance syncs every pair
+ * @param instanceIndex this instance's index, {@code CF_INSTANCE_INDEX} on Cloud Foundry
+ * @param instanceCount how many instances the app runs; not discovered, kept equal to the manifest's
+ *                      {@code instances} by hand, see {@link ClusterConfig}
+ * @param virtualNodes  the points each instance takes on the hash ring, more spread pairs more evenly
+ */
+@ConfigurationProperties("cluster")
+public record ClusterProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("0") int instanceIndex,
+        @DefaultValue("1") int instanceCount,
+        @DefaultValue("64") int virtualNodes) {
+}
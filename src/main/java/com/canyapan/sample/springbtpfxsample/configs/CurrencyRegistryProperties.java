@@ -0,0 +1,31 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * The currencies accepted by the API under {@code fx.currencies}, on top of {@code fx.api.allowed-currencies}.
+ *
+ * @param denied  currencies never accepted, even if allowed and supported by the FX provider
+ * @param refresh loading of the supported currencies from the FX provider
+ */
+@ConfigurationProperties("fx.currencies")
+public record CurrencyRegistryProperties(
+        @DefaultValue Set<String> denied,
+        @DefaultValue Refresh refresh) {
+
+    /**
+     * @param enabled  whether the supported currencies are loaded from the FX provider; otherwise the allowed
+     *                 currencies are accepted as they are
+     * @param path     the FX provider's path listing the supported currency codes
+     * @param interval how often the supported currencies are loaded again
+     */
+    public record Refresh(
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("/currencies") String path,
+            @DefaultValue("1h") Duration interval) {
+    }
+}
@@ -0,0 +1,27 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * BTP destinations the FX and S/4HANA clients connect through under {@code sap.destinations}.
+ * When disabled, the clients use {@code fx.api.base-url} and {@code sap.s4.base-url} directly.
+ *
+ * @param enabled      whether the clients resolve their destinations through the SAP Cloud SDK
+ * @param fx           the name of the FX API destination
+ * @param s4           the name of the S/4HANA destination
+ * @param refreshAfter a destination older than this is refreshed in the background while still in use;
+ *                     sooner when its bearer token expires earlier
+ * @param maxAge       a destination older than this is not used anymore and is looked up before the next call;
+ *                     sooner when its bearer token expires earlier
+ */
+@ConfigurationProperties("sap.destinations")
+public record DestinationProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("fx-api") String fx,
+        @DefaultValue("s4-hana") String s4,
+        @DefaultValue("4m") Duration refreshAfter,
+        @DefaultValue("10m") Duration maxAge) {
+}
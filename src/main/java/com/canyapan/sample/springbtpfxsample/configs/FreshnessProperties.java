@@ -0,0 +1,31 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Freshness tracking of the allowed pairs under {@code sync.freshness}.
+ *
+ * @param enabled       whether pairs are checked against the SLO at all
+ * @param slo           how long a pair may go unwritten to S/4HANA while a changed rate is waiting before it is in breach
+ * @param checkInterval how often the pairs are checked
+ * @param resync        re-syncing of pairs in breach
+ */
+@ConfigurationProperties("sync.freshness")
+public record FreshnessProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("1h") Duration slo,
+        @DefaultValue("1m") Duration checkInterval,
+        @DefaultValue Resync resync) {
+
+    /**
+     * @param enabled     whether pairs in breach are synced by the service itself
+     * @param maxPerCheck the most pairs synced per check, the stalest first
+     */
+    public record Resync(
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("5") int maxPerCheck) {
+    }
+}
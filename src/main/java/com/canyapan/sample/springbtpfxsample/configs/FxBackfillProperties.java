@@ -0,0 +1,29 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Historical backfill of daily rates under {@code fx.backfill}.
+ *
+ * @param chunkDays       the number of consecutive days fetched and written together
+ * @param parallelism     the number of chunks fetched at the same time across all running backfills
+ * @param batchSize       the maximum number of rates written to S/4HANA in one {@code $batch}
+ * @param maxDays         the longest range a single backfill may cover
+ * @param checkpointDir   where the last completed day of every backfill is recorded
+ * @param resumeOnStartup whether unfinished backfills found in {@code checkpointDir} are resumed at startup
+ * @param retention       how long the status of a completed or failed backfill is kept after it finished
+ */
+@ConfigurationProperties("fx.backfill")
+public record FxBackfillProperties(
+        @DefaultValue("7") int chunkDays,
+        @DefaultValue("8") int parallelism,
+        @DefaultValue("50") int batchSize,
+        @DefaultValue("732") int maxDays,
+        @DefaultValue("fx-backfill") Path checkpointDir,
+        @DefaultValue("true") boolean resumeOnStartup,
+        @DefaultValue("24h") Duration retention) {
+}
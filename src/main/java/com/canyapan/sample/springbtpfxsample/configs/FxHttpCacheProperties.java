@@ -0,0 +1,16 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * HTTP caching of FX provider responses under {@code fx.http-cache}.
+ *
+ * @param enabled    whether responses are cached and revalidated with conditional requests
+ * @param maxEntries how many responses are kept per provider, the least recently used are dropped first
+ */
+@ConfigurationProperties("fx.http-cache")
+public record FxHttpCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("1024") int maxEntries) {
+}
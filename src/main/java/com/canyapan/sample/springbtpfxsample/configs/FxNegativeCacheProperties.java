@@ -0,0 +1,22 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Caching of failed FX lookups per pair under {@code fx.negative-cache}.
+ *
+ * @param enabled        whether failed lookups are cached at all
+ * @param unsupportedTtl how long a pair the provider rejected as unsupported is answered from the cache at first
+ * @param transientTtl   how long a pair that failed for any other reason is answered from the cache at first
+ * @param maxTtl         the longest a failure is cached, however often it repeats
+ */
+@ConfigurationProperties("fx.negative-cache")
+public record FxNegativeCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("5m") Duration unsupportedTtl,
+        @DefaultValue("2s") Duration transientTtl,
+        @DefaultValue("10m") Duration maxTtl) {
+}
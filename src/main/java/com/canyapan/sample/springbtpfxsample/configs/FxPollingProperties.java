@@ -0,0 +1,27 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Volatility-adaptive polling of the FX provider under {@code fx.polling}.
+ *
+ * @param enabled           whether pairs are polled at all
+ * @param pairs             the pairs to poll as {@code BASE/TARGET}; empty polls every pair of the allowed currencies
+ * @param minInterval       the shortest interval a pair is polled at, also used until its volatility is known
+ * @param maxInterval       the longest interval a pair is polled at, even if its rate doesn't move
+ * @param targetMove        the relative rate move a poll should catch, e.g. 0.0005 for 5 basis points
+ * @param requestsPerMinute the FX requests per minute shared by all pairs
+ */
+@ConfigurationProperties("fx.polling")
+public record FxPollingProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue List<String> pairs,
+        @DefaultValue("1m") Duration minInterval,
+        @DefaultValue("1h") Duration maxInterval,
+        @DefaultValue("0.0005") double targetMove,
+        @DefaultValue("30") int requestsPerMinute) {
+}
@@ -0,0 +1,20 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Serving of recently fetched FX rates under {@code fx.cache}.
+ *
+ * @param enabled              whether fetched rates are kept and served from the cache at all
+ * @param staleWhileRevalidate how old a cached rate may be to be served right away while it's refreshed in the background
+ * @param staleIfError         how old a cached rate may be to be served when fetching it again failed
+ */
+@ConfigurationProperties("fx.cache")
+public record FxRateCacheProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("30s") Duration staleWhileRevalidate,
+        @DefaultValue("5m") Duration staleIfError) {
+}
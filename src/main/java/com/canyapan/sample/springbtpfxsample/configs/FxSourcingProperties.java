@@ -0,0 +1,36 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * How FX rates are sourced when more than one provider is configured under {@code fx.sourcing}.
+ * The provider at {@code fx.api.base-url} is always the primary one; {@code providers} adds more.
+ *
+ * @param strategy  how the responses of the providers are combined
+ * @param window    how long {@link Strategy#MEDIAN} collects responses before deciding
+ * @param timeout   the overall time budget of a fetch across all providers, also bounding a hung provider
+ * @param providers the additional providers, queried alongside the primary one
+ */
+@ConfigurationProperties("fx.sourcing")
+public record FxSourcingProperties(
+        @DefaultValue("PRIMARY_WITH_FALLBACK") Strategy strategy,
+        @DefaultValue("300ms") Duration window,
+        @DefaultValue("5s") Duration timeout,
+        @DefaultValue List<Provider> providers) {
+
+    public enum Strategy {
+        /** The first successful response of any provider wins. */
+        FIRST_RESPONSE,
+        /** The median of the responses received within the window. */
+        MEDIAN,
+        /** The primary provider, falling back to the others one by one in order of their weight. */
+        PRIMARY_WITH_FALLBACK
+    }
+
+    public record Provider(String name, String baseUrl) {
+    }
+}
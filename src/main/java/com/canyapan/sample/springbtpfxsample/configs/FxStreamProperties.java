@@ -0,0 +1,24 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Push-feed ingestion of FX ticks under {@code fx.stream}.
+ *
+ * @param enabled               whether the feed is consumed at all
+ * @param url                   the server-sent events endpoint of the feed
+ * @param maxPushesPerSecond    upper bound of conflated rates pushed to S/4HANA per second
+ * @param initialBackoff        the first reconnect delay after the feed drops
+ * @param maxBackoff            the cap of the exponentially growing reconnect delay
+ */
+@ConfigurationProperties("fx.stream")
+public record FxStreamProperties(
+        @DefaultValue("false") boolean enabled,
+        String url,
+        @DefaultValue("20") int maxPushesPerSecond,
+        @DefaultValue("1s") Duration initialBackoff,
+        @DefaultValue("30s") Duration maxBackoff) {
+}
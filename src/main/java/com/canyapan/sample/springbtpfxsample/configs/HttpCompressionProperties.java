@@ -0,0 +1,19 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Compression of the FX and S/4HANA HTTP traffic under {@code http.compression}.
+ *
+ * @param enabled          whether compressed responses are asked for and decoded
+ * @param compressRequests whether request bodies sent to S/4HANA are gzipped; only for systems whose ICM accepts them
+ * @param minRequestSize   the smallest request body worth gzipping
+ */
+@ConfigurationProperties("http.compression")
+public record HttpCompressionProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("false") boolean compressRequests,
+        @DefaultValue("1KB") DataSize minRequestSize) {
+}
@@ -0,0 +1,44 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Iterator;
+
+/**
+ * Reports {@code logging.async.dropped}, the events the {@link BoundedAsyncAppender} of the root logger
+ * discarded on a full buffer, and {@code logging.async.queued}, the events waiting in it.
+ */
+@Configuration
+public class LoggingConfig {
+
+    @Bean
+    public MeterBinder asyncLoggingMetrics() {
+        return registry -> {
+            if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext context)) {
+                return;
+            }
+            Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+            for (Iterator<Appender<ILoggingEvent>> it = root.iteratorForAppenders(); it.hasNext(); ) {
+                if (it.next() instanceof BoundedAsyncAppender appender) {
+                    FunctionCounter.builder("logging.async.dropped", appender, BoundedAsyncAppender::getDroppedCount)
+                            .tag("appender", appender.getName())
+                            .baseUnit("events")
+                            .register(registry);
+                    Gauge.builder("logging.async.queued", appender, BoundedAsyncAppender::getQueuedCount)
+                            .tag("appender", appender.getName())
+                            .baseUnit("events")
+                            .register(registry);
+                }
+            }
+        };
+    }
+}
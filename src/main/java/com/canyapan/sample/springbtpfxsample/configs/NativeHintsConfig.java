@@ -0,0 +1,99 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import com.canyapan.sample.springbtpfxsample.services.FxClient;
+import com.canyapan.sample.springbtpfxsample.services.StartupWarmUp;
+import com.canyapan.sample.springbtpfxsample.validation.AllowedCurrency;
+import com.canyapan.sample.springbtpfxsample.validation.AllowedCurrencyValidator;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+
+/**
+ * Reachability metadata for the native image.
+ *
+ * <p>Most hints are inferred by Spring AOT. What is registered here is what AOT can't see:
+ * the Lombok-generated FX DTOs and their {@code @JsonProperty} mappings that Jackson binds
+ * reflectively, the error payload of {@code GlobalExceptionHandler}, the custom constraint
+ * validator that Hibernate Validator instantiates by reflection, the appender logback
+ * configures from {@code logback-spring.xml}, and the currency pair the warm-up validates.
+ *
+ * <p>For the security configuration, the JWT and its authentication token that the resource server
+ * converts every bearer token into, and the XSUAA token types of {@code java-security}, whose token
+ * factory is looked up through {@link java.util.ServiceLoader}.
+ */
+@Configuration
+@ImportRuntimeHints(NativeHintsConfig.ApplicationRuntimeHints.class)
+public class NativeHintsConfig {
+
+    static class ApplicationRuntimeHints implements RuntimeHintsRegistrar {
+
+        private static final String XSUAA_TOKEN_FACTORY = "com.sap.cloud.security.servlet.HybridTokenFactory";
+        private static final String[] XSUAA_TOKENS = {
+                "com.sap.cloud.security.token.XsuaaToken",
+                "com.sap.cloud.security.token.SapIdToken"
+        };
+
+        private final BindingReflectionHintsRegistrar bindingHints = new BindingReflectionHintsRegistrar();
+
+        @Override
+        public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+            bindingHints.registerReflectionHints(hints.reflection(),
+                    FxClient.Response.class,
+                    FxClient.CurrenciesResponse.class,
+                    FxClient.ExchangeRate.class);
+
+            hints.reflection().registerType(
+                    TypeReference.of("com.canyapan.sample.springbtpfxsample.controllers.GlobalExceptionHandler$ErrorResponse"),
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                    MemberCategory.INVOKE_PUBLIC_METHODS,
+                    MemberCategory.ACCESS_DECLARED_FIELDS);
+
+            hints.reflection().registerType(AllowedCurrencyValidator.class,
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                    MemberCategory.INVOKE_PUBLIC_METHODS,
+                    MemberCategory.ACCESS_DECLARED_FIELDS);
+            hints.reflection().registerType(AllowedCurrency.class,
+                    MemberCategory.INVOKE_PUBLIC_METHODS);
+            hints.reflection().registerType(BoundedAsyncAppender.class,
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                    MemberCategory.INVOKE_PUBLIC_METHODS);
+            hints.reflection().registerType(
+                    TypeReference.of(StartupWarmUp.class.getName() + "$CurrencyPair"),
+                    MemberCategory.ACCESS_DECLARED_FIELDS);
+
+            registerSecurityHints(hints);
+        }
+
+        private static void registerSecurityHints(RuntimeHints hints) {
+            hints.reflection().registerType(Jwt.class,
+                    MemberCategory.INVOKE_PUBLIC_METHODS,
+                    MemberCategory.ACCESS_DECLARED_FIELDS);
+            hints.reflection().registerType(JwtAuthenticationToken.class,
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                    MemberCategory.INVOKE_PUBLIC_METHODS);
+            hints.reflection().registerType(JwtAuthenticationConverter.class,
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                    MemberCategory.INVOKE_PUBLIC_METHODS);
+            hints.reflection().registerType(JwtGrantedAuthoritiesConverter.class,
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                    MemberCategory.INVOKE_PUBLIC_METHODS);
+
+            hints.reflection().registerType(TypeReference.of(XSUAA_TOKEN_FACTORY),
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+            for (String token : XSUAA_TOKENS) {
+                hints.reflection().registerType(TypeReference.of(token),
+                        MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                        MemberCategory.INVOKE_PUBLIC_METHODS);
+            }
+            hints.resources().registerPattern("META-INF/services/com.sap.cloud.security.token.TokenFactory");
+        }
+    }
+}
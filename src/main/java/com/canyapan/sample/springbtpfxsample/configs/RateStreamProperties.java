@@ -0,0 +1,20 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * The stream of synced rates under {@code sync.stream}.
+ *
+ * @param enabled        whether subscribers are accepted at all
+ * @param maxSubscribers the number of open streams per instance; any further subscriber is rejected
+ * @param timeout        how long a stream stays open before the subscriber has to reconnect
+ */
+@ConfigurationProperties("sync.stream")
+public record RateStreamProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("10000") int maxSubscribers,
+        @DefaultValue("30m") Duration timeout) {
+}
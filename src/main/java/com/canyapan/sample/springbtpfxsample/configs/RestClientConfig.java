@@ -1,9 +1,17 @@
 package com.canyapan.sample.springbtpfxsample.configs;
 
+import com.canyapan.sample.springbtpfxsample.services.DestinationClients;
+import com.canyapan.sample.springbtpfxsample.services.FxClient;
+import com.canyapan.sample.springbtpfxsample.services.HttpCompressionInterceptor;
+import com.canyapan.sample.springbtpfxsample.services.HttpResponseCache;
 import com.canyapan.sample.springbtpfxsample.services.S4HanaCsrfTokenInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.http.client.ClientHttpRequestFactoryBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.client.RestClient;
@@ -12,40 +20,101 @@ import org.springframework.web.client.RestClient;
 @Configuration
 public class RestClientConfig {
 
+    /**
+     * Apache HttpClient, which the RestClients use by default, would decode gzip and deflate responses itself,
+     * before {@link HttpCompressionInterceptor} could count their size on the wire. It leaves that to the
+     * interceptor instead, which also asks for the compressed encodings.
+     */
+    @Bean
+    public ClientHttpRequestFactoryBuilder<?> clientHttpRequestFactoryBuilder() {
+        return ClientHttpRequestFactoryBuilder.httpComponents()
+                .withHttpClientCustomizer(HttpClientBuilder::disableContentCompression);
+    }
+
+    @Bean
+    public HttpCompressionInterceptor fxCompressionInterceptor(HttpCompressionProperties properties, MeterRegistry meterRegistry) {
+        return new HttpCompressionInterceptor("fx", properties, false, meterRegistry);
+    }
+
+    @Bean
+    public HttpCompressionInterceptor s4CompressionInterceptor(HttpCompressionProperties properties, MeterRegistry meterRegistry) {
+        return new HttpCompressionInterceptor("s4", properties, properties.compressRequests(), meterRegistry);
+    }
+
     @Bean
     public RestClient fxRestClient(
             RestClient.Builder builder,
+            DestinationProperties destinations,
+            DestinationClients destinationClients,
+            FxHttpCacheProperties httpCache,
+            HttpCompressionInterceptor fxCompressionInterceptor,
+            MeterRegistry meterRegistry,
             @Value("${fx.api.base-url}") String baseUrl) {
 
-        return builder
-                .baseUrl(baseUrl)
+        return connect(builder, destinations, destinationClients, destinations.fx(), baseUrl)
                 .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .requestInterceptor(new HttpResponseCache(FxClient.PRIMARY, httpCache, meterRegistry))
+                .requestInterceptor(fxCompressionInterceptor)
                 .build();
     }
 
     @Bean
+    public RestClient fxStreamRestClient(RestClient.Builder builder) {
+
+        return builder
+                .defaultHeader(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE)
+                .build();
+    }
+
+    @Bean
+    @Lazy
     public RestClient s4HanaRestClient(
             RestClient.Builder builder,
             S4HanaCsrfTokenInterceptor csrfTokenInterceptor,
+            DestinationProperties destinations,
+            DestinationClients destinationClients,
+            HttpCompressionInterceptor s4CompressionInterceptor,
             @Value("${sap.s4.base-url}") String baseUrl) {
 
-        return builder
-                .baseUrl(baseUrl)
+        return connect(builder, destinations, destinationClients, destinations.s4(), baseUrl)
                 .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .requestInterceptor(csrfTokenInterceptor)
+                .requestInterceptor(s4CompressionInterceptor)
                 .build();
     }
 
     @Bean
+    @Lazy
     public RestClient s4HanaRestClientForCsrfToken(
             RestClient.Builder builder,
+            DestinationProperties destinations,
+            DestinationClients destinationClients,
+            HttpCompressionInterceptor s4CompressionInterceptor,
             @Value("${sap.s4.base-url}") String baseUrl) {
 
-        return builder
-                .baseUrl(baseUrl)
+        return connect(builder, destinations, destinationClients, destinations.s4(), baseUrl)
                 .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .requestInterceptor(s4CompressionInterceptor)
                 .build();
     }
+
+    /**
+     * Sends requests through the named BTP destination when destinations are enabled, otherwise to the base URL.
+     */
+    private static RestClient.Builder connect(
+            RestClient.Builder builder,
+            DestinationProperties destinations,
+            DestinationClients destinationClients,
+            String destinationName,
+            String baseUrl) {
+
+        if (!destinations.enabled()) {
+            return builder.baseUrl(baseUrl);
+        }
+        return builder
+                .requestFactory(destinationClients.requestFactory(destinationName))
+                .requestInterceptor(destinationClients.invalidateOnUnauthorized(destinationName));
+    }
 }
@@ -0,0 +1,28 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Adaptive concurrency limiting of S/4HANA writes under {@code sap.s4.concurrency}.
+ *
+ * @param enabled          whether writes are limited at all
+ * @param initialLimit     the number of concurrent writes allowed before anything was measured
+ * @param minLimit         the limit never drops below this
+ * @param maxLimit         the limit never grows beyond this
+ * @param latencyTolerance how much slower than the best observed round trip of its kind a write may get before the limit is cut
+ * @param backoffRatio     the factor the limit is multiplied with on a cut
+ * @param acquireTimeout   how long a write waits for a free slot before it fails
+ */
+@ConfigurationProperties("sap.s4.concurrency")
+public record S4ConcurrencyProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("8") int initialLimit,
+        @DefaultValue("1") int minLimit,
+        @DefaultValue("64") int maxLimit,
+        @DefaultValue("2.0") double latencyTolerance,
+        @DefaultValue("0.75") double backoffRatio,
+        @DefaultValue("5s") Duration acquireTimeout) {
+}
@@ -0,0 +1,31 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * The local index of exchange-rate keys known to exist on S/4HANA under {@code sap.s4.key-index}.
+ *
+ * @param enabled    whether writes consult the index at all
+ * @param onExisting what to do with a rate whose key is already on S/4
+ * @param seedDays   how many days back the index is seeded from S/4 at startup
+ * @param pageSize   the number of entries read per OData page while seeding
+ */
+@ConfigurationProperties("sap.s4.key-index")
+public record S4KeyIndexProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("update") OnExisting onExisting,
+        @DefaultValue("400") int seedDays,
+        @DefaultValue("1000") int pageSize) {
+
+    public enum OnExisting {
+        /**
+         * Leave the rate on S/4 as it is.
+         */
+        SKIP,
+        /**
+         * Overwrite the rate on S/4 with the new one.
+         */
+        UPDATE
+    }
+}
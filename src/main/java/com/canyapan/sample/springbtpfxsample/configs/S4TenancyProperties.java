@@ -0,0 +1,29 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Routing of S/4HANA calls to one S/4 tenant per subscriber zone under {@code sap.s4.tenants}.
+ * When disabled, every call goes to {@code sap.s4.base-url}.
+ *
+ * @param enabled     whether calls are routed by the zone of the caller's token
+ * @param zoneClaim   the token claim holding the zone id
+ * @param maxCached   the number of tenants whose clients and CSRF sessions are kept at once
+ * @param idleTimeout tenants unused for this long release their clients and CSRF session
+ * @param routes      the S/4 tenant of each zone id; callers from other zones are denied
+ */
+@ConfigurationProperties("sap.s4.tenants")
+public record S4TenancyProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("zid") String zoneClaim,
+        @DefaultValue("32") int maxCached,
+        @DefaultValue("30m") Duration idleTimeout,
+        @DefaultValue Map<String, Route> routes) {
+
+    public record Route(String baseUrl) {
+    }
+}
@@ -0,0 +1,24 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Write-behind batching of S/4HANA exchange-rate pushes under {@code sap.s4.write-behind}.
+ *
+ * @param enabled      whether syncs go through the buffer instead of one request per rate
+ * @param maxBatchSize a batch is flushed as soon as it holds this many rates
+ * @param linger       a batch is flushed at the latest this long after its first rate arrived
+ * @param capacity     the number of rates the buffer holds before callers are pushed back
+ * @param offerTimeout how long a caller waits for room in a full buffer before giving up
+ */
+@ConfigurationProperties("sap.s4.write-behind")
+public record S4WriteBehindProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("50") int maxBatchSize,
+        @DefaultValue("200ms") Duration linger,
+        @DefaultValue("1000") int capacity,
+        @DefaultValue("2s") Duration offerTimeout) {
+}
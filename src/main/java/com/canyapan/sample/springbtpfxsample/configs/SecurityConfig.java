@@ -15,7 +15,9 @@ public class SecurityConfig {
 
         return http
                 .authorizeHttpRequests(auth -> auth
-                        .requestMatchers("/actuator/**").permitAll()
+                        // Probes stay open for the platform, metrics carry pair and traffic internals.
+                        .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                        .requestMatchers("/actuator/**").hasAuthority("SCOPE_ExchangeRate.Monitor")
                         .requestMatchers("/api/v1/rate/**").hasAuthority("SCOPE_ExchangeRate.Sync")
                         .anyRequest().authenticated())
                 .oauth2ResourceServer(oauth2 -> oauth2.jwt(jwtConfigurer -> {}))
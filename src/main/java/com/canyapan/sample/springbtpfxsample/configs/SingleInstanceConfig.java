@@ -0,0 +1,20 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The service is deployed as a single instance. The synced rates of the read endpoints, the subscribers of the rate
+ * stream and the backfill jobs are held in memory by the instance that saw them, and Cloud Foundry routes requests
+ * round robin, so behind a second instance a read, a stream or a backfill's status would depend on which instance
+ * answered. Until that state is kept in a shared store, any instance but the first refuses to start.
+ */
+@Configuration
+public class SingleInstanceConfig {
+
+    public SingleInstanceConfig(ClusterProperties properties) {
+        if (properties.instanceIndex() > 0) {
+            throw new IllegalStateException(("This is instance %d, the service runs as a single instance; "
+                    + "scale it back with cf scale -i 1.").formatted(properties.instanceIndex()));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Snapshots of the in-memory state for warm restarts under {@code snapshot}.
+ *
+ * @param enabled  whether the state is written to and loaded from {@code dir}
+ * @param dir      where the snapshot file is kept; it has to outlive the instance to be of any use
+ * @param interval how often the snapshot is written, besides once on shutdown
+ * @param ttl      the age at which a snapshot is no longer loaded at startup
+ */
+@ConfigurationProperties("snapshot")
+public record SnapshotProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("fx-snapshot") Path dir,
+        @DefaultValue("1m") Duration interval,
+        @DefaultValue("15m") Duration ttl) {
+}
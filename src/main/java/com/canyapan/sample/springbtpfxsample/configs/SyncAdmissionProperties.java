@@ -0,0 +1,35 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Admission control of sync requests under {@code sync.admission}.
+ *
+ * @param enabled       whether requests are limited at all
+ * @param maxConcurrent the number of syncs running at the same time
+ * @param maxQueued     the number of requests waiting for a free slot; any further request is rejected at once
+ * @param maxQueueWait  how long a queued request waits for a slot before it is rejected
+ * @param perPrincipal  the quota every JWT subject gets on its own
+ */
+@ConfigurationProperties("sync.admission")
+public record SyncAdmissionProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("64") int maxConcurrent,
+        @DefaultValue("32") int maxQueued,
+        @DefaultValue("1s") Duration maxQueueWait,
+        @DefaultValue PrincipalQuota perPrincipal) {
+
+    /**
+     * A token bucket per principal.
+     *
+     * @param requestsPerSecond the sustained rate the bucket refills at; zero or less disables the quota
+     * @param burst             the bucket size, i.e. how many requests may arrive back to back
+     */
+    public record PrincipalQuota(
+            @DefaultValue("10") double requestsPerSecond,
+            @DefaultValue("20") int burst) {
+    }
+}
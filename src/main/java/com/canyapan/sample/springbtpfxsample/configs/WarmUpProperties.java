@@ -0,0 +1,20 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Start-up warm-up under {@code warmup}, run before the instance reports ready.
+ *
+ * @param enabled    whether the instance warms up at all
+ * @param timeout    the instance reports ready after this long even if warming up isn't done
+ * @param iterations the number of synthetic serialization and validation passes for the JIT
+ */
+@ConfigurationProperties("warmup")
+public record WarmUpProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("30s") Duration timeout,
+        @DefaultValue("500") int iterations) {
+}
@@ -1,17 +1,37 @@
 package com.canyapan.sample.springbtpfxsample.controllers;
 
+import com.canyapan.sample.springbtpfxsample.configs.RateStreamProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.NotFoundException;
 import com.canyapan.sample.springbtpfxsample.services.ExchangeRateService;
+import com.canyapan.sample.springbtpfxsample.services.FxRateCache;
+import com.canyapan.sample.springbtpfxsample.services.RateBackfillService;
+import com.canyapan.sample.springbtpfxsample.services.RatePayloads;
+import com.canyapan.sample.springbtpfxsample.services.RateStreamHub;
+import com.canyapan.sample.springbtpfxsample.services.S4TenantClients;
+import com.canyapan.sample.springbtpfxsample.services.SyncAdmissionControl;
 import com.canyapan.sample.springbtpfxsample.validation.AllowedCurrency;
 import jakarta.validation.constraints.NotBlank;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Validated
@@ -21,18 +41,147 @@ import org.springframework.web.bind.annotation.RestController;
 public class ExchangeRateController {
 
     private final ExchangeRateService service;
+    private final SyncAdmissionControl admissionControl;
+    private final RateBackfillService backfillService;
+    private final S4TenantClients tenantClients;
+    private final RateStreamHub rateStreamHub;
+    private final RateStreamProperties streamProperties;
+    private final RatePayloads ratePayloads;
+
+    static final String SERVED_HEADER = "X-FX-Rate-Served";
+    static final String AGE_HEADER = "X-FX-Rate-Age";
 
     @PostMapping("/{base}/{target}/sync")
-    public void syncRate(
+    public ResponseEntity<Void> syncRate(
             @PathVariable @NotBlank @AllowedCurrency String base,
             @PathVariable @NotBlank @AllowedCurrency String target) {
 
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String userName = auth.getName();
+        String tenant = tenantClients.resolve(auth);
 
-        log.info("exchange sync is triggered for {}/{} by user {}", base, target, userName);
+        long started = System.nanoTime();
+        String outcome = "failure";
+        try (SyncAdmissionControl.Permit ignored = admissionControl.acquire(userName)) {
+            FxRateCache.Served served = service.updateRate(tenant, base, target);
+            outcome = served.freshness().getTag();
+            return ResponseEntity.ok()
+                    .header(SERVED_HEADER, served.freshness().getTag())
+                    .header(AGE_HEADER, String.valueOf(served.age().toSeconds()))
+                    .build();
+        } finally {
+            // Fields instead of a formatted message, rendered off the request thread by the async appender.
+            log.atInfo()
+                    .setMessage("exchange sync is done")
+                    .addKeyValue("base", base)
+                    .addKeyValue("target", target)
+                    .addKeyValue("user", userName)
+                    .addKeyValue("tenant", tenant)
+                    .addKeyValue("outcome", outcome)
+                    .addKeyValue("durationMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started))
+                    .log();
+        }
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getRates() {
+        return rates(RatePayloads.Format.JSON);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<byte[]> getRatesAsCbor() {
+        return rates(RatePayloads.Format.CBOR);
+    }
+
+    @GetMapping(path = "/{base}/{target}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getRate(
+            @PathVariable @NotBlank @AllowedCurrency String base,
+            @PathVariable @NotBlank @AllowedCurrency String target) {
+        return rate(base, target, RatePayloads.Format.JSON);
+    }
+
+    @GetMapping(path = "/{base}/{target}", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<byte[]> getRateAsCbor(
+            @PathVariable @NotBlank @AllowedCurrency String base,
+            @PathVariable @NotBlank @AllowedCurrency String target) {
+        return rate(base, target, RatePayloads.Format.CBOR);
+    }
+
+    /**
+     * The last synced rates of the caller's tenant, as encoded when they were synced.
+     */
+    private ResponseEntity<byte[]> rates(RatePayloads.Format format) {
+        String tenant = tenantClients.resolve(SecurityContextHolder.getContext().getAuthentication());
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .body(ratePayloads.getAll(tenant, format));
+    }
+
+    private ResponseEntity<byte[]> rate(String base, String target, RatePayloads.Format format) {
+        String tenant = tenantClients.resolve(SecurityContextHolder.getContext().getAuthentication());
+        byte[] payload = ratePayloads.get(tenant, base, target, format)
+                .orElseThrow(() -> new NotFoundException("No rate of %s/%s has been synced yet.".formatted(base, target)));
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .body(payload);
+    }
+
+    /**
+     * Streams the rates of the caller's tenant as they're synced, of the given {@code BASE/TARGET} pairs or of
+     * all pairs. A rate synced again before the previous one reached the subscriber replaces it.
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamRates(@RequestParam(required = false) List<String> pairs) {
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String tenant = tenantClients.resolve(auth);
+
+        SseEmitter emitter = new SseEmitter(streamProperties.timeout().toMillis());
+        RateStreamHub.Subscription subscription = rateStreamHub.subscribe(tenant, pairs,
+                (pair, rate) -> emitter.send(SseEmitter.event().name("rate").data(rate, MediaType.APPLICATION_JSON)));
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+
+        log.atInfo()
+                .setMessage("rate stream is opened")
+                .addKeyValue("pairs", null == pairs ? "all" : pairs)
+                .addKeyValue("user", auth.getName())
+                .addKeyValue("tenant", tenant)
+                .log();
+
+        return emitter;
+    }
+
+    @PostMapping("/{base}/{target}/backfill")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public RateBackfillService.BackfillStatus backfillRates(
+            @PathVariable @NotBlank @AllowedCurrency String base,
+            @PathVariable @NotBlank @AllowedCurrency String target,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String tenant = tenantClients.resolve(auth);
+
+        log.atInfo()
+                .setMessage("exchange backfill is triggered")
+                .addKeyValue("base", base)
+                .addKeyValue("target", target)
+                .addKeyValue("from", from)
+                .addKeyValue("to", to)
+                .addKeyValue("user", auth.getName())
+                .addKeyValue("tenant", tenant)
+                .log();
+
+        return backfillService.start(tenant, base, target, from, to);
+    }
 
-        service.updateRate(base, target);
+    @GetMapping("/backfill/{id}")
+    public RateBackfillService.BackfillStatus getBackfill(@PathVariable String id) {
+        String tenant = tenantClients.resolve(SecurityContextHolder.getContext().getAuthentication());
+        return backfillService.getStatus(tenant, id)
+                .orElseThrow(() -> new NotFoundException("No backfill found with id '%s'.".formatted(id)));
     }
 
 }
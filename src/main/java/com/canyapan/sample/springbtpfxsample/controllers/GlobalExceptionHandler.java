@@ -1,13 +1,18 @@
 package com.canyapan.sample.springbtpfxsample.controllers;
 
 import com.canyapan.sample.springbtpfxsample.exceptions.BaseException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxUnavailableException;
 import com.canyapan.sample.springbtpfxsample.exceptions.InternalException;
+import com.canyapan.sample.springbtpfxsample.exceptions.TooManyRequestsException;
 import jakarta.validation.ConstraintViolationException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.event.Level;
 import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.security.access.AccessDeniedException;
@@ -59,13 +64,69 @@ public class GlobalExceptionHandler {
                 .body(new ErrorResponse(responseStatus.reason(), getExceptionMessage(exception)));
 
         if (response.getStatusCode().is4xxClientError()) {
-            log.warn("A client-side error occurred,", exception);
+            logHandled(Level.WARN, "A client-side error occurred.", response, exception);
         } else {
-            log.error("A server-side error occurred,", exception);
+            logHandled(Level.ERROR, "A server-side error occurred.", response, exception);
         }
         return response;
     }
 
+    /**
+     * Handles {@link TooManyRequestsException} raised by admission control when the sync pipeline is saturated.
+     *
+     * <p>Responds with HTTP 429 (Too Many Requests) and a {@code Retry-After} header in whole seconds,
+     * so well-behaved clients back off instead of retrying into the overload.
+     *
+     * @param exception the too-many-requests exception
+     * @return a {@code ResponseEntity<ErrorResponse>} with HTTP 429 and a {@code Retry-After} header
+     */
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<ErrorResponse> handleTooManyRequestsException(TooManyRequestsException exception) {
+        long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+
+        ResponseEntity<ErrorResponse> response = ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(new ErrorResponse("Too Many Requests", getExceptionMessage(exception)));
+
+        log.atWarn()
+                .setMessage("A client-side error occurred. Request rejected by admission control.")
+                .addKeyValue("status", HttpStatus.TOO_MANY_REQUESTS.value())
+                .addKeyValue("retryAfterSeconds", retryAfterSeconds)
+                .addKeyValue("detail", exception::getMessage)
+                .log();
+
+        return response;
+    }
+
+    /**
+     * Handles {@link FxUnavailableException} raised while a pair's recent FX failure is still cached.
+     *
+     * <p>Responds with HTTP 503 (Service Unavailable) and a {@code Retry-After} header in whole seconds
+     * until the cached failure expires, without the FX provider having been called.
+     *
+     * @param exception the FX unavailable exception
+     * @return a {@code ResponseEntity<ErrorResponse>} with HTTP 503 and a {@code Retry-After} header
+     */
+    @ExceptionHandler(FxUnavailableException.class)
+    public ResponseEntity<ErrorResponse> handleFxUnavailableException(FxUnavailableException exception) {
+        long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+
+        ResponseEntity<ErrorResponse> response = ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(new ErrorResponse("Service Unavailable", getExceptionMessage(exception)));
+
+        log.atWarn()
+                .setMessage("A server-side error occurred. FX failure answered from the negative cache.")
+                .addKeyValue("status", HttpStatus.SERVICE_UNAVAILABLE.value())
+                .addKeyValue("retryAfterSeconds", retryAfterSeconds)
+                .addKeyValue("detail", exception::getMessage)
+                .log();
+
+        return response;
+    }
+
     /**
      * Handles {@link ConstraintViolationException} raised by bean validation on method parameters.
      *
@@ -86,7 +147,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.BAD_REQUEST)
                 .body(new ErrorResponse("Bad Request", sb.toString()));
 
-        log.warn("A client-side validation error occurred. Constraint violation.", exception);
+        logHandled(Level.WARN, "A client-side validation error occurred. Constraint violation.", response, exception);
 
         return response;
     }
@@ -119,7 +180,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.BAD_REQUEST)
                 .body(new ErrorResponse("Bad Request", message));
 
-        log.warn("A client-side validation error occurred. Missing required value.", exception);
+        logHandled(Level.WARN, "A client-side validation error occurred. Missing required value.", response, exception);
 
         return response;
     }
@@ -140,7 +201,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.NOT_ACCEPTABLE)
                 .body(new ErrorResponse("Not Acceptable", message));
 
-        log.warn("A client-side validation error occurred. Not acceptable value.", exception);
+        logHandled(Level.WARN, "A client-side validation error occurred. Not acceptable value.", response, exception);
 
         return response;
     }
@@ -162,7 +223,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.METHOD_NOT_ALLOWED)
                 .body(new ErrorResponse("Method Not Allowed", message));
 
-        log.warn("A client-side error occurred. Method not allowed.", exception);
+        logHandled(Level.WARN, "A client-side error occurred. Method not allowed.", response, exception);
         return response;
     }
 
@@ -187,7 +248,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.UNPROCESSABLE_CONTENT)
                 .body(new ErrorResponse("Unprocessable Content", sb.toString()));
 
-        log.warn("A client-side validation error occurred. Unprocessable content.", exception);
+        logHandled(Level.WARN, "A client-side validation error occurred. Unprocessable content.", response, exception);
 
         return response;
     }
@@ -207,7 +268,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.BAD_REQUEST)
                 .body(new ErrorResponse("Bad Request", "Cannot parse request body. Malformed input received."));
 
-        log.warn("A client-side error occurred. Malformed input.", exception);
+        logHandled(Level.WARN, "A client-side error occurred. Malformed input.", response, exception);
 
         return response;
     }
@@ -227,7 +288,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.FORBIDDEN)
                 .body(new ErrorResponse("Forbidden", "Forbidden access to content."));
 
-        log.error("A client-side error occurred. Forbidden access.", exception);
+        logHandled(Level.ERROR, "A client-side error occurred. Forbidden access.", response, exception);
 
         return response;
     }
@@ -248,7 +309,7 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ErrorResponse("Internal Server Error", "A server-side error occurred. Please reach out to the application support team if this issue persists."));
 
-        log.error("A server-side error occurred. Unmanaged exception.", exception);
+        logHandled(Level.ERROR, "A server-side error occurred. Unmanaged exception.", response, exception);
 
         return response;
     }
@@ -266,11 +327,27 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.NOT_FOUND)
                 .body(new ErrorResponse("Not Found", "Requested content not found."));
 
-        log.warn("A server-side error occurred. Not-Found exception.", exception);
+        logHandled(Level.WARN, "A server-side error occurred. Not-Found exception.", response, exception);
 
         return response;
     }
 
+    /**
+     * Logs a handled exception with its status, type and message as key-value pairs. The stack trace is
+     * attached to server-side errors only, or to all of them at debug level; a client's mistake doesn't need
+     * one and rendering it on every rejected request is the most expensive part of the log line.
+     */
+    private static void logHandled(Level level, String message, ResponseEntity<?> response, Exception exception) {
+        HttpStatusCode status = response.getStatusCode();
+        log.atLevel(level)
+                .setMessage(message)
+                .addKeyValue("status", status.value())
+                .addKeyValue("error", exception.getClass().getSimpleName())
+                .addKeyValue("detail", exception::getMessage)
+                .setCause(status.is5xxServerError() || log.isDebugEnabled() ? exception : null)
+                .log();
+    }
+
     private String getExceptionMessage(final Exception e) {
         final String message = e.getMessage();
 
@@ -0,0 +1,17 @@
+package com.canyapan.sample.springbtpfxsample.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.UNPROCESSABLE_CONTENT, reason = "Unprocessable Content")
+public class FxPairUnsupportedException extends FxIntegrationException {
+
+    public FxPairUnsupportedException(String message) {
+        super(message);
+    }
+
+    public FxPairUnsupportedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.canyapan.sample.springbtpfxsample.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.NOT_FOUND, reason = "Not Found")
+public class FxRateMissingException extends FxIntegrationException {
+
+    public FxRateMissingException(String message) {
+        super(message);
+    }
+
+    public FxRateMissingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.canyapan.sample.springbtpfxsample.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.NOT_FOUND, reason = "Not Found")
+public class NotFoundException extends BaseException {
+
+    public NotFoundException(String message) {
+        super(message);
+    }
+
+}
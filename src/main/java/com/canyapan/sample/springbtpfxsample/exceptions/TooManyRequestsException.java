@@ -0,0 +1,20 @@
+package com.canyapan.sample.springbtpfxsample.exceptions;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.time.Duration;
+
+@Getter
+@ResponseStatus(value = HttpStatus.TOO_MANY_REQUESTS, reason = "Too Many Requests")
+public class TooManyRequestsException extends BaseException {
+
+    private final Duration retryAfter;
+
+    public TooManyRequestsException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+}
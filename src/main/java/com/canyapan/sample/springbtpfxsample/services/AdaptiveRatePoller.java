@@ -0,0 +1,253 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxPollingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the FX provider for each pair at an interval that follows how much the pair's rate moves.
+ *
+ * <p>Each pair keeps an exponentially weighted estimate of its variance per second from the log returns
+ * between polls. Treating the rate as a random walk, it moves by about {@code targetMove} within
+ * {@code (targetMove / σ)²} seconds, which becomes the pair's interval, bounded by {@code minInterval} and
+ * {@code maxInterval}. A pair whose rate doesn't move drifts to {@code maxInterval}; a volatile one is
+ * polled down to every {@code minInterval}.
+ *
+ * <p>All pairs share one budget of {@code requestsPerMinute}: polls are paced evenly and the most overdue
+ * pair goes next, so when the budget is tight every pair is delayed by the same amount rather than the
+ * stable pairs taking requests from the volatile ones. A polled rate is written to S/4HANA only when it
+ * differs from the last one written. With several instances each polls only the pairs it owns by
+ * {@link PairOwnership}, and unowned pairs don't take from the budget.
+ *
+ * <p>Without {@code pairs} configured, every pair of the currencies the {@link CurrencyRegistry} accepts at
+ * startup is polled. A pair with a currency the registry no longer accepts is skipped like an unowned one
+ * until it is accepted again.
+ */
+@Slf4j
+@Component
+public class AdaptiveRatePoller implements SmartLifecycle {
+
+    private static final double SMOOTHING = 0.3;
+
+    private final FxPollingProperties properties;
+    private final FxClient fxClient;
+    private final S4HanaClient s4HanaClient;
+    private final RateFreshnessTracker freshnessTracker;
+    private final PairOwnership pairOwnership;
+    private final CurrencyRegistry currencyRegistry;
+    private final List<PairState> pairs = new ArrayList<>();
+
+    private final Counter changed;
+    private final Counter unchanged;
+    private final Counter failures;
+
+    private volatile boolean running;
+    private Thread poller;
+
+    public AdaptiveRatePoller(
+            FxPollingProperties properties,
+            FxClient fxClient,
+            S4HanaClient s4HanaClient,
+            RateFreshnessTracker freshnessTracker,
+            PairOwnership pairOwnership,
+            MeterRegistry meterRegistry,
+            CurrencyRegistry currencyRegistry) {
+
+        this.properties = properties;
+        this.fxClient = fxClient;
+        this.s4HanaClient = s4HanaClient;
+        this.freshnessTracker = freshnessTracker;
+        this.pairOwnership = pairOwnership;
+        this.currencyRegistry = currencyRegistry;
+
+        Set<String> keys = new TreeSet<>(properties.pairs());
+        if (keys.isEmpty()) {
+            Set<String> currencies = currencyRegistry.getCurrencies();
+            for (String base : currencies) {
+                for (String target : currencies) {
+                    if (!base.equals(target)) {
+                        keys.add(base + "/" + target);
+                    }
+                }
+            }
+        }
+        for (String key : keys) {
+            String[] currencies = key.split("/");
+            if (currencies.length != 2) {
+                throw new IllegalStateException("fx.polling.pairs must be given as BASE/TARGET, got '%s'.".formatted(key));
+            }
+            PairState pair = new PairState(currencies[0], currencies[1], properties.minInterval().toNanos());
+            pairs.add(pair);
+            Gauge.builder("fx.polling.interval", pair, p -> p.intervalNanos / 1e9)
+                    .tag("pair", key)
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+
+        this.changed = meterRegistry.counter("fx.polling.polls", "outcome", "changed");
+        this.unchanged = meterRegistry.counter("fx.polling.polls", "outcome", "unchanged");
+        this.failures = meterRegistry.counter("fx.polling.polls", "outcome", "failure");
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled() || pairs.isEmpty()) {
+            return;
+        }
+
+        running = true;
+        poller = Thread.ofVirtual().name("fx-adaptive-poller").start(this::pollLoop);
+        log.info("Adaptive FX polling started for {} pairs within {} requests per minute.", pairs.size(), properties.requestsPerMinute());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (null != poller) {
+            poller.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void pollLoop() {
+        long budgetIntervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, properties.requestsPerMinute());
+        PriorityQueue<PairState> due = new PriorityQueue<>(Comparator.comparingLong((PairState p) -> p.nextPollAt));
+        long now = System.nanoTime();
+        for (PairState pair : pairs) {
+            pair.nextPollAt = now;
+            due.add(pair);
+        }
+
+        long nextRequestAt = now;
+        while (running) {
+            PairState pair = due.poll();
+            try {
+                sleepUntil(pair.nextPollAt);
+                if (!currencyRegistry.contains(pair.base) || !currencyRegistry.contains(pair.target)
+                        || !pairOwnership.owns(pair.base, pair.target)) {
+                    // Not accepted right now or another instance polls it; look again later.
+                    pair.nextPollAt = System.nanoTime() + pair.intervalNanos;
+                    due.add(pair);
+                    continue;
+                }
+                sleepUntil(nextRequestAt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            nextRequestAt = Math.max(nextRequestAt, System.nanoTime()) + budgetIntervalNanos;
+
+            poll(pair);
+            pair.nextPollAt = System.nanoTime() + pair.intervalNanos;
+            due.add(pair);
+        }
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long wait = nanoTime - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    void poll(PairState pair) {
+        try {
+            FxClient.ExchangeRate rate = fxClient.fetchExchangeRate(pair.base, pair.target);
+            freshnessTracker.recordFetched(rate);
+            observe(pair, rate.getMid(), System.nanoTime());
+
+            if (null != pair.lastWrittenMid && pair.lastWrittenMid.compareTo(rate.getMid()) == 0) {
+                unchanged.increment();
+                return;
+            }
+            s4HanaClient.sendExchangeRate(rate);
+            pair.lastWrittenMid = rate.getMid();
+            changed.increment();
+        } catch (RuntimeException e) {
+            failures.increment();
+            log.warn("Polling {}/{} failed, polling again in {} s.", pair.base, pair.target, pair.intervalNanos / 1_000_000_000, e);
+        }
+    }
+
+    /**
+     * Updates the pair's volatility with the observed rate and derives its next interval.
+     */
+    void observe(PairState pair, BigDecimal mid, long observedAt) {
+        if (null != pair.lastMid && pair.lastMid.signum() > 0 && mid.signum() > 0) {
+            double logReturn = Math.log(mid.doubleValue() / pair.lastMid.doubleValue());
+            double seconds = Math.max(1, (observedAt - pair.lastObservedAt) / 1e9);
+            double sample = logReturn * logReturn / seconds;
+            pair.variancePerSecond = pair.variancePerSecond < 0
+                    ? sample
+                    : pair.variancePerSecond + SMOOTHING * (sample - pair.variancePerSecond);
+        }
+        pair.lastMid = mid;
+        pair.lastObservedAt = observedAt;
+        pair.intervalNanos = intervalNanos(pair.variancePerSecond);
+    }
+
+    long intervalNanos(double variancePerSecond) {
+        long min = properties.minInterval().toNanos();
+        long max = properties.maxInterval().toNanos();
+        if (variancePerSecond < 0) {
+            return min;
+        }
+        if (variancePerSecond == 0) {
+            return max;
+        }
+        double seconds = properties.targetMove() * properties.targetMove() / variancePerSecond;
+        return (long) Math.clamp(seconds * 1e9, min, max);
+    }
+
+    List<PairState> getPairs() {
+        return pairs;
+    }
+
+    static final class PairState {
+
+        private final String base;
+        private final String target;
+        // Only the poller thread writes these; the gauge may read a slightly old interval.
+        private volatile long intervalNanos;
+        private double variancePerSecond = -1;
+        private BigDecimal lastMid;
+        private long lastObservedAt;
+        private BigDecimal lastWrittenMid;
+        private long nextPollAt;
+
+        PairState(String base, String target, long intervalNanos) {
+            this.base = base;
+            this.target = target;
+            this.intervalNanos = intervalNanos;
+        }
+
+        String getBase() {
+            return base;
+        }
+
+        String getTarget() {
+            return target;
+        }
+
+        long getIntervalNanos() {
+            return intervalNanos;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import java.util.Set;
+
+/**
+ * The instances currently sharing the scheduled syncs, as seen by this instance.
+ */
+public interface ClusterMembership {
+
+    /**
+     * This instance's id, one of {@link #members()} while it takes part.
+     */
+    String self();
+
+    /**
+     * The ids of all instances taking part right now.
+     */
+    Set<String> members();
+}
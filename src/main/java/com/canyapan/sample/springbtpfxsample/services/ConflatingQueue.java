@@ -0,0 +1,62 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A queue that keeps only the newest value per key while that key is waiting to be taken.
+ *
+ * <p>Keys are handed out in the order they first became pending; a value offered for a key that is
+ * already pending replaces the older value in place and is counted as conflated. Memory is bounded by
+ * the number of distinct keys, not by the offer rate.
+ */
+public final class ConflatingQueue<K, V> {
+
+    private final Map<K, V> latest = new ConcurrentHashMap<>();
+    private final BlockingQueue<K> order = new LinkedBlockingQueue<>();
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+
+    /**
+     * Offers the value for the key. Returns {@code false} when it replaced a pending value of the key.
+     */
+    public boolean offer(K key, V value) {
+        offered.increment();
+        if (null == latest.put(key, value)) {
+            order.add(key);
+            return true;
+        }
+        conflated.increment();
+        return false;
+    }
+
+    /**
+     * Waits up to the given timeout for a pending key and returns its newest value, or {@code null}.
+     */
+    public Entry<K, V> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        K key = order.poll(timeout, unit);
+        if (null == key) {
+            return null;
+        }
+        return new Entry<>(key, latest.remove(key));
+    }
+
+    public int pending() {
+        return order.size();
+    }
+
+    public long getOffered() {
+        return offered.sum();
+    }
+
+    public long getConflated() {
+        return conflated.sum();
+    }
+
+    public record Entry<K, V>(K key, V value) {
+    }
+}
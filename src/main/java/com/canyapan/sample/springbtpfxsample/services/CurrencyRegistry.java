@@ -0,0 +1,139 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.CurrencyRegistryProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The currencies the API accepts right now.
+ *
+ * <p>They are the currencies the FX provider supports, limited to {@code fx.api.allowed-currencies} when that
+ * is set, less {@code fx.currencies.denied}. The supported currencies are loaded at startup and again every
+ * {@code refresh.interval}; until the first load succeeds, or with refresh disabled, the allowed currencies are
+ * taken as supported. A failed load keeps the currencies of the last one, and so does a load that would leave
+ * no currency accepted, as a provider returning an empty list is far more likely broken than out of currencies.
+ *
+ * <p>Each load publishes a new immutable set through a volatile field, so {@link #contains(String)} never
+ * locks and always sees one complete set.
+ */
+@Slf4j
+@Component
+public class CurrencyRegistry implements SmartLifecycle {
+
+    private final CurrencyRegistryProperties properties;
+    private final FxClient fxClient;
+    private final Set<String> allowed;
+
+    private final Counter refreshes;
+    private final Counter refreshFailures;
+
+    private volatile Set<String> accepted;
+    private volatile boolean running;
+    private Thread refresher;
+
+    public CurrencyRegistry(
+            CurrencyRegistryProperties properties,
+            FxClient fxClient,
+            MeterRegistry meterRegistry,
+            @Value("${fx.api.allowed-currencies:}") Set<String> allowedCurrencies) {
+
+        this.properties = properties;
+        this.fxClient = fxClient;
+        this.allowed = Set.copyOf(allowedCurrencies);
+        this.accepted = accept(allowed);
+
+        Gauge.builder("fx.currencies.accepted", this, registry -> registry.accepted.size())
+                .register(meterRegistry);
+        this.refreshes = meterRegistry.counter("fx.currencies.refreshes", "outcome", "success");
+        this.refreshFailures = meterRegistry.counter("fx.currencies.refreshes", "outcome", "failure");
+    }
+
+    public boolean contains(String currency) {
+        return null != currency && accepted.contains(currency);
+    }
+
+    public Set<String> getCurrencies() {
+        return accepted;
+    }
+
+    /**
+     * Loads the supported currencies from the FX provider and publishes the accepted ones.
+     */
+    public Set<String> refresh() {
+        try {
+            Set<String> supported = fxClient.fetchCurrencies(properties.refresh().path());
+            Set<String> current = accept(allowed.isEmpty() ? supported : intersect(allowed, supported));
+            if (current.isEmpty()) {
+                throw new FxIntegrationException("The FX provider returned no accepted currency among %s.".formatted(new TreeSet<>(supported)));
+            }
+            if (!current.equals(accepted)) {
+                log.info("Accepted currencies changed from {} to {}.", new TreeSet<>(accepted), new TreeSet<>(current));
+            }
+            accepted = current;
+            refreshes.increment();
+            return current;
+        } catch (RuntimeException e) {
+            refreshFailures.increment();
+            throw e;
+        }
+    }
+
+    private Set<String> accept(Set<String> currencies) {
+        Set<String> result = new HashSet<>(currencies);
+        result.removeAll(properties.denied());
+        return Set.copyOf(result);
+    }
+
+    private static Set<String> intersect(Set<String> a, Set<String> b) {
+        Set<String> result = new HashSet<>(a);
+        result.retainAll(b);
+        return result;
+    }
+
+    @Override
+    public void start() {
+        if (!properties.refresh().enabled()) {
+            return;
+        }
+
+        running = true;
+        refresher = Thread.ofVirtual().name("currency-registry").start(() -> {
+            while (running) {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    log.warn("Supported currencies couldn't be loaded, keeping {}.", new TreeSet<>(accepted), e);
+                }
+                try {
+                    Thread.sleep(properties.refresh().interval());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (null != refresher) {
+            refresher.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,174 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.DestinationProperties;
+import com.sap.cloud.sdk.cloudplatform.connectivity.ApacheHttpClient5Accessor;
+import com.sap.cloud.sdk.cloudplatform.connectivity.DestinationAccessor;
+import com.sap.cloud.sdk.cloudplatform.connectivity.Header;
+import com.sap.cloud.sdk.cloudplatform.connectivity.HttpDestination;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP clients for BTP destinations, looked up through the SAP Cloud SDK.
+ *
+ * <p>The SDK resolves a destination, including the auth tokens of OAuth destinations, with a call to the
+ * destination service, and its HTTP client adds the destination's URL and auth headers to every request.
+ * Doing that per request would add a remote call to each of them, so a looked-up destination and the
+ * request factory over its HTTP client are kept and reused. Once a destination is older than
+ * {@code refreshAfter} it is looked up again in the background while requests still use the current one;
+ * only past {@code maxAge} does a request wait for the lookup. When the destination carries a bearer token,
+ * both are shortened to fit it: the destination isn't used within {@value #TOKEN_EXPIRY_MARGIN_SECONDS}
+ * seconds, or a tenth of its lifetime, of the token's expiry, and is refreshed halfway there. A request the
+ * destination answers with 401 is sent once more through a destination looked up again.
+ */
+@Slf4j
+@Component
+public class DestinationClients {
+
+    static final long TOKEN_EXPIRY_MARGIN_SECONDS = 30;
+
+    private static final Pattern JWT_EXPIRY = Pattern.compile("\"exp\"\\s*:\\s*(\\d+)");
+
+    private final DestinationProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public DestinationClients(DestinationProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * A request factory sending requests through the destination. Requests need paths relative to the
+     * destination URL; the destination's HTTP client prepends it.
+     */
+    public ClientHttpRequestFactory requestFactory(String destinationName) {
+        return (uri, httpMethod) -> current(destinationName).createRequest(uri, httpMethod);
+    }
+
+    /**
+     * Drops the destination once it answers 401 and sends the request once more through the destination
+     * looked up again, with fresh auth tokens. A second 401 is handed to the caller.
+     */
+    public ClientHttpRequestInterceptor invalidateOnUnauthorized(String destinationName) {
+        return (request, body, execution) -> {
+            ClientHttpResponse response = execution.execute(request, body);
+            if (!response.getStatusCode().isSameCodeAs(HttpStatus.UNAUTHORIZED)) {
+                return response;
+            }
+
+            log.debug("Destination {} answered 401, retrying through the destination looked up again.", destinationName);
+            entries.remove(destinationName);
+            response.close();
+            return execution.execute(request, body);
+        };
+    }
+
+    ClientHttpRequestFactory current(String destinationName) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(destinationName);
+
+        if (null == entry || now - entry.expiresAt >= 0) {
+            entry = entries.compute(destinationName, (name, existing) ->
+                    null != existing && System.nanoTime() - existing.expiresAt < 0
+                            ? existing
+                            : load(name, "load"));
+        } else if (now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("destination-refresh-" + destinationName).start(() -> {
+                try {
+                    entries.put(destinationName, load(destinationName, "refresh"));
+                } catch (RuntimeException e) {
+                    log.warn("Destination {} couldn't be refreshed, still using the one looked up before.", destinationName, e);
+                }
+            });
+        }
+        return entry.requestFactory;
+    }
+
+    private Entry load(String destinationName, String kind) {
+        HttpDestination destination = DestinationAccessor.getDestination(destinationName).asHttp();
+        // The SDK keeps one HTTP client, and with it the connection pool, per destination.
+        HttpComponentsClientHttpRequestFactory requestFactory =
+                new HttpComponentsClientHttpRequestFactory(ApacheHttpClient5Accessor.getHttpClient(destination));
+
+        Counter.builder("destinations.lookups")
+                .tag("destination", destinationName)
+                .tag("kind", kind)
+                .register(meterRegistry)
+                .increment();
+
+        long maxAge = properties.maxAge().toNanos();
+        long refreshAfter = properties.refreshAfter().toNanos();
+        Optional<Instant> tokenExpiry = tokenExpiry(destination);
+        if (tokenExpiry.isPresent()) {
+            long lifetime = Math.max(0, Duration.between(Instant.now(), tokenExpiry.get()).toNanos());
+            long usable = lifetime - Math.min(TimeUnit.SECONDS.toNanos(TOKEN_EXPIRY_MARGIN_SECONDS), lifetime / 10);
+            maxAge = Math.min(maxAge, usable);
+            refreshAfter = Math.min(refreshAfter, maxAge / 2);
+        }
+        log.debug("Destination {} looked up at {}, token expires at {}.", destinationName, destination.getUri(),
+                tokenExpiry.map(Instant::toString).orElse("-"));
+
+        long now = System.nanoTime();
+        return new Entry(requestFactory, now + refreshAfter, now + maxAge);
+    }
+
+    /**
+     * The expiry of the bearer token the destination sends, read from the token itself.
+     */
+    static Optional<Instant> tokenExpiry(HttpDestination destination) {
+        try {
+            for (Header header : destination.getHeaders()) {
+                if (!"Authorization".equalsIgnoreCase(header.getName()) || null == header.getValue()
+                        || !header.getValue().regionMatches(true, 0, "Bearer ", 0, 7)) {
+                    continue;
+                }
+                String[] parts = header.getValue().substring(7).trim().split("\\.");
+                if (parts.length < 2) {
+                    continue;
+                }
+                Matcher matcher = JWT_EXPIRY.matcher(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+                if (matcher.find()) {
+                    return Optional.of(Instant.ofEpochSecond(Long.parseLong(matcher.group(1))));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.debug("Token expiry of destination {} couldn't be read, using the configured ages.", destination.getUri(), e);
+        }
+        return Optional.empty();
+    }
+
+    private static final class Entry {
+
+        private final ClientHttpRequestFactory requestFactory;
+        // System.nanoTime() deadlines.
+        private final long refreshAt;
+        private final long expiresAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(ClientHttpRequestFactory requestFactory, long refreshAt, long expiresAt) {
+            this.requestFactory = requestFactory;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,18 +1,44 @@
 package com.canyapan.sample.springbtpfxsample.services;
 
+import com.canyapan.sample.springbtpfxsample.exceptions.S4IntegrationException;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletionException;
+
 @Service
 @RequiredArgsConstructor
 public class ExchangeRateService {
 
-    private final FxClient fxClient;
+    private final FxRateCache fxRateCache;
     private final S4HanaClient s4HanaClient;
+    private final S4WriteBehindBuffer s4WriteBehindBuffer;
+    private final RateFreshnessTracker freshnessTracker;
+
+    /**
+     * Fetches the latest rate of the pair and writes it to the S/4HANA of the tenant. Returns the rate fetched
+     * and whether it was served from the cache. The {@link RateSyncedEvent} is published by {@link S4HanaClient}
+     * once the rate is written.
+     */
+    public FxRateCache.Served updateRate(String tenant, String base, String target) {
+        FxRateCache.Served served = fxRateCache.fetchExchangeRate(base, target);
+        FxClient.ExchangeRate er = served.rate();
+        freshnessTracker.recordFetched(er);
+
+        if (!s4WriteBehindBuffer.isEnabled()) {
+            s4HanaClient.sendExchangeRate(tenant, er);
+            return served;
+        }
 
-    public void updateRate(String base, String target) {
-        FxClient.ExchangeRate er = fxClient.fetchExchangeRate(base, target);
-        s4HanaClient.sendExchangeRate(er);
+        try {
+            s4WriteBehindBuffer.submit(tenant, er).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof S4IntegrationException s4) {
+                throw s4;
+            }
+            throw new S4IntegrationException("Exchange rate couldn't be updated on S/4HANA", e.getCause());
+        }
+        return served;
     }
 
 }
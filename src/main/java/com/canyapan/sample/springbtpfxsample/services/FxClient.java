@@ -1,47 +1,152 @@
 package com.canyapan.sample.springbtpfxsample.services;
 
+import com.canyapan.sample.springbtpfxsample.configs.FxNegativeCacheProperties;
 import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxRateMissingException;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
 
 @Service
-@RequiredArgsConstructor
-public class FxClient {
+public class FxClient implements FxRateProvider {
 
+    public static final String PRIMARY = "primary";
+
+    private static final String LATEST = "latest";
+
+    /**
+     * Statuses the provider answers for a currency it doesn't know, or for a day it has no rate of.
+     */
+    private static final Set<Integer> UNSUPPORTED = Set.of(400, 404, 422);
+
+    private final String name;
     private final RestClient fxRestClient;
+    private final FxNegativeCache negativeCache;
+
+    @Autowired
+    public FxClient(RestClient fxRestClient, FxNegativeCacheProperties negativeCache, MeterRegistry meterRegistry) {
+        this(PRIMARY, fxRestClient, new FxNegativeCache(PRIMARY, negativeCache, meterRegistry));
+    }
+
+    public FxClient(String name, RestClient fxRestClient, FxNegativeCache negativeCache) {
+        this.name = name;
+        this.fxRestClient = fxRestClient;
+        this.negativeCache = negativeCache;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
 
+    /**
+     * Fetches the latest rate. A pair that failed recently is answered from {@link FxNegativeCache} without
+     * asking the provider.
+     */
+    @Override
     public ExchangeRate fetchExchangeRate(String base, String target) {
+        return negativeCache.fetch(base, target, () -> fetch(base, target, LATEST));
+    }
+
+    /**
+     * Fetches the rate that was valid on the given day. Historical rates aren't negatively cached; a missing
+     * day says nothing about the pair. A day the provider has no rate of, such as a weekend or a holiday,
+     * throws {@link FxRateMissingException}.
+     */
+    public ExchangeRate fetchExchangeRate(String base, String target, LocalDate date) {
+        return fetch(base, target, date.format(DateTimeFormatter.ISO_DATE));
+    }
+
+    /**
+     * Fetches the codes of the currencies the provider has rates for from the given path.
+     */
+    public Set<String> fetchCurrencies(String path) {
+        try {
+            CurrenciesResponse response = fxRestClient.get()
+                    .uri(path)
+                    .retrieve()
+                    .body(CurrenciesResponse.class);
+
+            if (null == response || null == response.getStatusCode()) {
+                throw new FxIntegrationException("Failed to fetch currencies due to null response from Fx service.");
+            }
+
+            if (!response.getStatusCode().equals(200)) {
+                throw new FxIntegrationException("Failed to fetch currencies due to non-success response from Fx service.");
+            }
+
+            if (null == response.getData()) {
+                throw new FxIntegrationException("Failed to fetch currencies due to null response from Fx service.");
+            }
+
+            return Set.copyOf(response.getData());
+
+        } catch (Exception e) {
+            throw new FxIntegrationException("Failed to fetch currencies.", e);
+        }
+    }
+
+    private ExchangeRate fetch(String base, String target, String date) {
         try {
             ResponseEntity<Response> entity = fxRestClient.get()
-                    .uri("/rates/{base}/{target}/latest", base, target)
+                    .uri("/rates/{base}/{target}/{date}", base, target, date)
                     .retrieve()
                     .toEntity(Response.class);
 
             Response response = entity.getBody();
 
-            if (null == response || null == response.getStatusCode() || null == response.getData()) {
+            if (null == response || null == response.getStatusCode()) {
                 throw new FxIntegrationException("Failed to fetch fx rates due to null response from Fx service.");
             }
 
+            // An error body carries its status but no data.
+            if (UNSUPPORTED.contains(response.getStatusCode())) {
+                throw unsupported(base, target, date, null);
+            }
+
             if (!response.getStatusCode().equals(200)) {
                 throw new FxIntegrationException("Failed to fetch fx rates due to non-success response from Fx service.");
             }
 
+            if (null == response.getData()) {
+                throw new FxIntegrationException("Failed to fetch fx rates due to null response from Fx service.");
+            }
+
             return response.getData();
 
+        } catch (FxPairUnsupportedException | FxRateMissingException e) {
+            throw e;
+        } catch (HttpClientErrorException e) {
+            if (UNSUPPORTED.contains(e.getStatusCode().value())) {
+                throw unsupported(base, target, date, e);
+            }
+            throw new FxIntegrationException("Failed to fetch fx rates.", e);
         } catch (Exception e) {
             throw new FxIntegrationException("Failed to fetch fx rates.", e);
         }
 
     }
 
+    private static FxIntegrationException unsupported(String base, String target, String date, Throwable cause) {
+        if (LATEST.equals(date)) {
+            return new FxPairUnsupportedException("%s/%s isn't supported by the FX provider.".formatted(base, target), cause);
+        }
+        return new FxRateMissingException("The FX provider has no %s/%s rate of %s.".formatted(base, target, date), cause);
+    }
+
     @Data
     public static class Response {
 
@@ -51,6 +156,15 @@ public class FxClient {
         private ExchangeRate data;
     }
 
+    @Data
+    public static class CurrenciesResponse {
+
+        @JsonProperty("status_code")
+        private Integer statusCode;
+
+        private List<String> data;
+    }
+
     @Data
     public static class ExchangeRate {
 
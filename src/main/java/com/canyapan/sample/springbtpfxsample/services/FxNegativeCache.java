@@ -0,0 +1,100 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxNegativeCacheProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the pairs an FX provider failed for, and answers them with the failure for a while instead of
+ * asking the provider again.
+ *
+ * <p>A pair the provider rejected as unsupported is cached for {@code unsupportedTtl} and answered with
+ * {@link FxPairUnsupportedException}; any other failure for {@code transientTtl} and answered with
+ * {@link FxUnavailableException} carrying the time left. Every further failure of a pair doubles its TTL up to
+ * {@code maxTtl}. A success forgets the pair, and a pair that failed again only after its entry had been
+ * expired for {@code maxTtl} starts over.
+ */
+public class FxNegativeCache {
+
+    private final FxNegativeCacheProperties properties;
+    private final Clock clock;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Counter unsupportedHits;
+    private final Counter transientHits;
+
+    public FxNegativeCache(String provider, FxNegativeCacheProperties properties, MeterRegistry meterRegistry) {
+        this(provider, properties, meterRegistry, Clock.systemUTC());
+    }
+
+    FxNegativeCache(String provider, FxNegativeCacheProperties properties, MeterRegistry meterRegistry, Clock clock) {
+        this.properties = properties;
+        this.clock = clock;
+
+        Gauge.builder("fx.negative-cache.entries", entries, Map::size)
+                .tag("provider", provider)
+                .register(meterRegistry);
+        this.unsupportedHits = meterRegistry.counter("fx.negative-cache.hits", "provider", provider, "kind", "unsupported");
+        this.transientHits = meterRegistry.counter("fx.negative-cache.hits", "provider", provider, "kind", "transient");
+    }
+
+    /**
+     * Answers from the cache while the pair's failure is cached, otherwise fetches and caches a failure.
+     */
+    public FxClient.ExchangeRate fetch(String base, String target, Supplier<FxClient.ExchangeRate> fetch) {
+        if (!properties.enabled()) {
+            return fetch.get();
+        }
+
+        String pair = base + "/" + target;
+        Instant now = clock.instant();
+        Entry cached = entries.get(pair);
+        if (null != cached && now.isBefore(cached.until())) {
+            Duration left = Duration.between(now, cached.until());
+            if (cached.unsupported()) {
+                unsupportedHits.increment();
+                throw new FxPairUnsupportedException("%s isn't supported by the FX provider, asking again in %d s."
+                        .formatted(pair, left.toSeconds()));
+            }
+            transientHits.increment();
+            throw new FxUnavailableException("FX provider failed for %s %d times in a row, asking again in %d s."
+                    .formatted(pair, cached.strikes(), left.toSeconds()), left);
+        }
+
+        try {
+            FxClient.ExchangeRate rate = fetch.get();
+            if (null != cached) {
+                entries.remove(pair);
+            }
+            return rate;
+        } catch (RuntimeException e) {
+            boolean unsupported = e instanceof FxPairUnsupportedException;
+            // Strikes only add up while failures follow each other closely.
+            int strikes = null == cached || cached.unsupported() != unsupported
+                    || now.isAfter(cached.until().plus(properties.maxTtl())) ? 1 : cached.strikes() + 1;
+            entries.put(pair, new Entry(unsupported, strikes, now.plus(ttl(unsupported, strikes))));
+            throw e;
+        }
+    }
+
+    Duration ttl(boolean unsupported, int strikes) {
+        Duration ttl = unsupported ? properties.unsupportedTtl() : properties.transientTtl();
+        for (int i = 1; i < strikes && ttl.compareTo(properties.maxTtl()) < 0; i++) {
+            ttl = ttl.multipliedBy(2);
+        }
+        return ttl.compareTo(properties.maxTtl()) > 0 ? properties.maxTtl() : ttl;
+    }
+
+    private record Entry(boolean unsupported, int strikes, Instant until) {
+    }
+}
@@ -0,0 +1,300 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxHttpCacheProperties;
+import com.canyapan.sample.springbtpfxsample.configs.FxNegativeCacheProperties;
+import com.canyapan.sample.springbtpfxsample.configs.FxSourcingProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Sources an FX rate from one or more {@link FxRateProvider}s using the configured
+ * {@link FxSourcingProperties.Strategy}.
+ *
+ * <p>Providers are queried in parallel on virtual threads for {@code FIRST_RESPONSE} and {@code MEDIAN},
+ * and one at a time for {@code PRIMARY_WITH_FALLBACK}, each call bounded by what is left of
+ * {@code timeout}. Latency and error rate of every provider are tracked as moving averages; the resulting
+ * weight orders the fallback chain. The median is the middle quote, every provider counting the same, so
+ * it isn't pulled towards the fastest one. With a single provider the call is made directly on the caller
+ * thread.
+ */
+@Slf4j
+@Service
+public class FxRateAggregator implements DisposableBean {
+
+    private final List<TrackedProvider> providers;
+    private final FxSourcingProperties properties;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Autowired
+    public FxRateAggregator(
+            FxClient fxClient,
+            RestClient.Builder builder,
+            FxSourcingProperties properties,
+            FxNegativeCacheProperties negativeCache,
+            FxHttpCacheProperties httpCache,
+            HttpCompressionInterceptor fxCompressionInterceptor,
+            MeterRegistry meterRegistry) {
+        this(Stream.concat(
+                        Stream.of(fxClient),
+                        properties.providers().stream().map(p -> new FxClient(p.name(), builder.clone()
+                                .baseUrl(p.baseUrl())
+                                .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                                .requestInterceptor(new HttpResponseCache(p.name(), httpCache, meterRegistry))
+                                .requestInterceptor(fxCompressionInterceptor)
+                                .build(), new FxNegativeCache(p.name(), negativeCache, meterRegistry))))
+                .toList(), properties);
+    }
+
+    FxRateAggregator(List<? extends FxRateProvider> providers, FxSourcingProperties properties) {
+        if (providers.isEmpty()) {
+            throw new IllegalArgumentException("At least one FX rate provider is required.");
+        }
+        this.providers = providers.stream().map(p -> new TrackedProvider(p, new ProviderStats())).toList();
+        this.properties = properties;
+    }
+
+    public FxClient.ExchangeRate fetchExchangeRate(String base, String target) {
+        if (providers.size() == 1) {
+            return call(providers.getFirst(), base, target);
+        }
+
+        return switch (properties.strategy()) {
+            case FIRST_RESPONSE -> firstResponse(base, target);
+            case MEDIAN -> median(base, target);
+            case PRIMARY_WITH_FALLBACK -> primaryWithFallback(base, target);
+        };
+    }
+
+    public List<ProviderSnapshot> getProviderStats() {
+        return providers.stream().map(p -> p.stats().snapshot(p.provider().getName())).toList();
+    }
+
+    private FxClient.ExchangeRate primaryWithFallback(String base, String target) {
+        long deadline = System.nanoTime() + properties.timeout().toNanos();
+
+        List<TrackedProvider> chain = new ArrayList<>(providers.size());
+        chain.add(providers.getFirst());
+        providers.stream().skip(1)
+                .sorted(Comparator.comparingDouble((TrackedProvider p) -> p.stats().weight()).reversed())
+                .forEach(chain::add);
+
+        List<Throwable> failures = new ArrayList<>();
+        for (TrackedProvider provider : chain) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                // A hung provider would otherwise hold the caller past the timeout, its socket read isn't interruptible.
+                return CompletableFuture.supplyAsync(() -> call(provider, base, target), executor)
+                        .orTimeout(remaining, TimeUnit.NANOSECONDS)
+                        .get();
+            } catch (ExecutionException e) {
+                log.warn("FX provider {} failed for {}/{}, trying the next one.", provider.provider().getName(), base, target);
+                failures.add(e.getCause() instanceof TimeoutException
+                        ? new FxIntegrationException("FX provider %s didn't answer within %s.".formatted(provider.provider().getName(), properties.timeout()), e.getCause())
+                        : e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FxIntegrationException("Interrupted while fetching fx rates.", e);
+            }
+        }
+
+        throw allFailed(failures);
+    }
+
+    private FxClient.ExchangeRate firstResponse(String base, String target) {
+        CompletableFuture<FxClient.ExchangeRate> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(providers.size());
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        for (TrackedProvider provider : providers) {
+            CompletableFuture.supplyAsync(() -> call(provider, base, target), executor)
+                    .whenComplete((rate, error) -> {
+                        if (null == error) {
+                            winner.complete(rate);
+                        } else {
+                            failures.add(error);
+                            if (pending.decrementAndGet() == 0) {
+                                winner.completeExceptionally(allFailed(failures));
+                            }
+                        }
+                    });
+        }
+
+        return await(winner, properties.timeout().toNanos());
+    }
+
+    private FxClient.ExchangeRate median(String base, String target) {
+        long deadline = System.nanoTime() + properties.timeout().toNanos();
+
+        List<FxClient.ExchangeRate> quotes = new CopyOnWriteArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(providers.size());
+        CompletableFuture<Void> anyQuote = new CompletableFuture<>();
+
+        for (TrackedProvider provider : providers) {
+            CompletableFuture.supplyAsync(() -> call(provider, base, target), executor)
+                    .whenComplete((rate, error) -> {
+                        if (null == error && null != rate && null != rate.getMid()) {
+                            quotes.add(rate);
+                            anyQuote.complete(null);
+                        } else {
+                            failures.add(null == error ? new FxIntegrationException("FX provider returned no rate.") : error);
+                        }
+                        done.countDown();
+                        if (done.getCount() == 0 && quotes.isEmpty()) {
+                            anyQuote.completeExceptionally(allFailed(failures));
+                        }
+                    });
+        }
+
+        try {
+            done.await(Math.min(properties.window().toNanos(), properties.timeout().toNanos()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FxIntegrationException("Interrupted while fetching fx rates.", e);
+        }
+
+        if (quotes.isEmpty()) {
+            // Nothing arrived within the window; settle for the first quote within the overall timeout.
+            await(anyQuote, deadline - System.nanoTime());
+        }
+
+        return median(List.copyOf(quotes));
+    }
+
+    /**
+     * The middle quote by mid rate, the lower of the two middle ones for an even count, so the result is
+     * always a rate one of the providers actually quoted.
+     */
+    static FxClient.ExchangeRate median(List<FxClient.ExchangeRate> quotes) {
+        List<FxClient.ExchangeRate> sorted = quotes.stream().sorted(Comparator.comparing(FxClient.ExchangeRate::getMid)).toList();
+        return sorted.get((sorted.size() - 1) / 2);
+    }
+
+    private FxClient.ExchangeRate call(TrackedProvider provider, String base, String target) {
+        long start = System.nanoTime();
+        try {
+            FxClient.ExchangeRate rate = provider.provider().fetchExchangeRate(base, target);
+            provider.stats().record(System.nanoTime() - start, true);
+            return rate;
+        } catch (RuntimeException e) {
+            provider.stats().record(System.nanoTime() - start, false);
+            throw e;
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future, long timeoutNanos) {
+        try {
+            return future.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new FxIntegrationException("Failed to fetch fx rates within %s.".formatted(properties.timeout()), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FxIntegrationException fx) {
+                throw fx;
+            }
+            throw new FxIntegrationException("Failed to fetch fx rates.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FxIntegrationException("Interrupted while fetching fx rates.", e);
+        }
+    }
+
+    /**
+     * The failure of the whole call: unsupported when every provider rejected the pair, unavailable with the
+     * soonest retry when every provider is backing off, otherwise an integration failure.
+     */
+    private static FxIntegrationException allFailed(List<Throwable> failures) {
+        List<Throwable> causes = failures.stream()
+                .map(f -> f instanceof CompletionException && null != f.getCause() ? f.getCause() : f)
+                .toList();
+        Throwable last = causes.isEmpty() ? null : causes.getLast();
+
+        FxIntegrationException exception;
+        if (!causes.isEmpty() && causes.stream().allMatch(FxPairUnsupportedException.class::isInstance)) {
+            exception = new FxPairUnsupportedException("No FX provider supports the pair.", last);
+        } else if (!causes.isEmpty() && causes.stream().allMatch(FxUnavailableException.class::isInstance)) {
+            Duration retryAfter = causes.stream()
+                    .map(c -> ((FxUnavailableException) c).getRetryAfter())
+                    .min(Comparator.naturalOrder())
+                    .orElseThrow();
+            exception = new FxUnavailableException("No FX provider is available, asking again in %d s."
+                    .formatted(retryAfter.toSeconds()), retryAfter, last);
+        } else {
+            exception = new FxIntegrationException("Failed to fetch fx rates from any provider.", last);
+        }
+        causes.stream().limit(Math.max(0, causes.size() - 1)).forEach(exception::addSuppressed);
+        return exception;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private record TrackedProvider(FxRateProvider provider, ProviderStats stats) {
+    }
+
+    public record ProviderSnapshot(String name, long calls, long failures, double latencyMillis, double errorRate, double weight) {
+    }
+
+    /**
+     * Exponentially weighted moving averages of a provider's latency and error rate.
+     */
+    static final class ProviderStats {
+
+        private static final double ALPHA = 0.2;
+
+        private long calls;
+        private long failures;
+        private double latencyMillis;
+        private double errorRate;
+
+        synchronized void record(long elapsedNanos, boolean success) {
+            double millis = elapsedNanos / 1e6;
+            latencyMillis = calls == 0 ? millis : latencyMillis + ALPHA * (millis - latencyMillis);
+            errorRate = errorRate + ALPHA * ((success ? 0 : 1) - errorRate);
+            calls++;
+            if (!success) {
+                failures++;
+            }
+        }
+
+        /**
+         * Higher is better: fast providers that rarely fail. Untried providers get the benefit of the doubt.
+         */
+        synchronized double weight() {
+            return Math.max(0.01, 1 - errorRate) / Math.max(1, latencyMillis);
+        }
+
+        synchronized ProviderSnapshot snapshot(String name) {
+            return new ProviderSnapshot(String.valueOf(name), calls, failures, latencyMillis, errorRate, weight());
+        }
+    }
+}
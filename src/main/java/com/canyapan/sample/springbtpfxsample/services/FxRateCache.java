@@ -0,0 +1,187 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxRateCacheProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Serves FX rates stale-while-revalidate in front of {@link FxRateAggregator}.
+ *
+ * <p>A rate fetched within {@code staleWhileRevalidate} is returned right away and fetched again in the
+ * background, at most one refresh per pair at a time, so a slow provider delays the refresh but not the
+ * caller. An older rate is fetched on the caller thread as without the cache. When that fetch fails, a rate
+ * fetched within {@code staleIfError} is returned instead of the failure, except for pairs the provider
+ * rejected as unsupported. Ages are taken from when this instance fetched the rate, not the rate's
+ * timestamp, which only moves as often as the provider publishes.
+ */
+@Slf4j
+@Service
+public class FxRateCache {
+
+    private final FxRateAggregator fxRateAggregator;
+    private final FxRateCacheProperties properties;
+    private final Clock clock;
+    private final Executor refresher;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final Map<Freshness, Counter> served = new EnumMap<>(Freshness.class);
+    private final DistributionSummary staleness;
+    private final Counter refreshSuccesses;
+    private final Counter refreshFailures;
+
+    @Autowired
+    public FxRateCache(FxRateAggregator fxRateAggregator, FxRateCacheProperties properties, MeterRegistry meterRegistry) {
+        this(fxRateAggregator, properties, meterRegistry, Clock.systemUTC(),
+                task -> Thread.ofVirtual().name("fx-cache-refresh").start(task));
+    }
+
+    FxRateCache(FxRateAggregator fxRateAggregator, FxRateCacheProperties properties, MeterRegistry meterRegistry,
+                Clock clock, Executor refresher) {
+        this.fxRateAggregator = fxRateAggregator;
+        this.properties = properties;
+        this.clock = clock;
+        this.refresher = refresher;
+
+        for (Freshness freshness : Freshness.values()) {
+            served.put(freshness, meterRegistry.counter("fx.cache.served", "freshness", freshness.getTag()));
+        }
+        this.staleness = DistributionSummary.builder("fx.cache.staleness")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.refreshSuccesses = meterRegistry.counter("fx.cache.refreshes", "outcome", "success");
+        this.refreshFailures = meterRegistry.counter("fx.cache.refreshes", "outcome", "failure");
+    }
+
+    public Served fetchExchangeRate(String base, String target) {
+        if (!properties.enabled()) {
+            return serve(new Served(fxRateAggregator.fetchExchangeRate(base, target), Freshness.FRESH, Duration.ZERO));
+        }
+
+        String pair = base + "/" + target;
+        Entry cached = entries.get(pair);
+        if (null != cached) {
+            Duration age = Duration.between(cached.fetchedAt(), clock.instant());
+            if (age.compareTo(properties.staleWhileRevalidate()) < 0) {
+                revalidate(pair, base, target);
+                return serve(new Served(cached.rate(), Freshness.STALE, age));
+            }
+        }
+
+        try {
+            return serve(new Served(fetch(pair, base, target), Freshness.FRESH, Duration.ZERO));
+        } catch (FxPairUnsupportedException e) {
+            entries.remove(pair);
+            throw e;
+        } catch (RuntimeException e) {
+            if (null != cached) {
+                Duration age = Duration.between(cached.fetchedAt(), clock.instant());
+                if (age.compareTo(properties.staleIfError()) < 0) {
+                    log.warn("Fetching {} failed, serving the rate fetched {} s ago.", pair, age.toSeconds(), e);
+                    return serve(new Served(cached.rate(), Freshness.STALE_IF_ERROR, age));
+                }
+            }
+            throw e;
+        }
+    }
+
+    private FxClient.ExchangeRate fetch(String pair, String base, String target) {
+        FxClient.ExchangeRate rate = fxRateAggregator.fetchExchangeRate(base, target);
+        entries.put(pair, new Entry(rate, clock.instant()));
+        return rate;
+    }
+
+    private void revalidate(String pair, String base, String target) {
+        if (!refreshing.add(pair)) {
+            return;
+        }
+
+        refresher.execute(() -> {
+            try {
+                fetch(pair, base, target);
+                refreshSuccesses.increment();
+            } catch (RuntimeException e) {
+                // The cached rate ages into the stale-if-error window, where the next caller fetches it again.
+                refreshFailures.increment();
+                log.warn("Refreshing {} in the background failed.", pair, e);
+            } finally {
+                refreshing.remove(pair);
+            }
+        });
+    }
+
+    /**
+     * The cached rates with when they were fetched.
+     */
+    List<Entry> entries() {
+        return entries.values().stream()
+                .sorted(Comparator.comparing(entry -> key(entry.rate())))
+                .toList();
+    }
+
+    /**
+     * Takes over a rate an earlier run fetched, aged from when it was fetched then; a rate fetched since is kept.
+     * One past {@code staleIfError} would never be served and is dropped.
+     */
+    void restore(Entry entry) {
+        if (!properties.enabled()
+                || Duration.between(entry.fetchedAt(), clock.instant()).compareTo(properties.staleIfError()) >= 0) {
+            return;
+        }
+        entries.merge(key(entry.rate()), entry,
+                (current, candidate) -> current.fetchedAt().isBefore(candidate.fetchedAt()) ? candidate : current);
+    }
+
+    private static String key(FxClient.ExchangeRate rate) {
+        return rate.getBase() + "/" + rate.getTarget();
+    }
+
+    private Served serve(Served result) {
+        served.get(result.freshness()).increment();
+        if (result.freshness() != Freshness.FRESH) {
+            staleness.record(result.age().toMillis() / 1000.0);
+        }
+        return result;
+    }
+
+    /**
+     * A rate as served, with how long ago it was fetched. The age is zero for fresh rates.
+     */
+    public record Served(FxClient.ExchangeRate rate, Freshness freshness, Duration age) {
+    }
+
+    public enum Freshness {
+        FRESH("fresh"),
+        STALE("stale"),
+        STALE_IF_ERROR("stale-if-error");
+
+        private final String tag;
+
+        Freshness(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    record Entry(FxClient.ExchangeRate rate, Instant fetchedAt) {
+    }
+}
@@ -0,0 +1,13 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+/**
+ * A source of FX rates. {@link FxClient} is the HTTP implementation; several instances of it can be
+ * combined by {@link FxRateAggregator} to source a rate from more than one provider.
+ */
+public interface FxRateProvider {
+
+    String getName();
+
+    FxClient.ExchangeRate fetchExchangeRate(String base, String target);
+
+}
@@ -0,0 +1,279 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxStreamProperties;
+import com.canyapan.sample.springbtpfxsample.configs.S4TenancyProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Consumes a server-sent events feed of FX ticks and pushes the newest rate of every accepted pair to
+ * S/4HANA at a bounded rate.
+ *
+ * <p>Ticks are conflated per pair in a {@link ConflatingQueue}: while a pair waits for its push, newer
+ * ticks replace the pending one, so S/4 only ever sees the latest rate and the backlog is bounded by the
+ * number of pairs. Dropped connections are re-established with exponential backoff and resumed from the
+ * last seen event id via {@code Last-Event-ID}.
+ *
+ * <p>Rates are written to the default S/4 tenant on {@code sap.s4.base-url} only, so the ingestor refuses to
+ * start while {@code sap.s4.tenants} routes calls per tenant.
+ */
+@Slf4j
+@Component
+public class FxStreamIngestor implements SmartLifecycle {
+
+    private final FxStreamProperties properties;
+    private final S4TenancyProperties tenancyProperties;
+    private final RestClient fxStreamRestClient;
+    private final S4HanaClient s4HanaClient;
+    private final RateFreshnessTracker freshnessTracker;
+    private final JsonMapper jsonMapper;
+    private final CurrencyRegistry currencyRegistry;
+    private final ConflatingQueue<String, FxClient.ExchangeRate> queue = new ConflatingQueue<>();
+
+    private final Counter reconnects;
+    private final Counter pushSuccesses;
+    private final Counter pushFailures;
+    private final Timer lag;
+
+    private volatile boolean running;
+    private volatile String lastEventId;
+    private volatile InputStream currentStream;
+    private Thread reader;
+    private Thread pusher;
+
+    public FxStreamIngestor(
+            FxStreamProperties properties,
+            S4TenancyProperties tenancyProperties,
+            RestClient fxStreamRestClient,
+            S4HanaClient s4HanaClient,
+            RateFreshnessTracker freshnessTracker,
+            JsonMapper jsonMapper,
+            MeterRegistry meterRegistry,
+            CurrencyRegistry currencyRegistry) {
+
+        this.properties = properties;
+        this.tenancyProperties = tenancyProperties;
+        this.fxStreamRestClient = fxStreamRestClient;
+        this.s4HanaClient = s4HanaClient;
+        this.freshnessTracker = freshnessTracker;
+        this.jsonMapper = jsonMapper;
+        this.currencyRegistry = currencyRegistry;
+
+        FunctionCounter.builder("fx.stream.ticks", queue, ConflatingQueue::getOffered)
+                .description("FX ticks received for accepted pairs")
+                .register(meterRegistry);
+        FunctionCounter.builder("fx.stream.ticks.conflated", queue, ConflatingQueue::getConflated)
+                .description("FX ticks replaced by a newer tick before they were pushed")
+                .register(meterRegistry);
+        Gauge.builder("fx.stream.conflation.ratio", queue, q -> q.getOffered() == 0 ? 0 : (double) q.getConflated() / q.getOffered())
+                .register(meterRegistry);
+        Gauge.builder("fx.stream.pending", queue, ConflatingQueue::pending)
+                .register(meterRegistry);
+
+        this.reconnects = meterRegistry.counter("fx.stream.reconnects");
+        this.pushSuccesses = meterRegistry.counter("fx.stream.pushes", "outcome", "success");
+        this.pushFailures = meterRegistry.counter("fx.stream.pushes", "outcome", "failure");
+        this.lag = Timer.builder("fx.stream.lag")
+                .description("Time from tick timestamp until the rate was written to S/4HANA")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled()) {
+            return;
+        }
+        if (null == properties.url() || properties.url().isBlank()) {
+            throw new IllegalStateException("fx.stream.url must be set when fx.stream.enabled is true.");
+        }
+        if (tenancyProperties.enabled()) {
+            throw new IllegalStateException("fx.stream.enabled can't be combined with sap.s4.tenants.enabled, the stream only writes to sap.s4.base-url.");
+        }
+
+        running = true;
+        reader = Thread.ofVirtual().name("fx-stream-reader").start(this::readLoop);
+        pusher = Thread.ofVirtual().name("fx-stream-pusher").start(this::pushLoop);
+        log.info("FX stream ingestion started from {}", properties.url());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        closeQuietly(currentStream);
+        if (null != reader) {
+            reader.interrupt();
+        }
+        if (null != pusher) {
+            pusher.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void readLoop() {
+        Duration backoff = properties.initialBackoff();
+
+        while (running) {
+            try {
+                if (consume()) {
+                    backoff = properties.initialBackoff();
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("FX stream connection failed, reconnecting in {}.", backoff, e);
+            }
+
+            if (!running) {
+                return;
+            }
+            reconnects.increment();
+            LockSupport.parkNanos(backoff.toNanos());
+            backoff = backoff.multipliedBy(2).compareTo(properties.maxBackoff()) > 0 ? properties.maxBackoff() : backoff.multipliedBy(2);
+        }
+    }
+
+    private boolean consume() {
+        return Boolean.TRUE.equals(fxStreamRestClient.get()
+                .uri(properties.url())
+                .headers(headers -> {
+                    if (null != lastEventId) {
+                        headers.set("Last-Event-ID", lastEventId);
+                    }
+                })
+                .exchange((request, response) -> {
+                    if (!response.getStatusCode().is2xxSuccessful()) {
+                        throw new FxIntegrationException("FX stream responded with " + response.getStatusCode() + ".");
+                    }
+                    return readEvents(response.getBody());
+                }));
+    }
+
+    /**
+     * Reads server-sent events until the stream ends and reports whether any event was received.
+     */
+    private boolean readEvents(InputStream body) throws IOException {
+        currentStream = body;
+        boolean received = false;
+        String id = null;
+        StringBuilder data = new StringBuilder();
+
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while (running && null != (line = lines.readLine())) {
+                if (line.isEmpty()) {
+                    if (!data.isEmpty()) {
+                        onEvent(id, data.toString());
+                        received = true;
+                    }
+                    id = null;
+                    data.setLength(0);
+                } else if (line.startsWith("id:")) {
+                    id = line.substring(3).trim();
+                } else if (line.startsWith("data:")) {
+                    if (!data.isEmpty()) {
+                        data.append('\n');
+                    }
+                    data.append(line.substring(5).trim());
+                }
+                // "event:", "retry:" and ":" comments are not used by the feed.
+            }
+        } finally {
+            currentStream = null;
+        }
+        return received;
+    }
+
+    private void onEvent(String id, String data) {
+        if (null != id) {
+            lastEventId = id;
+        }
+
+        FxClient.ExchangeRate tick;
+        try {
+            tick = jsonMapper.readValue(data, FxClient.ExchangeRate.class);
+        } catch (RuntimeException e) {
+            log.warn("Skipping malformed FX stream event {}.", id, e);
+            return;
+        }
+
+        if (null == tick.getBase() || null == tick.getTarget() || null == tick.getMid() || null == tick.getTimestamp()
+                || !currencyRegistry.contains(tick.getBase()) || !currencyRegistry.contains(tick.getTarget())) {
+            return;
+        }
+
+        freshnessTracker.recordFetched(tick);
+        queue.offer(tick.getBase() + "/" + tick.getTarget(), tick);
+    }
+
+    private void pushLoop() {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, properties.maxPushesPerSecond());
+        long next = System.nanoTime();
+
+        while (running) {
+            try {
+                ConflatingQueue.Entry<String, FxClient.ExchangeRate> entry = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == entry) {
+                    continue;
+                }
+
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                next = Math.max(next, System.nanoTime()) + intervalNanos;
+
+                push(entry.value());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void push(FxClient.ExchangeRate rate) {
+        try {
+            s4HanaClient.sendExchangeRate(rate);
+            pushSuccesses.increment();
+            lag.record(Duration.between(rate.getTimestamp().toInstant(), Instant.now()));
+        } catch (RuntimeException e) {
+            pushFailures.increment();
+            log.warn("Streamed exchange rate {}/{} couldn't be pushed to S/4HANA.", rate.getBase(), rate.getTarget(), e);
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (null == stream) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+            // The reader is shutting down anyway.
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.HttpCompressionProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Asks for gzip or deflate compressed responses and decodes them, optionally gzips request bodies, and
+ * measures the bytes sent and received.
+ *
+ * <p>Brotli isn't offered: the JDK has no decoder for it. The underlying HTTP client mustn't decode
+ * responses itself, or the body arrives here decoded and both sizes are the same; Apache HttpClient's
+ * decoding is turned off in {@code RestClientConfig}, the JDK client has none. Clients of a BTP destination
+ * are built by the SAP Cloud SDK, which keeps its own decoding, so for them only the decoded size is known.
+ * Request bodies are only gzipped when {@code compressRequests} is set for the client and the body is at
+ * least {@code minRequestSize}.
+ */
+public class HttpCompressionInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private final HttpCompressionProperties properties;
+    private final boolean compressRequests;
+
+    private final DistributionSummary sent;
+    private final DistributionSummary sentDecoded;
+    private final DistributionSummary received;
+    private final DistributionSummary receivedDecoded;
+
+    public HttpCompressionInterceptor(String client, HttpCompressionProperties properties, boolean compressRequests,
+                                      MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.compressRequests = compressRequests;
+        this.sent = bytes("http.client.bytes", client, "sent", meterRegistry);
+        this.sentDecoded = bytes("http.client.bytes.decoded", client, "sent", meterRegistry);
+        this.received = bytes("http.client.bytes", client, "received", meterRegistry);
+        this.receivedDecoded = bytes("http.client.bytes.decoded", client, "received", meterRegistry);
+    }
+
+    private static DistributionSummary bytes(String name, String client, String direction, MeterRegistry meterRegistry) {
+        return DistributionSummary.builder(name)
+                .tag("client", client)
+                .tag("direction", direction)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        byte[] wireBody = body;
+        if (properties.enabled()) {
+            HttpHeaders headers = request.getHeaders();
+            if (!headers.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+                headers.set(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+            }
+            if (compressRequests && body.length >= properties.minRequestSize().toBytes()
+                    && !headers.containsHeader(HttpHeaders.CONTENT_ENCODING)) {
+                wireBody = gzip(body);
+                headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+        }
+        if (body.length > 0) {
+            sent.record(wireBody.length);
+            sentDecoded.record(body.length);
+        }
+
+        HttpStatusCode statusCode;
+        String statusText;
+        HttpHeaders headers = new HttpHeaders();
+        byte[] wire;
+        try (ClientHttpResponse response = execution.execute(request, wireBody)) {
+            statusCode = response.getStatusCode();
+            statusText = response.getStatusText();
+            headers.putAll(response.getHeaders());
+            wire = response.getBody().readAllBytes();
+        }
+
+        byte[] decoded = wire;
+        String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (wire.length > 0 && null != encoding) {
+            decoded = switch (encoding.trim().toLowerCase()) {
+                case "gzip", "x-gzip" -> decode(new GZIPInputStream(new ByteArrayInputStream(wire)));
+                case "deflate" -> decode(new InflaterInputStream(new ByteArrayInputStream(wire)));
+                default -> wire;
+            };
+            if (decoded != wire) {
+                headers.remove(HttpHeaders.CONTENT_ENCODING);
+                headers.setContentLength(decoded.length);
+            }
+        }
+        received.record(wire.length);
+        receivedDecoded.record(decoded.length);
+
+        return new BufferedClientHttpResponse(statusCode, statusText, headers, decoded);
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxHttpCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A private HTTP cache for the GET requests of an FX provider.
+ *
+ * <p>A {@code 200} response carrying an {@code ETag}, a {@code Last-Modified} or a {@code max-age} is kept
+ * by its URI, unless it says {@code no-store}. While its {@code max-age}, less its {@code Age}, lasts it is
+ * answered without a request; afterwards, or at once with {@code no-cache}, the request is sent with
+ * {@code If-None-Match} and {@code If-Modified-Since}, and a {@code 304} answers with the kept body and
+ * renews its freshness. At most {@code maxEntries} responses are kept, the least recently used are dropped
+ * first.
+ */
+public class HttpResponseCache implements ClientHttpRequestInterceptor {
+
+    private final FxHttpCacheProperties properties;
+    private final Clock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final Counter hits;
+    private final Counter revalidations;
+    private final Counter misses;
+
+    public HttpResponseCache(String provider, FxHttpCacheProperties properties, MeterRegistry meterRegistry) {
+        this(provider, properties, meterRegistry, Clock.systemUTC());
+    }
+
+    HttpResponseCache(String provider, FxHttpCacheProperties properties, MeterRegistry meterRegistry, Clock clock) {
+        this.properties = properties;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > properties.maxEntries();
+            }
+        };
+
+        Gauge.builder("fx.http-cache.entries", this, HttpResponseCache::size)
+                .tag("provider", provider)
+                .register(meterRegistry);
+        this.hits = meterRegistry.counter("fx.http-cache.requests", "provider", provider, "outcome", "hit");
+        this.revalidations = meterRegistry.counter("fx.http-cache.requests", "provider", provider, "outcome", "revalidated");
+        this.misses = meterRegistry.counter("fx.http-cache.requests", "provider", provider, "outcome", "miss");
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if (!properties.enabled() || !HttpMethod.GET.equals(request.getMethod())) {
+            return execution.execute(request, body);
+        }
+
+        String key = request.getURI().toString();
+        Entry cached = get(key);
+        Instant now = clock.instant();
+        if (null != cached) {
+            if (now.isBefore(cached.freshUntil())) {
+                hits.increment();
+                return cached.response();
+            }
+            if (null != cached.etag()) {
+                request.getHeaders().setIfNoneMatch(cached.etag());
+            }
+            if (null != cached.lastModified()) {
+                request.getHeaders().set(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified());
+            }
+        }
+
+        ClientHttpResponse response = execution.execute(request, body);
+        if (null != cached && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+            HttpHeaders headers = response.getHeaders();
+            response.close();
+            String etag = headers.getETag();
+            Entry revalidated = new Entry(cached.headers(), cached.body(),
+                    null != etag ? etag : cached.etag(), cached.lastModified(), freshUntil(headers, now));
+            put(key, revalidated);
+            revalidations.increment();
+            return revalidated.response();
+        }
+
+        misses.increment();
+        if (!response.getStatusCode().isSameCodeAs(HttpStatus.OK)) {
+            return response;
+        }
+
+        HttpHeaders headers = copy(response.getHeaders());
+        String cacheControl = null == headers.getCacheControl() ? "" : headers.getCacheControl().toLowerCase();
+        String etag = headers.getETag();
+        String lastModified = headers.getFirst(HttpHeaders.LAST_MODIFIED);
+        if (cacheControl.contains("no-store") || (null == etag && null == lastModified && maxAge(cacheControl) <= 0)) {
+            if (null != cached) {
+                remove(key);
+            }
+            return response;
+        }
+
+        byte[] content;
+        try (response) {
+            content = response.getBody().readAllBytes();
+        }
+        Entry entry = new Entry(headers, content, etag, lastModified, freshUntil(headers, now));
+        put(key, entry);
+        return entry.response();
+    }
+
+    private static Instant freshUntil(HttpHeaders headers, Instant now) {
+        String cacheControl = null == headers.getCacheControl() ? "" : headers.getCacheControl().toLowerCase();
+        if (cacheControl.contains("no-cache")) {
+            return now;
+        }
+        long age = 0;
+        String ageHeader = headers.getFirst(HttpHeaders.AGE);
+        if (null != ageHeader) {
+            try {
+                age = Long.parseLong(ageHeader.trim());
+            } catch (NumberFormatException e) {
+                // An unreadable Age counts as none.
+            }
+        }
+        return now.plusSeconds(Math.max(0, maxAge(cacheControl) - age));
+    }
+
+    private static long maxAge(String cacheControl) {
+        for (String directive : cacheControl.split(",")) {
+            String d = directive.trim();
+            if (d.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(d.substring("max-age=".length()).replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private Entry get(String key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        lock.lock();
+        try {
+            entries.put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String key) {
+        lock.lock();
+        try {
+            entries.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A copy down to the value lists, so changing it leaves the original alone.
+     */
+    private static HttpHeaders copy(HttpHeaders headers) {
+        HttpHeaders copy = new HttpHeaders();
+        headers.forEach(copy::addAll);
+        return copy;
+    }
+
+    private record Entry(HttpHeaders headers, byte[] body, String etag, String lastModified, Instant freshUntil) {
+
+        /**
+         * The cached response with headers of its own, as callers such as {@link HttpCompressionInterceptor}
+         * change them.
+         */
+        ClientHttpResponse response() {
+            return new BufferedClientHttpResponse(HttpStatus.OK, HttpStatus.OK.getReasonPhrase(), copy(headers), body);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Membership kept in a {@link Registry} in this JVM.
+ *
+ * <p>On Cloud Foundry every instance fills its own registry with the indexes {@code 0..instanceCount-1}, so
+ * all instances agree on the members without talking to each other. Several nodes sharing one registry
+ * simulate instances coming and going within one process.
+ */
+public class InMemoryClusterMembership implements ClusterMembership {
+
+    private final Registry registry;
+    private final String self;
+
+    public InMemoryClusterMembership(Registry registry, String self) {
+        this.registry = registry;
+        this.self = self;
+    }
+
+    @Override
+    public String self() {
+        return self;
+    }
+
+    @Override
+    public Set<String> members() {
+        return Set.copyOf(registry.members);
+    }
+
+    public static final class Registry {
+
+        private final Set<String> members = new ConcurrentSkipListSet<>();
+
+        public void join(String member) {
+            members.add(member);
+        }
+
+        public void leave(String member) {
+            members.remove(member);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.ClusterProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Decides which instance syncs a pair on schedule, so that the pollers and the watchdog on several instances
+ * split the pairs instead of each doing all of them. Requests to the API are served for any pair by any instance.
+ *
+ * <p>Pairs are placed on a consistent-hash ring with {@code virtualNodes} points per member. When a member
+ * joins or leaves only the pairs next to its points move, the others keep their owner. The ring is rebuilt
+ * on the first call after {@link ClusterMembership#members()} changed; an instance that isn't a member owns
+ * nothing, and with {@code cluster.enabled} off every instance owns every pair.
+ */
+@Slf4j
+@Component
+public class PairOwnership {
+
+    private final ClusterProperties properties;
+    private final ClusterMembership membership;
+    private final Counter rebalances;
+
+    private volatile Ring ring = new Ring(Set.of(), new TreeMap<>());
+
+    public PairOwnership(ClusterProperties properties, ClusterMembership membership, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.membership = membership;
+        this.rebalances = meterRegistry.counter("cluster.rebalances");
+    }
+
+    public boolean owns(String base, String target) {
+        if (!properties.enabled()) {
+            return true;
+        }
+        return membership.self().equals(owner(base, target));
+    }
+
+    /**
+     * The member owning the pair, or {@code null} when there are no members.
+     */
+    public String owner(String base, String target) {
+        NavigableMap<Long, String> points = ring().points;
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(base + "/" + target));
+        return (null == point ? points.firstEntry() : point).getValue();
+    }
+
+    private Ring ring() {
+        Set<String> members = membership.members();
+        Ring current = ring;
+        if (current.members.equals(members)) {
+            return current;
+        }
+
+        NavigableMap<Long, String> points = new TreeMap<>();
+        for (String member : members) {
+            for (int i = 0; i < properties.virtualNodes(); i++) {
+                points.put(hash(member + "#" + i), member);
+            }
+        }
+        Ring rebuilt = new Ring(members, points);
+        ring = rebuilt;
+        rebalances.increment();
+        log.info("Cluster members changed to {}, pairs rebalanced.", members);
+        return rebuilt;
+    }
+
+    /**
+     * 64-bit FNV-1a with a final avalanche, stable across JVMs unlike {@link String#hashCode()}.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private record Ring(Set<String> members, NavigableMap<Long, String> points) {
+    }
+}
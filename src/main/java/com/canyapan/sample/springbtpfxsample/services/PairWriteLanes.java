@@ -0,0 +1,109 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps the writes of each pair to S/4HANA in order, while writes of different pairs run in parallel.
+ *
+ * <p>Every tenant and pair has its own lane, and a write holds its lane until S/4 answered. The lane remembers
+ * the newest timestamp written through it for each validity date; a rate with an older timestamp than that of
+ * its date is dropped instead of overwriting the newer one on S/4. Each date is tracked on its own, so a late
+ * rate of yesterday is still checked against yesterday's newest after today's first rate went through. Only
+ * the {@value #DATES_PER_LANE} latest dates are kept; a rate for a date older than all of them, such as a
+ * backfilled day, is written to its own S/4 entry and passes. Lanes are {@link ReentrantLock}s so that a
+ * virtual thread waiting on S/4 inside one doesn't pin its carrier.
+ */
+@Component
+public class PairWriteLanes {
+
+    static final int DATES_PER_LANE = 4;
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Counter stale;
+
+    public PairWriteLanes(MeterRegistry meterRegistry) {
+        this.stale = Counter.builder("s4.writes.stale")
+                .description("Rates dropped because a newer rate of the same pair and date was written already")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Writes the rate in its pair's lane unless it is stale. Returns whether it was written.
+     */
+    public boolean write(String tenant, FxClient.ExchangeRate exchangeRate, Consumer<FxClient.ExchangeRate> write) {
+        return !writeAll(tenant, List.of(exchangeRate), rates -> {
+            write.accept(rates.getFirst());
+            return rates;
+        }).isEmpty();
+    }
+
+    /**
+     * Writes the rates that aren't stale together, holding the lanes of all their pairs. {@code write} returns
+     * the rates S/4 took, only those advance their lanes. Returns the rates written.
+     */
+    public List<FxClient.ExchangeRate> writeAll(String tenant, List<FxClient.ExchangeRate> exchangeRates,
+                                                Function<List<FxClient.ExchangeRate>, List<FxClient.ExchangeRate>> write) {
+        // Locked in key order, so writes sharing pairs can't wait on each other in a circle.
+        TreeMap<String, Lane> held = new TreeMap<>();
+        for (FxClient.ExchangeRate exchangeRate : exchangeRates) {
+            String key = tenant + "/" + exchangeRate.getBase() + "/" + exchangeRate.getTarget();
+            held.computeIfAbsent(key, k -> lanes.computeIfAbsent(k, x -> new Lane()));
+        }
+        held.values().forEach(lane -> lane.lock.lock());
+        try {
+            List<FxClient.ExchangeRate> fresh = new ArrayList<>(exchangeRates.size());
+            for (FxClient.ExchangeRate exchangeRate : exchangeRates) {
+                if (lane(held, tenant, exchangeRate).isStale(exchangeRate)) {
+                    stale.increment();
+                } else {
+                    fresh.add(exchangeRate);
+                }
+            }
+            if (fresh.isEmpty()) {
+                return fresh;
+            }
+
+            List<FxClient.ExchangeRate> written = write.apply(fresh);
+            written.forEach(exchangeRate -> lane(held, tenant, exchangeRate).advance(exchangeRate));
+            return written;
+        } finally {
+            held.descendingMap().values().forEach(lane -> lane.lock.unlock());
+        }
+    }
+
+    private static Lane lane(Map<String, Lane> held, String tenant, FxClient.ExchangeRate exchangeRate) {
+        return held.get(tenant + "/" + exchangeRate.getBase() + "/" + exchangeRate.getTarget());
+    }
+
+    private static final class Lane {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // Guarded by lock. Validity date to the epoch millis of the newest rate written for it.
+        private final TreeMap<LocalDate, Long> newestAt = new TreeMap<>();
+
+        private boolean isStale(FxClient.ExchangeRate exchangeRate) {
+            Long newest = newestAt.get(exchangeRate.getTimestamp().toLocalDate());
+            return null != newest && exchangeRate.getTimestamp().toInstant().toEpochMilli() < newest;
+        }
+
+        private void advance(FxClient.ExchangeRate exchangeRate) {
+            newestAt.merge(exchangeRate.getTimestamp().toLocalDate(),
+                    exchangeRate.getTimestamp().toInstant().toEpochMilli(), Math::max);
+            while (newestAt.size() > DATES_PER_LANE) {
+                newestAt.pollFirstEntry();
+            }
+        }
+    }
+}
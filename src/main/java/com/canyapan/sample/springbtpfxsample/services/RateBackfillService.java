@@ -0,0 +1,406 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxBackfillProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxRateMissingException;
+import com.canyapan.sample.springbtpfxsample.exceptions.ValidationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Loads daily rates of a past date range into S/4HANA.
+ *
+ * <p>The range is split into chunks of {@code chunkDays} consecutive days. Chunks are fetched in parallel,
+ * bounded by {@code parallelism} across all running backfills, and every fetched chunk is written right
+ * away in {@code $batch}es of up to {@code batchSize} rates. Chunks finish out of order, so the last day
+ * before the first unfinished chunk is recorded in a checkpoint file; a backfill that failed or was cut
+ * short by a restart continues after that day when it is started again, or at startup when
+ * {@code resumeOnStartup} is set. Days the provider has no rate of, weekends and holidays, are skipped and
+ * listed in the status; they don't hold the checkpoint back.
+ *
+ * <p>A backfill writes to the S/4 tenant it was started for, which is part of its id and its checkpoint, and
+ * only that tenant sees its status. The status of a finished backfill is kept for {@code retention}.
+ */
+@Slf4j
+@Service
+public class RateBackfillService implements SmartLifecycle {
+
+    private final FxClient fxClient;
+    private final S4HanaClient s4HanaClient;
+    private final FxBackfillProperties properties;
+    private final Clock clock;
+    private final Semaphore fetchSlots;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+
+    @Autowired
+    public RateBackfillService(FxClient fxClient, S4HanaClient s4HanaClient, FxBackfillProperties properties) {
+        this(fxClient, s4HanaClient, properties, Clock.systemUTC());
+    }
+
+    RateBackfillService(FxClient fxClient, S4HanaClient s4HanaClient, FxBackfillProperties properties, Clock clock) {
+        this.fxClient = fxClient;
+        this.s4HanaClient = s4HanaClient;
+        this.properties = properties;
+        this.clock = clock;
+        this.fetchSlots = new Semaphore(Math.max(1, properties.parallelism()));
+    }
+
+    /**
+     * Starts the backfill of the given range on the default S/4HANA tenant, see {@link #start(String, String, String, LocalDate, LocalDate)}.
+     */
+    public BackfillStatus start(String base, String target, LocalDate from, LocalDate to) {
+        return start(S4TenantClients.DEFAULT, base, target, from, to);
+    }
+
+    /**
+     * Starts the backfill of the given range on the tenant's S/4HANA, or returns the one that is already
+     * running for it.
+     */
+    public synchronized BackfillStatus start(String tenant, String base, String target, LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new ValidationException("Backfill range is empty, 'from' %s is after 'to' %s.".formatted(from, to));
+        }
+        if (!to.isBefore(LocalDate.now(ZoneOffset.UTC))) {
+            throw new ValidationException("Backfill range must end before today, 'to' is %s.".formatted(to));
+        }
+        if (ChronoUnit.DAYS.between(from, to) + 1 > properties.maxDays()) {
+            throw new ValidationException("Backfill range exceeds %d days.".formatted(properties.maxDays()));
+        }
+
+        // The default tenant keeps the ids of backfills from before tenancy, so their checkpoints still resume.
+        String id = (S4TenantClients.DEFAULT.equals(tenant) ? "" : tenant + "-") + "%s-%s-%s-%s".formatted(base, target, from, to);
+        forgetExpired();
+        Job existing = jobs.get(id);
+        if (null != existing && existing.status == Status.RUNNING) {
+            return existing.snapshot();
+        }
+
+        Job job = new Job(id, tenant, base, target, from, to, clock.instant());
+        jobs.put(id, job);
+        executor.execute(() -> run(job));
+        return job.snapshot();
+    }
+
+    public Optional<BackfillStatus> getStatus(String id) {
+        return getStatus(S4TenantClients.DEFAULT, id);
+    }
+
+    /**
+     * The status of the tenant's backfill, empty as well if the backfill belongs to another tenant.
+     */
+    public Optional<BackfillStatus> getStatus(String tenant, String id) {
+        forgetExpired();
+        return Optional.ofNullable(jobs.get(id))
+                .filter(job -> job.tenant.equals(tenant))
+                .map(Job::snapshot);
+    }
+
+    /**
+     * Drops the backfills that finished more than {@code retention} ago. Jobs are only added by starting one,
+     * so doing this on every start keeps them bounded.
+     */
+    private void forgetExpired() {
+        Instant cutoff = clock.instant().minus(properties.retention());
+        jobs.values().removeIf(job -> job.finishedBefore(cutoff));
+    }
+
+    private void run(Job job) {
+        try {
+            LocalDate resumeFrom = readCheckpoint(job.id)
+                    .map(checkpoint -> LocalDate.parse(checkpoint.getProperty("completedThrough")))
+                    .map(completedThrough -> completedThrough.plusDays(1))
+                    .filter(day -> day.isAfter(job.from))
+                    .orElse(job.from);
+            job.resumed(resumeFrom);
+            if (resumeFrom.isAfter(job.to)) {
+                job.finish(Status.COMPLETED, null, clock.instant());
+                return;
+            }
+            log.info("Backfill {} started from {}.", job.id, resumeFrom);
+
+            List<CompletableFuture<Void>> chunks = new ArrayList<>();
+            for (LocalDate start = resumeFrom; !start.isAfter(job.to); start = start.plusDays(properties.chunkDays())) {
+                LocalDate chunkStart = start;
+                LocalDate chunkEnd = min(start.plusDays(properties.chunkDays() - 1), job.to);
+                chunks.add(CompletableFuture.runAsync(() -> runChunk(job, chunkStart, chunkEnd), executor)
+                        // Stop the other chunks early, the backfill can't complete anyway.
+                        .whenComplete((ignored, error) -> {
+                            if (null != error) {
+                                job.abort();
+                            }
+                        }));
+            }
+            CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)).join();
+
+            job.finish(Status.COMPLETED, null, clock.instant());
+            log.info("Backfill {} completed, {} rates written, {} days without rate skipped.", job.id, job.written, job.skippedCount());
+        } catch (CompletionException e) {
+            fail(job, e.getCause());
+        } catch (RuntimeException e) {
+            fail(job, e);
+        }
+    }
+
+    private void runChunk(Job job, LocalDate start, LocalDate end) {
+        List<FxClient.ExchangeRate> rates = new ArrayList<>();
+        try {
+            fetchSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to fetch %s..%s.".formatted(start, end), e);
+        }
+        try {
+            for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+                if (job.status != Status.RUNNING) {
+                    return;
+                }
+                try {
+                    rates.add(normalize(fxClient.fetchExchangeRate(job.base, job.target, day), day));
+                } catch (FxRateMissingException e) {
+                    log.debug("Backfill {} skips {}, the provider has no rate of it.", job.id, day);
+                    job.skipped(day);
+                }
+            }
+        } finally {
+            fetchSlots.release();
+        }
+
+        for (int i = 0; i < rates.size(); i += properties.batchSize()) {
+            List<FxClient.ExchangeRate> batch = rates.subList(i, Math.min(rates.size(), i + properties.batchSize()));
+            if (batch.size() == 1) {
+                s4HanaClient.sendExchangeRate(job.tenant, batch.getFirst());
+            } else {
+                s4HanaClient.sendExchangeRates(job.tenant, batch).stream()
+                        .filter(S4HanaClient.RateOutcome::isFailed)
+                        .findFirst()
+                        .ifPresent(outcome -> {
+                            throw outcome.failure();
+                        });
+            }
+        }
+
+        // Under the job's lock, so a slower writer can't move the checkpoint back.
+        synchronized (job) {
+            LocalDate completedThrough = job.chunkDone(start, end, rates.size());
+            if (null != completedThrough) {
+                writeCheckpoint(job, completedThrough);
+            }
+        }
+    }
+
+    /**
+     * S/4 takes the validity date from the timestamp, so it has to fall on the requested day.
+     */
+    private static FxClient.ExchangeRate normalize(FxClient.ExchangeRate rate, LocalDate day) {
+        rate.setDate(day.toString());
+        if (null == rate.getTimestamp() || !rate.getTimestamp().toLocalDate().equals(day)) {
+            rate.setTimestamp(day.atStartOfDay(ZoneOffset.UTC));
+        }
+        return rate;
+    }
+
+    private void fail(Job job, Throwable cause) {
+        job.finish(Status.FAILED, String.valueOf(cause.getMessage()), clock.instant());
+        log.error("Backfill {} failed after {} rates, it resumes after {} when started again.",
+                job.id, job.written, job.completedThrough, cause);
+    }
+
+    private Optional<Properties> readCheckpoint(String id) {
+        Path file = properties.checkpointDir().resolve(id + ".checkpoint");
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Properties checkpoint = new Properties();
+            checkpoint.load(reader);
+            return Optional.of(checkpoint);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Backfill checkpoint %s couldn't be read.".formatted(file), e);
+        }
+    }
+
+    private void writeCheckpoint(Job job, LocalDate completedThrough) {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("tenant", job.tenant);
+        checkpoint.setProperty("base", job.base);
+        checkpoint.setProperty("target", job.target);
+        checkpoint.setProperty("from", job.from.toString());
+        checkpoint.setProperty("to", job.to.toString());
+        checkpoint.setProperty("completedThrough", completedThrough.toString());
+
+        try {
+            Files.createDirectories(properties.checkpointDir());
+            Path tmp = Files.createTempFile(properties.checkpointDir(), job.id, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                checkpoint.store(writer, null);
+            }
+            Files.move(tmp, properties.checkpointDir().resolve(job.id + ".checkpoint"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The backfill goes on; a restart would just repeat some days.
+            log.warn("Backfill checkpoint of {} couldn't be written.", job.id, e);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (!properties.resumeOnStartup() || !Files.isDirectory(properties.checkpointDir())) {
+            return;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(properties.checkpointDir(), "*.checkpoint")) {
+            for (Path file : files) {
+                String id = file.getFileName().toString().replace(".checkpoint", "");
+                try {
+                    readCheckpoint(id)
+                            .filter(c -> LocalDate.parse(c.getProperty("completedThrough")).isBefore(LocalDate.parse(c.getProperty("to"))))
+                            .ifPresent(c -> start(c.getProperty("tenant", S4TenantClients.DEFAULT), c.getProperty("base"), c.getProperty("target"),
+                                    LocalDate.parse(c.getProperty("from")), LocalDate.parse(c.getProperty("to"))));
+                } catch (RuntimeException e) {
+                    log.warn("Backfill checkpoint {} couldn't be resumed.", file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Backfill checkpoints in {} couldn't be listed.", properties.checkpointDir(), e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        // Unfinished backfills keep their checkpoint and resume on the next start.
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    public enum Status {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    public record BackfillStatus(String id, String tenant, String base, String target, LocalDate from, LocalDate to, Status status,
+                                 long totalDays, long completedDays, long writtenRates, List<LocalDate> skippedDays,
+                                 LocalDate completedThrough, Instant startedAt, Instant finishedAt, String error) {
+    }
+
+    private static final class Job {
+
+        private final String id;
+        private final String tenant;
+        private final String base;
+        private final String target;
+        private final LocalDate from;
+        private final LocalDate to;
+        private final Instant startedAt;
+        private final TreeMap<LocalDate, LocalDate> doneChunks = new TreeMap<>();
+        private final TreeSet<LocalDate> skippedDays = new TreeSet<>();
+
+        private volatile Status status = Status.RUNNING;
+        private long completedDays;
+        private long written;
+        private LocalDate completedThrough;
+        private Instant finishedAt;
+        private String error;
+
+        Job(String id, String tenant, String base, String target, LocalDate from, LocalDate to, Instant startedAt) {
+            this.id = id;
+            this.tenant = tenant;
+            this.base = base;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.startedAt = startedAt;
+            this.completedThrough = from.minusDays(1);
+        }
+
+        synchronized void resumed(LocalDate resumeFrom) {
+            completedThrough = resumeFrom.minusDays(1);
+            completedDays = ChronoUnit.DAYS.between(from, resumeFrom);
+        }
+
+        /**
+         * Records a finished chunk and returns the new last day before the first unfinished chunk,
+         * or {@code null} if that didn't move.
+         */
+        synchronized LocalDate chunkDone(LocalDate start, LocalDate end, int rates) {
+            completedDays += ChronoUnit.DAYS.between(start, end) + 1;
+            written += rates;
+            doneChunks.put(start, end);
+
+            LocalDate before = completedThrough;
+            LocalDate next;
+            while (null != (next = doneChunks.remove(completedThrough.plusDays(1)))) {
+                completedThrough = next;
+            }
+            return completedThrough.equals(before) ? null : completedThrough;
+        }
+
+        synchronized void skipped(LocalDate day) {
+            skippedDays.add(day);
+        }
+
+        synchronized int skippedCount() {
+            return skippedDays.size();
+        }
+
+        void abort() {
+            status = Status.FAILED;
+        }
+
+        synchronized void finish(Status status, String error, Instant finishedAt) {
+            this.status = status;
+            this.error = error;
+            this.finishedAt = finishedAt;
+        }
+
+        synchronized boolean finishedBefore(Instant cutoff) {
+            return null != finishedAt && finishedAt.isBefore(cutoff);
+        }
+
+        synchronized BackfillStatus snapshot() {
+            return new BackfillStatus(id, tenant, base, target, from, to, status, ChronoUnit.DAYS.between(from, to) + 1,
+                    completedDays, written, List.copyOf(skippedDays), completedThrough.isBefore(from) ? null : completedThrough,
+                    startedAt, finishedAt, error);
+        }
+    }
+}
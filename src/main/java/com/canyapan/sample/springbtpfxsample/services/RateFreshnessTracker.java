@@ -0,0 +1,243 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FreshnessProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * How old the newest rate of each pair of accepted currencies is, once fetched from the FX provider and once written to S/4HANA.
+ *
+ * <p>Ages are measured from the rate's own timestamp, so a rate that sat in a queue or was backfilled
+ * doesn't look fresher than it is, and older rates written later don't move a pair back in time.
+ * A pair is in breach when nothing was written for it since startup, or when the last write is longer ago
+ * than the SLO while a newer rate with a different mid has been fetched since. A provider that keeps
+ * publishing the same mid, or publishes rarely, doesn't put a pair in breach. Only writes to the default S/4
+ * tenant count.
+ *
+ * <p>The pairs follow the {@link CurrencyRegistry}: a pair is tracked from the first check after both its
+ * currencies are accepted, and rates or breaches of a pair the registry no longer accepts are ignored.
+ */
+@Component
+public class RateFreshnessTracker {
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final FreshnessProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final CurrencyRegistry currencyRegistry;
+    private final Clock clock;
+    private final Map<String, Pair> pairs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RateFreshnessTracker(FreshnessProperties properties, MeterRegistry meterRegistry, CurrencyRegistry currencyRegistry) {
+        this(properties, meterRegistry, currencyRegistry, Clock.systemUTC());
+    }
+
+    RateFreshnessTracker(FreshnessProperties properties, MeterRegistry meterRegistry, CurrencyRegistry currencyRegistry, Clock clock) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.currencyRegistry = currencyRegistry;
+        this.clock = clock;
+
+        acceptedPairs();
+    }
+
+    public void recordFetched(FxClient.ExchangeRate exchangeRate) {
+        record(exchangeRate, true);
+    }
+
+    public void recordWritten(FxClient.ExchangeRate exchangeRate) {
+        record(exchangeRate, false);
+    }
+
+    /**
+     * The newest fetched and written timestamps and the last write of every pair that has any.
+     */
+    List<Entry> entries() {
+        return pairs.values().stream()
+                .filter(pair -> pair.fetchedAt.get() != NEVER || pair.writtenAt.get() != NEVER)
+                .sorted(Comparator.comparing(Pair::key))
+                .map(pair -> new Entry(pair.base, pair.target, instant(pair.fetchedAt), instant(pair.writtenAt),
+                        instant(pair.lastWriteAt)))
+                .toList();
+    }
+
+    /**
+     * Takes over what an earlier run knew of a pair; newer rates recorded since are kept.
+     */
+    void restore(Entry entry) {
+        Pair pair = pair(entry.base(), entry.target());
+        if (null == pair) {
+            return;
+        }
+        if (null != entry.fetchedAt()) {
+            pair.fetchedAt.accumulateAndGet(entry.fetchedAt().toEpochMilli(), Math::max);
+        }
+        if (null != entry.writtenAt()) {
+            pair.writtenAt.accumulateAndGet(entry.writtenAt().toEpochMilli(), Math::max);
+        }
+        if (null != entry.lastWriteAt()) {
+            pair.lastWriteAt.accumulateAndGet(entry.lastWriteAt().toEpochMilli(), Math::max);
+        }
+    }
+
+    /**
+     * Checks every pair of accepted currencies against the SLO, counts pairs that fell into breach since the last check and
+     * returns all pairs in breach, the stalest first.
+     */
+    public List<Staleness> check() {
+        long now = clock.millis();
+        long sloMillis = properties.slo().toMillis();
+
+        return acceptedPairs().stream()
+                .map(pair -> {
+                    long lastWriteAt = pair.lastWriteAt.get();
+                    Duration age = lastWriteAt == NEVER ? null : Duration.ofMillis(Math.max(0, now - lastWriteAt));
+                    boolean breach = null == age || (age.toMillis() > sloMillis && pair.hasUnwrittenRate());
+                    if (breach && !pair.inBreach) {
+                        pair.breaches.increment();
+                    }
+                    pair.inBreach = breach;
+                    return breach ? new Staleness(pair.base, pair.target, age) : null;
+                })
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Staleness::age, Comparator.nullsFirst(Comparator.<Duration>reverseOrder())))
+                .toList();
+    }
+
+    private void record(FxClient.ExchangeRate exchangeRate, boolean fetched) {
+        if (null == exchangeRate || null == exchangeRate.getTimestamp()) {
+            return;
+        }
+        Pair pair = pair(exchangeRate.getBase(), exchangeRate.getTarget());
+        if (null == pair) {
+            return;
+        }
+        long timestamp = exchangeRate.getTimestamp().toInstant().toEpochMilli();
+        if (fetched) {
+            pair.fetchedAt.accumulateAndGet(timestamp, Math::max);
+            pair.fetched.accumulateAndGet(exchangeRate, RateFreshnessTracker::newer);
+        } else {
+            pair.writtenAt.accumulateAndGet(timestamp, Math::max);
+            pair.written.accumulateAndGet(exchangeRate, RateFreshnessTracker::newer);
+            pair.lastWriteAt.accumulateAndGet(clock.millis(), Math::max);
+        }
+    }
+
+    private static FxClient.ExchangeRate newer(FxClient.ExchangeRate current, FxClient.ExchangeRate candidate) {
+        return null == current || current.getTimestamp().isBefore(candidate.getTimestamp()) ? candidate : current;
+    }
+
+    private static Instant instant(AtomicLong at) {
+        long millis = at.get();
+        return millis == NEVER ? null : Instant.ofEpochMilli(millis);
+    }
+
+    private List<Pair> acceptedPairs() {
+        Set<String> currencies = currencyRegistry.getCurrencies();
+        return currencies.stream()
+                .flatMap(base -> currencies.stream()
+                        .filter(target -> !base.equals(target))
+                        .map(target -> pair(base, target)))
+                // A refresh in between may have dropped one.
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * The pair, registered with its meters on first use; {@code null} when the registry doesn't accept both
+     * currencies.
+     */
+    private Pair pair(String base, String target) {
+        if (!currencyRegistry.contains(base) || !currencyRegistry.contains(target) || base.equals(target)) {
+            return null;
+        }
+        return pairs.computeIfAbsent(base + "/" + target, key -> {
+            Pair pair = new Pair(base, target, Counter.builder("fx.freshness.breaches")
+                    .tag("pair", key)
+                    .register(meterRegistry));
+            Gauge.builder("fx.freshness.age", pair.fetchedAt, this::ageSeconds)
+                    .tag("pair", key)
+                    .tag("stage", "fetched")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            Gauge.builder("fx.freshness.age", pair.writtenAt, this::ageSeconds)
+                    .tag("pair", key)
+                    .tag("stage", "written")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            return pair;
+        });
+    }
+
+    private double ageSeconds(AtomicLong at) {
+        long millis = at.get();
+        return millis == NEVER ? Double.NaN : Math.max(0, clock.millis() - millis) / 1000.0;
+    }
+
+    /**
+     * A pair in breach and how long ago it was last written; {@code null} when it wasn't written yet.
+     */
+    public record Staleness(String base, String target, Duration age) {
+    }
+
+    /**
+     * The timestamps of a pair's newest fetched and newest written rate, and when it was last written; any may
+     * be {@code null}.
+     */
+    record Entry(String base, String target, Instant fetchedAt, Instant writtenAt, Instant lastWriteAt) {
+    }
+
+    private static final class Pair {
+
+        private final String base;
+        private final String target;
+        private final Counter breaches;
+        private final AtomicLong fetchedAt = new AtomicLong(NEVER);
+        private final AtomicLong writtenAt = new AtomicLong(NEVER);
+        private final AtomicLong lastWriteAt = new AtomicLong(NEVER);
+        private final AtomicReference<FxClient.ExchangeRate> fetched = new AtomicReference<>();
+        private final AtomicReference<FxClient.ExchangeRate> written = new AtomicReference<>();
+        // Only touched by check(), which the watchdog runs from a single thread.
+        private boolean inBreach;
+
+        private Pair(String base, String target, Counter breaches) {
+            this.base = base;
+            this.target = target;
+            this.breaches = breaches;
+        }
+
+        private String key() {
+            return base + "/" + target;
+        }
+
+        /**
+         * Whether a rate newer than the written one was fetched, other than the same mid published again. After
+         * a restart the rates themselves aren't known and the timestamps decide.
+         */
+        private boolean hasUnwrittenRate() {
+            if (fetchedAt.get() <= writtenAt.get()) {
+                return false;
+            }
+            FxClient.ExchangeRate f = fetched.get();
+            FxClient.ExchangeRate w = written.get();
+            return null == f || null == w || null == f.getMid() || null == w.getMid()
+                    || f.getMid().compareTo(w.getMid()) != 0;
+        }
+    }
+}
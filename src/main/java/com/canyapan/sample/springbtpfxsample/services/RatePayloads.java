@@ -0,0 +1,131 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The synced rates of each tenant, encoded for the read endpoints.
+ *
+ * <p>A synced rate is encoded in every {@link Format} as it arrives, and reads hand out those bytes, so
+ * the cost of encoding follows how often rates change rather than how often they're read. A rate synced
+ * again unchanged isn't encoded again, and one no newer than the rate kept for its pair is ignored. The list
+ * of all rates of a tenant is encoded on the first read after one of them changed and kept until the next
+ * change. Only the rates this instance synced are kept, which is why the service runs as a single instance.
+ */
+@Component
+public class RatePayloads {
+
+    private final Map<Format, ObjectMapper> mappers = new EnumMap<>(Format.class);
+    private final Map<Format, Counter> encodings = new EnumMap<>(Format.class);
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Map<Format, byte[]> empty;
+
+    public RatePayloads(JsonMapper jsonMapper, MeterRegistry meterRegistry) {
+        mappers.put(Format.JSON, jsonMapper);
+        mappers.put(Format.CBOR, CBORMapper.builder().build());
+        for (Format format : Format.values()) {
+            encodings.put(format, meterRegistry.counter("rate.payloads.encodings", "format", format.name().toLowerCase()));
+        }
+        this.empty = encode(List.of());
+    }
+
+    @EventListener
+    public void onRateSynced(RateSyncedEvent event) {
+        FxClient.ExchangeRate rate = event.rate();
+        Tenant tenant = tenants.computeIfAbsent(event.tenant(), t -> new Tenant());
+        tenant.rates.compute(rate.getBase() + "/" + rate.getTarget(), (pair, current) -> {
+            // Events of one pair can arrive out of order, a late one mustn't replace a newer rate.
+            if (null != current && (Objects.equals(current.rate(), rate) || !isNewer(rate, current.rate()))) {
+                return current;
+            }
+            tenant.version.incrementAndGet();
+            return new Encoded(rate, encode(rate));
+        });
+    }
+
+    private static boolean isNewer(FxClient.ExchangeRate rate, FxClient.ExchangeRate stored) {
+        return null == stored.getTimestamp()
+                || (null != rate.getTimestamp() && rate.getTimestamp().isAfter(stored.getTimestamp()));
+    }
+
+    /**
+     * The newest synced rate of the pair in the given format.
+     */
+    public Optional<byte[]> get(String tenant, String base, String target, Format format) {
+        Tenant t = tenants.get(tenant);
+        Encoded encoded = null == t ? null : t.rates.get(base + "/" + target);
+        return Optional.ofNullable(encoded).map(e -> e.payloads().get(format));
+    }
+
+    /**
+     * The last synced rates of all pairs of the tenant in the given format, ordered by pair.
+     */
+    public byte[] getAll(String tenant, Format format) {
+        Tenant t = tenants.get(tenant);
+        if (null == t) {
+            return empty.get(format);
+        }
+
+        long version = t.version.get();
+        Listing all = t.all;
+        if (null == all || all.version() != version) {
+            // Taken after the version, so it has at least the changes up to it.
+            all = new Listing(version, encode(new TreeMap<>(t.rates).values().stream().map(Encoded::rate).toList()));
+            t.all = all;
+        }
+        return all.payloads().get(format);
+    }
+
+    private Map<Format, byte[]> encode(Object value) {
+        Map<Format, byte[]> payloads = new EnumMap<>(Format.class);
+        mappers.forEach((format, mapper) -> {
+            payloads.put(format, mapper.writeValueAsBytes(value));
+            encodings.get(format).increment();
+        });
+        return payloads;
+    }
+
+    public enum Format {
+        JSON(MediaType.APPLICATION_JSON),
+        CBOR(MediaType.APPLICATION_CBOR);
+
+        private final MediaType mediaType;
+
+        Format(MediaType mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+    }
+
+    private record Encoded(FxClient.ExchangeRate rate, Map<Format, byte[]> payloads) {
+    }
+
+    private record Listing(long version, Map<Format, byte[]> payloads) {
+    }
+
+    private static final class Tenant {
+
+        private final ConcurrentMap<String, Encoded> rates = new ConcurrentHashMap<>();
+        private final AtomicLong version = new AtomicLong();
+        private volatile Listing all;
+    }
+}
@@ -0,0 +1,204 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.RateStreamProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.NotFoundException;
+import com.canyapan.sample.springbtpfxsample.exceptions.TooManyRequestsException;
+import com.canyapan.sample.springbtpfxsample.exceptions.ValidationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans synced rates out to the subscribers of the rate stream.
+ *
+ * <p>Subscribers are indexed by tenant and pair, so a sync only touches the subscribers of its pair and
+ * those of all pairs, and a subscriber only ever sees the rates of its own tenant. Each subscriber has a
+ * {@link ConflatingQueue} keyed by pair, which holds at most one rate per pair: a rate synced while an older
+ * one of the same pair still waits replaces it. No thread is held per subscriber; a virtual thread drains a
+ * subscriber's queue only while it has rates pending, so a slow consumer delays its own rates and nothing
+ * else, and the syncing thread never waits for any consumer.
+ */
+@Slf4j
+@Component
+public class RateStreamHub {
+
+    private static final String ALL_PAIRS = "*";
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(30);
+
+    private final RateStreamProperties properties;
+    private final CurrencyRegistry currencyRegistry;
+    private final Executor drainer;
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    private final Counter sent;
+    private final Counter conflated;
+    private final Counter failed;
+
+    @Autowired
+    public RateStreamHub(RateStreamProperties properties, CurrencyRegistry currencyRegistry, MeterRegistry meterRegistry) {
+        this(properties, currencyRegistry, meterRegistry, task -> Thread.ofVirtual().name("rate-stream-drain").start(task));
+    }
+
+    RateStreamHub(RateStreamProperties properties, CurrencyRegistry currencyRegistry, MeterRegistry meterRegistry,
+                  Executor drainer) {
+        this.properties = properties;
+        this.currencyRegistry = currencyRegistry;
+        this.drainer = drainer;
+
+        Gauge.builder("sync.stream.subscribers", subscribers, AtomicInteger::get)
+                .register(meterRegistry);
+        this.sent = meterRegistry.counter("sync.stream.events", "outcome", "sent");
+        this.conflated = meterRegistry.counter("sync.stream.events", "outcome", "conflated");
+        this.failed = meterRegistry.counter("sync.stream.events", "outcome", "failed");
+    }
+
+    /**
+     * Subscribes to the rates of the tenant synced from now on, of the given {@code BASE/TARGET} pairs or of
+     * all pairs when none are given.
+     */
+    public Subscription subscribe(String tenant, Collection<String> pairs, Sink sink) {
+        if (!properties.enabled()) {
+            throw new NotFoundException("The rate stream is disabled.");
+        }
+
+        Set<String> keys = new HashSet<>();
+        if (null == pairs || pairs.isEmpty()) {
+            keys.add(key(tenant, ALL_PAIRS));
+        } else {
+            for (String pair : pairs) {
+                String[] currencies = pair.split("/");
+                if (currencies.length != 2 || !currencyRegistry.contains(currencies[0]) || !currencyRegistry.contains(currencies[1])) {
+                    throw new ValidationException("'%s' isn't a BASE/TARGET pair of accepted currencies.".formatted(pair));
+                }
+                keys.add(key(tenant, pair));
+            }
+        }
+
+        if (subscribers.incrementAndGet() > properties.maxSubscribers()) {
+            subscribers.decrementAndGet();
+            throw new TooManyRequestsException("The rate stream has %d subscribers already.".formatted(properties.maxSubscribers()), RETRY_AFTER);
+        }
+        Subscription subscription = new Subscription(keys, sink);
+        for (String key : keys) {
+            // Added within compute so it can't land in a set a concurrent close() just dropped.
+            subscriptions.compute(key, (k, set) -> {
+                Set<Subscription> current = null == set ? ConcurrentHashMap.newKeySet() : set;
+                current.add(subscription);
+                return current;
+            });
+        }
+        return subscription;
+    }
+
+    @EventListener
+    public void onRateSynced(RateSyncedEvent event) {
+        FxClient.ExchangeRate rate = event.rate();
+        String pair = rate.getBase() + "/" + rate.getTarget();
+        offer(subscriptions.get(key(event.tenant(), pair)), pair, rate);
+        offer(subscriptions.get(key(event.tenant(), ALL_PAIRS)), pair, rate);
+    }
+
+    private void offer(Set<Subscription> targets, String pair, FxClient.ExchangeRate rate) {
+        if (null == targets) {
+            return;
+        }
+        for (Subscription subscription : targets) {
+            if (!subscription.queue.offer(pair, rate)) {
+                conflated.increment();
+            }
+            subscription.drain();
+        }
+    }
+
+    private static String key(String tenant, String pair) {
+        return tenant + "|" + pair;
+    }
+
+    int size() {
+        return subscribers.get();
+    }
+
+    /**
+     * Where a subscriber's rates are written to, e.g. its SSE connection.
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        void send(String pair, FxClient.ExchangeRate rate) throws IOException;
+    }
+
+    public final class Subscription implements AutoCloseable {
+
+        private final Set<String> keys;
+        private final Sink sink;
+        private final ConflatingQueue<String, FxClient.ExchangeRate> queue = new ConflatingQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscription(Set<String> keys, Sink sink) {
+            this.keys = keys;
+            this.sink = sink;
+        }
+
+        private void drain() {
+            if (closed.get() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+            drainer.execute(() -> {
+                try {
+                    ConflatingQueue.Entry<String, FxClient.ExchangeRate> entry;
+                    while (!closed.get() && null != (entry = queue.poll(0, TimeUnit.MILLISECONDS))) {
+                        sink.send(entry.key(), entry.value());
+                        sent.increment();
+                    }
+                } catch (IOException e) {
+                    failed.increment();
+                    log.debug("Rate stream subscriber went away.", e);
+                    close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    draining.set(false);
+                }
+                // A rate offered after the last poll but before the flag was cleared would wait for the next sync otherwise.
+                if (queue.pending() > 0) {
+                    drain();
+                }
+            });
+        }
+
+        /**
+         * Ends the subscription. Rates still pending are dropped.
+         */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            for (String key : keys) {
+                subscriptions.computeIfPresent(key, (k, set) -> {
+                    set.remove(this);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+            subscribers.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+/**
+ * Published by {@link S4HanaClient} once a rate has been written to the S/4HANA of the tenant, exactly once per
+ * rate written, whether it came from a sync request, the poller, the stream, a backfill or the write-behind buffer.
+ */
+public record RateSyncedEvent(String tenant, FxClient.ExchangeRate rate) {
+}
@@ -0,0 +1,330 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4ConcurrencyProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Limits concurrent S/4HANA writes to a limit that adapts to how S/4 currently copes (AIMD).
+ *
+ * <p>Every successful write is a round-trip sample, timed from when it got its slot, so waiting for a slot
+ * doesn't count; callers fetch what a write needs first, like the CSRF token, before they ask for one.
+ * Samples are only compared with those of the same {@link Kind}: a {@code $batch} takes longer than a single
+ * write without S/4 being any busier, so batches are measured per rate they carry and against earlier
+ * batches only. While the smoothed round trip of a kind stays within {@code latencyTolerance} of the best one
+ * seen recently and the limit is actually used, the limit grows
+ * by one per limit's worth of writes. When the round trip grows beyond that, or S/4 answers 429 or 503,
+ * the limit is multiplied by {@code backoffRatio}. Writes that were already in flight at a cut report the
+ * same congestion again, so they can't cut a second time. The best round trip is re-measured every
+ * {@value #MIN_RTT_WINDOW} samples of its kind, which lets the baseline follow S/4 when its load changes over the day.
+ *
+ * <p>Writes waiting for a slot queue per tenant, and freed slots go to the tenants in turn, one write each.
+ * A tenant pushing a large backfill therefore only delays another tenant's write by one write per busy
+ * tenant, not by its whole backlog.
+ */
+@Slf4j
+@Component
+public class S4ConcurrencyLimiter {
+
+    private static final double SMOOTHING = 0.1;
+    private static final int MIN_RTT_WINDOW = 500;
+
+    private final S4ConcurrencyProperties properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ArrayDeque<Waiter>> waiting = new HashMap<>();
+    // Tenants with waiting writes, in the order they get the next free slot.
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+
+    private final Map<Kind, Baseline> baselines = new EnumMap<>(Kind.class);
+    private final Map<Kind, Timer> rtts = new EnumMap<>(Kind.class);
+    private final Counter latencyCuts;
+    private final Counter overloadCuts;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private int samplesToIgnore;
+
+    public S4ConcurrencyLimiter(S4ConcurrencyProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.limit = Math.clamp(properties.initialLimit(), properties.minLimit(), properties.maxLimit());
+
+        Gauge.builder("s4.concurrency.limit", this, S4ConcurrencyLimiter::getLimit)
+                .description("Current adaptive limit of concurrent S/4HANA writes")
+                .register(meterRegistry);
+        Gauge.builder("s4.concurrency.in-flight", this, S4ConcurrencyLimiter::getInFlight)
+                .register(meterRegistry);
+        Gauge.builder("s4.concurrency.queued", this, S4ConcurrencyLimiter::getQueued)
+                .register(meterRegistry);
+        for (Kind kind : Kind.values()) {
+            baselines.put(kind, new Baseline());
+            rtts.put(kind, Timer.builder("s4.concurrency.rtt")
+                    .description("Round trip of an S/4HANA write, per rate for a batch")
+                    .tag("kind", kind.name().toLowerCase())
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry));
+        }
+        this.latencyCuts = meterRegistry.counter("s4.concurrency.cuts", "reason", "latency");
+        this.overloadCuts = meterRegistry.counter("s4.concurrency.cuts", "reason", "overload");
+    }
+
+    /**
+     * Runs a write of the default tenant, see {@link #call(String, Supplier)}.
+     */
+    public <T> T call(Supplier<T> write) {
+        return call(S4TenantClients.DEFAULT, write);
+    }
+
+    /**
+     * Runs a single write once a slot is free for the tenant. Fails with {@link IllegalStateException} when
+     * no slot frees up within {@code acquireTimeout}.
+     */
+    public <T> T call(String tenant, Supplier<T> write) {
+        return call(tenant, Kind.WRITE, 1, write);
+    }
+
+    /**
+     * Runs a {@code $batch} write of {@code size} rates like {@link #call(String, Supplier)}; it takes one slot
+     * and its round trip is measured per rate.
+     */
+    public <T> T callBatch(String tenant, int size, Supplier<T> write) {
+        return call(tenant, Kind.BATCH, size, write);
+    }
+
+    private <T> T call(String tenant, Kind kind, int size, Supplier<T> write) {
+        if (!properties.enabled()) {
+            return write.get();
+        }
+
+        acquire(tenant);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            T result = write.get();
+            outcome = Outcome.SUCCESS;
+            return result;
+        } catch (RestClientResponseException e) {
+            if (e.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)
+                    || e.getStatusCode().isSameCodeAs(HttpStatus.SERVICE_UNAVAILABLE)) {
+                outcome = Outcome.OVERLOAD;
+            }
+            throw e;
+        } finally {
+            release(kind, (System.nanoTime() - start) / Math.max(1, size), outcome);
+        }
+    }
+
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(String tenant) {
+        lock.lock();
+        try {
+            if (turns.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return;
+            }
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            ArrayDeque<Waiter> queue = waiting.computeIfAbsent(tenant, t -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                turns.addLast(tenant);
+            }
+            queue.addLast(waiter);
+            queued++;
+
+            long remaining = properties.acquireTimeout().toNanos();
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        withdraw(tenant, queue, waiter);
+                        throw new IllegalStateException("No S/4HANA write slot became free within %s, limit is %d."
+                                .formatted(properties.acquireTimeout(), (int) limit));
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // The slot was handed over already, pass it on.
+                    inFlight--;
+                    dispatch();
+                } else {
+                    withdraw(tenant, queue, waiter);
+                }
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for an S/4HANA write slot.", e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void withdraw(String tenant, ArrayDeque<Waiter> queue, Waiter waiter) {
+        queue.remove(waiter);
+        queued--;
+        if (queue.isEmpty()) {
+            waiting.remove(tenant);
+            turns.remove(tenant);
+        }
+    }
+
+    /**
+     * Hands free slots to waiting writes, one per tenant in turn. Called with the lock held.
+     */
+    private void dispatch() {
+        while (inFlight < (int) limit && !turns.isEmpty()) {
+            String tenant = turns.pollFirst();
+            ArrayDeque<Waiter> queue = waiting.get(tenant);
+            Waiter waiter = queue.pollFirst();
+            queued--;
+            if (queue.isEmpty()) {
+                waiting.remove(tenant);
+            } else {
+                turns.addLast(tenant);
+            }
+
+            inFlight++;
+            waiter.granted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    private void release(Kind kind, long rttNanos, Outcome outcome) {
+        if (outcome == Outcome.SUCCESS) {
+            rtts.get(kind).record(rttNanos, TimeUnit.NANOSECONDS);
+        }
+
+        lock.lock();
+        try {
+            onSample(kind, rttNanos, outcome);
+            inFlight--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adjusts the limit for one finished write. Called with the lock held and the write still counted in flight.
+     */
+    void onSample(Kind kind, long rttNanos, Outcome outcome) {
+        boolean ignore = samplesToIgnore > 0;
+        if (ignore) {
+            samplesToIgnore--;
+        }
+
+        switch (outcome) {
+            case OVERLOAD -> {
+                if (!ignore) {
+                    cut(overloadCuts);
+                }
+            }
+            case SUCCESS -> {
+                Baseline baseline = baselines.get(kind);
+                baseline.windowMinRttNanos = Math.min(baseline.windowMinRttNanos, rttNanos);
+                if (++baseline.windowSamples >= MIN_RTT_WINDOW) {
+                    baseline.minRttNanos = baseline.windowMinRttNanos;
+                    baseline.windowMinRttNanos = Long.MAX_VALUE;
+                    baseline.windowSamples = 0;
+                }
+                baseline.minRttNanos = Math.min(baseline.minRttNanos, rttNanos);
+                baseline.smoothedRttNanos = baseline.smoothedRttNanos == 0
+                        ? rttNanos
+                        : baseline.smoothedRttNanos + SMOOTHING * (rttNanos - baseline.smoothedRttNanos);
+
+                if (baseline.smoothedRttNanos > baseline.minRttNanos * properties.latencyTolerance()) {
+                    if (!ignore) {
+                        cut(latencyCuts);
+                    }
+                } else if (inFlight >= limit / 2) {
+                    // Only grow a limit that is actually used, otherwise it drifts to the max while idle.
+                    limit = Math.min(properties.maxLimit(), limit + 1 / limit);
+                }
+            }
+            case ERROR -> {
+                // Failures unrelated to capacity say nothing about how much S/4 can take.
+            }
+        }
+    }
+
+    private void cut(Counter reason) {
+        double previous = limit;
+        limit = Math.max(properties.minLimit(), limit * properties.backoffRatio());
+        samplesToIgnore = inFlight - 1;
+        // Start over from the current round trips; the old averages still carry the congestion.
+        baselines.values().forEach(baseline -> baseline.smoothedRttNanos = 0);
+        reason.increment();
+        log.debug("S/4HANA write limit cut from {} to {}.", (int) previous, (int) limit);
+    }
+
+    enum Outcome {
+        SUCCESS, OVERLOAD, ERROR
+    }
+
+    /**
+     * What a write sends, each kind measured against its own round trips.
+     */
+    enum Kind {
+        WRITE, BATCH
+    }
+
+    /**
+     * The round trips seen for one kind of write. Only touched with the lock held.
+     */
+    private static final class Baseline {
+
+        private double smoothedRttNanos;
+        private long minRttNanos = Long.MAX_VALUE;
+        private long windowMinRttNanos = Long.MAX_VALUE;
+        private int windowSamples;
+    }
+
+    private static final class Waiter {
+
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
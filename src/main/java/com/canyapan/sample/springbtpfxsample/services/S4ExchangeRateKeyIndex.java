@@ -0,0 +1,324 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4KeyIndexProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The (rate type, source, target, validity date) keys known to exist on S/4HANA.
+ *
+ * <p>Each key is packed into a single {@code long}: 8 bits rate type, 5 bits per currency letter and
+ * the epoch day in the remaining bits. Keys are kept in an open-addressing hash set of primitive longs,
+ * so a year of rates for a few dozen pairs costs a few hundred kilobytes. The index is exact on purpose:
+ * a false positive would silently skip a rate.
+ *
+ * <p>It is seeded at startup by reading the last {@code seedDays} of {@code A_ExchangeRate} page by page,
+ * and learns every key {@link S4HanaClient} writes afterwards. Keys missing from the index aren't known
+ * to be absent, so they are still created as before.
+ */
+@Slf4j
+@Component
+public class S4ExchangeRateKeyIndex implements SmartLifecycle {
+
+    private static final Pattern ODATA_V2_DATE = Pattern.compile("/Date\\((-?\\d+)([+-]\\d+)?\\)/");
+    private static final long NOT_INDEXABLE = -1;
+
+    private final S4KeyIndexProperties properties;
+    private final RestClient s4HanaRestClient;
+    private final JsonMapper jsonMapper;
+    private final Map<String, Integer> rateTypes = new HashMap<>();
+    private final LongHashSet keys = new LongHashSet();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    private volatile boolean running;
+
+    public S4ExchangeRateKeyIndex(
+            S4KeyIndexProperties properties,
+            @Lazy RestClient s4HanaRestClient,
+            JsonMapper jsonMapper,
+            MeterRegistry meterRegistry) {
+
+        this.properties = properties;
+        this.s4HanaRestClient = s4HanaRestClient;
+        this.jsonMapper = jsonMapper;
+
+        Gauge.builder("s4.key-index.size", keys, LongHashSet::size)
+                .register(meterRegistry);
+        this.hits = meterRegistry.counter("s4.key-index.lookups", "result", "hit");
+        this.misses = meterRegistry.counter("s4.key-index.lookups", "result", "miss");
+    }
+
+    public boolean isEnabled() {
+        return properties.enabled();
+    }
+
+    public S4KeyIndexProperties.OnExisting getOnExisting() {
+        return properties.onExisting();
+    }
+
+    public boolean contains(String rateType, String source, String target, LocalDate validityStartDate) {
+        long key = key(rateType, source, target, validityStartDate);
+        boolean found = key != NOT_INDEXABLE && keys.contains(key);
+        (found ? hits : misses).increment();
+        return found;
+    }
+
+    public void add(String rateType, String source, String target, LocalDate validityStartDate) {
+        long key = key(rateType, source, target, validityStartDate);
+        if (key != NOT_INDEXABLE) {
+            keys.add(key);
+        }
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * All keys with the rate types their type bits refer to, by number.
+     */
+    Keys exportKeys() {
+        String[] types;
+        synchronized (rateTypes) {
+            types = new String[rateTypes.size()];
+            rateTypes.forEach((rateType, type) -> types[type] = rateType);
+        }
+        return new Keys(List.of(types), keys.toArray());
+    }
+
+    /**
+     * Adds keys exported by an earlier run, renumbering their rate types to this run's numbers.
+     */
+    void importKeys(Keys exported) {
+        int[] renumbered = new int[exported.rateTypes().size()];
+        for (int i = 0; i < renumbered.length; i++) {
+            renumbered[i] = rateType(exported.rateTypes().get(i));
+        }
+        for (long key : exported.keys()) {
+            int type = (int) (key >>> 56);
+            if (type < renumbered.length && renumbered[type] >= 0) {
+                keys.add(((long) renumbered[type] << 56) | (key & 0x00FFFFFFFFFFFFFFL));
+            }
+        }
+    }
+
+    /**
+     * Reads the keys of the last {@code seedDays} from S/4 into the index and returns how many were read.
+     */
+    public synchronized int seed() {
+        LocalDate since = LocalDate.now(ZoneOffset.UTC).minusDays(properties.seedDays());
+        String filter = "ValidityStartDate ge datetime'%sT00:00:00'".formatted(since);
+        int read = 0;
+
+        for (int skip = 0; ; skip += properties.pageSize()) {
+            String body = s4HanaRestClient.get()
+                    .uri(uriBuilder -> uriBuilder
+                            .path("/API_EXCHANGE_RATE_SRV/A_ExchangeRate")
+                            .queryParam("$select", "ExchangeRateType,SourceCurrency,TargetCurrency,ValidityStartDate")
+                            .queryParam("$filter", "{filter}")
+                            .queryParam("$orderby", "ValidityStartDate")
+                            .queryParam("$top", properties.pageSize())
+                            .queryParam("$skip", skip)
+                            .queryParam("$format", "json")
+                            .build(filter))
+                    .retrieve()
+                    .body(String.class);
+
+            JsonNode results = null == body ? null : jsonMapper.readTree(body).path("d").path("results");
+            if (null == results || !results.isArray() || results.isEmpty()) {
+                break;
+            }
+            for (JsonNode entry : results) {
+                add(entry.path("ExchangeRateType").asString(),
+                        entry.path("SourceCurrency").asString(),
+                        entry.path("TargetCurrency").asString(),
+                        parseDate(entry.path("ValidityStartDate").asString()));
+                read++;
+            }
+            if (results.size() < properties.pageSize()) {
+                break;
+            }
+        }
+
+        return read;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (!properties.enabled()) {
+            return;
+        }
+
+        // Off the startup path; until it is done, writes just go out as creates.
+        Thread.ofVirtual().name("s4-key-index-seed").start(() -> {
+            try {
+                long start = System.nanoTime();
+                int read = seed();
+                log.info("S/4HANA key index seeded with {} keys in {} ms.", read, (System.nanoTime() - start) / 1_000_000);
+            } catch (RuntimeException e) {
+                log.warn("S/4HANA key index couldn't be seeded, it only learns from writes.", e);
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    static LocalDate parseDate(String value) {
+        if (null == value || value.isEmpty()) {
+            return null;
+        }
+        Matcher matcher = ODATA_V2_DATE.matcher(value);
+        if (matcher.matches()) {
+            return Instant.ofEpochMilli(Long.parseLong(matcher.group(1))).atZone(ZoneOffset.UTC).toLocalDate();
+        }
+        return LocalDate.parse(value.length() > 10 ? value.substring(0, 10) : value);
+    }
+
+    long key(String rateType, String source, String target, LocalDate date) {
+        if (null == rateType || null == date) {
+            return NOT_INDEXABLE;
+        }
+        long sourceBits = currency(source);
+        long targetBits = currency(target);
+        if (sourceBits < 0 || targetBits < 0) {
+            return NOT_INDEXABLE;
+        }
+        int type = rateType(rateType);
+        if (type < 0) {
+            return NOT_INDEXABLE;
+        }
+
+        // [8 bits type][15 bits source][15 bits target][26 bits epoch day]
+        return ((long) type << 56) | (sourceBits << 41) | (targetBits << 26) | (date.toEpochDay() & 0x3FFFFFF);
+    }
+
+    /**
+     * Numbers rate types in order of appearance; there are only a handful per S/4 system.
+     */
+    private int rateType(String rateType) {
+        synchronized (rateTypes) {
+            Integer type = rateTypes.get(rateType);
+            if (null == type) {
+                if (rateTypes.size() >= 255) {
+                    return -1;
+                }
+                type = rateTypes.size();
+                rateTypes.put(rateType, type);
+            }
+            return type;
+        }
+    }
+
+    private static long currency(String code) {
+        if (null == code || code.length() != 3) {
+            return -1;
+        }
+        long bits = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = code.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return -1;
+            }
+            bits = (bits << 5) | (c - 'A' + 1);
+        }
+        return bits;
+    }
+
+    record Keys(List<String> rateTypes, long[] keys) {
+    }
+
+    /**
+     * A minimal open-addressing set of longs; -1 marks a free slot and is never a key.
+     */
+    static final class LongHashSet {
+
+        private static final long FREE = -1;
+
+        private long[] slots = newSlots(1024);
+        private int size;
+
+        synchronized boolean contains(long key) {
+            return slots[indexOf(slots, key)] == key;
+        }
+
+        synchronized void add(long key) {
+            int index = indexOf(slots, key);
+            if (slots[index] == key) {
+                return;
+            }
+            slots[index] = key;
+            if (++size * 4 > slots.length * 3) {
+                grow();
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] toArray() {
+            long[] array = new long[size];
+            int i = 0;
+            for (long key : slots) {
+                if (key != FREE) {
+                    array[i++] = key;
+                }
+            }
+            return array;
+        }
+
+        private void grow() {
+            long[] grown = newSlots(slots.length * 2);
+            for (long key : slots) {
+                if (key != FREE) {
+                    grown[indexOf(grown, key)] = key;
+                }
+            }
+            slots = grown;
+        }
+
+        private static int indexOf(long[] slots, long key) {
+            int mask = slots.length - 1;
+            int index = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (slots[index] != FREE && slots[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private static long[] newSlots(int capacity) {
+            long[] slots = new long[capacity];
+            Arrays.fill(slots, FREE);
+            return slots;
+        }
+    }
+}
@@ -1,46 +1,262 @@
 package com.canyapan.sample.springbtpfxsample.services;
 
+import com.canyapan.sample.springbtpfxsample.configs.S4KeyIndexProperties;
 import com.canyapan.sample.springbtpfxsample.exceptions.S4IntegrationException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClient;
+import tools.jackson.databind.json.JsonMapper;
 
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
 public class S4HanaClient {
 
-    private final RestClient s4HanaRestClient;
+    static final String RATE_TYPE = "M";
 
-    public void sendExchangeRate(FxClient.ExchangeRate exchangeRate) {
-        try {
-            if (null == exchangeRate
-                    || null == exchangeRate.getBase()
-                    || null == exchangeRate.getTarget()
-                    || null == exchangeRate.getMid()
-                    || null == exchangeRate.getTimestamp()) {
-                throw new IllegalArgumentException("ExchangeRate object or its properties cannot be null");
-            }
+    private static final String CRLF = "\r\n";
+    private static final Pattern BATCH_PART_STATUS = Pattern.compile("^HTTP/1\\.1 (\\d{3})", Pattern.MULTILINE);
+
+    private final S4TenantClients tenantClients;
+    private final JsonMapper jsonMapper;
+    private final S4ConcurrencyLimiter concurrencyLimiter;
+    private final S4ExchangeRateKeyIndex keyIndex;
+    private final RateFreshnessTracker freshnessTracker;
+    private final PairWriteLanes writeLanes;
+    private final ApplicationEventPublisher eventPublisher;
 
-            Map<String, Object> payload = Map.of(
-                    "ExchangeRateType", "M",
-                    "SourceCurrency", exchangeRate.getBase(),
-                    "TargetCurrency", exchangeRate.getTarget(),
-                    "ExchangeRate", exchangeRate.getMid(),
-                    "ValidityStartDate", exchangeRate.getTimestamp().toLocalDate().format(DateTimeFormatter.ISO_DATE)
-            );
+    /**
+     * Creates the exchange rate on the default S/4HANA tenant, see {@link #sendExchangeRate(String, FxClient.ExchangeRate)}.
+     */
+    public boolean sendExchangeRate(FxClient.ExchangeRate exchangeRate) {
+        return sendExchangeRate(S4TenantClients.DEFAULT, exchangeRate);
+    }
 
-            s4HanaRestClient.post()
-                    .uri("/API_EXCHANGE_RATE_SRV/A_ExchangeRate")
-                    .body(payload)
-                    .retrieve()
-                    .toBodilessEntity();
+    /**
+     * Creates the exchange rate on the tenant's S/4HANA. If the key index knows the rate already exists, it is
+     * updated or skipped instead, depending on {@code sap.s4.key-index.on-existing}. A rate older than one
+     * already written for the same pair and date is dropped, see {@link PairWriteLanes}. Returns whether the
+     * rate was written, {@code false} if it was dropped or skipped.
+     *
+     * <p>This and {@link #sendExchangeRates(String, List)} are the only ways rates get to S/4, whoever sends
+     * them; each publishes a {@link RateSyncedEvent} for every rate written, once it left its lane.
+     */
+    public boolean sendExchangeRate(String tenant, FxClient.ExchangeRate exchangeRate) {
+        boolean written;
+        try (S4TenantClients.Lease lease = tenantClients.lease(tenant)) {
+            validate(exchangeRate);
+            S4TenantClients.Tenant client = lease.tenant();
+            RestClient s4HanaRestClient = client.restClient();
+
+            // Through writeAll, so a rate skipped as existing leaves its lane as it was and isn't reported written.
+            written = !writeLanes.writeAll(tenant, List.of(exchangeRate), rates -> {
+                FxClient.ExchangeRate rate = rates.getFirst();
+                if (exists(tenant, rate)) {
+                    if (keyIndex.getOnExisting() == S4KeyIndexProperties.OnExisting.SKIP) {
+                        return List.of();
+                    }
+                    // Outside the limiter, so a token fetch doesn't count towards the write's round trip.
+                    client.csrfTokenInterceptor().prefetchToken();
+                    concurrencyLimiter.call(tenant, () -> s4HanaRestClient.patch()
+                            .uri("/API_EXCHANGE_RATE_SRV/" + entityPath(rate))
+                            .body(Map.of("ExchangeRate", rate.getMid()))
+                            .retrieve()
+                            .toBodilessEntity());
+                } else {
+                    client.csrfTokenInterceptor().prefetchToken();
+                    concurrencyLimiter.call(tenant, () -> s4HanaRestClient.post()
+                            .uri("/API_EXCHANGE_RATE_SRV/A_ExchangeRate")
+                            .body(toPayload(rate))
+                            .retrieve()
+                            .toBodilessEntity());
+                }
+                remember(tenant, rate);
+                return rates;
+            }).isEmpty();
 
         } catch (Exception e) {
             throw new S4IntegrationException("Exchange rate couldn't be updated on S/4HANA", e);
         }
+        if (written) {
+            eventPublisher.publishEvent(new RateSyncedEvent(tenant, exchangeRate));
+        }
+        return written;
+    }
+
+    /**
+     * Creates the exchange rates on the default S/4HANA tenant, see {@link #sendExchangeRates(String, List)}.
+     */
+    public List<RateOutcome> sendExchangeRates(List<FxClient.ExchangeRate> exchangeRates) {
+        return sendExchangeRates(S4TenantClients.DEFAULT, exchangeRates);
+    }
+
+    /**
+     * Creates all given exchange rates on the tenant's S/4HANA with a single OData {@code $batch} request.
+     * Every rate has a changeset of its own, so S/4HANA applies each on its own and one rejected rate doesn't
+     * take the others down with it. Rates the key index knows to exist are updated or left out and stale
+     * rates are dropped like in {@link #sendExchangeRate}.
+     *
+     * <p>Returns the outcome of each rate, in the order given. Throws if the request as a whole failed.
+     */
+    public List<RateOutcome> sendExchangeRates(String tenant, List<FxClient.ExchangeRate> exchangeRates) {
+        Map<FxClient.ExchangeRate, S4IntegrationException> failures = new IdentityHashMap<>();
+        List<FxClient.ExchangeRate> written;
+        try (S4TenantClients.Lease lease = tenantClients.lease(tenant)) {
+            if (null == exchangeRates || exchangeRates.isEmpty()) {
+                throw new IllegalArgumentException("ExchangeRate list cannot be null or empty");
+            }
+            exchangeRates.forEach(S4HanaClient::validate);
+            S4TenantClients.Tenant client = lease.tenant();
+            RestClient s4HanaRestClient = client.restClient();
+
+            written = writeLanes.writeAll(tenant, exchangeRates, rates -> {
+                boolean skipExisting = keyIndex.getOnExisting() == S4KeyIndexProperties.OnExisting.SKIP;
+                List<FxClient.ExchangeRate> writes = new ArrayList<>(rates.size());
+                List<Boolean> updates = new ArrayList<>(rates.size());
+                for (FxClient.ExchangeRate exchangeRate : rates) {
+                    boolean exists = exists(tenant, exchangeRate);
+                    if (!exists || !skipExisting) {
+                        writes.add(exchangeRate);
+                        updates.add(exists);
+                    }
+                }
+                if (writes.isEmpty()) {
+                    return writes;
+                }
+
+                String batchBoundary = "batch_" + UUID.randomUUID();
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < writes.size(); i++) {
+                    FxClient.ExchangeRate exchangeRate = writes.get(i);
+                    boolean update = updates.get(i);
+                    String changesetBoundary = "changeset_" + UUID.randomUUID();
+                    body.append("--").append(batchBoundary).append(CRLF)
+                            .append("Content-Type: multipart/mixed; boundary=").append(changesetBoundary).append(CRLF)
+                            .append(CRLF)
+                            .append("--").append(changesetBoundary).append(CRLF)
+                            .append("Content-Type: application/http").append(CRLF)
+                            .append("Content-Transfer-Encoding: binary").append(CRLF)
+                            .append(CRLF)
+                            .append(update ? "PATCH " + entityPath(exchangeRate) : "POST A_ExchangeRate").append(" HTTP/1.1").append(CRLF)
+                            .append("Content-Type: application/json").append(CRLF)
+                            .append("Accept: application/json").append(CRLF)
+                            .append(CRLF)
+                            .append(jsonMapper.writeValueAsString(update ? Map.of("ExchangeRate", exchangeRate.getMid()) : toPayload(exchangeRate))).append(CRLF)
+                            .append(CRLF)
+                            .append("--").append(changesetBoundary).append("--").append(CRLF)
+                            .append(CRLF);
+                }
+                body.append("--").append(batchBoundary).append("--").append(CRLF);
+
+                client.csrfTokenInterceptor().prefetchToken();
+                String response = concurrencyLimiter.callBatch(tenant, writes.size(), () -> s4HanaRestClient.post()
+                        .uri("/API_EXCHANGE_RATE_SRV/$batch")
+                        .contentType(MediaType.parseMediaType("multipart/mixed; boundary=" + batchBoundary))
+                        .body(body.toString())
+                        .retrieve()
+                        .body(String.class));
+
+                // A $batch request succeeds as a whole; each changeset answers with the status of its one
+                // request, in the order they were sent.
+                List<Integer> statuses = new ArrayList<>(writes.size());
+                Matcher matcher = BATCH_PART_STATUS.matcher(null == response ? "" : response);
+                while (matcher.find()) {
+                    statuses.add(Integer.parseInt(matcher.group(1)));
+                }
+                for (int i = 0; i < writes.size(); i++) {
+                    FxClient.ExchangeRate exchangeRate = writes.get(i);
+                    if (i < statuses.size() && statuses.get(i) < 400) {
+                        remember(tenant, exchangeRate);
+                    } else {
+                        failures.put(exchangeRate, new S4IntegrationException("Exchange rate couldn't be updated on S/4HANA",
+                                new IllegalStateException(i < statuses.size()
+                                        ? "Batch changeset failed with HTTP " + statuses.get(i)
+                                        : "Batch response has no status for changeset " + (i + 1))));
+                    }
+                }
+                return writes.stream().filter(exchangeRate -> !failures.containsKey(exchangeRate)).toList();
+            });
+
+        } catch (Exception e) {
+            throw new S4IntegrationException("Exchange rates couldn't be updated on S/4HANA", e);
+        }
+
+        Set<FxClient.ExchangeRate> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+        taken.addAll(written);
+        written.forEach(exchangeRate -> eventPublisher.publishEvent(new RateSyncedEvent(tenant, exchangeRate)));
+        return exchangeRates.stream()
+                .map(exchangeRate -> new RateOutcome(exchangeRate, taken.contains(exchangeRate), failures.get(exchangeRate)))
+                .toList();
+    }
+
+    /**
+     * What became of one rate sent with {@link #sendExchangeRates}: written, dropped as stale or skipped as
+     * existing when neither {@code written} nor failed, or failed with the {@code failure} of its changeset.
+     */
+    public record RateOutcome(FxClient.ExchangeRate rate, boolean written, S4IntegrationException failure) {
+
+        public boolean isFailed() {
+            return null != failure;
+        }
+    }
+
+    private static void validate(FxClient.ExchangeRate exchangeRate) {
+        if (null == exchangeRate
+                || null == exchangeRate.getBase()
+                || null == exchangeRate.getTarget()
+                || null == exchangeRate.getMid()
+                || null == exchangeRate.getTimestamp()) {
+            throw new IllegalArgumentException("ExchangeRate object or its properties cannot be null");
+        }
+    }
+
+    /**
+     * The key index mirrors the default tenant's S/4 only; other tenants always create.
+     */
+    private boolean exists(String tenant, FxClient.ExchangeRate exchangeRate) {
+        return usesKeyIndex(tenant) && keyIndex.contains(RATE_TYPE, exchangeRate.getBase(), exchangeRate.getTarget(),
+                exchangeRate.getTimestamp().toLocalDate());
+    }
+
+    private void remember(String tenant, FxClient.ExchangeRate exchangeRate) {
+        if (S4TenantClients.DEFAULT.equals(tenant)) {
+            freshnessTracker.recordWritten(exchangeRate);
+        }
+        if (usesKeyIndex(tenant)) {
+            keyIndex.add(RATE_TYPE, exchangeRate.getBase(), exchangeRate.getTarget(), exchangeRate.getTimestamp().toLocalDate());
+        }
+    }
+
+    private boolean usesKeyIndex(String tenant) {
+        return keyIndex.isEnabled() && S4TenantClients.DEFAULT.equals(tenant);
+    }
+
+    private static String entityPath(FxClient.ExchangeRate exchangeRate) {
+        return "A_ExchangeRate(ExchangeRateType='%s',SourceCurrency='%s',TargetCurrency='%s',ValidityStartDate=datetime'%sT00:00:00')"
+                .formatted(RATE_TYPE, exchangeRate.getBase(), exchangeRate.getTarget(),
+                        exchangeRate.getTimestamp().toLocalDate().format(DateTimeFormatter.ISO_DATE));
+    }
+
+    private static Map<String, Object> toPayload(FxClient.ExchangeRate exchangeRate) {
+        return Map.of(
+                "ExchangeRateType", RATE_TYPE,
+                "SourceCurrency", exchangeRate.getBase(),
+                "TargetCurrency", exchangeRate.getTarget(),
+                "ExchangeRate", exchangeRate.getMid(),
+                "ValidityStartDate", exchangeRate.getTimestamp().toLocalDate().format(DateTimeFormatter.ISO_DATE)
+        );
     }
 
 }
@@ -10,13 +10,16 @@ import java.util.List;
 @Component
 public final class S4HanaCsrfTokenCache {
 
-    @Value("${sap.s4.max-token-age:10m}")
-    private Duration maxTokenAge;
+    private final Duration maxTokenAge;
 
     private String csrfToken;
     private List<String> cookies;
     private Instant fetchedAt;
 
+    public S4HanaCsrfTokenCache(@Value("${sap.s4.max-token-age:10m}") Duration maxTokenAge) {
+        this.maxTokenAge = maxTokenAge;
+    }
+
     synchronized boolean isValid() {
         return csrfToken != null
                 && cookies != null
@@ -36,6 +39,26 @@ public final class S4HanaCsrfTokenCache {
         this.fetchedAt = null;
     }
 
+    /**
+     * The cached token while it is valid, otherwise {@code null}.
+     */
+    synchronized Entry snapshot() {
+        return isValid() ? new Entry(csrfToken, List.copyOf(cookies), fetchedAt) : null;
+    }
+
+    /**
+     * Takes over a token fetched earlier, keeping its age; a token past {@code max-token-age} is ignored.
+     */
+    synchronized boolean restore(Entry entry) {
+        if (null == entry || !Instant.now().isBefore(entry.fetchedAt().plus(maxTokenAge))) {
+            return false;
+        }
+        this.csrfToken = entry.token();
+        this.cookies = entry.cookies();
+        this.fetchedAt = entry.fetchedAt();
+        return true;
+    }
+
     synchronized String getToken() {
         return csrfToken;
     }
@@ -43,4 +66,7 @@ public final class S4HanaCsrfTokenCache {
     synchronized List<String> getCookies() {
         return cookies;
     }
-}
\ No newline at end of file
+
+    record Entry(String token, List<String> cookies, Instant fetchedAt) {
+    }
+}
@@ -2,6 +2,7 @@ package com.canyapan.sample.springbtpfxsample.services;
 
 import com.canyapan.sample.springbtpfxsample.exceptions.S4IntegrationException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.*;
 import org.springframework.http.client.ClientHttpRequestExecution;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
@@ -18,6 +19,9 @@ import java.util.List;
 public class S4HanaCsrfTokenInterceptor implements ClientHttpRequestInterceptor {
 
     private final S4HanaCsrfTokenCache cache;
+
+    // Only needed on the first write, so keep it out of the startup path.
+    @Lazy
     private final RestClient s4HanaRestClientForCsrfToken;
 
     @Override
@@ -42,11 +46,18 @@ public class S4HanaCsrfTokenInterceptor implements ClientHttpRequestInterceptor
         return response;
     }
 
-    private void injectToken(HttpRequest request) {
+    /**
+     * Fetches a CSRF token and session into the cache unless a valid one is there already.
+     */
+    public void prefetchToken() {
         if (!cache.isValid()) {
             CsrfToken csrfToken = fetchCsrfToken();
             cache.update(csrfToken.token(), csrfToken.cookies());
         }
+    }
+
+    private void injectToken(HttpRequest request) {
+        prefetchToken();
 
         request.getHeaders().set("x-csrf-token", cache.getToken());
         request.getHeaders().put(HttpHeaders.COOKIE, cache.getCookies());
@@ -0,0 +1,305 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4TenancyProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The S/4HANA clients of each tenant.
+ *
+ * <p>With {@code sap.s4.tenants.enabled}, the tenant of a request is the zone of its token, and each
+ * tenant routed in {@code sap.s4.tenants.routes} gets its own HTTP connection pool, CSRF session and
+ * {@link RestClient}s. They are created on first use and kept in an LRU of at most {@code maxCached}
+ * tenants; tenants unused for {@code idleTimeout} are dropped as well, checked on every lease and once a
+ * minute on a virtual thread, closing their connections, so an instance serving many subscribers only holds
+ * what the active ones need, also once the requests stop. Without tenancy, all calls
+ * use the {@link #DEFAULT} tenant, which is the {@code s4HanaRestClient} bean on {@code sap.s4.base-url}.
+ *
+ * <p>Callers {@link #lease(String) lease} a tenant's clients for the duration of their calls. A dropped
+ * tenant's connection pool is only closed once its last lease is closed, so a call that got the clients
+ * before the eviction runs to its end on them.
+ */
+@Slf4j
+@Component
+public class S4TenantClients implements SmartLifecycle {
+
+    public static final String DEFAULT = "default";
+
+    private static final Duration EVICTION_INTERVAL = Duration.ofMinutes(1);
+
+    private final S4TenancyProperties properties;
+    private final RestClient.Builder builder;
+    private final HttpCompressionInterceptor compressionInterceptor;
+    private final Duration maxTokenAge;
+    private final Tenant defaultTenant;
+    private final LinkedHashMap<String, Entry> tenants = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Counter sizeEvictions;
+    private final Counter idleEvictions;
+
+    private volatile boolean running;
+    private Thread evictor;
+
+    public S4TenantClients(
+            S4TenancyProperties properties,
+            RestClient.Builder builder,
+            @Lazy RestClient s4HanaRestClient,
+            S4HanaCsrfTokenInterceptor csrfTokenInterceptor,
+            HttpCompressionInterceptor s4CompressionInterceptor,
+            @Value("${sap.s4.max-token-age:10m}") Duration maxTokenAge,
+            MeterRegistry meterRegistry) {
+
+        this.properties = properties;
+        this.builder = builder;
+        this.compressionInterceptor = s4CompressionInterceptor;
+        this.maxTokenAge = maxTokenAge;
+        this.defaultTenant = new Tenant(DEFAULT, s4HanaRestClient, csrfTokenInterceptor);
+
+        Gauge.builder("s4.tenants.cached", this, S4TenantClients::size)
+                .register(meterRegistry);
+        this.sizeEvictions = meterRegistry.counter("s4.tenants.evictions", "reason", "size");
+        this.idleEvictions = meterRegistry.counter("s4.tenants.evictions", "reason", "idle");
+    }
+
+    /**
+     * The tenant the authenticated caller belongs to. Fails with {@link AccessDeniedException} when
+     * tenancy is enabled and the caller's zone isn't routed to an S/4 tenant.
+     */
+    public String resolve(Authentication authentication) {
+        if (!properties.enabled()) {
+            return DEFAULT;
+        }
+
+        String zone = authentication instanceof JwtAuthenticationToken jwt
+                ? jwt.getToken().getClaimAsString(properties.zoneClaim())
+                : null;
+        if (null == zone || !properties.routes().containsKey(zone)) {
+            throw new AccessDeniedException("No S/4HANA tenant is configured for zone '%s'.".formatted(zone));
+        }
+        return zone;
+    }
+
+    /**
+     * The tenant's clients, to be closed when the calls made with them are done.
+     */
+    public Lease lease(String tenant) {
+        if (null == tenant || DEFAULT.equals(tenant)) {
+            return new Lease(defaultTenant, null);
+        }
+
+        S4TenancyProperties.Route route = properties.routes().get(tenant);
+        if (null == route) {
+            throw new IllegalArgumentException("No S/4HANA tenant is configured for zone '%s'.".formatted(tenant));
+        }
+
+        synchronized (tenants) {
+            long now = System.nanoTime();
+            evictIdle(now);
+
+            Entry entry = tenants.get(tenant);
+            if (null == entry) {
+                entry = create(tenant, route);
+                tenants.put(tenant, entry);
+                if (tenants.size() > properties.maxCached()) {
+                    Iterator<Entry> eldest = tenants.values().iterator();
+                    retire(eldest.next());
+                    eldest.remove();
+                    sizeEvictions.increment();
+                }
+            }
+            entry.lastUsed = now;
+            entry.leases++;
+            return new Lease(entry.tenant, entry);
+        }
+    }
+
+    /**
+     * Drops the tenants unused for {@code idleTimeout}.
+     */
+    void evictIdleTenants() {
+        synchronized (tenants) {
+            evictIdle(System.nanoTime());
+        }
+    }
+
+    int size() {
+        synchronized (tenants) {
+            return tenants.size();
+        }
+    }
+
+    private void evictIdle(long now) {
+        long idleNanos = properties.idleTimeout().toNanos();
+        // Access order: the least recently used tenants come first.
+        Iterator<Entry> it = tenants.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.lastUsed < idleNanos) {
+                break;
+            }
+            retire(entry);
+            it.remove();
+            idleEvictions.increment();
+        }
+    }
+
+    private Entry create(String tenant, S4TenancyProperties.Route route) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+
+        RestClient csrfTokenClient = builder.clone()
+                .requestFactory(requestFactory)
+                .baseUrl(route.baseUrl())
+                .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .requestInterceptor(compressionInterceptor)
+                .build();
+        S4HanaCsrfTokenInterceptor csrfTokenInterceptor =
+                new S4HanaCsrfTokenInterceptor(new S4HanaCsrfTokenCache(maxTokenAge), csrfTokenClient);
+        RestClient restClient = builder.clone()
+                .requestFactory(requestFactory)
+                .baseUrl(route.baseUrl())
+                .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .requestInterceptor(csrfTokenInterceptor)
+                .requestInterceptor(compressionInterceptor)
+                .build();
+
+        log.debug("S/4HANA clients created for tenant {}.", tenant);
+        return new Entry(new Tenant(tenant, restClient, csrfTokenInterceptor), httpClient);
+    }
+
+    /**
+     * Drops the tenant from the cache, closing its clients now or, while leased, with the last lease.
+     * Called with the lock held.
+     */
+    private static void retire(Entry entry) {
+        entry.retired = true;
+        if (entry.leases == 0) {
+            close(entry);
+        }
+    }
+
+    private static void close(Entry entry) {
+        entry.closed = true;
+        // close() waits for requests still in flight, so don't hold up the caller with it.
+        Thread.ofVirtual().name("s4-tenant-close").start(entry.httpClient::close);
+        log.debug("S/4HANA clients released for tenant {}.", entry.tenant.id());
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled()) {
+            return;
+        }
+
+        running = true;
+        evictor = Thread.ofVirtual().name("s4-tenant-evictor").start(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(EVICTION_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                evictIdleTenants();
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (null != evictor) {
+            evictor.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    public record Tenant(String id, RestClient restClient, S4HanaCsrfTokenInterceptor csrfTokenInterceptor) {
+    }
+
+    /**
+     * A tenant's clients in use; closing the lease hands them back.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final Tenant tenant;
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Tenant tenant, Entry entry) {
+            this.tenant = tenant;
+            this.entry = entry;
+        }
+
+        public Tenant tenant() {
+            return tenant;
+        }
+
+        /**
+         * Whether the connection pool behind this lease was closed.
+         */
+        boolean isClientClosed() {
+            synchronized (tenants) {
+                return null != entry && entry.closed;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (null == entry) {
+                return;
+            }
+            synchronized (tenants) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (--entry.leases == 0 && entry.retired) {
+                    S4TenantClients.close(entry);
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Tenant tenant;
+        private final HttpClient httpClient;
+        private long lastUsed;
+        // Guarded by the lock of the cache.
+        private int leases;
+        private boolean retired;
+        private boolean closed;
+
+        private Entry(Tenant tenant, HttpClient httpClient) {
+            this.tenant = tenant;
+            this.httpClient = httpClient;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4WriteBehindProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.S4IntegrationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects exchange-rate pushes and writes them to S/4HANA in OData {@code $batch} requests.
+ *
+ * <p>A batch is flushed once it holds {@code maxBatchSize} rates or {@code linger} after its first rate
+ * arrived, whichever comes first. A batch spanning several tenants is written as one request per tenant, the
+ * tenants in parallel so a slow S/4 doesn't hold up the others' writes, each rate in a changeset of its own,
+ * so every caller learns the outcome of its own rate. The next batch is collected once all tenants of the
+ * current one are done. Rates for the same
+ * tenant, pair and validity date within a batch are collapsed to the newest one, since S/4 would reject the
+ * duplicate key anyway; the callers of the older ones share the outcome of the newest and are told theirs was
+ * {@link Outcome#SUPERSEDED superseded}. The buffer is bounded: when it is
+ * full, {@link #submit} waits up to {@code offerTimeout} and then fails, so callers feel the back-pressure
+ * instead of the heap.
+ */
+@Slf4j
+@Component
+public class S4WriteBehindBuffer implements SmartLifecycle {
+
+    private final S4WriteBehindProperties properties;
+    private final S4HanaClient s4HanaClient;
+    private final LinkedBlockingQueue<Pending> queue;
+
+    private final Counter batchSuccesses;
+    private final Counter batchFailures;
+    private final Counter duplicates;
+    private final DistributionSummary batchSize;
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    public S4WriteBehindBuffer(S4WriteBehindProperties properties, S4HanaClient s4HanaClient, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.s4HanaClient = s4HanaClient;
+        this.queue = new LinkedBlockingQueue<>(properties.capacity());
+
+        Gauge.builder("s4.write-behind.queue", queue, LinkedBlockingQueue::size)
+                .register(meterRegistry);
+        this.batchSuccesses = meterRegistry.counter("s4.write-behind.batches", "outcome", "success");
+        this.batchFailures = meterRegistry.counter("s4.write-behind.batches", "outcome", "failure");
+        this.duplicates = Counter.builder("s4.write-behind.duplicates")
+                .description("Rates replaced by a newer rate for the same pair and date before they were written")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("s4.write-behind.batch.size")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.enabled();
+    }
+
+    /**
+     * Queues the rate of the default tenant, see {@link #submit(String, FxClient.ExchangeRate)}.
+     */
+    public CompletableFuture<Outcome> submit(FxClient.ExchangeRate exchangeRate) {
+        return submit(S4TenantClients.DEFAULT, exchangeRate);
+    }
+
+    /**
+     * Queues the rate for the next batch of the tenant. The returned future completes with what became of the
+     * rate once its batch was sent, or fails with the {@link S4IntegrationException} of the rate. A rate
+     * superseded within the batch completes like the rate that replaced it.
+     */
+    public CompletableFuture<Outcome> submit(String tenant, FxClient.ExchangeRate exchangeRate) {
+        if (!running) {
+            throw new S4IntegrationException("Write-behind buffer is not running",
+                    new IllegalStateException("sap.s4.write-behind.enabled is " + properties.enabled()));
+        }
+
+        Pending pending = new Pending(tenant, exchangeRate, new CompletableFuture<>());
+        try {
+            if (!queue.offer(pending, properties.offerTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new S4IntegrationException("Exchange rate couldn't be queued for S/4HANA",
+                        new IllegalStateException("Write-behind buffer is full after waiting " + properties.offerTimeout()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new S4IntegrationException("Interrupted while queueing exchange rate for S/4HANA", e);
+        }
+        return pending.result();
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled()) {
+            return;
+        }
+
+        running = true;
+        flusher = Thread.ofVirtual().name("s4-write-behind").start(this::flushLoop);
+        log.info("S/4HANA write-behind started with batches of up to {} rates lingering {}.",
+                properties.maxBatchSize(), properties.linger());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (null == flusher) {
+            return;
+        }
+        try {
+            // Let the flusher write what is still queued.
+            flusher.join(properties.linger().plus(properties.offerTimeout()).toMillis() + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher.interrupt();
+
+        Pending left;
+        while (null != (left = queue.poll())) {
+            left.result().completeExceptionally(new S4IntegrationException("Exchange rate couldn't be updated on S/4HANA",
+                    new IllegalStateException("Write-behind buffer stopped")));
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void flushLoop() {
+        List<Pending> batch = new ArrayList<>(properties.maxBatchSize());
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + properties.linger().toNanos();
+                while (batch.size() < properties.maxBatchSize()) {
+                    queue.drainTo(batch, properties.maxBatchSize() - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= properties.maxBatchSize() || wait <= 0 || !running) {
+                        break;
+                    }
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (null != next) {
+                        batch.add(next);
+                    }
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        Map<String, List<Pending>> byTenant = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            byTenant.computeIfAbsent(pending.tenant(), t -> new ArrayList<>()).add(pending);
+        }
+        if (byTenant.size() == 1) {
+            byTenant.forEach(this::flush);
+            return;
+        }
+        // close() waits for every tenant, which keeps the number of requests in flight bounded by the tenants of one batch.
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            byTenant.forEach((tenant, pendings) -> executor.execute(() -> flush(tenant, pendings)));
+        }
+    }
+
+    private void flush(String tenant, List<Pending> batch) {
+        Map<String, FxClient.ExchangeRate> newest = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            newest.merge(key(pending.rate()), pending.rate(), (current, candidate) ->
+                    null != candidate.getTimestamp()
+                            && (null == current.getTimestamp() || candidate.getTimestamp().isAfter(current.getTimestamp()))
+                            ? candidate : current);
+        }
+        List<FxClient.ExchangeRate> rates = List.copyOf(newest.values());
+        duplicates.increment(batch.size() - rates.size());
+        batchSize.record(rates.size());
+
+        Map<FxClient.ExchangeRate, Outcome> outcomes = new IdentityHashMap<>();
+        Map<FxClient.ExchangeRate, RuntimeException> failures = new IdentityHashMap<>();
+        try {
+            if (rates.size() == 1) {
+                outcomes.put(rates.getFirst(), s4HanaClient.sendExchangeRate(tenant, rates.getFirst()) ? Outcome.WRITTEN : Outcome.STALE);
+            } else {
+                for (S4HanaClient.RateOutcome outcome : s4HanaClient.sendExchangeRates(tenant, rates)) {
+                    if (outcome.isFailed()) {
+                        failures.put(outcome.rate(), outcome.failure());
+                    } else {
+                        outcomes.put(outcome.rate(), outcome.written() ? Outcome.WRITTEN : Outcome.STALE);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            rates.forEach(rate -> failures.put(rate, e));
+        }
+
+        if (failures.isEmpty()) {
+            batchSuccesses.increment();
+        } else {
+            batchFailures.increment();
+            log.warn("{} of {} exchange rates couldn't be written to S/4HANA of tenant {}.",
+                    failures.size(), rates.size(), tenant, failures.values().iterator().next());
+        }
+
+        for (Pending pending : batch) {
+            FxClient.ExchangeRate survivor = newest.get(key(pending.rate()));
+            RuntimeException failure = failures.get(survivor);
+            if (null != failure) {
+                pending.result().completeExceptionally(failure);
+            } else if (survivor != pending.rate()) {
+                pending.result().complete(Outcome.SUPERSEDED);
+            } else {
+                pending.result().complete(outcomes.get(survivor));
+            }
+        }
+    }
+
+    /**
+     * Keyed like the S/4 entity: rate type is fixed, so pair and validity date identify the row.
+     */
+    private static String key(FxClient.ExchangeRate rate) {
+        return rate.getBase() + "/" + rate.getTarget() + "/" + (null == rate.getTimestamp() ? null : rate.getTimestamp().toLocalDate());
+    }
+
+    /**
+     * What became of a submitted rate.
+     */
+    public enum Outcome {
+        /**
+         * Written to S/4HANA.
+         */
+        WRITTEN,
+        /**
+         * Not written: dropped as a newer rate of the same pair and date was written already, see
+         * {@link PairWriteLanes}, or left alone as existing under {@code sap.s4.key-index.on-existing: skip}.
+         */
+        STALE,
+        /**
+         * Replaced by a newer rate of the same pair and date in the same batch, which was written or dropped.
+         */
+        SUPERSEDED
+    }
+
+    private record Pending(String tenant, FxClient.ExchangeRate rate, CompletableFuture<Outcome> result) {
+    }
+}
@@ -0,0 +1,114 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FreshnessProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Checks the freshness of all allowed pairs every {@code checkInterval} and, with {@code resync.enabled},
+ * syncs the pairs in breach itself.
+ *
+ * <p>Pairs are synced one at a time, the stalest first and at most {@code resync.maxPerCheck} per check,
+ * so the watchdog never adds more than a small, fixed load on the FX provider and S/4HANA on top of the
+ * regular syncs, and that load goes to the pairs that fell behind the most. With several instances each
+ * one looks after the pairs it owns by {@link PairOwnership} only.
+ */
+@Slf4j
+@Component
+public class StalenessWatchdog implements SmartLifecycle {
+
+    private final FreshnessProperties properties;
+    private final RateFreshnessTracker freshnessTracker;
+    private final ExchangeRateService exchangeRateService;
+    private final PairOwnership pairOwnership;
+
+    private final Counter resyncSuccesses;
+    private final Counter resyncFailures;
+
+    private volatile boolean running;
+    private Thread checker;
+
+    public StalenessWatchdog(
+            FreshnessProperties properties,
+            RateFreshnessTracker freshnessTracker,
+            ExchangeRateService exchangeRateService,
+            PairOwnership pairOwnership,
+            MeterRegistry meterRegistry) {
+
+        this.properties = properties;
+        this.freshnessTracker = freshnessTracker;
+        this.exchangeRateService = exchangeRateService;
+        this.pairOwnership = pairOwnership;
+        this.resyncSuccesses = meterRegistry.counter("fx.freshness.resyncs", "outcome", "success");
+        this.resyncFailures = meterRegistry.counter("fx.freshness.resyncs", "outcome", "failure");
+    }
+
+    /**
+     * Checks the pairs once and re-syncs those in breach when enabled. Returns the pairs in breach this instance owns.
+     */
+    public List<RateFreshnessTracker.Staleness> runCheck() {
+        List<RateFreshnessTracker.Staleness> breaching = freshnessTracker.check().stream()
+                .filter(stale -> pairOwnership.owns(stale.base(), stale.target()))
+                .toList();
+        if (breaching.isEmpty()) {
+            return breaching;
+        }
+
+        log.warn("{} pairs are staler than the freshness SLO of {}, stalest {}/{}.", breaching.size(), properties.slo(),
+                breaching.getFirst().base(), breaching.getFirst().target());
+        if (!properties.resync().enabled()) {
+            return breaching;
+        }
+
+        for (RateFreshnessTracker.Staleness stale : breaching.subList(0, Math.min(breaching.size(), properties.resync().maxPerCheck()))) {
+            try {
+                exchangeRateService.updateRate(S4TenantClients.DEFAULT, stale.base(), stale.target());
+                resyncSuccesses.increment();
+            } catch (RuntimeException e) {
+                resyncFailures.increment();
+                log.warn("Stale pair {}/{} couldn't be re-synced.", stale.base(), stale.target(), e);
+            }
+        }
+        return breaching;
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled()) {
+            return;
+        }
+
+        running = true;
+        checker = Thread.ofVirtual().name("staleness-watchdog").start(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(properties.checkInterval());
+                    runCheck();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    log.warn("Freshness check failed.", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (null != checker) {
+            checker.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
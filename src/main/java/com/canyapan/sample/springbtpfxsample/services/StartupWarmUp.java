@@ -0,0 +1,218 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.CurrencyRegistryProperties;
+import com.canyapan.sample.springbtpfxsample.configs.S4TenancyProperties;
+import com.canyapan.sample.springbtpfxsample.configs.WarmUpProperties;
+import com.canyapan.sample.springbtpfxsample.validation.AllowedCurrency;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Warms the instance up before it reports ready.
+ *
+ * <p>Runs as an {@link ApplicationRunner}, and Spring Boot only switches the readiness state to
+ * {@code ACCEPTING_TRAFFIC} after all runners are done, so {@code /actuator/health/readiness} stays down
+ * until the first requests no longer pay for cold paths. The steps run in parallel and each one is best
+ * effort:
+ * <ul>
+ *     <li>a read of the FX provider's currency list through {@code fxRestClient}, which opens the TLS connection
+ *     to it; it neither touches {@link FxNegativeCache} nor costs a rate lookup,</li>
+ *     <li>the CSRF token and session fetched into {@link S4HanaCsrfTokenCache},</li>
+ *     <li>a service document read through {@code s4HanaRestClient}, which opens its TLS connection,</li>
+ *     <li>the JWK set of the resource server, loaded by decoding a synthetic token,</li>
+ *     <li>{@code iterations} passes over the Jackson and bean validation paths of a sync for the JIT.</li>
+ * </ul>
+ * After {@code timeout} the instance reports ready regardless; steps still running are interrupted and left
+ * behind rather than waited for.
+ *
+ * <p>The two S/4 steps only warm {@code sap.s4.base-url}, so they are left out when {@code sap.s4.tenants} routes
+ * calls to per-tenant clients, which are created on first use.
+ */
+@Slf4j
+@Component
+public class StartupWarmUp implements ApplicationRunner {
+
+    private static final String SAMPLE_RESPONSE = """
+            {"status_code":200,"data":{"base":"USD","target":"EUR","mid":0.849365,"unit":1,"timestamp":"2025-12-30T00:05:24.876Z"}}""";
+
+    private final WarmUpProperties properties;
+    private final CurrencyRegistryProperties currencyProperties;
+    private final S4TenancyProperties tenancyProperties;
+    private final FxClient fxClient;
+    private final S4HanaCsrfTokenInterceptor csrfTokenInterceptor;
+    private final RestClient s4HanaRestClient;
+    private final ObjectProvider<JwtDecoder> jwtDecoder;
+    private final JsonMapper jsonMapper;
+    private final Validator validator;
+    private final List<String> allowedCurrencies;
+
+    public StartupWarmUp(
+            WarmUpProperties properties,
+            CurrencyRegistryProperties currencyProperties,
+            S4TenancyProperties tenancyProperties,
+            FxClient fxClient,
+            S4HanaCsrfTokenInterceptor csrfTokenInterceptor,
+            @Lazy RestClient s4HanaRestClient,
+            ObjectProvider<JwtDecoder> jwtDecoder,
+            JsonMapper jsonMapper,
+            Validator validator,
+            @Value("${fx.api.allowed-currencies:}") Set<String> allowedCurrencies) {
+
+        this.properties = properties;
+        this.currencyProperties = currencyProperties;
+        this.tenancyProperties = tenancyProperties;
+        this.fxClient = fxClient;
+        this.csrfTokenInterceptor = csrfTokenInterceptor;
+        this.s4HanaRestClient = s4HanaRestClient;
+        this.jwtDecoder = jwtDecoder;
+        this.jsonMapper = jsonMapper;
+        this.validator = validator;
+        this.allowedCurrencies = allowedCurrencies.stream().sorted().toList();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.enabled()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Step> steps = warmUp();
+        log.info("Warm-up finished in {} ms: {}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), steps);
+    }
+
+    /**
+     * Runs all warm-up steps and reports how each went. Steps still running at the timeout are reported as failed.
+     */
+    public List<Step> warmUp() {
+        Map<String, Runnable> tasks = new HashMap<>(Map.of(
+                "fx-connection", this::warmFxConnection,
+                "jwks", this::warmJwks,
+                "jit", this::warmJit));
+        if (!tenancyProperties.enabled()) {
+            tasks.put("s4-csrf", csrfTokenInterceptor::prefetchToken);
+            tasks.put("s4-connection", this::warmS4Connection);
+        }
+
+        List<Step> steps = new ArrayList<>();
+        // Not closed with try-with-resources: close() would wait for steps that are stuck.
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Map<String, CompletableFuture<Duration>> running = new TreeMap<>();
+            tasks.forEach((name, task) -> running.put(name, CompletableFuture.supplyAsync(() -> timed(task), executor)));
+
+            long deadline = System.nanoTime() + properties.timeout().toNanos();
+            running.forEach((name, future) -> {
+                try {
+                    steps.add(new Step(name, true, future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)));
+                } catch (TimeoutException e) {
+                    log.warn("Warm-up step {} didn't finish within {}.", name, properties.timeout());
+                    steps.add(new Step(name, false, properties.timeout()));
+                } catch (ExecutionException e) {
+                    log.warn("Warm-up step {} failed.", name, e.getCause());
+                    steps.add(new Step(name, false, Duration.ZERO));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    steps.add(new Step(name, false, Duration.ZERO));
+                }
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+        return steps;
+    }
+
+    private void warmFxConnection() {
+        fxClient.fetchCurrencies(currencyProperties.refresh().path());
+    }
+
+    private void warmS4Connection() {
+        s4HanaRestClient.get()
+                .uri("/API_EXCHANGE_RATE_SRV/")
+                .retrieve()
+                .toBodilessEntity();
+    }
+
+    private void warmJwks() {
+        JwtDecoder decoder = jwtDecoder.getIfAvailable();
+        if (null == decoder) {
+            return;
+        }
+
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String token = encoder.encodeToString("{\"alg\":\"RS256\",\"kid\":\"warm-up\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString("{\"sub\":\"warm-up\"}".getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString("warm-up".getBytes(StandardCharsets.UTF_8));
+        try {
+            decoder.decode(token);
+        } catch (JwtException expected) {
+            // The token is made up; looking for its key is what loads the JWK set.
+        }
+    }
+
+    private void warmJit() {
+        String base = allowedCurrencies.isEmpty() ? "USD" : allowedCurrencies.getFirst();
+        String target = allowedCurrencies.size() < 2 ? "EUR" : allowedCurrencies.get(1);
+
+        for (int i = 0; i < properties.iterations(); i++) {
+            FxClient.Response response = jsonMapper.readValue(SAMPLE_RESPONSE, FxClient.Response.class);
+            jsonMapper.writeValueAsString(Map.of(
+                    "ExchangeRateType", S4HanaClient.RATE_TYPE,
+                    "SourceCurrency", response.getData().getBase(),
+                    "TargetCurrency", response.getData().getTarget(),
+                    "ExchangeRate", response.getData().getMid().add(BigDecimal.valueOf(i, 6)),
+                    "ValidityStartDate", response.getData().getTimestamp().toLocalDate().toString()));
+            validator.validate(new CurrencyPair(base, target));
+        }
+    }
+
+    private static Duration timed(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    public record Step(String name, boolean success, Duration duration) {
+    }
+
+    static final class CurrencyPair {
+
+        @AllowedCurrency
+        private final String base;
+
+        @AllowedCurrency
+        private final String target;
+
+        CurrencyPair(String base, String target) {
+            this.base = base;
+            this.target = target;
+        }
+    }
+}
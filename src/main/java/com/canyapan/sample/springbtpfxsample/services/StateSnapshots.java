@@ -0,0 +1,313 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.SnapshotProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes what the service knows to a binary snapshot on local disk and loads it on the next start, so a
+ * restart doesn't begin cold. A snapshot holds
+ * <ul>
+ *     <li>the newest fetched and written timestamps and the last write of every pair, from
+ *     {@link RateFreshnessTracker},</li>
+ *     <li>the cached rates with when they were fetched, from {@link FxRateCache}, so they keep their age,</li>
+ *     <li>the keys known to exist on S/4HANA, from {@link S4ExchangeRateKeyIndex},</li>
+ *     <li>the CSRF token and session cookies of the default tenant with their age, from {@link S4HanaCsrfTokenCache}.</li>
+ * </ul>
+ *
+ * <p>The snapshot is written every {@code interval} on its own virtual thread and once more on shutdown, never on
+ * a request thread. It goes to a temporary file that is synced and then atomically moved over the previous one,
+ * and ends with a CRC32 of its content, so a crash leaves either the old or the new snapshot and a damaged file
+ * is never loaded. A snapshot older than {@code ttl} is ignored, and the CSRF token still expires by
+ * {@code sap.s4.max-token-age} counted from when it was fetched.
+ */
+@Slf4j
+@Component
+public class StateSnapshots implements SmartLifecycle {
+
+    private static final int MAGIC = 0x46585333; // "FXS3"
+    private static final String FILE = "state.snapshot";
+
+    private final SnapshotProperties properties;
+    private final RateFreshnessTracker freshnessTracker;
+    private final FxRateCache rateCache;
+    private final S4ExchangeRateKeyIndex keyIndex;
+    private final S4HanaCsrfTokenCache csrfTokenCache;
+
+    private final Counter writes;
+    private final Counter writeFailures;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public StateSnapshots(
+            SnapshotProperties properties,
+            RateFreshnessTracker freshnessTracker,
+            FxRateCache rateCache,
+            S4ExchangeRateKeyIndex keyIndex,
+            S4HanaCsrfTokenCache csrfTokenCache,
+            MeterRegistry meterRegistry) {
+
+        this.properties = properties;
+        this.freshnessTracker = freshnessTracker;
+        this.rateCache = rateCache;
+        this.keyIndex = keyIndex;
+        this.csrfTokenCache = csrfTokenCache;
+        this.writes = meterRegistry.counter("snapshot.writes", "outcome", "success");
+        this.writeFailures = meterRegistry.counter("snapshot.writes", "outcome", "failure");
+    }
+
+    /**
+     * Writes the current state and returns the size of the snapshot in bytes.
+     */
+    public synchronized long write() throws IOException {
+        Files.createDirectories(properties.dir());
+        Path tmp = Files.createTempFile(properties.dir(), FILE, ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 64 * 1024), crc));
+                writeState(out);
+                out.flush();
+                // The checksum itself is outside of what it covers.
+                new DataOutputStream(file).writeLong(crc.getValue());
+                file.getFD().sync();
+            }
+            Files.move(tmp, properties.dir().resolve(FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writes.increment();
+            return Files.size(properties.dir().resolve(FILE));
+        } catch (IOException | RuntimeException e) {
+            writeFailures.increment();
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the snapshot if there is a valid one within its TTL. Returns whether it was loaded.
+     */
+    public synchronized boolean load() throws IOException {
+        Path file = properties.dir().resolve(FILE);
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        byte[] content = Files.readAllBytes(file);
+        if (content.length < Long.BYTES) {
+            log.warn("Snapshot {} is truncated, ignored.", file);
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - Long.BYTES);
+        long expected = ByteBuffer.wrap(content, content.length - Long.BYTES, Long.BYTES).getLong();
+        if (crc.getValue() != expected) {
+            log.warn("Snapshot {} is damaged, ignored.", file);
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - Long.BYTES))) {
+            return readState(in, file);
+        }
+    }
+
+    private void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(System.currentTimeMillis());
+
+        List<RateFreshnessTracker.Entry> entries = freshnessTracker.entries();
+        out.writeInt(entries.size());
+        for (RateFreshnessTracker.Entry entry : entries) {
+            out.writeUTF(entry.base());
+            out.writeUTF(entry.target());
+            writeInstant(out, entry.fetchedAt());
+            writeInstant(out, entry.writtenAt());
+            writeInstant(out, entry.lastWriteAt());
+        }
+
+        List<FxRateCache.Entry> cached = rateCache.entries();
+        out.writeInt(cached.size());
+        for (FxRateCache.Entry entry : cached) {
+            FxClient.ExchangeRate rate = entry.rate();
+            out.writeUTF(rate.getBase());
+            out.writeUTF(rate.getTarget());
+            out.writeUTF(rate.getMid().toPlainString());
+            out.writeInt(null == rate.getUnit() ? -1 : rate.getUnit());
+            writeInstant(out, null == rate.getTimestamp() ? null : rate.getTimestamp().toInstant());
+            out.writeLong(entry.fetchedAt().toEpochMilli());
+        }
+
+        S4ExchangeRateKeyIndex.Keys keys = keyIndex.exportKeys();
+        out.writeInt(keys.rateTypes().size());
+        for (String rateType : keys.rateTypes()) {
+            out.writeUTF(rateType);
+        }
+        out.writeInt(keys.keys().length);
+        for (long key : keys.keys()) {
+            out.writeLong(key);
+        }
+
+        S4HanaCsrfTokenCache.Entry csrf = csrfTokenCache.snapshot();
+        out.writeBoolean(null != csrf);
+        if (null != csrf) {
+            out.writeUTF(csrf.token());
+            out.writeLong(csrf.fetchedAt().toEpochMilli());
+            out.writeInt(csrf.cookies().size());
+            for (String cookie : csrf.cookies()) {
+                out.writeUTF(cookie);
+            }
+        }
+    }
+
+    private boolean readState(DataInputStream in, Path file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            log.warn("Snapshot {} has an unknown format, ignored.", file);
+            return false;
+        }
+        Duration age = Duration.ofMillis(System.currentTimeMillis() - in.readLong());
+        if (age.compareTo(properties.ttl()) >= 0) {
+            log.info("Snapshot {} is {} old, past its TTL of {}, ignored.", file, age, properties.ttl());
+            return false;
+        }
+
+        // Read it all before applying any of it, so a snapshot is applied whole or not at all.
+        int pairCount = in.readInt();
+        List<RateFreshnessTracker.Entry> entries = new ArrayList<>(pairCount);
+        for (int i = 0; i < pairCount; i++) {
+            entries.add(new RateFreshnessTracker.Entry(in.readUTF(), in.readUTF(), readInstant(in), readInstant(in),
+                    readInstant(in)));
+        }
+
+        int cachedCount = in.readInt();
+        List<FxRateCache.Entry> cached = new ArrayList<>(cachedCount);
+        for (int i = 0; i < cachedCount; i++) {
+            FxClient.ExchangeRate rate = new FxClient.ExchangeRate();
+            rate.setBase(in.readUTF());
+            rate.setTarget(in.readUTF());
+            rate.setMid(new BigDecimal(in.readUTF()));
+            int unit = in.readInt();
+            rate.setUnit(unit < 0 ? null : unit);
+            Instant timestamp = readInstant(in);
+            rate.setTimestamp(null == timestamp ? null : ZonedDateTime.ofInstant(timestamp, ZoneOffset.UTC));
+            cached.add(new FxRateCache.Entry(rate, Instant.ofEpochMilli(in.readLong())));
+        }
+
+        int rateTypeCount = in.readInt();
+        List<String> rateTypes = new ArrayList<>(rateTypeCount);
+        for (int i = 0; i < rateTypeCount; i++) {
+            rateTypes.add(in.readUTF());
+        }
+        long[] keys = new long[in.readInt()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = in.readLong();
+        }
+
+        S4HanaCsrfTokenCache.Entry csrf = null;
+        if (in.readBoolean()) {
+            String token = in.readUTF();
+            Instant fetchedAt = Instant.ofEpochMilli(in.readLong());
+            List<String> cookies = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                cookies.add(in.readUTF());
+            }
+            csrf = new S4HanaCsrfTokenCache.Entry(token, List.copyOf(cookies), fetchedAt);
+        }
+
+        entries.forEach(freshnessTracker::restore);
+        cached.forEach(rateCache::restore);
+        keyIndex.importKeys(new S4ExchangeRateKeyIndex.Keys(rateTypes, keys));
+        boolean csrfRestored = csrfTokenCache.restore(csrf);
+        log.info("Snapshot {} from {} ago loaded: {} pairs, {} cached rates, {} S/4 keys, CSRF session {}.", file, age,
+                entries.size(), cached.size(), keys.length, csrfRestored ? "restored" : "not restored");
+        return true;
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+        out.writeLong(null == instant ? Long.MIN_VALUE : instant.toEpochMilli());
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        return millis == Long.MIN_VALUE ? null : Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (load()) {
+                log.info("Snapshot loaded in {} ms.", (System.nanoTime() - start) / 1_000_000);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Snapshot couldn't be loaded, starting cold.", e);
+        }
+
+        running = true;
+        writer = Thread.ofVirtual().name("state-snapshots").start(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(properties.interval());
+                    write();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Snapshot couldn't be written.", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        writer.interrupt();
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Snapshot couldn't be written on shutdown.", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts before and stops after the web server and the components whose state it holds.
+     */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 4096;
+    }
+}
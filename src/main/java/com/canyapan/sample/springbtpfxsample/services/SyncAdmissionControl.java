@@ -0,0 +1,246 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.SyncAdmissionProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admits sync requests up to a concurrency limit and a per-principal quota.
+ *
+ * <p>Up to {@code maxConcurrent} syncs run at once and up to {@code maxQueued} more wait at most
+ * {@code maxQueueWait} for a slot. Everything beyond that is rejected immediately with a
+ * {@link TooManyRequestsException}, so an overloaded instance keeps serving the admitted requests at
+ * normal latency instead of slowing all of them down until they time out. The {@code Retry-After} hint
+ * is derived from the average sync duration and the current backlog.
+ *
+ * <p>Each principal additionally draws from its own token bucket, so a single client can't take all
+ * the slots. A request rejected for want of a slot gets its token back, so a principal is only charged for
+ * syncs that ran. Buckets that have refilled completely are equivalent to new ones and are dropped by a sweep
+ * once a minute, off the request path.
+ */
+@Component
+public class SyncAdmissionControl implements SmartLifecycle {
+
+    private static final Duration EVICTION_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration MIN_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final Duration MAX_RETRY_AFTER = Duration.ofSeconds(60);
+    private static final Permit NO_OP = () -> {
+    };
+
+    private final SyncAdmissionProperties properties;
+    private final Semaphore slots;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedQueueTimeout;
+    private final Counter rejectedQuota;
+
+    private volatile double averageSyncNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private volatile boolean running;
+    private Thread evictor;
+
+    public SyncAdmissionControl(SyncAdmissionProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.slots = new Semaphore(properties.maxConcurrent(), true);
+
+        Gauge.builder("sync.admission.in-flight", slots, s -> properties.maxConcurrent() - s.availablePermits())
+                .register(meterRegistry);
+        Gauge.builder("sync.admission.queued", queued, AtomicInteger::get)
+                .register(meterRegistry);
+        this.rejectedQueueFull = meterRegistry.counter("sync.admission.rejected", "reason", "queue-full");
+        this.rejectedQueueTimeout = meterRegistry.counter("sync.admission.rejected", "reason", "queue-timeout");
+        this.rejectedQuota = meterRegistry.counter("sync.admission.rejected", "reason", "quota");
+    }
+
+    /**
+     * Admits a sync for the given principal or throws {@link TooManyRequestsException}.
+     * The returned permit must be closed when the sync is done.
+     */
+    public Permit acquire(String principal) {
+        if (!properties.enabled()) {
+            return NO_OP;
+        }
+
+        TokenBucket bucket = checkQuota(principal);
+        try {
+            acquireSlot();
+        } catch (TooManyRequestsException e) {
+            if (null != bucket) {
+                bucket.giveBack();
+            }
+            throw e;
+        }
+
+        long start = System.nanoTime();
+        return () -> {
+            slots.release();
+            // Unsynchronized on purpose: a lost update only skews the Retry-After hint a little.
+            averageSyncNanos += 0.2 * ((System.nanoTime() - start) - averageSyncNanos);
+        };
+    }
+
+    private void acquireSlot() {
+        if (slots.tryAcquire()) {
+            return;
+        }
+        if (queued.incrementAndGet() > properties.maxQueued()) {
+            queued.decrementAndGet();
+            rejectedQueueFull.increment();
+            throw new TooManyRequestsException("Too many exchange rate syncs in progress. Please retry later.", retryAfter());
+        }
+        try {
+            if (!slots.tryAcquire(properties.maxQueueWait().toNanos(), TimeUnit.NANOSECONDS)) {
+                rejectedQueueTimeout.increment();
+                throw new TooManyRequestsException("Too many exchange rate syncs in progress. Please retry later.", retryAfter());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TooManyRequestsException("Interrupted while waiting for a sync slot.", retryAfter());
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes a token from the principal's bucket and returns the bucket, {@code null} without a quota.
+     */
+    private TokenBucket checkQuota(String principal) {
+        SyncAdmissionProperties.PrincipalQuota quota = properties.perPrincipal();
+        if (quota.requestsPerSecond() <= 0 || null == principal) {
+            return null;
+        }
+
+        TokenBucket bucket = buckets.computeIfAbsent(principal, p -> new TokenBucket(quota.requestsPerSecond(), quota.burst()));
+        long waitNanos = bucket.tryTake();
+        if (waitNanos > 0) {
+            rejectedQuota.increment();
+            throw new TooManyRequestsException("Sync quota of %s exceeded. Please retry later.".formatted(principal),
+                    clamp(Duration.ofNanos(waitNanos)));
+        }
+        return bucket;
+    }
+
+    /**
+     * Drops the buckets that have refilled completely. A request racing the sweep may still take from a
+     * dropped bucket, which was as good as a new one.
+     */
+    void evictIdleBuckets() {
+        buckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    int bucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Roughly the time until the current backlog has drained.
+     */
+    private Duration retryAfter() {
+        double backlog = queued.get() + properties.maxConcurrent();
+        return clamp(Duration.ofNanos((long) (averageSyncNanos * backlog / properties.maxConcurrent())));
+    }
+
+    private static Duration clamp(Duration retryAfter) {
+        if (retryAfter.compareTo(MIN_RETRY_AFTER) < 0) {
+            return MIN_RETRY_AFTER;
+        }
+        return retryAfter.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : retryAfter;
+    }
+
+    @Override
+    public void start() {
+        if (!properties.enabled() || properties.perPrincipal().requestsPerSecond() <= 0) {
+            return;
+        }
+
+        running = true;
+        evictor = Thread.ofVirtual().name("sync-admission-evictor").start(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(EVICTION_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                evictIdleBuckets();
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (null != evictor) {
+            evictor.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    static final class TokenBucket {
+
+        private final double tokensPerNano;
+        private final int capacity;
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(double tokensPerSecond, int capacity) {
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, capacity);
+            this.tokens = this.capacity;
+            this.refilledAt = System.nanoTime();
+        }
+
+        /**
+         * Takes a token and returns 0, or returns the nanos until the next token is available.
+         */
+        synchronized long tryTake() {
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        /**
+         * Returns a token taken for a request that didn't run after all.
+         */
+        synchronized void giveBack() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+    }
+}
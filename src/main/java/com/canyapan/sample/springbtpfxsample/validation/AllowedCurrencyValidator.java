@@ -1,21 +1,20 @@
 package com.canyapan.sample.springbtpfxsample.validation;
 
+import com.canyapan.sample.springbtpfxsample.services.CurrencyRegistry;
 import jakarta.validation.ConstraintValidator;
 import jakarta.validation.ConstraintValidatorContext;
-import org.springframework.beans.factory.annotation.Value;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
-import java.util.Set;
-
 @Component
+@RequiredArgsConstructor
 public class AllowedCurrencyValidator implements ConstraintValidator<AllowedCurrency, String> {
 
-    @Value("${fx.api.allowed-currencies:}")
-    private Set<String> allowedCurrencies;
+    private final CurrencyRegistry currencyRegistry;
 
     @Override
     public boolean isValid(String value, ConstraintValidatorContext context) {
 
-        return allowedCurrencies.contains(value);
+        return currencyRegistry.contains(value);
     }
 }
@@ -0,0 +1,104 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the FX provider, answering {@code GET /api/rates/{base}/{target}/latest} and
+ * {@code GET /api/rates/{base}/{target}/{yyyy-MM-dd}} with the same payload shape as the real service.
+ *
+ * <p>It also serves a server-sent events tick feed at {@code /api/stream/rates?pairs=USD/EUR,USD/GBP&rate=500}
+ * that emits ticks round-robin over the given pairs at the given rate per second, and continues the
+ * event ids after {@code Last-Event-ID} on reconnect.
+ */
+public class FxStubServer extends StubServer {
+
+    public FxStubServer(LatencyDistribution latency, double errorRate) throws IOException {
+        super(latency, errorRate);
+
+        route("/api/stream/rates", this::handleStream);
+
+        route("/api/rates/", exchange -> {
+            count("fx.latest");
+
+            String[] segments = exchange.getRequestURI().getPath().split("/");
+            // ["", "api", "rates", base, target, "latest" or date]
+            if (segments.length != 6 || !("latest".equals(segments[5]) || segments[5].matches("\\d{4}-\\d{2}-\\d{2}"))) {
+                respond(exchange, 404, "application/json", "{\"status_code\":404,\"data\":{}}");
+                return;
+            }
+
+            if (simulate()) {
+                count("fx.error");
+                respond(exchange, 503, "application/json", "{\"status_code\":503,\"data\":{}}");
+                return;
+            }
+
+            double mid = 1 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+            Instant timestamp = "latest".equals(segments[5]) ? Instant.now() : LocalDate.parse(segments[5]).atStartOfDay(ZoneOffset.UTC).toInstant();
+            respond(exchange, 200, "application/json", String.format(Locale.ROOT,
+                    "{\"status_code\":200,\"data\":{\"base\":\"%s\",\"target\":\"%s\",\"mid\":%.6f,\"unit\":1,\"timestamp\":\"%s\"}}",
+                    segments[3], segments[4], mid, timestamp));
+        });
+    }
+
+    private void handleStream(HttpExchange exchange) throws Exception {
+        count("fx.stream.connect");
+
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getQuery();
+        if (null != rawQuery) {
+            for (String param : rawQuery.split("&")) {
+                String[] kv = param.split("=", 2);
+                query.put(kv[0], kv.length > 1 ? kv[1] : "");
+            }
+        }
+        List<String[]> pairs = Arrays.stream(query.getOrDefault("pairs", "USD/EUR").split(","))
+                .map(pair -> pair.split("/"))
+                .toList();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, Integer.parseInt(query.getOrDefault("rate", "100")));
+
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        long id = null == lastEventId ? 0 : Long.parseLong(lastEventId);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                String[] pair = pairs.get((int) (id % pairs.size()));
+                id++;
+                double mid = 1 + ThreadLocalRandom.current().nextDouble(-0.05, 0.05);
+                out.write(String.format(Locale.ROOT,
+                        "id: %d%ndata: {\"base\":\"%s\",\"target\":\"%s\",\"mid\":%.6f,\"unit\":1,\"timestamp\":\"%s\"}%n%n",
+                        id, pair[0], pair[1], mid, Instant.now()).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                count("fx.stream.tick");
+                TimeUnit.NANOSECONDS.sleep(intervalNanos);
+            }
+        } catch (IOException e) {
+            // Client went away.
+        }
+    }
+
+    public String getStreamUrl(String pairs, int ratePerSecond) {
+        return getBaseUrl() + "/api/stream/rates?pairs=" + pairs + "&rate=" + ratePerSecond;
+    }
+
+    public String getApiBaseUrl() {
+        return getBaseUrl() + "/api/";
+    }
+}
@@ -0,0 +1,56 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Machine-readable run report. Keeps insertion order so reports of different runs diff cleanly,
+ * and is written as JSON to {@code build/reports/performance} (or {@code perf.report-dir}).
+ */
+public class JsonReport {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .build();
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final Map<String, Object> root = new LinkedHashMap<>();
+
+    public JsonReport(String name) {
+        root.put("name", name);
+        root.put("timestamp", Instant.now().toString());
+    }
+
+    public JsonReport put(String key, Object value) {
+        root.put(key, value);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> section(String key) {
+        return (Map<String, Object>) root.computeIfAbsent(key, k -> new LinkedHashMap<String, Object>());
+    }
+
+    public Path write() throws IOException {
+        Path dir = Path.of(System.getProperty("perf.report-dir", "build/reports/performance"));
+        Files.createDirectories(dir);
+
+        Path file = dir.resolve("%s-%s.json".formatted(root.get("name"), FILE_TIMESTAMP.format(Instant.now())));
+        Files.writeString(file, toJson(), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    public String toJson() {
+        return MAPPER.writeValueAsString(root) + '\n';
+    }
+}
@@ -0,0 +1,64 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Stand-in for the XSUAA JWK endpoint, which also signs test JWTs with the published key
+ * so the load generator goes through the real resource-server validation path.
+ */
+public class JwtIssuerStubServer extends StubServer {
+
+    private final RSAKey signingKey;
+
+    public JwtIssuerStubServer() throws IOException {
+        super(LatencyDistribution.NONE, 0);
+
+        try {
+            this.signingKey = new RSAKeyGenerator(2048).keyID("perf-key").generate();
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Could not generate the test signing key.", e);
+        }
+
+        String jwks = new JWKSet(signingKey.toPublicJWK()).toString();
+        route("/jwks", exchange -> {
+            count("jwks");
+            respond(exchange, 200, "application/json", jwks);
+        });
+    }
+
+    public String getJwkSetUri() {
+        return getBaseUrl() + "/jwks";
+    }
+
+    public String issue(String subject, String scope, Duration validity) {
+        Instant now = Instant.now();
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .issuer(getBaseUrl())
+                .claim("scope", scope)
+                .issueTime(Date.from(now))
+                .expirationTime(Date.from(now.plus(validity)))
+                .build();
+
+        try {
+            SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+            jwt.sign(new RSASSASigner(signingKey));
+            return jwt.serialize();
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Could not sign the test JWT.", e);
+        }
+    }
+}
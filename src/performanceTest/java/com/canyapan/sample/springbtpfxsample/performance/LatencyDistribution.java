@@ -0,0 +1,59 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency distribution applied by the stand-in servers before they answer a request.
+ *
+ * <p>Parsed from a compact spec so it can be passed as a Gradle property:
+ * <ul>
+ *     <li>{@code fixed:20ms}</li>
+ *     <li>{@code uniform:5ms:50ms}</li>
+ *     <li>{@code lognormal:20ms:0.5} (median and sigma, gives a realistic long tail)</li>
+ * </ul>
+ */
+public sealed interface LatencyDistribution {
+
+    LatencyDistribution NONE = new Fixed(Duration.ZERO);
+
+    long sampleNanos();
+
+    static LatencyDistribution parse(String spec) {
+        if (null == spec || spec.isBlank()) {
+            return NONE;
+        }
+
+        String[] parts = spec.trim().split(":");
+        return switch (parts[0]) {
+            case "fixed" -> new Fixed(DurationStyle.detectAndParse(parts[1]));
+            case "uniform" -> new Uniform(DurationStyle.detectAndParse(parts[1]), DurationStyle.detectAndParse(parts[2]));
+            case "lognormal" -> new LogNormal(DurationStyle.detectAndParse(parts[1]), Double.parseDouble(parts[2]));
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        };
+    }
+
+    record Fixed(Duration latency) implements LatencyDistribution {
+        @Override
+        public long sampleNanos() {
+            return latency.toNanos();
+        }
+    }
+
+    record Uniform(Duration min, Duration max) implements LatencyDistribution {
+        @Override
+        public long sampleNanos() {
+            return ThreadLocalRandom.current().nextLong(min.toNanos(), max.toNanos() + 1);
+        }
+    }
+
+    record LogNormal(Duration median, double sigma) implements LatencyDistribution {
+        @Override
+        public long sampleNanos() {
+            double gaussian = ThreadLocalRandom.current().nextGaussian();
+            return (long) (median.toNanos() * Math.exp(sigma * gaussian));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.canyapan.sample.springbtpfxsample.configs.BoundedAsyncAppender;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures what the sync endpoint's log line costs the request thread: the formatted info line written by a
+ * synchronous console appender as it was, the same fields as key-value pairs, then handed to the
+ * {@link BoundedAsyncAppender}, and the key-value call with info disabled, as it is in production by default.
+ * Reports nanoseconds and allocated bytes per call on the calling thread. Writes a JSON report next to the
+ * load test's.
+ *
+ * <p>The console is a sink that takes {@code perf.logging.sink-micros} per written line, like a pipe to the
+ * platform's log collector, and the calls are spaced {@code perf.logging.request-micros} apart as requests
+ * would be. For example
+ * {@code ./gradlew performanceTest --tests '*LoggingOverhead*' -Pperf.logging.sink-micros=50}.
+ */
+class LoggingOverheadPerformanceTest {
+
+    private static final String PATTERN = "%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p --- [%t] %-40.40logger{39} : %m %kvp%n";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void compareSyncWithAsyncLogging() throws Exception {
+        int calls = Integer.parseInt(setting("perf.logging.calls", "20000"));
+        int warmUpCalls = Integer.parseInt(setting("perf.logging.warm-up-calls", "20000"));
+        long sinkNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(setting("perf.logging.sink-micros", "20")));
+        long requestNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(setting("perf.logging.request-micros", "50")));
+        int bufferSize = Integer.parseInt(setting("perf.logging.buffer-size", "8192"));
+
+        JsonReport report = new JsonReport("logging-overhead");
+        Map<String, Object> config = report.section("config");
+        config.put("calls", calls);
+        config.put("warmUpCalls", warmUpCalls);
+        config.put("sinkMicros", sinkNanos / 1_000);
+        config.put("requestMicros", requestNanos / 1_000);
+        config.put("bufferSize", bufferSize);
+
+        Map<String, Object> results = report.section("results");
+        results.put("sync-formatted", run(false, Level.INFO, false, calls, warmUpCalls, sinkNanos, requestNanos, bufferSize));
+        results.put("sync-key-values", run(false, Level.INFO, true, calls, warmUpCalls, sinkNanos, requestNanos, bufferSize));
+        results.put("async-key-values", run(true, Level.INFO, true, calls, warmUpCalls, sinkNanos, requestNanos, bufferSize));
+        results.put("disabled-key-values", run(true, Level.WARN, true, calls, warmUpCalls, sinkNanos, requestNanos, bufferSize));
+
+        Path file = report.write();
+        System.out.println(report.toJson());
+        System.out.println("Report written to " + file);
+    }
+
+    private static Map<String, Object> run(boolean async, Level level, boolean keyValues, int calls, int warmUpCalls,
+                                           long sinkNanos, long requestNanos, int bufferSize) {
+        LoggerContext context = new LoggerContext();
+        SlowSink sink = new SlowSink(sinkNanos);
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+
+        OutputStreamAppender<ILoggingEvent> console = new OutputStreamAppender<>();
+        console.setContext(context);
+        console.setName("CONSOLE");
+        console.setEncoder(encoder);
+        console.setOutputStream(sink);
+        console.start();
+
+        BoundedAsyncAppender appender = new BoundedAsyncAppender();
+        appender.setContext(context);
+        appender.setName("ASYNC");
+        appender.setAsync(async);
+        appender.setBufferSize(bufferSize);
+        appender.setOverflow("drop");
+        appender.setMaxFlushTime(10_000);
+        appender.addAppender(console);
+        appender.start();
+
+        Logger logger = context.getLogger("com.canyapan.sample.springbtpfxsample.controllers.ExchangeRateController");
+        logger.setLevel(level);
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+
+        for (int i = 0; i < warmUpCalls; i++) {
+            logCall(logger, keyValues, i);
+            spin(requestNanos);
+        }
+        long writtenBefore = sink.lines.sum();
+        long droppedBefore = appender.getDroppedCount();
+
+        long[] samples = new long[calls];
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < calls; i++) {
+            long start = System.nanoTime();
+            logCall(logger, keyValues, i);
+            samples[i] = System.nanoTime() - start;
+            spin(requestNanos);
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        context.stop();
+        long written = sink.lines.sum() - writtenBefore;
+        long dropped = appender.getDroppedCount() - droppedBefore;
+        if (level == Level.INFO) {
+            assertEquals(calls, written + dropped);
+        }
+
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("nanosPerCallP50", sorted[sorted.length / 2]);
+        result.put("nanosPerCallP99", sorted[(int) (sorted.length * 0.99)]);
+        result.put("nanosPerCallMean", Arrays.stream(samples).average().orElse(0));
+        result.put("bytesAllocatedPerCall", (double) allocated / calls);
+        result.put("written", written);
+        result.put("dropped", dropped);
+        return result;
+    }
+
+    /**
+     * The log line of {@code ExchangeRateController.syncRate}, before and after it moved to key-value pairs.
+     */
+    private static void logCall(Logger logger, boolean keyValues, int i) {
+        String user = (i & 1) == 0 ? "alice" : "bob";
+        if (keyValues) {
+            logger.atInfo()
+                    .setMessage("exchange sync is done")
+                    .addKeyValue("base", "USD")
+                    .addKeyValue("target", "EUR")
+                    .addKeyValue("user", user)
+                    .addKeyValue("tenant", "default")
+                    .addKeyValue("outcome", "fresh")
+                    .addKeyValue("durationMs", 12L)
+                    .log();
+        } else {
+            logger.info("exchange sync is triggered for {}/{} by user {} of tenant {}", "USD", "EUR", user, "default");
+        }
+    }
+
+    private static void spin(long nanos) {
+        long until = System.nanoTime() + nanos;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static String setting(String key, String defaultValue) {
+        return System.getProperty(key, defaultValue);
+    }
+
+    /**
+     * Discards what is written but takes {@code nanos} per flushed line, as a console piped to a collector would.
+     */
+    private static class SlowSink extends OutputStream {
+
+        private final long nanos;
+        private final LongAdder lines = new LongAdder();
+
+        SlowSink(long nanos) {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines.increment();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        @Override
+        public void flush() {
+            spin(nanos);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Open-model load generator: requests are started at a fixed arrival rate regardless of how many
+ * are still in flight, so a slow server can't throttle the offered load.
+ *
+ * <p>Latency is measured from each request's <em>intended</em> start time rather than the time it was
+ * actually sent, which keeps scheduler hiccups from hiding queueing delay (coordinated omission).
+ */
+public class OpenModelLoadGenerator {
+
+    private final HttpClient httpClient;
+    private final IntFunction<HttpRequest> requestFactory;
+    private final int ratePerSecond;
+    private final Duration duration;
+
+    public OpenModelLoadGenerator(HttpClient httpClient, IntFunction<HttpRequest> requestFactory, int ratePerSecond, Duration duration) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive.");
+        }
+        this.httpClient = httpClient;
+        this.requestFactory = requestFactory;
+        this.ratePerSecond = ratePerSecond;
+        this.duration = duration;
+    }
+
+    public Result run(Duration drainTimeout) throws InterruptedException {
+        int total = (int) Math.max(1, duration.toMillis() * ratePerSecond / 1000);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+
+        long[] latencies = new long[total];
+        AtomicInteger recorded = new AtomicInteger();
+        Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> inFlight = new ArrayList<>(total);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            inFlight.add(httpClient.sendAsync(requestFactory.apply(i), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        latencies[recorded.getAndIncrement()] = System.nanoTime() - intended;
+                        String outcome = null == error ? String.valueOf(response.statusCode()) : error.getClass().getSimpleName();
+                        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+                    }));
+        }
+
+        try {
+            CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new))
+                    .exceptionally(e -> null)
+                    .get(drainTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Whatever completed is still reported; the rest shows up as missing completions.
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int completed = Math.min(recorded.get(), total);
+        long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+
+        Map<String, Long> outcomeCounts = new TreeMap<>();
+        outcomes.forEach((k, v) -> outcomeCounts.put(k, v.sum()));
+
+        return new Result(ratePerSecond, total, completed, elapsed, sorted, outcomeCounts);
+    }
+
+    public static HttpRequest.Builder post(URI uri, String bearerToken) {
+        return HttpRequest.newBuilder(uri)
+                .header("Authorization", "Bearer " + bearerToken)
+                .POST(HttpRequest.BodyPublishers.noBody());
+    }
+
+    public record Result(int targetRate, int sent, int completed, long elapsedNanos, long[] sortedLatencies,
+                         Map<String, Long> outcomes) {
+
+        public double throughput() {
+            return completed * 1e9 / elapsedNanos;
+        }
+
+        public double percentileMillis(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import com.canyapan.sample.springbtpfxsample.services.FxClient;
+import org.junit.jupiter.api.Test;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the JSON and CBOR payloads of the rate read endpoints: size of a batch of rates, the cost of
+ * encoding it on the server and the cost of decoding it on the client, as the median of timed rounds after
+ * a warm-up. Writes a JSON report next to the load test's.
+ *
+ * <p>Tunables are passed as Gradle properties, for example
+ * {@code ./gradlew performanceTest --tests '*PayloadFormat*' -Pperf.payload.rates=5000 -Pperf.payload.rounds=200}.
+ */
+class PayloadFormatPerformanceTest {
+
+    private static final TypeReference<List<FxClient.ExchangeRate>> RATES = new TypeReference<>() {
+    };
+
+    @Test
+    void compareJsonWithCbor() throws Exception {
+        int count = Integer.parseInt(setting("perf.payload.rates", "5000"));
+        int rounds = Integer.parseInt(setting("perf.payload.rounds", "100"));
+        int warmUpRounds = Integer.parseInt(setting("perf.payload.warm-up-rounds", "50"));
+        List<FxClient.ExchangeRate> rates = rates(count);
+
+        Map<String, ObjectMapper> mappers = new LinkedHashMap<>();
+        mappers.put("json", JsonMapper.builder().build());
+        mappers.put("cbor", CBORMapper.builder().build());
+
+        JsonReport report = new JsonReport("payload-formats");
+        Map<String, Object> config = report.section("config");
+        config.put("rates", count);
+        config.put("rounds", rounds);
+        config.put("warmUpRounds", warmUpRounds);
+
+        Map<String, Object> results = report.section("results");
+        for (Map.Entry<String, ObjectMapper> entry : mappers.entrySet()) {
+            ObjectMapper mapper = entry.getValue();
+            byte[] payload = mapper.writeValueAsBytes(rates);
+            List<FxClient.ExchangeRate> decoded = mapper.readValue(payload, RATES);
+            assertEquals(count, decoded.size());
+            assertEquals(rates.getLast().getMid(), decoded.getLast().getMid());
+
+            long[] encode = time(warmUpRounds, rounds, () -> mapper.writeValueAsBytes(rates));
+            long[] decode = time(warmUpRounds, rounds, () -> mapper.readValue(payload, RATES));
+
+            Map<String, Object> format = new LinkedHashMap<>();
+            format.put("payloadBytes", payload.length);
+            format.put("bytesPerRate", (double) payload.length / count);
+            format.put("encodeMicrosP50", median(encode) / 1_000.0);
+            format.put("decodeMicrosP50", median(decode) / 1_000.0);
+            format.put("encodeNanosPerRate", (double) median(encode) / count);
+            format.put("decodeNanosPerRate", (double) median(decode) / count);
+            results.put(entry.getKey(), format);
+        }
+
+        Path file = report.write();
+        System.out.println(report.toJson());
+        System.out.println("Report written to " + file);
+    }
+
+    private static List<FxClient.ExchangeRate> rates(int count) {
+        List<String> currencies = List.of("USD", "EUR", "GBP", "JPY", "CHF", "TRY", "CAD", "AUD");
+        Random random = new Random(42);
+        ZonedDateTime start = ZonedDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        return IntStream.range(0, count).mapToObj(i -> {
+            FxClient.ExchangeRate rate = new FxClient.ExchangeRate();
+            rate.setBase(currencies.get(i % currencies.size()));
+            rate.setTarget(currencies.get((i / currencies.size() + 1 + i) % currencies.size()));
+            rate.setDate(start.plusDays(i / 64).toLocalDate().toString());
+            rate.setMid(BigDecimal.valueOf(0.5 + random.nextDouble()).setScale(6, RoundingMode.HALF_UP));
+            rate.setUnit(1);
+            rate.setTimestamp(start.plusDays(i / 64).plusSeconds(i));
+            return rate;
+        }).toList();
+    }
+
+    private static long[] time(int warmUpRounds, int rounds, Runnable task) {
+        for (int i = 0; i < warmUpRounds; i++) {
+            task.run();
+        }
+        long[] samples = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            task.run();
+            samples[i] = System.nanoTime() - start;
+        }
+        return samples;
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String setting(String key, String defaultValue) {
+        return System.getProperty(key, defaultValue);
+    }
+}
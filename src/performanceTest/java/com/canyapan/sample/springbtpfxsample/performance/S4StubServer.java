@@ -0,0 +1,188 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for the S/4HANA {@code API_EXCHANGE_RATE_SRV} OData service.
+ *
+ * <p>Issues CSRF tokens bound to a session cookie on {@code x-csrf-token: Fetch} and accepts
+ * {@code POST A_ExchangeRate} only with a token younger than the configured expiry. Expired
+ * or unknown tokens are answered with 403, like S/4 does, so the client's refresh path is
+ * exercised under load too. {@code PATCH A_ExchangeRate(...)} updates are checked the same way.
+ * {@code POST $batch} is accepted with the same token checks and answers every create or update
+ * part, each in a changeset of its own, with a success. Reading {@code A_ExchangeRate} returns an empty page.
+ * Expired sessions are swept, at most once a second on a token fetch, so long runs don't accumulate them.
+ */
+public class S4StubServer extends StubServer {
+
+    private static final String SERVICE_PATH = "/sap/opu/odata/sap/API_EXCHANGE_RATE_SRV";
+    private static final Pattern BATCH_PART = Pattern.compile("^(POST|PATCH) A_ExchangeRate", Pattern.MULTILINE);
+
+    private final Duration tokenExpiry;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepAt = new AtomicLong(System.nanoTime());
+
+    public S4StubServer(LatencyDistribution latency, double errorRate, Duration tokenExpiry) throws IOException {
+        super(latency, errorRate);
+        this.tokenExpiry = tokenExpiry;
+
+        route(SERVICE_PATH, exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+
+            if ("GET".equals(method) && path.equals(SERVICE_PATH)) {
+                handleCsrfFetch(exchange);
+            } else if ("GET".equals(method) && path.equals(SERVICE_PATH + "/A_ExchangeRate")) {
+                count("s4.read");
+                respond(exchange, 200, "application/json", "{\"d\":{\"results\":[]}}");
+            } else if ("PATCH".equals(method) && path.startsWith(SERVICE_PATH + "/A_ExchangeRate(")) {
+                handleUpdate(exchange);
+            } else if ("POST".equals(method) && path.equals(SERVICE_PATH + "/A_ExchangeRate")) {
+                handleCreate(exchange);
+            } else if ("POST".equals(method) && path.equals(SERVICE_PATH + "/$batch")) {
+                handleBatch(exchange);
+            } else {
+                count("s4.unknown");
+                respond(exchange, 404, null, null);
+            }
+        });
+    }
+
+    public String getODataBaseUrl() {
+        return getBaseUrl() + "/sap/opu/odata/sap/";
+    }
+
+    private void handleCsrfFetch(HttpExchange exchange) throws Exception {
+        count("s4.csrf-fetch");
+
+        if (simulate()) {
+            count("s4.error");
+            respond(exchange, 503, null, null);
+            return;
+        }
+
+        long now = System.nanoTime();
+        sweepExpiredSessions(now);
+
+        String token = UUID.randomUUID().toString();
+        String sessionId = UUID.randomUUID().toString();
+        sessions.put(token, new Session(sessionId, now));
+
+        exchange.getResponseHeaders().set("x-csrf-token", token);
+        exchange.getResponseHeaders().add("Set-Cookie", "SAP_SESSIONID=" + sessionId + "; Path=/");
+        respond(exchange, 200, null, null);
+    }
+
+    private void handleCreate(HttpExchange exchange) throws Exception {
+        count("s4.create");
+        readBody(exchange);
+
+        if (!hasValidToken(exchange)) {
+            count("s4.csrf-rejected");
+            respond(exchange, 403, null, null);
+            return;
+        }
+
+        if (simulate()) {
+            count("s4.error");
+            respond(exchange, 503, null, null);
+            return;
+        }
+
+        respond(exchange, 201, "application/json", "{\"d\":{}}");
+    }
+
+    private void handleUpdate(HttpExchange exchange) throws Exception {
+        count("s4.update");
+        readBody(exchange);
+
+        if (!hasValidToken(exchange)) {
+            count("s4.csrf-rejected");
+            respond(exchange, 403, null, null);
+            return;
+        }
+
+        if (simulate()) {
+            count("s4.error");
+            respond(exchange, 503, null, null);
+            return;
+        }
+
+        respond(exchange, 204, null, null);
+    }
+
+    private void handleBatch(HttpExchange exchange) throws Exception {
+        count("s4.batch");
+        String body = readBody(exchange);
+
+        if (!hasValidToken(exchange)) {
+            count("s4.csrf-rejected");
+            respond(exchange, 403, null, null);
+            return;
+        }
+
+        if (simulate()) {
+            count("s4.error");
+            respond(exchange, 503, null, null);
+            return;
+        }
+
+        int creates = 0;
+        int updates = 0;
+        StringBuilder response = new StringBuilder();
+        Matcher matcher = BATCH_PART.matcher(body);
+        while (matcher.find()) {
+            boolean create = "POST".equals(matcher.group(1));
+            if (create) {
+                creates++;
+            } else {
+                updates++;
+            }
+            // The client sends a changeset per part, each is answered in order.
+            String changeset = "changeset_" + UUID.randomUUID();
+            response.append("--batchresponse\r\n")
+                    .append("Content-Type: multipart/mixed; boundary=").append(changeset).append("\r\n\r\n")
+                    .append("--").append(changeset).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-Transfer-Encoding: binary\r\n\r\n")
+                    .append(create ? "HTTP/1.1 201 Created\r\n" : "HTTP/1.1 204 No Content\r\n")
+                    .append("Content-Type: application/json\r\n\r\n")
+                    .append(create ? "{\"d\":{}}\r\n" : "\r\n")
+                    .append("--").append(changeset).append("--\r\n\r\n");
+        }
+        response.append("--batchresponse--\r\n");
+        count("s4.create", creates);
+        count("s4.update", updates);
+
+        respond(exchange, 202, "multipart/mixed; boundary=batchresponse", response.toString());
+    }
+
+    private void sweepExpiredSessions(long now) {
+        long sweepAt = nextSweepAt.get();
+        if (now - sweepAt < 0 || !nextSweepAt.compareAndSet(sweepAt, now + TimeUnit.SECONDS.toNanos(1))) {
+            return;
+        }
+        sessions.values().removeIf(session -> now - session.issuedAt() > tokenExpiry.toNanos());
+    }
+
+    private boolean hasValidToken(HttpExchange exchange) {
+        Session session = sessions.get(String.valueOf(exchange.getRequestHeaders().getFirst("x-csrf-token")));
+        String cookies = String.valueOf(exchange.getRequestHeaders().getFirst("Cookie"));
+        return null != session
+                && cookies.contains(session.id())
+                && System.nanoTime() - session.issuedAt() <= tokenExpiry.toNanos();
+    }
+
+    private record Session(String id, long issuedAt) {
+    }
+}
@@ -0,0 +1,228 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time-to-first-request and resident memory for each configured launch variant.
+ *
+ * <p>A variant is a system property {@code bench.variant.<name>} holding the JVM arguments and
+ * launch target, e.g. {@code -jar app.jar}, or just the path of a native executable. Each variant
+ * is started {@code bench.runs} times on a free port against the local FX, S/4 and JWK stand-ins,
+ * timed until the first HTTP response (any status) and sampled for RSS right after. Application
+ * arguments in {@code bench.app-args} are passed to every run and take precedence over the stand-ins. When
+ * {@code bench.load.rate} is set, every run is then driven at that arrival rate for
+ * {@code bench.load.duration} to report throughput, p99 and RSS under load.
+ * The medians are written as a JSON report; the first variant is the baseline for the speed-up.
+ */
+public final class StartupBenchmark {
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String java = System.getProperty("bench.java", Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        int runs = Integer.parseInt(System.getProperty("bench.runs", "5"));
+        int loadRate = Integer.parseInt(System.getProperty("bench.load.rate", "0"));
+        Duration loadDuration = DurationStyle.detectAndParse(System.getProperty("bench.load.duration", "10s"));
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        System.getProperties().stringPropertyNames().stream()
+                .filter(key -> key.startsWith("bench.variant."))
+                .sorted((a, b) -> a.endsWith(".jvm") ? -1 : b.endsWith(".jvm") ? 1 : a.compareTo(b))
+                .forEach(key -> variants.put(key.substring("bench.variant.".length()), split(System.getProperty(key))));
+
+        if (variants.isEmpty()) {
+            throw new IllegalArgumentException("No bench.variant.* system property given.");
+        }
+
+        JsonReport report = new JsonReport("startup");
+        report.put("runs", runs);
+        report.put("loadRate", loadRate);
+        report.put("loadDuration", loadDuration.toString());
+        Map<String, Object> results = report.section("variants");
+
+        try (FxStubServer fx = new FxStubServer(LatencyDistribution.parse("fixed:5ms"), 0);
+             S4StubServer s4 = new S4StubServer(LatencyDistribution.parse("fixed:10ms"), 0, Duration.ofMinutes(30));
+             JwtIssuerStubServer jwt = new JwtIssuerStubServer()) {
+            fx.start();
+            s4.start();
+            jwt.start();
+
+            // Arguments passed in win over the stand-ins; Spring would join a repeated option into a list.
+            List<String> appArgs = new ArrayList<>(split(System.getProperty("bench.app-args", "")));
+            addUnlessGiven(appArgs, "--fx.api.base-url", fx.getApiBaseUrl());
+            addUnlessGiven(appArgs, "--sap.s4.base-url", s4.getODataBaseUrl());
+            addUnlessGiven(appArgs, "--spring.security.oauth2.resourceserver.jwt.jwk-set-uri", jwt.getJwkSetUri());
+            String token = jwt.issue("bench-user", "ExchangeRate.Sync", Duration.ofHours(1));
+
+            Double baseline = null;
+            for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                long[] startupMillis = new long[runs];
+                long[] rssKb = new long[runs];
+                double[] throughput = new double[runs];
+                double[] p99Millis = new double[runs];
+                long[] rssAfterLoadKb = new long[runs];
+
+                for (int i = 0; i < runs; i++) {
+                    Measurement m = measure(java, variant.getValue(), appArgs, loadRate, loadDuration, token);
+                    startupMillis[i] = m.timeToFirstRequestMillis();
+                    rssKb[i] = m.rssKb();
+                    throughput[i] = m.throughput();
+                    p99Millis[i] = m.p99Millis();
+                    rssAfterLoadKb[i] = m.rssAfterLoadKb();
+                    System.out.printf("%s run %d: %d ms, %d MB RSS%n", variant.getKey(), i + 1, m.timeToFirstRequestMillis(), m.rssKb() / 1024);
+                }
+
+                Map<String, Object> result = new LinkedHashMap<>();
+                double medianStartup = median(startupMillis);
+                result.put("command", String.join(" ", variant.getValue()));
+                result.put("timeToFirstRequestMillisMedian", medianStartup);
+                result.put("timeToFirstRequestMillisMin", (double) Arrays.stream(startupMillis).min().orElse(0));
+                result.put("rssMbMedian", median(rssKb) / 1024);
+                if (loadRate > 0) {
+                    result.put("throughputPerSecondMedian", median(throughput));
+                    result.put("p99MillisMedian", median(p99Millis));
+                    result.put("rssMbAfterLoadMedian", median(rssAfterLoadKb) / 1024);
+                }
+                if (null == baseline) {
+                    baseline = medianStartup;
+                } else {
+                    result.put("speedUpVsBaseline", baseline / medianStartup);
+                }
+                results.put(variant.getKey(), result);
+            }
+        }
+
+        Path file = report.write();
+        System.out.println(report.toJson());
+        System.out.println("Report written to " + file);
+    }
+
+    static Measurement measure(String java, List<String> variantArgs, List<String> appArgs,
+                               int loadRate, Duration loadDuration, String token) throws IOException, InterruptedException {
+        int port = freePort();
+
+        List<String> command = new ArrayList<>();
+        // A native executable is launched directly, everything else through the JVM.
+        if (variantArgs.isEmpty() || variantArgs.getFirst().startsWith("-")) {
+            command.add(java);
+        }
+        command.addAll(variantArgs);
+        command.addAll(appArgs);
+        command.add("--server.port=" + port);
+
+        Path log = Files.createTempFile("startup-benchmark", ".log");
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+            HttpRequest probe = HttpRequest.newBuilder(URI.create("http://localhost:%d/api/v1/rate/USD/EUR/sync".formatted(port)))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build();
+
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Application exited during startup, see " + log);
+                }
+                if (System.nanoTime() - start > STARTUP_TIMEOUT.toNanos()) {
+                    throw new IllegalStateException("Application did not answer within " + STARTUP_TIMEOUT + ", see " + log);
+                }
+                try {
+                    client.send(probe, HttpResponse.BodyHandlers.discarding());
+                    break;
+                } catch (IOException e) {
+                    TimeUnit.MILLISECONDS.sleep(5);
+                }
+            }
+
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long rss = rssKb(process.pid());
+
+            if (loadRate <= 0) {
+                Files.deleteIfExists(log);
+                return new Measurement(elapsed, rss, Double.NaN, Double.NaN, -1);
+            }
+
+            URI sync = URI.create("http://localhost:%d/api/v1/rate/USD/EUR/sync".formatted(port));
+            OpenModelLoadGenerator.Result load = new OpenModelLoadGenerator(client,
+                    i -> OpenModelLoadGenerator.post(sync, token).timeout(Duration.ofSeconds(30)).build(),
+                    loadRate, loadDuration).run(Duration.ofSeconds(60));
+            Files.deleteIfExists(log);
+            return new Measurement(elapsed, rss, load.throughput(), load.percentileMillis(99), rssKb(process.pid()));
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    static long rssKb(long pid) throws IOException, InterruptedException {
+        Path status = Path.of("/proc", String.valueOf(pid), "status");
+        if (Files.isReadable(status)) {
+            for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        }
+
+        Process ps = new ProcessBuilder("ps", "-o", "rss=", "-p", String.valueOf(pid)).start();
+        String out = new String(ps.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        ps.waitFor();
+        return out.isEmpty() ? -1 : Long.parseLong(out);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static double median(long[] values) {
+        return median(Arrays.stream(values).asDoubleStream().toArray());
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2.0;
+    }
+
+    private static void addUnlessGiven(List<String> args, String option, String value) {
+        if (args.stream().noneMatch(arg -> arg.startsWith(option + "="))) {
+            args.add(option + "=" + value);
+        }
+    }
+
+    private static List<String> split(String value) {
+        return null == value || value.isBlank() ? List.of() : List.of(value.trim().split("\\s+"));
+    }
+
+    record Measurement(long timeToFirstRequestMillis, long rssKb, double throughput, double p99Millis, long rssAfterLoadKb) {
+    }
+}
@@ -0,0 +1,120 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Base class for the lightweight stand-in servers used by the load-test harness.
+ *
+ * <p>Built on the JDK {@link HttpServer} with a virtual thread per exchange, so injected
+ * latency doesn't limit the concurrency the stand-in can absorb. Every handled call is
+ * counted by name so the report can show how many downstream calls a run produced.
+ */
+public abstract class StubServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+
+    protected StubServer(LatencyDistribution latency, double errorRate) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        this.server.setExecutor(executor);
+    }
+
+    protected final void route(String path, ExchangeHandler handler) {
+        server.createContext(path, exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public final StubServer start() {
+        server.start();
+        return this;
+    }
+
+    public final int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public final String getBaseUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    public final Map<String, Long> getCallCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        calls.forEach((name, adder) -> counts.put(name, adder.sum()));
+        return counts;
+    }
+
+    protected final void count(String name) {
+        calls.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    protected final void count(String name, long n) {
+        calls.computeIfAbsent(name, k -> new LongAdder()).add(n);
+    }
+
+    /**
+     * Sleeps for a sampled latency and reports whether the call should fail with an injected error.
+     */
+    protected final boolean simulate() throws InterruptedException {
+        long nanos = latency.sampleNanos();
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    protected static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    protected static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        if (null == body) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    protected interface ExchangeHandler {
+        void handle(HttpExchange exchange) throws Exception;
+    }
+}
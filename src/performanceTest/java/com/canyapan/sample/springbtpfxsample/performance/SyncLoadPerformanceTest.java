@@ -0,0 +1,146 @@
+package com.canyapan.sample.springbtpfxsample.performance;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives {@code POST /api/v1/rate/{base}/{target}/sync} at a fixed arrival rate against local FX,
+ * S/4 and JWK stand-ins and writes a JSON report with throughput, latency percentiles and the
+ * downstream call counts seen by the stand-ins.
+ *
+ * <p>Tunables are passed as Gradle properties, for example
+ * {@code ./gradlew performanceTest -Pperf.rate=200 -Pperf.duration=60s -Pperf.s4.latency=lognormal:80ms:0.8}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("performance")
+class SyncLoadPerformanceTest {
+
+    private static final List<String> CURRENCIES = List.of("USD", "EUR", "GBP");
+
+    private static FxStubServer fxServer;
+    private static S4StubServer s4Server;
+    private static JwtIssuerStubServer jwtIssuer;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @DynamicPropertySource
+    static void standIns(DynamicPropertyRegistry registry) throws IOException {
+        fxServer = (FxStubServer) new FxStubServer(
+                LatencyDistribution.parse(setting("perf.fx.latency", "lognormal:20ms:0.5")),
+                Double.parseDouble(setting("perf.fx.error-rate", "0"))).start();
+        s4Server = (S4StubServer) new S4StubServer(
+                LatencyDistribution.parse(setting("perf.s4.latency", "lognormal:40ms:0.6")),
+                Double.parseDouble(setting("perf.s4.error-rate", "0")),
+                DurationStyle.detectAndParse(setting("perf.s4.token-expiry", "5m"))).start();
+        jwtIssuer = (JwtIssuerStubServer) new JwtIssuerStubServer().start();
+
+        registry.add("fx.api.base-url", fxServer::getApiBaseUrl);
+        registry.add("fx.api.allowed-currencies", () -> String.join(",", CURRENCIES));
+        registry.add("sap.s4.base-url", s4Server::getODataBaseUrl);
+        registry.add("spring.security.oauth2.resourceserver.jwt.jwk-set-uri", jwtIssuer::getJwkSetUri);
+    }
+
+    @AfterAll
+    static void stopStandIns() {
+        fxServer.close();
+        s4Server.close();
+        jwtIssuer.close();
+    }
+
+    @Test
+    void syncUnderFixedArrivalRate() throws Exception {
+        int rate = Integer.parseInt(setting("perf.rate", "50"));
+        Duration duration = DurationStyle.detectAndParse(setting("perf.duration", "20s"));
+        Duration warmUp = DurationStyle.detectAndParse(setting("perf.warm-up", "5s"));
+        int users = Integer.parseInt(setting("perf.users", "10"));
+
+        List<String> tokens = IntStream.range(0, users)
+                .mapToObj(i -> jwtIssuer.issue("perf-user-" + i, "ExchangeRate.Sync", duration.plus(warmUp).plusMinutes(5)))
+                .toList();
+        List<URI> uris = CURRENCIES.stream()
+                .flatMap(base -> CURRENCIES.stream().filter(target -> !target.equals(base))
+                        .map(target -> URI.create("http://localhost:%d/api/v1/rate/%s/%s/sync".formatted(port, base, target))))
+                .toList();
+
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        if (!warmUp.isZero()) {
+            new OpenModelLoadGenerator(httpClient, i -> request(uris, tokens, i), rate, warmUp).run(Duration.ofSeconds(30));
+        }
+        Map<String, Long> fxBefore = fxServer.getCallCounts();
+        Map<String, Long> s4Before = s4Server.getCallCounts();
+
+        OpenModelLoadGenerator.Result result = new OpenModelLoadGenerator(httpClient, i -> request(uris, tokens, i), rate, duration)
+                .run(Duration.ofSeconds(60));
+
+        JsonReport report = new JsonReport("sync-load");
+        Map<String, Object> config = report.section("config");
+        config.put("rate", rate);
+        config.put("duration", duration.toString());
+        config.put("warmUp", warmUp.toString());
+        config.put("users", users);
+        config.put("fxLatency", setting("perf.fx.latency", "lognormal:20ms:0.5"));
+        config.put("fxErrorRate", setting("perf.fx.error-rate", "0"));
+        config.put("s4Latency", setting("perf.s4.latency", "lognormal:40ms:0.6"));
+        config.put("s4ErrorRate", setting("perf.s4.error-rate", "0"));
+        config.put("s4TokenExpiry", setting("perf.s4.token-expiry", "5m"));
+
+        Map<String, Object> results = report.section("results");
+        results.put("sent", result.sent());
+        results.put("completed", result.completed());
+        results.put("throughputPerSecond", result.throughput());
+        results.put("p50Millis", result.percentileMillis(50));
+        results.put("p99Millis", result.percentileMillis(99));
+        results.put("p999Millis", result.percentileMillis(99.9));
+        results.put("maxMillis", result.percentileMillis(100));
+        results.put("statusCodes", result.outcomes());
+
+        Map<String, Object> downstream = report.section("downstreamCalls");
+        delta(fxBefore, fxServer.getCallCounts()).forEach(downstream::put);
+        delta(s4Before, s4Server.getCallCounts()).forEach(downstream::put);
+
+        Path file = report.write();
+        System.out.println(report.toJson());
+        System.out.println("Report written to " + file);
+
+        assertTrue(result.completed() > 0, "No request completed during the load run.");
+    }
+
+    private static HttpRequest request(List<URI> uris, List<String> tokens, int i) {
+        return OpenModelLoadGenerator.post(uris.get(i % uris.size()), tokens.get(i % tokens.size()))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    private static Map<String, Long> delta(Map<String, Long> before, Map<String, Long> after) {
+        Map<String, Long> delta = new TreeMap<>();
+        after.forEach((k, v) -> delta.put(k, v - before.getOrDefault(k, 0L)));
+        return delta;
+    }
+
+    private static String setting(String key, String defaultValue) {
+        return System.getProperty(key, defaultValue);
+    }
+}
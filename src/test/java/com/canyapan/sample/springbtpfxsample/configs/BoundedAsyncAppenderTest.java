@@ -0,0 +1,160 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedAsyncAppenderTest {
+
+    private final LoggerContext context = new LoggerContext();
+    private final GatedAppender console = new GatedAppender();
+    private final Logger logger = context.getLogger("test");
+
+    @AfterEach
+    void tearDown() {
+        console.gate.countDown();
+        context.stop();
+    }
+
+    private BoundedAsyncAppender appender(boolean async, int bufferSize, String overflow) {
+        console.setContext(context);
+        console.start();
+
+        BoundedAsyncAppender appender = new BoundedAsyncAppender();
+        appender.setContext(context);
+        appender.setName("ASYNC");
+        appender.setAsync(async);
+        appender.setBufferSize(bufferSize);
+        appender.setOverflow(overflow);
+        appender.addAppender(console);
+        appender.start();
+
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        return appender;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void shouldDropAndCountEventsOnFullBuffer() throws InterruptedException {
+        BoundedAsyncAppender appender = appender(true, 2, "drop");
+
+        logger.info("event {}", 1);
+        // The worker holds the first event in the console, the buffer takes two more.
+        await(() -> appender.getQueuedCount() == 0);
+        for (int i = 2; i <= 5; i++) {
+            logger.info("event {}", i);
+        }
+
+        assertEquals(2, appender.getDroppedCount());
+        assertEquals(2, appender.getQueuedCount());
+
+        console.gate.countDown();
+        appender.stop();
+
+        assertEquals(List.of("event 1", "event 2", "event 3"),
+                console.events.stream().map(ILoggingEvent::getFormattedMessage).toList());
+        assertEquals(Thread.currentThread().getName(), console.events.getFirst().getThreadName());
+    }
+
+    @Test
+    public void shouldKeepWarningsAndErrorsWhenDroppingInfo() throws InterruptedException {
+        // A fifth of the buffer, one event, is kept for warnings and errors.
+        BoundedAsyncAppender appender = appender(true, 5, "drop");
+
+        logger.info("event {}", 1);
+        await(() -> appender.getQueuedCount() == 0);
+        for (int i = 2; i <= 6; i++) {
+            logger.info("event {}", i);
+        }
+        logger.error("error {}", 7);
+        assertEquals(1, appender.getDroppedCount());
+        assertEquals(5, appender.getQueuedCount());
+
+        // With the buffer full, an error waits for room rather than being dropped.
+        Thread caller = Thread.ofPlatform().start(() -> logger.error("error {}", 8));
+        caller.join(200);
+        assertTrue(caller.isAlive(), "caller should wait for room in the buffer");
+
+        console.gate.countDown();
+        caller.join(5_000);
+        assertFalse(caller.isAlive());
+        appender.stop();
+
+        assertEquals(List.of("event 1", "event 2", "event 3", "event 4", "event 5", "error 7", "error 8"),
+                console.events.stream().map(ILoggingEvent::getFormattedMessage).toList());
+        assertEquals(1, appender.getDroppedCount());
+    }
+
+    @Test
+    public void shouldBlockCallerOnFullBufferInsteadOfDropping() throws InterruptedException {
+        BoundedAsyncAppender appender = appender(true, 1, "block");
+
+        logger.info("event {}", 1);
+        await(() -> appender.getQueuedCount() == 0);
+        logger.info("event {}", 2);
+        Thread caller = Thread.ofPlatform().start(() -> logger.info("event {}", 3));
+
+        caller.join(200);
+        assertTrue(caller.isAlive(), "caller should wait for room in the buffer");
+
+        console.gate.countDown();
+        caller.join(5_000);
+        assertFalse(caller.isAlive());
+        appender.stop();
+
+        assertEquals(3, console.events.size());
+        assertEquals(0, appender.getDroppedCount());
+    }
+
+    @Test
+    public void shouldPassEventsThroughOnCallerThreadWhenNotAsync() {
+        console.gate.countDown();
+        BoundedAsyncAppender appender = appender(false, 1, "drop");
+
+        logger.info("event {}", 1);
+        logger.info("event {}", 2);
+
+        assertEquals(2, console.events.size());
+        assertEquals(Thread.currentThread(), console.writers.getFirst());
+        assertEquals(0, appender.getQueuedCount());
+    }
+
+    /**
+     * Stands in for a slow console; holds every event until the gate opens.
+     */
+    private static class GatedAppender extends AppenderBase<ILoggingEvent> {
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<ILoggingEvent> events = new CopyOnWriteArrayList<>();
+        private final List<Thread> writers = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+            writers.add(Thread.currentThread());
+        }
+    }
+}
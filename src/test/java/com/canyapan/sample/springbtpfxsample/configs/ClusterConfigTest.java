@@ -0,0 +1,34 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import com.canyapan.sample.springbtpfxsample.services.ClusterMembership;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterConfigTest {
+
+    private final ClusterConfig config = new ClusterConfig();
+
+    @Test
+    public void shouldFailFastWhenInstanceIndexIsBeyondCount() {
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> config.clusterMembership(new ClusterProperties(true, 2, 2, 64)));
+
+        assertTrue(e.getMessage().contains("CLUSTER_INSTANCE_COUNT"), e.getMessage());
+    }
+
+    @Test
+    public void shouldTakeAllIndexesBelowCountAsMembers() {
+        ClusterMembership membership = config.clusterMembership(new ClusterProperties(true, 1, 3, 64));
+
+        assertEquals("1", membership.self());
+        assertEquals(Set.of("0", "1", "2"), membership.members());
+    }
+
+    @Test
+    public void shouldIgnoreIndexWhenDisabled() {
+        assertDoesNotThrow(() -> config.clusterMembership(new ClusterProperties(false, 4, 1, 64)));
+    }
+}
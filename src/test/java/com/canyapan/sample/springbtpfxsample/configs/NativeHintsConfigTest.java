@@ -0,0 +1,73 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import com.canyapan.sample.springbtpfxsample.services.FxClient;
+import com.canyapan.sample.springbtpfxsample.validation.AllowedCurrencyValidator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NativeHintsConfigTest {
+
+    private final RuntimeHints hints = new RuntimeHints();
+
+    @BeforeEach
+    void setUp() {
+        new NativeHintsConfig.ApplicationRuntimeHints().registerHints(hints, getClass().getClassLoader());
+    }
+
+    @Test
+    public void shouldRegisterFxDtosForJsonBinding() throws NoSuchMethodException {
+        assertTrue(RuntimeHintsPredicates.reflection().onType(FxClient.Response.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(FxClient.ExchangeRate.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onMethodInvocation(FxClient.Response.class.getMethod("setStatusCode", Integer.class)).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onMethodInvocation(FxClient.ExchangeRate.class.getMethod("getMid")).test(hints));
+    }
+
+    @Test
+    public void shouldRegisterErrorResponseAndValidator() {
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("com.canyapan.sample.springbtpfxsample.controllers.GlobalExceptionHandler$ErrorResponse"))
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_METHODS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(AllowedCurrencyValidator.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS).test(hints));
+    }
+
+    @Test
+    public void shouldRegisterSecurityTypes() {
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(JwtAuthenticationToken.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_METHODS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(Jwt.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_METHODS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(JwtGrantedAuthoritiesConverter.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("com.sap.cloud.security.servlet.HybridTokenFactory"))
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("com.sap.cloud.security.token.XsuaaToken")).test(hints));
+        assertTrue(RuntimeHintsPredicates.resource()
+                .forResource("META-INF/services/com.sap.cloud.security.token.TokenFactory").test(hints));
+    }
+
+    @Test
+    public void shouldRegisterLogbackAppender() {
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(BoundedAsyncAppender.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_METHODS).test(hints));
+    }
+
+}
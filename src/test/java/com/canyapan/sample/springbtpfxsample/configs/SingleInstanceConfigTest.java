@@ -0,0 +1,21 @@
+package com.canyapan.sample.springbtpfxsample.configs;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleInstanceConfigTest {
+
+    @Test
+    public void shouldRefuseToStartAsSecondInstance() {
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> new SingleInstanceConfig(new ClusterProperties(false, 1, 1, 64)));
+
+        assertTrue(e.getMessage().contains("cf scale -i 1"), e.getMessage());
+    }
+
+    @Test
+    public void shouldStartAsFirstInstance() {
+        assertDoesNotThrow(() -> new SingleInstanceConfig(new ClusterProperties(false, 0, 1, 64)));
+    }
+}
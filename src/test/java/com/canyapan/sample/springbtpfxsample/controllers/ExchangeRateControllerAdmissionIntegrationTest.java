@@ -0,0 +1,65 @@
+package com.canyapan.sample.springbtpfxsample.controllers;
+
+import com.canyapan.sample.springbtpfxsample.services.ExchangeRateService;
+import com.canyapan.sample.springbtpfxsample.services.FxClient;
+import com.canyapan.sample.springbtpfxsample.services.FxRateCache;
+import com.canyapan.sample.springbtpfxsample.services.S4TenantClients;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.jwt;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = {
+        "sync.admission.per-principal.requests-per-second=0.1",
+        "sync.admission.per-principal.burst=1"})
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class ExchangeRateControllerAdmissionIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private ExchangeRateService serviceMock;
+
+    @Test
+    void shouldRejectWithRetryAfterWhenPrincipalQuotaIsExceeded() throws Exception {
+        when(serviceMock.updateRate(S4TenantClients.DEFAULT, "USD", "EUR")).thenReturn(
+                new FxRateCache.Served(new FxClient.ExchangeRate(), FxRateCache.Freshness.FRESH, Duration.ZERO));
+
+        mockMvc.perform(post("/api/v1/rate/{base}/{target}/sync", "USD", "EUR")
+                        .with(jwt().jwt(jwt -> jwt.subject("quota-user"))
+                                .authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andExpect(status().is2xxSuccessful());
+
+        mockMvc.perform(post("/api/v1/rate/{base}/{target}/sync", "USD", "EUR")
+                        .with(jwt().jwt(jwt -> jwt.subject("quota-user"))
+                                .authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andDo(print())
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "10"))
+                .andExpect(jsonPath("$.reason").value("Too Many Requests"));
+
+        mockMvc.perform(post("/api/v1/rate/{base}/{target}/sync", "USD", "EUR")
+                        .with(jwt().jwt(jwt -> jwt.subject("another-user"))
+                                .authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andExpect(status().is2xxSuccessful());
+
+        verify(serviceMock, times(2)).updateRate(S4TenantClients.DEFAULT, "USD", "EUR");
+    }
+}
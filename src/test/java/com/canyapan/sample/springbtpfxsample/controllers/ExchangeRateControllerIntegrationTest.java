@@ -1,20 +1,45 @@
 package com.canyapan.sample.springbtpfxsample.controllers;
 
 import com.canyapan.sample.springbtpfxsample.services.ExchangeRateService;
+import com.canyapan.sample.springbtpfxsample.services.FxClient;
+import com.canyapan.sample.springbtpfxsample.services.FxRateCache;
+import com.canyapan.sample.springbtpfxsample.services.RateBackfillService;
+import com.canyapan.sample.springbtpfxsample.services.RateSyncedEvent;
+import com.canyapan.sample.springbtpfxsample.services.S4TenantClients;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
-
+import org.springframework.test.web.servlet.MvcResult;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.jwt;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -28,17 +53,27 @@ class ExchangeRateControllerIntegrationTest {
     @MockitoBean
     private ExchangeRateService serviceMock;
 
+    @MockitoBean
+    private RateBackfillService backfillServiceMock;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     @Test
     void shouldSyncRateForCurrencies() throws Exception {
         String base = "USD";
         String target = "EUR";
+        when(serviceMock.updateRate(S4TenantClients.DEFAULT, base, target)).thenReturn(
+                new FxRateCache.Served(new FxClient.ExchangeRate(), FxRateCache.Freshness.STALE, Duration.ofSeconds(12)));
 
         mockMvc.perform(post("/api/v1/rate/{base}/{target}/sync", base, target)
                         .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
                 .andDo(print())
-                .andExpect(status().is2xxSuccessful());
+                .andExpect(status().is2xxSuccessful())
+                .andExpect(header().string(ExchangeRateController.SERVED_HEADER, "stale"))
+                .andExpect(header().string(ExchangeRateController.AGE_HEADER, "12"));
 
-        verify(serviceMock).updateRate(base, target);
+        verify(serviceMock).updateRate(S4TenantClients.DEFAULT, base, target);
     }
 
     @Test
@@ -51,7 +86,7 @@ class ExchangeRateControllerIntegrationTest {
                 .andDo(print())
                 .andExpect(status().isBadRequest());
 
-        verify(serviceMock, never()).updateRate(base, target);
+        verify(serviceMock, never()).updateRate(S4TenantClients.DEFAULT, base, target);
     }
 
     @Test
@@ -64,7 +99,7 @@ class ExchangeRateControllerIntegrationTest {
                 .andDo(print())
                 .andExpect(status().isBadRequest());
 
-        verify(serviceMock, never()).updateRate(base, target);
+        verify(serviceMock, never()).updateRate(S4TenantClients.DEFAULT, base, target);
     }
 
     @Test
@@ -76,7 +111,7 @@ class ExchangeRateControllerIntegrationTest {
                 .andDo(print())
                 .andExpect(status().isForbidden());
 
-        verify(serviceMock, never()).updateRate(base, target);
+        verify(serviceMock, never()).updateRate(S4TenantClients.DEFAULT, base, target);
     }
 
     @Test
@@ -89,6 +124,103 @@ class ExchangeRateControllerIntegrationTest {
                 .andDo(print())
                 .andExpect(status().isForbidden());
 
-        verify(serviceMock, never()).updateRate(base, target);
+        verify(serviceMock, never()).updateRate(S4TenantClients.DEFAULT, base, target);
+    }
+
+    @Test
+    void shouldStartBackfillForRange() throws Exception {
+        LocalDate from = LocalDate.of(2025, 1, 1);
+        LocalDate to = LocalDate.of(2025, 1, 31);
+        when(backfillServiceMock.start(S4TenantClients.DEFAULT, "USD", "EUR", from, to)).thenReturn(new RateBackfillService.BackfillStatus(
+                "USD-EUR-2025-01-01-2025-01-31", S4TenantClients.DEFAULT, "USD", "EUR", from, to, RateBackfillService.Status.RUNNING,
+                31, 0, 0, List.of(), null, Instant.now(), null, null));
+
+        mockMvc.perform(post("/api/v1/rate/{base}/{target}/backfill", "USD", "EUR")
+                        .param("from", "2025-01-01")
+                        .param("to", "2025-01-31")
+                        .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andDo(print())
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id").value("USD-EUR-2025-01-01-2025-01-31"))
+                .andExpect(jsonPath("$.status").value("RUNNING"));
+
+        verify(backfillServiceMock).start(S4TenantClients.DEFAULT, "USD", "EUR", from, to);
+    }
+
+    @Test
+    void shouldRespondNotFoundForUnknownBackfill() throws Exception {
+        when(backfillServiceMock.getStatus(S4TenantClients.DEFAULT, "unknown")).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/v1/rate/backfill/{id}", "unknown")
+                        .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andDo(print())
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldStreamSyncedRatesOfSubscribedPairs() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/rate/stream")
+                        .param("pairs", "USD/EUR")
+                        .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        FxClient.ExchangeRate usdEur = new FxClient.ExchangeRate();
+        usdEur.setBase("USD");
+        usdEur.setTarget("EUR");
+        usdEur.setMid(new BigDecimal("0.85"));
+        FxClient.ExchangeRate usdGbp = new FxClient.ExchangeRate();
+        usdGbp.setBase("USD");
+        usdGbp.setTarget("GBP");
+        usdGbp.setMid(new BigDecimal("0.79"));
+        eventPublisher.publishEvent(new RateSyncedEvent(S4TenantClients.DEFAULT, usdGbp));
+        eventPublisher.publishEvent(new RateSyncedEvent(S4TenantClients.DEFAULT, usdEur));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!result.getResponse().getContentAsString().contains("\"mid\":0.85") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        String content = result.getResponse().getContentAsString();
+        assertTrue(content.contains("event:rate"), content);
+        assertTrue(content.contains("\"target\":\"EUR\""), content);
+        assertFalse(content.contains("\"target\":\"GBP\""), content);
+    }
+
+    @Test
+    void shouldRejectStreamOfUnknownPair() throws Exception {
+        mockMvc.perform(get("/api/v1/rate/stream")
+                        .param("pairs", "USD-EUR")
+                        .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldServeSyncedRateAsJsonOrCbor() throws Exception {
+        FxClient.ExchangeRate gbpEur = new FxClient.ExchangeRate();
+        gbpEur.setBase("GBP");
+        gbpEur.setTarget("EUR");
+        gbpEur.setMid(new BigDecimal("1.15"));
+        eventPublisher.publishEvent(new RateSyncedEvent(S4TenantClients.DEFAULT, gbpEur));
+
+        mockMvc.perform(get("/api/v1/rate/{base}/{target}", "GBP", "EUR")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.mid").value(1.15));
+
+        byte[] cbor = mockMvc.perform(get("/api/v1/rate/{base}/{target}", "GBP", "EUR")
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals(new BigDecimal("1.15"), CBORMapper.builder().build().readValue(cbor, FxClient.ExchangeRate.class).getMid());
+
+        mockMvc.perform(get("/api/v1/rate/{base}/{target}", "EUR", "GBP")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .with(jwt().authorities(new SimpleGrantedAuthority("SCOPE_ExchangeRate.Sync"))))
+                .andExpect(status().isNotFound());
     }
-}
\ No newline at end of file
+}
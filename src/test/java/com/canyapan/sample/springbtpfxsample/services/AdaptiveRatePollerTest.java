@@ -0,0 +1,130 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxPollingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class AdaptiveRatePollerTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FxClient fxClient = mock(FxClient.class);
+    private final S4HanaClient s4HanaClient = mock(S4HanaClient.class);
+    private final RateFreshnessTracker freshnessTracker = mock(RateFreshnessTracker.class);
+    private final CurrencyRegistry currencyRegistry = CurrencyRegistryTest.accepting(fxClient, meterRegistry, "USD", "EUR", "GBP");
+
+    private AdaptiveRatePoller poller(List<String> pairs) {
+        FxPollingProperties properties = new FxPollingProperties(true, pairs, Duration.ofMinutes(1), Duration.ofHours(1), 0.0005, 30);
+        return new AdaptiveRatePoller(properties, fxClient, s4HanaClient, freshnessTracker,
+                PairOwnershipTest.everyPair(meterRegistry), meterRegistry, currencyRegistry);
+    }
+
+    private static AdaptiveRatePoller.PairState pair(AdaptiveRatePoller poller, String base, String target) {
+        return poller.getPairs().stream()
+                .filter(p -> p.getBase().equals(base) && p.getTarget().equals(target))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    public void shouldPollAllAllowedPairsWhenNoneConfigured() {
+        assertEquals(6, poller(List.of()).getPairs().size());
+        assertEquals(List.of("EUR/USD"), poller(List.of("EUR/USD")).getPairs().stream()
+                .map(p -> p.getBase() + "/" + p.getTarget()).toList());
+    }
+
+    @Test
+    public void shouldPollVolatilePairsMoreOftenThanStableOnes() {
+        AdaptiveRatePoller poller = poller(List.of("USD/EUR", "EUR/GBP"));
+        AdaptiveRatePoller.PairState volatilePair = pair(poller, "EUR", "GBP");
+        AdaptiveRatePoller.PairState stablePair = pair(poller, "USD", "EUR");
+
+        // Unknown volatility starts at the shortest interval.
+        assertEquals(MINUTE, volatilePair.getIntervalNanos());
+
+        String[] volatileMids = {"0.8500", "0.8520", "0.8490", "0.8515", "0.8488"};
+        String[] stableMids = {"0.8500", "0.8500", "0.8501", "0.8500", "0.8500"};
+        for (int i = 0; i < volatileMids.length; i++) {
+            poller.observe(volatilePair, new BigDecimal(volatileMids[i]), i * 10 * MINUTE);
+            poller.observe(stablePair, new BigDecimal(stableMids[i]), i * 10 * MINUTE);
+        }
+
+        assertEquals(MINUTE, volatilePair.getIntervalNanos());
+        assertTrue(stablePair.getIntervalNanos() > 10 * MINUTE, "stable pair interval " + stablePair.getIntervalNanos());
+        assertEquals(stablePair.getIntervalNanos() / 1e9,
+                meterRegistry.get("fx.polling.interval").tag("pair", "USD/EUR").gauge().value());
+    }
+
+    @Test
+    public void shouldClampIntervalBetweenMinAndMax() {
+        AdaptiveRatePoller poller = poller(List.of("USD/EUR"));
+
+        assertEquals(MINUTE, poller.intervalNanos(-1));
+        assertEquals(60 * MINUTE, poller.intervalNanos(0));
+        assertEquals(60 * MINUTE, poller.intervalNanos(1e-15));
+        assertEquals(MINUTE, poller.intervalNanos(1e-3));
+        // 5 bp at a variance of 2.5e-9 per second is 100 seconds.
+        assertEquals(TimeUnit.SECONDS.toNanos(100), poller.intervalNanos(2.5e-9), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void shouldWriteToS4OnlyWhenRateChanged() {
+        AdaptiveRatePoller poller = poller(List.of("USD/EUR"));
+        AdaptiveRatePoller.PairState pair = poller.getPairs().getFirst();
+        when(fxClient.fetchExchangeRate("USD", "EUR")).thenReturn(
+                rate("USD", "EUR", "0.8500"),
+                rate("USD", "EUR", "0.85"),
+                rate("USD", "EUR", "0.8512"));
+
+        poller.poll(pair);
+        poller.poll(pair);
+        poller.poll(pair);
+
+        verify(s4HanaClient, times(2)).sendExchangeRate(any(FxClient.ExchangeRate.class));
+        verify(freshnessTracker, times(3)).recordFetched(any());
+        assertEquals(2.0, meterRegistry.get("fx.polling.polls").tag("outcome", "changed").counter().count());
+        assertEquals(1.0, meterRegistry.get("fx.polling.polls").tag("outcome", "unchanged").counter().count());
+    }
+
+    @Test
+    public void shouldCountFailureAndKeepInterval() {
+        AdaptiveRatePoller poller = poller(List.of("USD/EUR"));
+        AdaptiveRatePoller.PairState pair = poller.getPairs().getFirst();
+        when(fxClient.fetchExchangeRate("USD", "EUR")).thenThrow(new IllegalStateException("down"));
+
+        poller.poll(pair);
+
+        verifyNoInteractions(s4HanaClient);
+        assertEquals(MINUTE, pair.getIntervalNanos());
+        assertEquals(1.0, meterRegistry.get("fx.polling.polls").tag("outcome", "failure").counter().count());
+    }
+
+    @Test
+    public void shouldSkipPairsOfCurrenciesNoLongerAccepted() {
+        AdaptiveRatePoller poller = poller(List.of("USD/GBP", "USD/EUR"));
+        when(fxClient.fetchCurrencies("/currencies")).thenReturn(Set.of("USD", "EUR"));
+        when(fxClient.fetchExchangeRate("USD", "EUR")).thenReturn(rate("USD", "EUR", "0.8500"));
+        currencyRegistry.refresh();
+
+        poller.start();
+        try {
+            verify(fxClient, timeout(5000)).fetchExchangeRate("USD", "EUR");
+        } finally {
+            poller.stop();
+        }
+
+        verify(fxClient, never()).fetchExchangeRate("USD", "GBP");
+    }
+}
@@ -0,0 +1,45 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConflatingQueueTest {
+
+    @Test
+    public void shouldKeepOnlyNewestValuePerPendingKey() throws InterruptedException {
+        ConflatingQueue<String, Integer> queue = new ConflatingQueue<>();
+        queue.offer("USD/EUR", 1);
+        queue.offer("USD/GBP", 10);
+        queue.offer("USD/EUR", 2);
+        queue.offer("USD/EUR", 3);
+
+        assertEquals(2, queue.pending());
+        assertEquals(4, queue.getOffered());
+        assertEquals(2, queue.getConflated());
+
+        ConflatingQueue.Entry<String, Integer> first = queue.poll(0, TimeUnit.MILLISECONDS);
+        assertEquals("USD/EUR", first.key());
+        assertEquals(3, first.value());
+
+        ConflatingQueue.Entry<String, Integer> second = queue.poll(0, TimeUnit.MILLISECONDS);
+        assertEquals("USD/GBP", second.key());
+        assertEquals(10, second.value());
+
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldRequeueKeyOfferedAfterItWasTaken() throws InterruptedException {
+        ConflatingQueue<String, Integer> queue = new ConflatingQueue<>();
+        queue.offer("USD/EUR", 1);
+        assertEquals(1, queue.poll(0, TimeUnit.MILLISECONDS).value());
+
+        queue.offer("USD/EUR", 2);
+        assertEquals(1, queue.pending());
+        assertEquals(2, queue.poll(0, TimeUnit.MILLISECONDS).value());
+        assertEquals(0, queue.getConflated());
+    }
+}
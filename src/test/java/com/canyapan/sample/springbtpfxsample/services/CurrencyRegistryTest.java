@@ -0,0 +1,104 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.CurrencyRegistryProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CurrencyRegistryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FxClient fxClient = mock(FxClient.class);
+
+    /**
+     * A registry accepting the given currencies until {@code fxClient} is stubbed for a refresh.
+     */
+    static CurrencyRegistry accepting(FxClient fxClient, MeterRegistry meterRegistry, String... currencies) {
+        return new CurrencyRegistry(
+                new CurrencyRegistryProperties(Set.of(), new CurrencyRegistryProperties.Refresh(true, "/currencies", Duration.ofHours(1))),
+                fxClient, meterRegistry, Set.of(currencies));
+    }
+
+    private CurrencyRegistry registry(Set<String> allowed, Set<String> denied) {
+        return new CurrencyRegistry(
+                new CurrencyRegistryProperties(denied, new CurrencyRegistryProperties.Refresh(true, "/currencies", Duration.ofHours(1))),
+                fxClient, meterRegistry, allowed);
+    }
+
+    @Test
+    public void shouldAcceptAllowedCurrenciesUntilFirstLoad() {
+        CurrencyRegistry registry = registry(Set.of("USD", "EUR", "GBP"), Set.of("GBP"));
+
+        assertEquals(Set.of("USD", "EUR"), registry.getCurrencies());
+        assertFalse(registry.contains(null));
+        verifyNoInteractions(fxClient);
+    }
+
+    @Test
+    public void shouldAcceptSupportedCurrenciesThatAreAllowedAndNotDenied() {
+        CurrencyRegistry registry = registry(Set.of("USD", "EUR", "GBP", "XAU"), Set.of("GBP"));
+        when(fxClient.fetchCurrencies("/currencies")).thenReturn(Set.of("USD", "EUR", "GBP", "CHF"));
+
+        registry.refresh();
+
+        assertEquals(Set.of("USD", "EUR"), registry.getCurrencies());
+        assertFalse(registry.contains("XAU"));
+        assertFalse(registry.contains("CHF"));
+        assertEquals(2.0, meterRegistry.get("fx.currencies.accepted").gauge().value());
+    }
+
+    @Test
+    public void shouldAcceptEverySupportedCurrencyWithoutAllowList() {
+        CurrencyRegistry registry = registry(Set.of(), Set.of("TRY"));
+        when(fxClient.fetchCurrencies("/currencies")).thenReturn(Set.of("USD", "CHF", "TRY"));
+
+        registry.refresh();
+
+        assertEquals(Set.of("USD", "CHF"), registry.getCurrencies());
+    }
+
+    @Test
+    public void shouldApplyChangesOnNextRefreshAndKeepLastOnFailure() {
+        CurrencyRegistry registry = registry(Set.of(), Set.of());
+        when(fxClient.fetchCurrencies("/currencies"))
+                .thenReturn(Set.of("USD", "EUR"))
+                .thenReturn(Set.of("USD", "EUR", "CHF"))
+                .thenThrow(new FxIntegrationException("down"));
+
+        registry.refresh();
+        assertFalse(registry.contains("CHF"));
+        Set<String> before = registry.getCurrencies();
+
+        registry.refresh();
+        assertTrue(registry.contains("CHF"));
+        // Readers holding the earlier set keep a consistent view of it.
+        assertEquals(Set.of("USD", "EUR"), before);
+
+        assertThrows(FxIntegrationException.class, registry::refresh);
+        assertEquals(Set.of("USD", "EUR", "CHF"), registry.getCurrencies());
+        assertEquals(1.0, meterRegistry.get("fx.currencies.refreshes").tag("outcome", "failure").counter().count());
+    }
+
+    @Test
+    public void shouldKeepLastCurrenciesWhenLoadLeavesNoneAccepted() {
+        CurrencyRegistry registry = registry(Set.of("USD", "EUR"), Set.of());
+        when(fxClient.fetchCurrencies("/currencies"))
+                .thenReturn(Set.of("USD", "EUR", "CHF"))
+                .thenReturn(Set.of())
+                .thenReturn(Set.of("CHF"));
+
+        registry.refresh();
+        assertThrows(FxIntegrationException.class, registry::refresh);
+        assertThrows(FxIntegrationException.class, registry::refresh);
+
+        assertEquals(Set.of("USD", "EUR"), registry.getCurrencies());
+        assertEquals(2.0, meterRegistry.get("fx.currencies.refreshes").tag("outcome", "failure").counter().count());
+    }
+}
@@ -44,11 +44,11 @@ public class ExchangeRateServiceTest {
         FxClient.ExchangeRate r = sampleRate();
         when(fxClient.fetchExchangeRate("EUR", "USD")).thenReturn(r);
 
-        service.updateRate("EUR", "USD");
+        service.updateRate(S4TenantClients.DEFAULT, "EUR", "USD");
 
         verify(fxClient, times(1)).fetchExchangeRate("EUR", "USD");
         ArgumentCaptor<FxClient.ExchangeRate> captor = ArgumentCaptor.forClass(FxClient.ExchangeRate.class);
-        verify(s4HanaClient, times(1)).sendExchangeRate(captor.capture());
+        verify(s4HanaClient, times(1)).sendExchangeRate(eq(S4TenantClients.DEFAULT), captor.capture());
 
         FxClient.ExchangeRate passed = captor.getValue();
         assertEquals(r.getBase(), passed.getBase());
@@ -60,7 +60,7 @@ public class ExchangeRateServiceTest {
     public void shouldNotInvokeS4AndPropagateWhenFxClientFails() {
         when(fxClient.fetchExchangeRate("EUR", "USD")).thenThrow(new FxIntegrationException("fx failed"));
 
-        assertThrows(FxIntegrationException.class, () -> service.updateRate("EUR", "USD"));
+        assertThrows(FxIntegrationException.class, () -> service.updateRate(S4TenantClients.DEFAULT, "EUR", "USD"));
 
         verifyNoInteractions(s4HanaClient);
     }
@@ -69,9 +69,9 @@ public class ExchangeRateServiceTest {
     public void shouldPropagateS4IntegrationExceptionWhenS4ClientFails() {
         FxClient.ExchangeRate r = sampleRate();
         when(fxClient.fetchExchangeRate("EUR", "USD")).thenReturn(r);
-        doThrow(new S4IntegrationException("s4 failed", new RuntimeException("cause"))).when(s4HanaClient).sendExchangeRate(r);
+        doThrow(new S4IntegrationException("s4 failed", new RuntimeException("cause"))).when(s4HanaClient).sendExchangeRate(S4TenantClients.DEFAULT, r);
 
-        assertThrows(S4IntegrationException.class, () -> service.updateRate("EUR", "USD"));
+        assertThrows(S4IntegrationException.class, () -> service.updateRate(S4TenantClients.DEFAULT, "EUR", "USD"));
     }
 
 }
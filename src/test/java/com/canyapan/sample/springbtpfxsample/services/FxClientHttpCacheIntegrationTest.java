@@ -0,0 +1,99 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.springtest.MockServerTest;
+import org.mockserver.verify.VerificationTimes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockserver.model.BinaryBody.binary;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+import static org.mockserver.model.JsonBody.json;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@MockServerTest({"fx.api.base-url=http://localhost:${mockServerPort}/api/"})
+public class FxClientHttpCacheIntegrationTest {
+
+    private MockServerClient mockServer;
+
+    @Autowired
+    private FxClient fxClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private double requests(String outcome) {
+        return meterRegistry.get("fx.http-cache.requests").tags("provider", FxClient.PRIMARY, "outcome", outcome).counter().count();
+    }
+
+    @Test
+    public void shouldRevalidateWithETagAndReuseBodyOnNotModified() {
+        mockServer.when(request().withMethod("GET").withPath("/api/rates/GBP/USD/latest")
+                        .withHeader("If-None-Match", "\"v1\""))
+                .respond(response().withStatusCode(304).withHeader("ETag", "\"v1\""));
+        mockServer.when(request().withMethod("GET").withPath("/api/rates/GBP/USD/latest"))
+                .respond(response().withStatusCode(200)
+                        .withHeader("ETag", "\"v1\"")
+                        .withHeader("Cache-Control", "no-cache")
+                        .withBody(json("""
+                                {"status_code":200,"data":{"base":"GBP","target":"USD","mid":1.27,"unit":1,"timestamp":"2025-12-30T00:05:24Z"}}""")));
+        double revalidated = requests("revalidated");
+
+        assertEquals(new BigDecimal("1.27"), fxClient.fetchExchangeRate("GBP", "USD").getMid());
+        assertEquals(new BigDecimal("1.27"), fxClient.fetchExchangeRate("GBP", "USD").getMid());
+
+        mockServer.verify(request().withPath("/api/rates/GBP/USD/latest"), VerificationTimes.exactly(2));
+        mockServer.verify(request().withPath("/api/rates/GBP/USD/latest").withHeader("If-None-Match", "\"v1\""), VerificationTimes.once());
+        assertEquals(revalidated + 1, requests("revalidated"));
+    }
+
+    @Test
+    public void shouldAnswerFromCacheWithinMaxAge() {
+        mockServer.when(request().withMethod("GET").withPath("/api/rates/EUR/GBP/2025-06-02"))
+                .respond(response().withStatusCode(200)
+                        .withHeader("Cache-Control", "public, max-age=86400")
+                        .withBody(json("""
+                                {"status_code":200,"data":{"base":"EUR","target":"GBP","mid":0.84,"unit":1,"timestamp":"2025-06-02T00:00:00Z"}}""")));
+        double hits = requests("hit");
+
+        fxClient.fetchExchangeRate("EUR", "GBP", LocalDate.of(2025, 6, 2));
+        fxClient.fetchExchangeRate("EUR", "GBP", LocalDate.of(2025, 6, 2));
+
+        mockServer.verify(request().withPath("/api/rates/EUR/GBP/2025-06-02"), VerificationTimes.once());
+        assertEquals(hits + 1, requests("hit"));
+    }
+
+    @Test
+    public void shouldAskForAndDecodeGzipResponses() throws IOException {
+        byte[] body = """
+                {"status_code":200,"data":{"base":"USD","target":"GBP","mid":0.79,"unit":1,"timestamp":"2025-12-30T00:05:24Z"}}"""
+                .getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(body);
+        }
+        mockServer.when(request().withMethod("GET").withPath("/api/rates/USD/GBP/latest"))
+                .respond(response().withStatusCode(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Content-Encoding", "gzip")
+                        .withBody(binary(gzipped.toByteArray())));
+
+        assertEquals(new BigDecimal("0.79"), fxClient.fetchExchangeRate("USD", "GBP").getMid());
+
+        mockServer.verify(request().withPath("/api/rates/USD/GBP/latest")
+                .withHeader("Accept-Encoding", ".*gzip.*"), VerificationTimes.once());
+    }
+}
@@ -8,8 +8,10 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -45,6 +47,36 @@ public class FxClientIntegrationTest {
         assertEquals(ZonedDateTime.of(2025, 12, 30, 00, 05, 24, 876000000, ZoneOffset.UTC), er.getTimestamp());
     }
 
+    @Test
+    public void shouldFetchHistoricalExchangeRateForGivenDay() {
+        mockServer.when(
+                request()
+                        .withMethod("GET")
+                        .withPath("/api/rates/USD/EUR/2025-06-02")
+        ).respond(
+                response().withStatusCode(200).withBody(json("""
+                        {"status_code":200,"data":{"base":"USD","target":"EUR","mid":0.876543,"unit":1,"timestamp":"2025-06-02T00:00:00Z"}}"""))
+        );
+
+        FxClient.ExchangeRate er = fxClient.fetchExchangeRate("USD", "EUR", LocalDate.of(2025, 6, 2));
+        assertEquals(new BigDecimal("0.876543"), er.getMid());
+        assertEquals(LocalDate.of(2025, 6, 2), er.getTimestamp().toLocalDate());
+    }
+
+    @Test
+    public void shouldFetchSupportedCurrencies() {
+        mockServer.when(
+                request()
+                        .withMethod("GET")
+                        .withPath("/api/currencies")
+        ).respond(
+                response().withStatusCode(200).withBody(json("""
+                        {"status_code":200,"data":["USD","EUR","GBP","CHF"]}"""))
+        );
+
+        assertEquals(Set.of("USD", "EUR", "GBP", "CHF"), fxClient.fetchCurrencies("/currencies"));
+    }
+
     @Test
     public void shouldThrowWhenServiceReturnsNon200StatusInBody() {
         mockServer.when(
@@ -60,6 +92,21 @@ public class FxClientIntegrationTest {
                 () -> fxClient.fetchExchangeRate("EUR", "UNK"));
     }
 
+    @Test
+    public void shouldTakeUnsupportedStatusInBodyWithoutData() {
+        mockServer.when(
+                request()
+                        .withMethod("GET")
+                        .withPath("/api/rates/EUR/XAU/latest")
+        ).respond(
+                response().withStatusCode(200).withBody(json("""
+                        {"status_code":404}"""))
+        );
+
+        assertThrows(com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException.class,
+                () -> fxClient.fetchExchangeRate("EUR", "XAU"));
+    }
+
     @Test
     public void shouldThrowWhenResponseBodyIsNull() {
         mockServer.when(
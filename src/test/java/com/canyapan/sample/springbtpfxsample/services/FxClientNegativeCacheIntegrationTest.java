@@ -0,0 +1,64 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxUnavailableException;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.springtest.MockServerTest;
+import org.mockserver.verify.VerificationTimes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+import static org.mockserver.model.JsonBody.json;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@MockServerTest({"fx.api.base-url=http://localhost:${mockServerPort}/api/", "fx.negative-cache.enabled=true"})
+public class FxClientNegativeCacheIntegrationTest {
+
+    private MockServerClient mockServer;
+
+    @Autowired
+    private FxClient fxClient;
+
+    @Test
+    public void shouldNotAskProviderAgainForUnsupportedPair() {
+        mockServer.when(request().withMethod("GET").withPath("/api/rates/EUR/UNK/latest"))
+                .respond(response().withStatusCode(422).withBody(json("""
+                        {"status_code":422,"data":{"message":"Invalid currency code: UNK"}}""")));
+
+        assertThrows(FxPairUnsupportedException.class, () -> fxClient.fetchExchangeRate("EUR", "UNK"));
+        assertThrows(FxPairUnsupportedException.class, () -> fxClient.fetchExchangeRate("EUR", "UNK"));
+
+        mockServer.verify(request().withPath("/api/rates/EUR/UNK/latest"), VerificationTimes.once());
+    }
+
+    @Test
+    public void shouldAnswerTransientFailureAsUnavailable() {
+        mockServer.when(request().withMethod("GET").withPath("/api/rates/GBP/EUR/latest"))
+                .respond(response().withStatusCode(502));
+
+        assertThrows(FxIntegrationException.class, () -> fxClient.fetchExchangeRate("GBP", "EUR"));
+        assertThrows(FxUnavailableException.class, () -> fxClient.fetchExchangeRate("GBP", "EUR"));
+
+        mockServer.verify(request().withPath("/api/rates/GBP/EUR/latest"), VerificationTimes.once());
+    }
+
+    @Test
+    public void shouldNotCacheMissingHistoricalDay() {
+        mockServer.when(request().withMethod("GET").withPath("/api/rates/USD/GBP/1999-01-01"))
+                .respond(response().withStatusCode(404));
+
+        assertThrows(FxIntegrationException.class, () -> fxClient.fetchExchangeRate("USD", "GBP", LocalDate.of(1999, 1, 1)));
+        assertThrows(FxIntegrationException.class, () -> fxClient.fetchExchangeRate("USD", "GBP", LocalDate.of(1999, 1, 1)));
+
+        mockServer.verify(request().withPath("/api/rates/USD/GBP/1999-01-01"), VerificationTimes.exactly(2));
+    }
+}
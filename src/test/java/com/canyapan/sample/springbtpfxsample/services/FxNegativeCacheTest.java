@@ -0,0 +1,91 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxNegativeCacheProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FxNegativeCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock();
+    private final FxNegativeCache cache = new FxNegativeCache("primary",
+            new FxNegativeCacheProperties(true, Duration.ofMinutes(5), Duration.ofSeconds(2), Duration.ofMinutes(10)),
+            meterRegistry, clock);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private Supplier<FxClient.ExchangeRate> failing(RuntimeException e) {
+        return () -> {
+            calls.incrementAndGet();
+            throw e;
+        };
+    }
+
+    private Supplier<FxClient.ExchangeRate> succeeding() {
+        return () -> {
+            calls.incrementAndGet();
+            return new FxClient.ExchangeRate();
+        };
+    }
+
+    @Test
+    public void shouldAnswerUnsupportedPairFromCacheUntilExpiry() {
+        Supplier<FxClient.ExchangeRate> unsupported = failing(new FxPairUnsupportedException("USD/XXX isn't supported."));
+
+        assertThrows(FxPairUnsupportedException.class, () -> cache.fetch("USD", "XXX", unsupported));
+        clock.advance(Duration.ofMinutes(4));
+        FxPairUnsupportedException cached = assertThrows(FxPairUnsupportedException.class, () -> cache.fetch("USD", "XXX", unsupported));
+
+        assertEquals(1, calls.get());
+        assertTrue(cached.getMessage().contains("asking again in 60 s"), cached.getMessage());
+        assertEquals(1.0, meterRegistry.get("fx.negative-cache.hits").tag("kind", "unsupported").counter().count());
+
+        clock.advance(Duration.ofMinutes(1));
+        assertThrows(FxPairUnsupportedException.class, () -> cache.fetch("USD", "XXX", unsupported));
+        assertEquals(2, calls.get());
+        // Other pairs aren't affected.
+        assertNotNull(cache.fetch("USD", "EUR", succeeding()));
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyOnRepeatedTransientFailures() {
+        Supplier<FxClient.ExchangeRate> down = failing(new FxIntegrationException("Failed to fetch fx rates."));
+
+        assertThrows(FxIntegrationException.class, () -> cache.fetch("USD", "EUR", down));
+        FxUnavailableException cached = assertThrows(FxUnavailableException.class, () -> cache.fetch("USD", "EUR", down));
+        assertEquals(Duration.ofSeconds(2), cached.getRetryAfter());
+
+        clock.advance(Duration.ofSeconds(2));
+        assertThrows(FxIntegrationException.class, () -> cache.fetch("USD", "EUR", down));
+        cached = assertThrows(FxUnavailableException.class, () -> cache.fetch("USD", "EUR", down));
+        assertEquals(Duration.ofSeconds(4), cached.getRetryAfter());
+
+        clock.advance(Duration.ofSeconds(4));
+        assertThrows(FxIntegrationException.class, () -> cache.fetch("USD", "EUR", down));
+        cached = assertThrows(FxUnavailableException.class, () -> cache.fetch("USD", "EUR", down));
+        assertEquals(Duration.ofSeconds(8), cached.getRetryAfter());
+        assertEquals(3, calls.get());
+
+        // A success forgets the pair's strikes.
+        clock.advance(Duration.ofSeconds(8));
+        cache.fetch("USD", "EUR", succeeding());
+        assertThrows(FxIntegrationException.class, () -> cache.fetch("USD", "EUR", down));
+        cached = assertThrows(FxUnavailableException.class, () -> cache.fetch("USD", "EUR", down));
+        assertEquals(Duration.ofSeconds(2), cached.getRetryAfter());
+    }
+
+    @Test
+    public void shouldCapTtl() {
+        assertEquals(Duration.ofMinutes(10), cache.ttl(true, 3));
+        assertEquals(Duration.ofMinutes(10), cache.ttl(false, 1000));
+        assertEquals(Duration.ofSeconds(16), cache.ttl(false, 4));
+    }
+}
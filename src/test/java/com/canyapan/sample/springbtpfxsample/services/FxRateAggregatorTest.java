@@ -0,0 +1,205 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxSourcingProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FxRateAggregatorTest {
+
+    private static FxSourcingProperties properties(FxSourcingProperties.Strategy strategy) {
+        return new FxSourcingProperties(strategy, Duration.ofMillis(200), Duration.ofSeconds(2), List.of());
+    }
+
+    @Test
+    public void shouldReturnFastestProviderForFirstResponse() {
+        FxRateAggregator aggregator = new FxRateAggregator(List.of(
+                new StubProvider("slow", "1.10", 500, false),
+                new StubProvider("fast", "1.20", 10, false)),
+                properties(FxSourcingProperties.Strategy.FIRST_RESPONSE));
+
+        assertEquals(new BigDecimal("1.20"), aggregator.fetchExchangeRate("EUR", "USD").getMid());
+    }
+
+    @Test
+    public void shouldIgnoreFailingProvidersForFirstResponse() {
+        FxRateAggregator aggregator = new FxRateAggregator(List.of(
+                new StubProvider("broken", "1.10", 0, true),
+                new StubProvider("working", "1.20", 50, false)),
+                properties(FxSourcingProperties.Strategy.FIRST_RESPONSE));
+
+        assertEquals(new BigDecimal("1.20"), aggregator.fetchExchangeRate("EUR", "USD").getMid());
+    }
+
+    @Test
+    public void shouldReturnMedianOfQuotesWithinWindow() {
+        FxRateAggregator aggregator = new FxRateAggregator(List.of(
+                new StubProvider("a", "1.30", 10, false),
+                new StubProvider("b", "1.10", 10, false),
+                new StubProvider("c", "1.20", 10, false),
+                new StubProvider("late", "9.99", 1500, false)),
+                properties(FxSourcingProperties.Strategy.MEDIAN));
+
+        assertEquals(new BigDecimal("1.20"), aggregator.fetchExchangeRate("EUR", "USD").getMid());
+    }
+
+    @Test
+    public void shouldNotPullMedianTowardsFastestProvider() {
+        FxRateAggregator aggregator = new FxRateAggregator(List.of(
+                new StubProvider("fast", "1.10", 5, false),
+                new StubProvider("middle", "1.20", 80, false),
+                new StubProvider("slow", "1.30", 120, false)),
+                properties(FxSourcingProperties.Strategy.MEDIAN));
+
+        assertEquals(new BigDecimal("1.20"), aggregator.fetchExchangeRate("EUR", "USD").getMid());
+    }
+
+    @Test
+    public void shouldTakeLowerMiddleQuoteOfEvenCount() {
+        assertEquals(new BigDecimal("1.20"), FxRateAggregator.median(List.of(
+                rate("1.40"), rate("1.20"), rate("1.10"), rate("1.30"))).getMid());
+    }
+
+    @Test
+    public void shouldBoundHungPrimaryByTimeout() {
+        StubProvider primary = new StubProvider("primary", "1.10", 10_000, false);
+        StubProvider secondary = new StubProvider("secondary", "1.20", 0, false);
+        FxRateAggregator aggregator = new FxRateAggregator(List.of(primary, secondary),
+                new FxSourcingProperties(FxSourcingProperties.Strategy.PRIMARY_WITH_FALLBACK,
+                        Duration.ofMillis(200), Duration.ofMillis(300), List.of()));
+
+        long start = System.nanoTime();
+        assertThrows(FxIntegrationException.class, () -> aggregator.fetchExchangeRate("EUR", "USD"));
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos(), "fetch should give up after the timeout");
+        aggregator.destroy();
+    }
+
+    @Test
+    public void shouldFallBackWhenPrimaryFails() {
+        StubProvider primary = new StubProvider("primary", "1.10", 0, true);
+        StubProvider secondary = new StubProvider("secondary", "1.20", 0, false);
+        FxRateAggregator aggregator = new FxRateAggregator(List.of(primary, secondary),
+                properties(FxSourcingProperties.Strategy.PRIMARY_WITH_FALLBACK));
+
+        assertEquals(new BigDecimal("1.20"), aggregator.fetchExchangeRate("EUR", "USD").getMid());
+        assertEquals(1, primary.calls.get());
+        assertEquals(1, secondary.calls.get());
+
+        FxRateAggregator.ProviderSnapshot primaryStats = aggregator.getProviderStats().getFirst();
+        assertEquals(1, primaryStats.failures());
+        assertTrue(primaryStats.errorRate() > 0);
+    }
+
+    @Test
+    public void shouldNotCallFallbackWhenPrimarySucceeds() {
+        StubProvider primary = new StubProvider("primary", "1.10", 0, false);
+        StubProvider secondary = new StubProvider("secondary", "1.20", 0, false);
+        FxRateAggregator aggregator = new FxRateAggregator(List.of(primary, secondary),
+                properties(FxSourcingProperties.Strategy.PRIMARY_WITH_FALLBACK));
+
+        assertEquals(new BigDecimal("1.10"), aggregator.fetchExchangeRate("EUR", "USD").getMid());
+        assertEquals(0, secondary.calls.get());
+    }
+
+    @Test
+    public void shouldThrowWhenAllProvidersFail() {
+        for (FxSourcingProperties.Strategy strategy : FxSourcingProperties.Strategy.values()) {
+            FxRateAggregator aggregator = new FxRateAggregator(List.of(
+                    new StubProvider("a", "1.10", 0, true),
+                    new StubProvider("b", "1.20", 0, true)),
+                    properties(strategy));
+
+            assertThrows(FxIntegrationException.class, () -> aggregator.fetchExchangeRate("EUR", "USD"), strategy.name());
+        }
+    }
+
+    @Test
+    public void shouldKeepKindOfFailureWhenAllProvidersFailAlike() {
+        for (FxSourcingProperties.Strategy strategy : FxSourcingProperties.Strategy.values()) {
+            FxRateAggregator unsupported = new FxRateAggregator(List.of(
+                    new StubProvider("a", new FxPairUnsupportedException("a doesn't quote EUR/XAU")),
+                    new StubProvider("b", new FxPairUnsupportedException("b doesn't quote EUR/XAU"))),
+                    properties(strategy));
+            FxRateAggregator unavailable = new FxRateAggregator(List.of(
+                    new StubProvider("a", new FxUnavailableException("a backs off", Duration.ofSeconds(40))),
+                    new StubProvider("b", new FxUnavailableException("b backs off", Duration.ofSeconds(15)))),
+                    properties(strategy));
+            FxRateAggregator mixed = new FxRateAggregator(List.of(
+                    new StubProvider("a", new FxPairUnsupportedException("a doesn't quote EUR/XAU")),
+                    new StubProvider("b", new FxUnavailableException("b backs off", Duration.ofSeconds(15)))),
+                    properties(strategy));
+
+            assertThrows(FxPairUnsupportedException.class, () -> unsupported.fetchExchangeRate("EUR", "XAU"), strategy.name());
+            FxUnavailableException e = assertThrows(FxUnavailableException.class,
+                    () -> unavailable.fetchExchangeRate("EUR", "XAU"), strategy.name());
+            assertEquals(Duration.ofSeconds(15), e.getRetryAfter(), strategy.name());
+            FxIntegrationException other = assertThrows(FxIntegrationException.class,
+                    () -> mixed.fetchExchangeRate("EUR", "XAU"), strategy.name());
+            assertEquals(FxIntegrationException.class, other.getClass(), strategy.name());
+        }
+    }
+
+    private static class StubProvider implements FxRateProvider {
+
+        private final String name;
+        private final String mid;
+        private final long delayMillis;
+        private final boolean fail;
+        private final RuntimeException failure;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        StubProvider(String name, String mid, long delayMillis, boolean fail) {
+            this(name, mid, delayMillis, fail, null);
+        }
+
+        StubProvider(String name, RuntimeException failure) {
+            this(name, null, 0, true, failure);
+        }
+
+        private StubProvider(String name, String mid, long delayMillis, boolean fail, RuntimeException failure) {
+            this.name = name;
+            this.mid = mid;
+            this.delayMillis = delayMillis;
+            this.fail = fail;
+            this.failure = failure;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public FxClient.ExchangeRate fetchExchangeRate(String base, String target) {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (null != failure) {
+                throw failure;
+            }
+            if (fail) {
+                throw new FxIntegrationException("provider " + name + " failed");
+            }
+
+            FxClient.ExchangeRate rate = new FxClient.ExchangeRate();
+            rate.setBase(base);
+            rate.setTarget(target);
+            rate.setMid(new BigDecimal(mid));
+            rate.setTimestamp(ZonedDateTime.now());
+            return rate;
+        }
+    }
+}
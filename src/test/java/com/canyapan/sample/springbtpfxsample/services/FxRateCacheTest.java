@@ -0,0 +1,127 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxRateCacheProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxPairUnsupportedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class FxRateCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock();
+    private final FxRateAggregator aggregator = mock(FxRateAggregator.class);
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private final FxRateCache cache = new FxRateCache(aggregator,
+            new FxRateCacheProperties(true, Duration.ofSeconds(30), Duration.ofMinutes(5)),
+            meterRegistry, clock, refreshes::add);
+
+    @Test
+    public void shouldServeStaleRateAndRefreshOnceInBackground() {
+        when(aggregator.fetchExchangeRate("USD", "EUR")).thenReturn(rate("0.85"), rate("0.86"));
+
+        FxRateCache.Served first = cache.fetchExchangeRate("USD", "EUR");
+        assertEquals(FxRateCache.Freshness.FRESH, first.freshness());
+
+        clock.advance(Duration.ofSeconds(10));
+        FxRateCache.Served stale = cache.fetchExchangeRate("USD", "EUR");
+        FxRateCache.Served again = cache.fetchExchangeRate("USD", "EUR");
+
+        assertEquals(FxRateCache.Freshness.STALE, stale.freshness());
+        assertEquals(new BigDecimal("0.85"), stale.rate().getMid());
+        assertEquals(Duration.ofSeconds(10), stale.age());
+        assertEquals(FxRateCache.Freshness.STALE, again.freshness());
+        // Only one refresh per pair is in flight, and the callers didn't wait for it.
+        assertEquals(1, refreshes.size());
+        verify(aggregator, times(1)).fetchExchangeRate("USD", "EUR");
+
+        refreshes.getFirst().run();
+        FxRateCache.Served refreshed = cache.fetchExchangeRate("USD", "EUR");
+
+        assertEquals(new BigDecimal("0.86"), refreshed.rate().getMid());
+        assertEquals(Duration.ZERO, refreshed.age());
+        assertEquals(1.0, meterRegistry.get("fx.cache.refreshes").tag("outcome", "success").counter().count());
+        assertEquals(3.0, meterRegistry.get("fx.cache.served").tag("freshness", "stale").counter().count());
+        assertEquals(3, meterRegistry.get("fx.cache.staleness").summary().count());
+    }
+
+    @Test
+    public void shouldBlockOnFetchOutsideStalenessWindow() {
+        when(aggregator.fetchExchangeRate("USD", "EUR")).thenReturn(rate("0.85"), rate("0.86"));
+
+        cache.fetchExchangeRate("USD", "EUR");
+        clock.advance(Duration.ofSeconds(30));
+        FxRateCache.Served served = cache.fetchExchangeRate("USD", "EUR");
+
+        assertEquals(FxRateCache.Freshness.FRESH, served.freshness());
+        assertEquals(new BigDecimal("0.86"), served.rate().getMid());
+        assertTrue(refreshes.isEmpty());
+        assertEquals(2.0, meterRegistry.get("fx.cache.served").tag("freshness", "fresh").counter().count());
+    }
+
+    @Test
+    public void shouldServeLastGoodRateWithinStaleIfErrorWindow() {
+        when(aggregator.fetchExchangeRate("USD", "EUR"))
+                .thenReturn(rate("0.85"))
+                .thenThrow(new FxIntegrationException("Failed to fetch fx rates."));
+
+        cache.fetchExchangeRate("USD", "EUR");
+        clock.advance(Duration.ofMinutes(2));
+        FxRateCache.Served served = cache.fetchExchangeRate("USD", "EUR");
+
+        assertEquals(FxRateCache.Freshness.STALE_IF_ERROR, served.freshness());
+        assertEquals(new BigDecimal("0.85"), served.rate().getMid());
+        assertEquals(Duration.ofMinutes(2), served.age());
+
+        clock.advance(Duration.ofMinutes(3));
+        assertThrows(FxIntegrationException.class, () -> cache.fetchExchangeRate("USD", "EUR"));
+    }
+
+    @Test
+    public void shouldNotServeStaleRateOfUnsupportedPair() {
+        when(aggregator.fetchExchangeRate("USD", "EUR"))
+                .thenReturn(rate("0.85"))
+                .thenThrow(new FxPairUnsupportedException("USD/EUR isn't supported."));
+
+        cache.fetchExchangeRate("USD", "EUR");
+        clock.advance(Duration.ofMinutes(1));
+
+        assertThrows(FxPairUnsupportedException.class, () -> cache.fetchExchangeRate("USD", "EUR"));
+    }
+
+    @Test
+    public void shouldKeepAgeOfRestoredRateAndDropOnePastStaleIfError() {
+        cache.restore(new FxRateCache.Entry(rate("0.85"), clock.instant().minusSeconds(10)));
+        FxRateCache.Entry expired = new FxRateCache.Entry(rate("0.84"), clock.instant().minus(Duration.ofMinutes(5)));
+        expired.rate().setTarget("GBP");
+        cache.restore(expired);
+
+        FxRateCache.Served served = cache.fetchExchangeRate("USD", "EUR");
+
+        assertEquals(FxRateCache.Freshness.STALE, served.freshness());
+        assertEquals(Duration.ofSeconds(10), served.age());
+        assertEquals(1, cache.entries().size());
+    }
+
+    @Test
+    public void shouldPassThroughWhenDisabled() {
+        FxRateCache disabled = new FxRateCache(aggregator,
+                new FxRateCacheProperties(false, Duration.ofSeconds(30), Duration.ofMinutes(5)),
+                new SimpleMeterRegistry(), clock, refreshes::add);
+        when(aggregator.fetchExchangeRate("USD", "EUR")).thenReturn(rate("0.85"));
+
+        disabled.fetchExchangeRate("USD", "EUR");
+        disabled.fetchExchangeRate("USD", "EUR");
+
+        verify(aggregator, times(2)).fetchExchangeRate("USD", "EUR");
+    }
+}
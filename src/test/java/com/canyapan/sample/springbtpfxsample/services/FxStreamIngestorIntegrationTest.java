@@ -0,0 +1,91 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.matchers.Times;
+import org.mockserver.springtest.MockServerTest;
+import org.mockserver.verify.VerificationTimes;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.math.BigDecimal;
+
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+@SpringBootTest(properties = {
+        "fx.stream.enabled=true",
+        "fx.stream.max-pushes-per-second=1000",
+        "fx.stream.initial-backoff=50ms",
+        "fx.stream.max-backoff=200ms"})
+@ActiveProfiles("test")
+@DirtiesContext
+@MockServerTest({"fx.stream.url=http://localhost:${mockServerPort}/api/stream/rates"})
+public class FxStreamIngestorIntegrationTest {
+
+    private MockServerClient mockServer;
+
+    @MockitoBean
+    private S4HanaClient s4HanaClient;
+
+    @Test
+    public void shouldPushLatestRatePerAllowedPairAndResumeFromLastEventId() throws InterruptedException {
+        mockServer.when(request()
+                                .withMethod("GET")
+                                .withPath("/api/stream/rates")
+                                .withHeader("Accept", "text/event-stream"),
+                        Times.once())
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("Content-Type", "text/event-stream")
+                        .withBody("""
+                                id: 1
+                                data: {"base":"USD","target":"EUR","mid":0.90,"timestamp":"2025-12-30T00:00:01Z"}
+
+                                id: 2
+                                data: {"base":"USD","target":"GBP","mid":0.80,"timestamp":"2025-12-30T00:00:02Z"}
+
+                                id: 3
+                                data: {"base":"USD","target":"EUR","mid":0.92,"timestamp":"2025-12-30T00:00:03Z"}
+
+                                id: 4
+                                data: {"base":"USD","target":"UNK","mid":1.00,"timestamp":"2025-12-30T00:00:04Z"}
+
+                                """));
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/api/stream/rates"))
+                .respond(response().withStatusCode(204));
+
+        verify(s4HanaClient, timeout(5000)).sendExchangeRate(argThat(r ->
+                "USD".equals(r.getBase()) && "EUR".equals(r.getTarget()) && new BigDecimal("0.92").compareTo(r.getMid()) == 0));
+        verify(s4HanaClient, timeout(5000)).sendExchangeRate(argThat(r ->
+                "USD".equals(r.getBase()) && "GBP".equals(r.getTarget())));
+        verify(s4HanaClient, never()).sendExchangeRate(argThat(r -> "UNK".equals(r.getTarget())));
+
+        // The feed dropped after event 4, so the reconnect has to resume from there.
+        verifyEventually(() -> mockServer.verify(request()
+                .withMethod("GET")
+                .withPath("/api/stream/rates")
+                .withHeader("Last-Event-ID", "4"), VerificationTimes.atLeast(1)));
+    }
+
+    private static void verifyEventually(Runnable verification) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                verification.run();
+                return;
+            } catch (AssertionError e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
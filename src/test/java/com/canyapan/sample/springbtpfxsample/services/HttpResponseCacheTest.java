@@ -0,0 +1,49 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FxHttpCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpResponseCacheTest {
+
+    private final HttpResponseCache cache = new HttpResponseCache("primary", new FxHttpCacheProperties(true, 16),
+            new SimpleMeterRegistry(), new MutableClock());
+
+    @Test
+    public void shouldHandOutHeadersOfTheirOwnPerCachedResponse() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET,
+                URI.create("http://localhost/rates/USD/EUR/latest"));
+
+        ClientHttpResponse first = cache.intercept(request, new byte[0], (r, body) -> {
+            requests.incrementAndGet();
+            MockClientHttpResponse response = new MockClientHttpResponse("{}".getBytes(), HttpStatus.OK);
+            response.getHeaders().setCacheControl("max-age=60");
+            response.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return response;
+        });
+        // As HttpCompressionInterceptor does after decoding.
+        first.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+        first.getHeaders().add(HttpHeaders.VARY, "Accept-Encoding");
+
+        ClientHttpResponse second = cache.intercept(request, new byte[0], (r, body) -> {
+            throw new AssertionError("Served fresh from the cache.");
+        });
+
+        assertEquals(1, requests.get());
+        assertEquals("gzip", second.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertFalse(second.getHeaders().containsHeader(HttpHeaders.VARY));
+    }
+}
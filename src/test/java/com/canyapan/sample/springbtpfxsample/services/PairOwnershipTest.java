@@ -0,0 +1,122 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.ClusterProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PairOwnershipTest {
+
+    private static final List<String> CURRENCIES = List.of("USD", "EUR", "GBP", "CHF", "JPY", "CAD", "AUD", "SEK", "NOK", "TRY");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final InMemoryClusterMembership.Registry registry = new InMemoryClusterMembership.Registry();
+
+    /**
+     * Ownership as on a single instance, where every pair is owned.
+     */
+    static PairOwnership everyPair(MeterRegistry meterRegistry) {
+        InMemoryClusterMembership.Registry registry = new InMemoryClusterMembership.Registry();
+        registry.join("0");
+        return new PairOwnership(new ClusterProperties(false, 0, 1, 64),
+                new InMemoryClusterMembership(registry, "0"), meterRegistry);
+    }
+
+    private Map<String, PairOwnership> nodes(String... ids) {
+        Map<String, PairOwnership> nodes = new HashMap<>();
+        for (String id : ids) {
+            registry.join(id);
+            nodes.put(id, new PairOwnership(new ClusterProperties(true, 0, ids.length, 64),
+                    new InMemoryClusterMembership(registry, id), meterRegistry));
+        }
+        return nodes;
+    }
+
+    private static List<String[]> pairs() {
+        List<String[]> pairs = new ArrayList<>();
+        for (String base : CURRENCIES) {
+            for (String target : CURRENCIES) {
+                if (!base.equals(target)) {
+                    pairs.add(new String[]{base, target});
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static Map<String, String> owners(Map<String, PairOwnership> nodes) {
+        Map<String, String> owners = new HashMap<>();
+        for (String[] pair : pairs()) {
+            List<String> owning = nodes.entrySet().stream()
+                    .filter(node -> node.getValue().owns(pair[0], pair[1]))
+                    .map(Map.Entry::getKey)
+                    .toList();
+            assertEquals(1, owning.size(), pair[0] + "/" + pair[1] + " owned by " + owning);
+            owners.put(pair[0] + "/" + pair[1], owning.getFirst());
+        }
+        return owners;
+    }
+
+    @Test
+    public void shouldGiveEveryPairToExactlyOneNodeAndSpreadThem() {
+        Map<String, String> owners = owners(nodes("0", "1", "2"));
+
+        for (String node : List.of("0", "1", "2")) {
+            long owned = owners.values().stream().filter(node::equals).count();
+            // 90 pairs across 3 nodes, 30 each when perfectly even.
+            assertTrue(owned >= 15 && owned <= 45, "node " + node + " owns " + owned);
+        }
+    }
+
+    @Test
+    public void shouldOnlyMovePairsOfLeavingNode() {
+        Map<String, PairOwnership> nodes = nodes("0", "1", "2");
+        Map<String, String> before = owners(nodes);
+
+        registry.leave("2");
+        nodes.remove("2");
+        Map<String, String> after = owners(nodes);
+
+        before.forEach((pair, owner) -> {
+            if (!owner.equals("2")) {
+                assertEquals(owner, after.get(pair), pair + " moved although its owner stayed");
+            }
+        });
+        assertFalse(after.containsValue("2"));
+    }
+
+    @Test
+    public void shouldHandPairsToJoiningNode() {
+        Map<String, PairOwnership> nodes = nodes("0", "1");
+        Map<String, String> before = owners(nodes);
+
+        nodes.putAll(nodes("2"));
+        Map<String, String> after = owners(nodes);
+
+        before.forEach((pair, owner) -> {
+            String now = after.get(pair);
+            assertTrue(now.equals(owner) || now.equals("2"), pair + " moved from " + owner + " to " + now);
+        });
+        assertTrue(after.containsValue("2"));
+        assertTrue(meterRegistry.get("cluster.rebalances").counter().count() >= 2);
+    }
+
+    @Test
+    public void shouldOwnEveryPairWhenDisabledAndNothingWhenNotAMember() {
+        PairOwnership single = everyPair(meterRegistry);
+        PairOwnership outsider = new PairOwnership(new ClusterProperties(true, 5, 1, 64),
+                new InMemoryClusterMembership(registry, "5"), meterRegistry);
+        registry.join("0");
+
+        assertTrue(single.owns("USD", "EUR"));
+        assertFalse(outsider.owns("USD", "EUR"));
+        assertEquals("0", outsider.owner("USD", "EUR"));
+    }
+}
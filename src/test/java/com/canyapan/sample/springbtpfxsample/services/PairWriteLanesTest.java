@@ -0,0 +1,158 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PairWriteLanesTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PairWriteLanes lanes = new PairWriteLanes(meterRegistry);
+
+    private static ZonedDateTime at(String timestamp) {
+        return ZonedDateTime.parse(timestamp);
+    }
+
+    @Test
+    public void shouldDropRateOlderThanWrittenOneOfSameDate() {
+        List<FxClient.ExchangeRate> written = new ArrayList<>();
+
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T12:00:00Z")), written::add));
+        assertFalse(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T11:59:59Z")), written::add));
+        // Another day, another pair and another tenant are written as they come.
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-29T08:00:00Z")), written::add));
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("EUR", "USD", "1", at("2025-12-30T11:00:00Z")), written::add));
+        assertTrue(lanes.write("other", rate("USD", "EUR", "1", at("2025-12-30T11:00:00Z")), written::add));
+        // The same rate again isn't older, it goes through.
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T12:00:00Z")), written::add));
+
+        assertEquals(5, written.size());
+        assertEquals(1.0, meterRegistry.get("s4.writes.stale").counter().count());
+    }
+
+    @Test
+    public void shouldKeepNewestOfEachDateAcrossRollover() {
+        List<FxClient.ExchangeRate> written = new ArrayList<>();
+
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T23:59:00Z")), written::add));
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-31T00:01:00Z")), written::add));
+        // A late rate of the previous day is still checked against that day's newest.
+        assertFalse(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T23:58:00Z")), written::add));
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T23:59:30Z")), written::add));
+        assertFalse(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-31T00:00:30Z")), written::add));
+
+        assertEquals(3, written.size());
+        assertEquals(2.0, meterRegistry.get("s4.writes.stale").counter().count());
+    }
+
+    @Test
+    public void shouldForgetOldestDatesBeyondBound() {
+        for (int day = 20; day < 20 + PairWriteLanes.DATES_PER_LANE + 1; day++) {
+            assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-%02dT12:00:00Z".formatted(day))), r -> {
+            }));
+        }
+
+        // The first date fell out of the lane and passes like a backfilled day, the others are still checked.
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-20T08:00:00Z")), r -> {
+        }));
+        assertFalse(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-22T08:00:00Z")), r -> {
+        }));
+    }
+
+    @Test
+    public void shouldNotAdvanceLaneWhenWriteFailed() {
+        assertThrows(IllegalStateException.class, () -> lanes.write(S4TenantClients.DEFAULT,
+                rate("USD", "EUR", "1", at("2025-12-30T12:00:00Z")), r -> {
+                    throw new IllegalStateException("s4 down");
+                }));
+
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T11:00:00Z")), r -> {
+        }));
+    }
+
+    @Test
+    public void shouldWriteOnlyFreshRatesOfBatch() {
+        lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T12:00:00Z")), r -> {
+        });
+        List<FxClient.ExchangeRate> batch = List.of(
+                rate("USD", "EUR", "1", at("2025-12-30T10:00:00Z")),
+                rate("USD", "GBP", "1", at("2025-12-30T10:00:00Z")),
+                rate("EUR", "GBP", "1", at("2025-12-30T10:00:00Z")));
+        List<List<FxClient.ExchangeRate>> written = new ArrayList<>();
+
+        List<FxClient.ExchangeRate> result = lanes.writeAll(S4TenantClients.DEFAULT, batch, rates -> {
+            written.add(rates);
+            return rates;
+        });
+
+        assertEquals(List.of(batch.get(1), batch.get(2)), result);
+        assertEquals(List.of(result), written);
+    }
+
+    @Test
+    public void shouldAdvanceOnlyLanesOfRatesTaken() {
+        List<FxClient.ExchangeRate> batch = List.of(
+                rate("USD", "EUR", "1", at("2025-12-30T12:00:00Z")),
+                rate("USD", "GBP", "1", at("2025-12-30T12:00:00Z")));
+
+        // S/4 rejected the second rate of the batch.
+        assertEquals(List.of(batch.getFirst()), lanes.writeAll(S4TenantClients.DEFAULT, batch, rates -> List.of(rates.getFirst())));
+
+        assertFalse(lanes.write(S4TenantClients.DEFAULT, rate("USD", "EUR", "1", at("2025-12-30T11:00:00Z")), r -> {
+        }));
+        assertTrue(lanes.write(S4TenantClients.DEFAULT, rate("USD", "GBP", "1", at("2025-12-30T11:00:00Z")), r -> {
+        }));
+    }
+
+    @Test
+    public void shouldWriteSamePairInSequenceAndDifferentPairsInParallel() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch bothPairsInside = new CountDownLatch(2);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Boolean>> samePair = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                String timestamp = "2025-12-30T12:00:%02dZ".formatted(i);
+                samePair.add(executor.submit(() -> lanes.write(S4TenantClients.DEFAULT, rate("USD", "CHF", "1", at(timestamp)), r -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    Thread.yield();
+                    inFlight.decrementAndGet();
+                })));
+            }
+            // Each waits inside its lane for the other, which only works if they don't share one.
+            List<Future<Boolean>> otherPairs = new ArrayList<>();
+            for (String target : List.of("JPY", "SEK")) {
+                otherPairs.add(executor.submit(() -> lanes.write(S4TenantClients.DEFAULT, rate("USD", target, "1", at("2025-12-30T12:00:00Z")), r -> {
+                    bothPairsInside.countDown();
+                    try {
+                        assertTrue(bothPairsInside.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                })));
+            }
+
+            for (Future<Boolean> future : otherPairs) {
+                assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+            for (Future<Boolean> future : samePair) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        assertEquals(1, maxInFlight.get());
+    }
+}
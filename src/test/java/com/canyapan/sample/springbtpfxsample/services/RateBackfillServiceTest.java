@@ -0,0 +1,196 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.exceptions.FxIntegrationException;
+import com.canyapan.sample.springbtpfxsample.exceptions.FxRateMissingException;
+import com.canyapan.sample.springbtpfxsample.exceptions.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(properties = {"fx.backfill.chunk-days=7", "fx.backfill.batch-size=5"})
+@ActiveProfiles("test")
+public class RateBackfillServiceTest {
+
+    @TempDir
+    static Path checkpointDir;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("fx.backfill.checkpoint-dir", checkpointDir::toString);
+    }
+
+    @MockitoBean
+    private FxClient fxClient;
+
+    @MockitoBean
+    private S4HanaClient s4HanaClient;
+
+    @Autowired
+    private RateBackfillService service;
+
+    @BeforeEach
+    void setUp() {
+        when(fxClient.fetchExchangeRate(anyString(), anyString(), any(LocalDate.class))).thenAnswer(invocation -> {
+            FxClient.ExchangeRate r = new FxClient.ExchangeRate();
+            r.setBase(invocation.getArgument(0));
+            r.setTarget(invocation.getArgument(1));
+            r.setMid(new BigDecimal("1.23"));
+            // Providers may stamp historical rates with the time of the request.
+            r.setTimestamp(ZonedDateTime.now());
+            return r;
+        });
+    }
+
+    private RateBackfillService.BackfillStatus await(String id) throws InterruptedException {
+        return awaitTenant(S4TenantClients.DEFAULT, id);
+    }
+
+    private RateBackfillService.BackfillStatus awaitTenant(String tenant, String id) throws InterruptedException {
+        return await(service, tenant, id);
+    }
+
+    private static RateBackfillService.BackfillStatus await(RateBackfillService backfills, String tenant, String id)
+            throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            RateBackfillService.BackfillStatus status = backfills.getStatus(tenant, id).orElseThrow();
+            if (status.status() != RateBackfillService.Status.RUNNING) {
+                return status;
+            }
+            Thread.sleep(50);
+        }
+        return fail("Backfill " + id + " didn't finish.");
+    }
+
+    @Test
+    public void shouldBackfillRangeInChunksAndBatches() throws Exception {
+        LocalDate from = LocalDate.of(2025, 1, 1);
+        LocalDate to = LocalDate.of(2025, 1, 20);
+
+        RateBackfillService.BackfillStatus status = await(service.start("EUR", "USD", from, to).id());
+
+        assertEquals(RateBackfillService.Status.COMPLETED, status.status());
+        assertEquals(20, status.totalDays());
+        assertEquals(20, status.completedDays());
+        assertEquals(20, status.writtenRates());
+        assertEquals(to, status.completedThrough());
+
+        verify(fxClient, times(20)).fetchExchangeRate(eq("EUR"), eq("USD"), any(LocalDate.class));
+        // Chunks of 7, 7 and 6 days in batches of at most 5.
+        verify(s4HanaClient, times(5)).sendExchangeRates(eq(S4TenantClients.DEFAULT), argThat(batch -> batch.size() <= 5
+                && batch.stream().allMatch(r -> r.getTimestamp().toLocalDate().toString().equals(r.getDate()))));
+        verify(s4HanaClient, times(1)).sendExchangeRate(eq(S4TenantClients.DEFAULT), any());
+        assertTrue(Files.readString(checkpointDir.resolve(status.id() + ".checkpoint")).contains("completedThrough=2025-01-20"));
+    }
+
+    @Test
+    public void shouldResumeAfterLastCompletedDay() throws Exception {
+        LocalDate from = LocalDate.of(2025, 2, 1);
+        LocalDate to = LocalDate.of(2025, 2, 14);
+        // Fail late enough for the first chunk to be written.
+        doAnswer(invocation -> {
+            Thread.sleep(300);
+            throw new FxIntegrationException("fx failed");
+        }).when(fxClient).fetchExchangeRate("GBP", "USD", LocalDate.of(2025, 2, 10));
+
+        RateBackfillService.BackfillStatus failed = await(service.start("GBP", "USD", from, to).id());
+
+        assertEquals(RateBackfillService.Status.FAILED, failed.status());
+        assertEquals(LocalDate.of(2025, 2, 7), failed.completedThrough());
+
+        reset(fxClient);
+        setUp();
+        RateBackfillService.BackfillStatus resumed = await(service.start("GBP", "USD", from, to).id());
+
+        assertEquals(RateBackfillService.Status.COMPLETED, resumed.status());
+        assertEquals(to, resumed.completedThrough());
+        verify(fxClient, times(7)).fetchExchangeRate(eq("GBP"), eq("USD"), any(LocalDate.class));
+        verify(fxClient, never()).fetchExchangeRate("GBP", "USD", LocalDate.of(2025, 2, 7));
+    }
+
+    @Test
+    public void shouldSkipDaysWithoutRateAndCompleteRange() throws Exception {
+        LocalDate from = LocalDate.of(2025, 3, 3);
+        LocalDate to = LocalDate.of(2025, 3, 16);
+        // The weekend in the middle of the first chunk has no rate.
+        for (LocalDate day : List.of(LocalDate.of(2025, 3, 8), LocalDate.of(2025, 3, 9))) {
+            when(fxClient.fetchExchangeRate("CHF", "USD", day)).thenThrow(new FxRateMissingException("no rate of " + day));
+        }
+
+        RateBackfillService.BackfillStatus status = await(service.start("CHF", "USD", from, to).id());
+
+        assertEquals(RateBackfillService.Status.COMPLETED, status.status());
+        assertEquals(14, status.completedDays());
+        assertEquals(12, status.writtenRates());
+        assertEquals(List.of(LocalDate.of(2025, 3, 8), LocalDate.of(2025, 3, 9)), status.skippedDays());
+        assertEquals(to, status.completedThrough());
+        verify(s4HanaClient, never()).sendExchangeRates(anyString(), argThat(batch -> batch.stream()
+                .anyMatch(r -> "CHF".equals(r.getBase()) && Set.of("2025-03-08", "2025-03-09").contains(r.getDate()))));
+        assertTrue(Files.readString(checkpointDir.resolve(status.id() + ".checkpoint")).contains("completedThrough=2025-03-16"));
+    }
+
+    @Test
+    public void shouldWriteToTenantOfBackfillAndShowItOnlyToThatTenant() throws Exception {
+        LocalDate from = LocalDate.of(2025, 4, 1);
+        LocalDate to = LocalDate.of(2025, 4, 3);
+
+        String id = service.start("acme", "EUR", "GBP", from, to).id();
+        RateBackfillService.BackfillStatus status = awaitTenant("acme", id);
+
+        assertEquals(RateBackfillService.Status.COMPLETED, status.status());
+        assertEquals("acme-EUR-GBP-2025-04-01-2025-04-03", id);
+        assertEquals("acme", status.tenant());
+        assertTrue(service.getStatus(id).isEmpty());
+        verify(s4HanaClient).sendExchangeRates(eq("acme"), argThat(batch -> batch.size() == 3));
+        verify(s4HanaClient, never()).sendExchangeRates(eq(S4TenantClients.DEFAULT), argThat(batch -> batch.stream()
+                .anyMatch(r -> "EUR".equals(r.getBase()) && "GBP".equals(r.getTarget()))));
+        assertTrue(Files.readString(checkpointDir.resolve(id + ".checkpoint")).contains("tenant=acme"));
+    }
+
+    @Test
+    public void shouldForgetFinishedBackfillsAfterRetention() throws Exception {
+        MutableClock clock = new MutableClock();
+        RateBackfillService backfills = new RateBackfillService(fxClient, s4HanaClient, new FxBackfillProperties(
+                7, 8, 5, 732, checkpointDir.resolve("retention"), false, Duration.ofHours(1)), clock);
+        try {
+            String id = backfills.start("EUR", "SEK", LocalDate.of(2025, 5, 1), LocalDate.of(2025, 5, 2)).id();
+            assertEquals(RateBackfillService.Status.COMPLETED, await(backfills, S4TenantClients.DEFAULT, id).status());
+
+            clock.advance(Duration.ofMinutes(59));
+            assertTrue(backfills.getStatus(id).isPresent());
+
+            clock.advance(Duration.ofMinutes(2));
+            assertTrue(backfills.getStatus(id).isEmpty());
+        } finally {
+            backfills.stop();
+        }
+    }
+
+    @Test
+    public void shouldRejectInvalidRanges() {
+        assertThrows(ValidationException.class,
+                () -> service.start("EUR", "USD", LocalDate.of(2025, 3, 2), LocalDate.of(2025, 3, 1)));
+        assertThrows(ValidationException.class,
+                () -> service.start("EUR", "USD", LocalDate.now().minusDays(1), LocalDate.now().plusDays(1)));
+        assertThrows(ValidationException.class,
+                () -> service.start("EUR", "USD", LocalDate.of(2020, 1, 1), LocalDate.of(2025, 1, 1)));
+    }
+}
@@ -0,0 +1,144 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FreshnessProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class RateFreshnessTrackerTest {
+
+    private final MutableClock clock = new MutableClock();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FxClient fxClient = mock(FxClient.class);
+    private final CurrencyRegistry currencyRegistry = CurrencyRegistryTest.accepting(fxClient, meterRegistry, "USD", "EUR", "GBP");
+
+    private static FreshnessProperties properties(boolean resync, int maxPerCheck) {
+        return new FreshnessProperties(true, Duration.ofHours(1), Duration.ofMinutes(1),
+                new FreshnessProperties.Resync(resync, maxPerCheck));
+    }
+
+    private RateFreshnessTracker tracker(FreshnessProperties properties) {
+        return new RateFreshnessTracker(properties, meterRegistry, currencyRegistry, clock);
+    }
+
+    private FxClient.ExchangeRate aged(String base, String target, Duration age) {
+        return aged(base, target, "1", age);
+    }
+
+    private FxClient.ExchangeRate aged(String base, String target, String mid, Duration age) {
+        return rate(base, target, mid, clock.instant().minus(age));
+    }
+
+    @Test
+    public void shouldReportAgeOfNewestRatePerPairAndStage() {
+        RateFreshnessTracker tracker = tracker(properties(false, 5));
+
+        tracker.recordFetched(aged("USD", "EUR", Duration.ofSeconds(30)));
+        tracker.recordWritten(aged("USD", "EUR", Duration.ofMinutes(2)));
+        // An older rate written later, e.g. by a backfill, doesn't make the pair look staler.
+        tracker.recordWritten(aged("USD", "EUR", Duration.ofDays(3)));
+
+        assertEquals(30.0, meterRegistry.get("fx.freshness.age").tags("pair", "USD/EUR", "stage", "fetched").gauge().value());
+        assertEquals(120.0, meterRegistry.get("fx.freshness.age").tags("pair", "USD/EUR", "stage", "written").gauge().value());
+        assertTrue(Double.isNaN(meterRegistry.get("fx.freshness.age").tags("pair", "EUR/USD", "stage", "written").gauge().value()));
+    }
+
+    @Test
+    public void shouldListPairsInBreachStalestFirstAndCountBreachesOnce() {
+        RateFreshnessTracker tracker = tracker(properties(false, 5));
+        tracker.recordWritten(aged("EUR", "GBP", Duration.ofMinutes(1)));
+        clock.advance(Duration.ofHours(3));
+        tracker.recordWritten(aged("USD", "GBP", Duration.ofMinutes(1)));
+        clock.advance(Duration.ofHours(2));
+        tracker.recordWritten(aged("USD", "EUR", Duration.ofMinutes(1)));
+        tracker.recordWritten(aged("EUR", "USD", Duration.ofMinutes(1)));
+        tracker.recordWritten(aged("GBP", "EUR", Duration.ofMinutes(1)));
+        tracker.recordFetched(aged("EUR", "GBP", "1.1", Duration.ZERO));
+        tracker.recordFetched(aged("USD", "GBP", "1.1", Duration.ZERO));
+        tracker.recordFetched(aged("USD", "EUR", "1.1", Duration.ZERO));
+
+        List<RateFreshnessTracker.Staleness> breaching = tracker.check();
+        tracker.check();
+
+        assertEquals(List.of("GBP/USD", "EUR/GBP", "USD/GBP"),
+                breaching.stream().map(s -> s.base() + "/" + s.target()).toList());
+        assertNull(breaching.getFirst().age());
+        assertEquals(Duration.ofHours(5), breaching.get(1).age());
+        assertEquals(1.0, meterRegistry.get("fx.freshness.breaches").tag("pair", "EUR/GBP").counter().count());
+        assertEquals(0.0, meterRegistry.get("fx.freshness.breaches").tag("pair", "USD/EUR").counter().count());
+    }
+
+    @Test
+    public void shouldResyncStalestPairsWithinBudget() {
+        FreshnessProperties properties = properties(true, 2);
+        RateFreshnessTracker tracker = tracker(properties);
+        ExchangeRateService exchangeRateService = mock(ExchangeRateService.class);
+        StalenessWatchdog watchdog = new StalenessWatchdog(properties, tracker, exchangeRateService,
+                PairOwnershipTest.everyPair(meterRegistry), meterRegistry);
+
+        tracker.recordWritten(aged("EUR", "GBP", Duration.ofMinutes(1)));
+        clock.advance(Duration.ofHours(1));
+        tracker.recordWritten(aged("USD", "EUR", Duration.ofMinutes(1)));
+        clock.advance(Duration.ofHours(1));
+        tracker.recordWritten(aged("USD", "GBP", Duration.ofMinutes(1)));
+        clock.advance(Duration.ofHours(3));
+        tracker.recordWritten(aged("EUR", "USD", Duration.ofMinutes(1)));
+        tracker.recordWritten(aged("GBP", "EUR", Duration.ofMinutes(1)));
+        tracker.recordWritten(aged("GBP", "USD", Duration.ofMinutes(1)));
+        for (String pair : List.of("USD/EUR", "USD/GBP", "EUR/GBP", "EUR/USD", "GBP/EUR", "GBP/USD")) {
+            tracker.recordFetched(aged(pair.substring(0, 3), pair.substring(4), "1.1", Duration.ZERO));
+        }
+
+        assertEquals(3, watchdog.runCheck().size());
+
+        verify(exchangeRateService).updateRate(S4TenantClients.DEFAULT, "EUR", "GBP");
+        verify(exchangeRateService).updateRate(S4TenantClients.DEFAULT, "USD", "EUR");
+        verifyNoMoreInteractions(exchangeRateService);
+        assertEquals(2.0, meterRegistry.get("fx.freshness.resyncs").tag("outcome", "success").counter().count());
+    }
+
+    @Test
+    public void shouldNotBreachWhileProviderRateIsUnchanged() {
+        RateFreshnessTracker tracker = tracker(properties(false, 5));
+        tracker.recordWritten(aged("USD", "EUR", "0.85", Duration.ofMinutes(1)));
+        tracker.recordWritten(aged("EUR", "USD", "1.17", Duration.ofMinutes(1)));
+        tracker.recordWritten(aged("USD", "GBP", "0.74", Duration.ofMinutes(1)));
+        clock.advance(Duration.ofHours(2));
+        // Published again unchanged, nothing fetched since the write, and a rate that really moved.
+        tracker.recordFetched(aged("USD", "EUR", "0.85", Duration.ZERO));
+        tracker.recordFetched(aged("USD", "GBP", "0.75", Duration.ZERO));
+
+        assertEquals(List.of("EUR/GBP", "GBP/EUR", "GBP/USD", "USD/GBP"),
+                tracker.check().stream().map(s -> s.base() + "/" + s.target()).sorted().toList());
+        // The written rate ages as ever, only the breach waits for a rate worth writing.
+        assertEquals(7260.0, meterRegistry.get("fx.freshness.age").tags("pair", "USD/EUR", "stage", "written").gauge().value());
+    }
+
+    @Test
+    public void shouldFollowCurrenciesOfRegistry() {
+        RateFreshnessTracker tracker = tracker(properties(false, 5));
+        tracker.recordWritten(aged("USD", "EUR", Duration.ofMinutes(1)));
+        tracker.recordWritten(aged("EUR", "USD", Duration.ofMinutes(1)));
+        clock.advance(Duration.ofHours(2));
+        tracker.recordFetched(aged("USD", "EUR", "1.1", Duration.ZERO));
+        tracker.recordWritten(aged("EUR", "USD", Duration.ofMinutes(1)));
+
+        when(fxClient.fetchCurrencies("/currencies")).thenReturn(Set.of("USD", "EUR", "CHF"));
+        currencyRegistry.refresh();
+        tracker.recordFetched(aged("GBP", "EUR", Duration.ofHours(3)));
+        tracker.recordWritten(aged("CHF", "USD", Duration.ofMinutes(1)));
+
+        // GBP is no longer accepted, CHF now is and its pairs without a written rate are in breach.
+        assertEquals(List.of("CHF/EUR", "EUR/CHF", "USD/CHF", "USD/EUR"),
+                tracker.check().stream().map(s -> s.base() + "/" + s.target()).sorted().toList());
+        assertTrue(tracker.entries().stream().noneMatch(e -> e.base().equals("GBP")));
+        assertEquals(60.0, meterRegistry.get("fx.freshness.age").tags("pair", "CHF/USD", "stage", "written").gauge().value());
+    }
+}
@@ -0,0 +1,85 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.math.BigDecimal;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RatePayloadsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RatePayloads payloads = new RatePayloads(JsonMapper.builder().build(), meterRegistry);
+
+    private static RateSyncedEvent synced(String tenant, String base, String target, String mid) {
+        return synced(tenant, base, target, mid, 0);
+    }
+
+    private static RateSyncedEvent synced(String tenant, String base, String target, String mid, int minute) {
+        FxClient.ExchangeRate rate = new FxClient.ExchangeRate();
+        rate.setBase(base);
+        rate.setTarget(target);
+        rate.setMid(new BigDecimal(mid));
+        rate.setTimestamp(ZonedDateTime.of(2025, 12, 30, 12, minute, 0, 0, ZoneOffset.UTC));
+        return new RateSyncedEvent(tenant, rate);
+    }
+
+    private double encodings(String format) {
+        return meterRegistry.get("rate.payloads.encodings").tag("format", format).counter().count();
+    }
+
+    @Test
+    public void shouldEncodeOnceWhenRateChangesAndReuseOnReads() {
+        double before = encodings("cbor");
+        payloads.onRateSynced(synced("tenant-a", "USD", "EUR", "0.85"));
+        payloads.onRateSynced(synced("tenant-a", "USD", "EUR", "0.85"));
+
+        byte[] first = payloads.get("tenant-a", "USD", "EUR", RatePayloads.Format.CBOR).orElseThrow();
+        byte[] second = payloads.get("tenant-a", "USD", "EUR", RatePayloads.Format.CBOR).orElseThrow();
+
+        assertSame(first, second);
+        assertEquals(before + 1, encodings("cbor"));
+        FxClient.ExchangeRate decoded = CBORMapper.builder().build().readValue(first, FxClient.ExchangeRate.class);
+        assertEquals(new BigDecimal("0.85"), decoded.getMid());
+        assertEquals("EUR", decoded.getTarget());
+
+        payloads.onRateSynced(synced("tenant-a", "USD", "EUR", "0.86", 1));
+        assertNotSame(first, payloads.get("tenant-a", "USD", "EUR", RatePayloads.Format.CBOR).orElseThrow());
+        assertEquals(before + 2, encodings("cbor"));
+    }
+
+    @Test
+    public void shouldKeepTenantsApartAndReEncodeListOnlyAfterChange() {
+        payloads.onRateSynced(synced("tenant-a", "USD", "GBP", "0.79"));
+        payloads.onRateSynced(synced("tenant-a", "EUR", "USD", "1.17"));
+        payloads.onRateSynced(synced("tenant-b", "USD", "EUR", "0.85"));
+
+        byte[] list = payloads.getAll("tenant-a", RatePayloads.Format.JSON);
+        assertSame(list, payloads.getAll("tenant-a", RatePayloads.Format.JSON));
+        String json = new String(list);
+        assertTrue(json.indexOf("\"EUR\"") < json.indexOf("\"GBP\""), json);
+        assertFalse(json.contains("0.85"), json);
+        assertTrue(payloads.get("tenant-b", "USD", "GBP", RatePayloads.Format.JSON).isEmpty());
+        assertEquals("[]", new String(payloads.getAll("tenant-c", RatePayloads.Format.JSON)));
+
+        payloads.onRateSynced(synced("tenant-a", "USD", "GBP", "0.80", 1));
+        assertTrue(new String(payloads.getAll("tenant-a", RatePayloads.Format.JSON)).contains("0.80"));
+    }
+
+    @Test
+    public void shouldKeepNewerRateWhenOlderArrivesLate() {
+        payloads.onRateSynced(synced("tenant-a", "CHF", "EUR", "1.07", 5));
+        byte[] newer = payloads.get("tenant-a", "CHF", "EUR", RatePayloads.Format.JSON).orElseThrow();
+
+        payloads.onRateSynced(synced("tenant-a", "CHF", "EUR", "1.06", 4));
+        payloads.onRateSynced(synced("tenant-a", "CHF", "EUR", "1.05", 5));
+
+        assertSame(newer, payloads.get("tenant-a", "CHF", "EUR", RatePayloads.Format.JSON).orElseThrow());
+        assertTrue(new String(payloads.getAll("tenant-a", RatePayloads.Format.JSON)).contains("1.07"));
+    }
+}
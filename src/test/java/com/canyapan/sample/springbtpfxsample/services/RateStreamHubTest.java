@@ -0,0 +1,119 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.RateStreamProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.TooManyRequestsException;
+import com.canyapan.sample.springbtpfxsample.exceptions.ValidationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RateStreamHubTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CurrencyRegistry currencyRegistry = mock(CurrencyRegistry.class);
+    private final List<Runnable> drains = new ArrayList<>();
+
+    private RateStreamHub hub(int maxSubscribers) {
+        when(currencyRegistry.contains(anyString())).thenAnswer(i -> Set.of("USD", "EUR", "GBP").contains(i.<String>getArgument(0)));
+        return new RateStreamHub(new RateStreamProperties(true, maxSubscribers, Duration.ofMinutes(30)),
+                currencyRegistry, meterRegistry, drains::add);
+    }
+
+    private static RateSyncedEvent synced(String tenant, String base, String target, String mid) {
+        FxClient.ExchangeRate rate = new FxClient.ExchangeRate();
+        rate.setBase(base);
+        rate.setTarget(target);
+        rate.setMid(new BigDecimal(mid));
+        return new RateSyncedEvent(tenant, rate);
+    }
+
+    private void runDrains() {
+        while (!drains.isEmpty()) {
+            drains.removeFirst().run();
+        }
+    }
+
+    @Test
+    public void shouldDeliverOnlySubscribedPairsOfOwnTenant() {
+        RateStreamHub hub = hub(10);
+        List<String> usdEur = new ArrayList<>();
+        List<String> all = new ArrayList<>();
+        hub.subscribe("tenant-a", List.of("USD/EUR"), (pair, rate) -> usdEur.add(pair + "=" + rate.getMid()));
+        hub.subscribe("tenant-a", List.of(), (pair, rate) -> all.add(pair + "=" + rate.getMid()));
+
+        hub.onRateSynced(synced("tenant-a", "USD", "EUR", "0.85"));
+        hub.onRateSynced(synced("tenant-a", "USD", "GBP", "0.79"));
+        hub.onRateSynced(synced("tenant-b", "USD", "EUR", "0.86"));
+        runDrains();
+
+        assertEquals(List.of("USD/EUR=0.85"), usdEur);
+        assertEquals(List.of("USD/EUR=0.85", "USD/GBP=0.79"), all);
+        assertEquals(3.0, meterRegistry.get("sync.stream.events").tag("outcome", "sent").counter().count());
+    }
+
+    @Test
+    public void shouldConflateRatesWhileSubscriberIsBehind() {
+        RateStreamHub hub = hub(10);
+        List<String> received = new ArrayList<>();
+        hub.subscribe("tenant-a", List.of(), (pair, rate) -> received.add(pair + "=" + rate.getMid()));
+
+        hub.onRateSynced(synced("tenant-a", "USD", "EUR", "0.85"));
+        hub.onRateSynced(synced("tenant-a", "USD", "GBP", "0.79"));
+        hub.onRateSynced(synced("tenant-a", "USD", "EUR", "0.86"));
+        hub.onRateSynced(synced("tenant-a", "USD", "EUR", "0.87"));
+
+        // Only one drain is started however many rates arrive before it runs.
+        assertEquals(1, drains.size());
+        runDrains();
+
+        assertEquals(List.of("USD/EUR=0.87", "USD/GBP=0.79"), received);
+        assertEquals(2.0, meterRegistry.get("sync.stream.events").tag("outcome", "conflated").counter().count());
+    }
+
+    @Test
+    public void shouldDropSubscriberWhoseConnectionFailed() {
+        RateStreamHub hub = hub(10);
+        hub.subscribe("tenant-a", List.of(), (pair, rate) -> {
+            throw new IOException("Broken pipe");
+        });
+
+        hub.onRateSynced(synced("tenant-a", "USD", "EUR", "0.85"));
+        runDrains();
+        hub.onRateSynced(synced("tenant-a", "USD", "EUR", "0.86"));
+
+        assertTrue(drains.isEmpty());
+        assertEquals(0, hub.size());
+        assertEquals(1.0, meterRegistry.get("sync.stream.events").tag("outcome", "failed").counter().count());
+    }
+
+    @Test
+    public void shouldRejectInvalidPairsAndSubscribersOverLimit() {
+        RateStreamHub hub = hub(1);
+
+        assertThrows(ValidationException.class, () -> hub.subscribe("tenant-a", List.of("USD/XXX"), (pair, rate) -> {
+        }));
+        assertThrows(ValidationException.class, () -> hub.subscribe("tenant-a", List.of("USDEUR"), (pair, rate) -> {
+        }));
+
+        RateStreamHub.Subscription subscription = hub.subscribe("tenant-a", List.of("USD/EUR"), (pair, rate) -> {
+        });
+        assertThrows(TooManyRequestsException.class, () -> hub.subscribe("tenant-a", List.of(), (pair, rate) -> {
+        }));
+
+        subscription.close();
+        assertEquals(0, hub.size());
+        assertNotNull(hub.subscribe("tenant-a", List.of(), (pair, rate) -> {
+        }));
+    }
+}
@@ -0,0 +1,42 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Exchange rates for tests, stamped at {@link #TIMESTAMP} unless given a timestamp.
+ */
+final class Rates {
+
+    static final ZonedDateTime TIMESTAMP = ZonedDateTime.parse("2025-12-30T12:13:30Z");
+
+    private Rates() {
+    }
+
+    static FxClient.ExchangeRate rate(String mid) {
+        return rate("USD", "EUR", mid);
+    }
+
+    static FxClient.ExchangeRate rate(String base, String target) {
+        return rate(base, target, "1.23");
+    }
+
+    static FxClient.ExchangeRate rate(String base, String target, String mid) {
+        return rate(base, target, mid, TIMESTAMP);
+    }
+
+    static FxClient.ExchangeRate rate(String base, String target, String mid, Instant timestamp) {
+        return rate(base, target, mid, ZonedDateTime.ofInstant(timestamp, ZoneOffset.UTC));
+    }
+
+    static FxClient.ExchangeRate rate(String base, String target, String mid, ZonedDateTime timestamp) {
+        FxClient.ExchangeRate r = new FxClient.ExchangeRate();
+        r.setBase(base);
+        r.setTarget(target);
+        r.setMid(new BigDecimal(mid));
+        r.setTimestamp(timestamp);
+        return r;
+    }
+}
@@ -0,0 +1,193 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4ConcurrencyProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S4ConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private S4ConcurrencyLimiter limiter(int initialLimit, double latencyTolerance, Duration acquireTimeout) {
+        return new S4ConcurrencyLimiter(new S4ConcurrencyProperties(true, initialLimit, 1, 64, latencyTolerance, 0.5, acquireTimeout),
+                meterRegistry);
+    }
+
+    private static Object sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    @Test
+    public void shouldGrowLimitWhileLatencyIsFlatAndLimitIsUsed() throws InterruptedException {
+        S4ConcurrencyLimiter limiter = limiter(2, 10, Duration.ofSeconds(10));
+
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            writers.add(Thread.ofVirtual().start(() -> {
+                for (int j = 0; j < 20; j++) {
+                    limiter.call(() -> sleep(2));
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertTrue(limiter.getLimit() > 2, "limit should have grown but is " + limiter.getLimit());
+        assertEquals(limiter.getLimit(), meterRegistry.get("s4.concurrency.limit").gauge().value());
+    }
+
+    @Test
+    public void shouldCutLimitWhenS4IsOverloaded() {
+        S4ConcurrencyLimiter limiter = limiter(8, 2, Duration.ofSeconds(1));
+
+        assertThrows(HttpServerErrorException.class, () -> limiter.call(() -> {
+            throw HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable",
+                    HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        }));
+        assertEquals(4, limiter.getLimit());
+
+        assertThrows(HttpClientErrorException.class, () -> limiter.call(() -> {
+            throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests",
+                    HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        }));
+        assertEquals(2, limiter.getLimit());
+        assertEquals(2.0, meterRegistry.get("s4.concurrency.cuts").tag("reason", "overload").counter().count());
+    }
+
+    @Test
+    public void shouldKeepLimitOnUnrelatedFailures() {
+        S4ConcurrencyLimiter limiter = limiter(8, 2, Duration.ofSeconds(1));
+
+        assertThrows(HttpClientErrorException.class, () -> limiter.call(() -> {
+            throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request",
+                    HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        }));
+
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void shouldCutLimitWhenLatencyRises() {
+        S4ConcurrencyLimiter limiter = limiter(8, 2, Duration.ofSeconds(1));
+
+        for (int i = 0; i < 10; i++) {
+            limiter.call(() -> sleep(1));
+        }
+        for (int i = 0; i < 3; i++) {
+            limiter.call(() -> sleep(50));
+        }
+
+        assertTrue(limiter.getLimit() < 8, "limit should have been cut but is " + limiter.getLimit());
+        assertTrue(meterRegistry.get("s4.concurrency.cuts").tag("reason", "latency").counter().count() > 0);
+    }
+
+    @Test
+    public void shouldMeasureBatchesAgainstEarlierBatchesPerRate() {
+        S4ConcurrencyLimiter limiter = limiter(8, 2, Duration.ofSeconds(1));
+
+        for (int i = 0; i < 10; i++) {
+            limiter.call(() -> sleep(1));
+        }
+        // Far slower than a single write, but not per rate nor than the batches before them.
+        for (int i = 0; i < 5; i++) {
+            limiter.callBatch(S4TenantClients.DEFAULT, 20, () -> sleep(40));
+        }
+
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0.0, meterRegistry.get("s4.concurrency.cuts").tag("reason", "latency").counter().count());
+        assertEquals(5, meterRegistry.get("s4.concurrency.rtt").tag("kind", "batch").timer().count());
+        assertTrue(meterRegistry.get("s4.concurrency.rtt").tag("kind", "batch").timer().mean(TimeUnit.MILLISECONDS) < 10);
+
+        for (int i = 0; i < 3; i++) {
+            limiter.callBatch(S4TenantClients.DEFAULT, 20, () -> sleep(400));
+        }
+
+        assertTrue(limiter.getLimit() < 8, "limit should have been cut but is " + limiter.getLimit());
+    }
+
+    @Test
+    public void shouldFailWhenNoSlotFreesUpInTime() throws InterruptedException {
+        S4ConcurrencyLimiter limiter = limiter(1, 2, Duration.ofMillis(50));
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = Thread.ofVirtual().start(() -> limiter.call(() -> {
+            inside.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        assertTrue(inside.await(5, TimeUnit.SECONDS));
+
+        assertThrows(IllegalStateException.class, () -> limiter.call(() -> "never"));
+
+        release.countDown();
+        holder.join();
+        assertEquals("now", limiter.call(() -> "now"));
+    }
+
+    @Test
+    public void shouldHandFreedSlotsToTenantsInTurn() throws InterruptedException {
+        S4ConcurrencyLimiter limiter = new S4ConcurrencyLimiter(
+                new S4ConcurrencyProperties(true, 1, 1, 1, 10, 0.5, Duration.ofSeconds(10)), meterRegistry);
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        Thread holder = Thread.ofVirtual().start(() -> limiter.call("noisy", () -> {
+            inside.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        assertTrue(inside.await(5, TimeUnit.SECONDS));
+
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            writers.add(Thread.ofVirtual().start(() -> limiter.call("noisy", () -> order.add("noisy"))));
+        }
+        while (limiter.getQueued() < 5) {
+            Thread.sleep(1);
+        }
+        writers.add(Thread.ofVirtual().start(() -> limiter.call("quiet", () -> order.add("quiet"))));
+        while (limiter.getQueued() < 6) {
+            Thread.sleep(1);
+        }
+
+        release.countDown();
+        holder.join();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(6, order.size());
+        assertTrue(order.indexOf("quiet") <= 1, "quiet tenant waited behind the noisy backlog: " + order);
+        assertEquals(0, limiter.getQueued());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
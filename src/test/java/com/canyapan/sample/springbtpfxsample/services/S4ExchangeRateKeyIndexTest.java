@@ -0,0 +1,70 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4KeyIndexProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S4ExchangeRateKeyIndexTest {
+
+    private final S4ExchangeRateKeyIndex index = new S4ExchangeRateKeyIndex(
+            new S4KeyIndexProperties(true, S4KeyIndexProperties.OnExisting.UPDATE, 400, 1000),
+            RestClient.create(), JsonMapper.builder().build(), new SimpleMeterRegistry());
+
+    @Test
+    public void shouldPackDistinctKeysIntoDistinctLongs() {
+        Set<Long> keys = new HashSet<>();
+        LocalDate day = LocalDate.of(2025, 12, 30);
+        for (String type : new String[]{"M", "B", "G"}) {
+            for (String pair : new String[]{"EUR/USD", "USD/EUR", "GBP/USD", "ZZZ/AAA"}) {
+                String[] currencies = pair.split("/");
+                for (int i = 0; i < 400; i++) {
+                    assertTrue(keys.add(index.key(type, currencies[0], currencies[1], day.minusDays(i))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldContainOnlyAddedKeys() {
+        LocalDate day = LocalDate.of(2025, 12, 30);
+        for (int i = 0; i < 5000; i++) {
+            index.add("M", "EUR", "USD", day.minusDays(i));
+        }
+
+        assertEquals(5000, index.size());
+        assertTrue(index.contains("M", "EUR", "USD", day));
+        assertTrue(index.contains("M", "EUR", "USD", day.minusDays(4999)));
+        assertFalse(index.contains("M", "EUR", "USD", day.plusDays(1)));
+        assertFalse(index.contains("M", "USD", "EUR", day));
+        assertFalse(index.contains("B", "EUR", "USD", day));
+
+        index.add("M", "EUR", "USD", day);
+        assertEquals(5000, index.size());
+    }
+
+    @Test
+    public void shouldIgnoreKeysThatCannotBePacked() {
+        index.add("M", "eur", "USD", LocalDate.of(2025, 12, 30));
+        index.add("M", "EURO", "USD", LocalDate.of(2025, 12, 30));
+        index.add("M", "EUR", "USD", null);
+
+        assertEquals(0, index.size());
+        assertFalse(index.contains("M", "eur", "USD", LocalDate.of(2025, 12, 30)));
+    }
+
+    @Test
+    public void shouldParseODataDates() {
+        assertEquals(LocalDate.of(2025, 12, 30), S4ExchangeRateKeyIndex.parseDate("/Date(1767052800000)/"));
+        assertEquals(LocalDate.of(2025, 12, 30), S4ExchangeRateKeyIndex.parseDate("/Date(1767052800000+0000)/"));
+        assertEquals(LocalDate.of(2025, 12, 30), S4ExchangeRateKeyIndex.parseDate("2025-12-30T00:00:00"));
+        assertNull(S4ExchangeRateKeyIndex.parseDate(""));
+    }
+}
@@ -9,6 +9,8 @@ import org.mockserver.springtest.MockServerTest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -17,14 +19,18 @@ import java.time.ZonedDateTime;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 import static org.mockserver.model.JsonBody.json;
+import static org.mockserver.model.StringBody.subString;
 
 @SpringBootTest
 @ActiveProfiles("test")
 @MockServerTest({"sap.s4.base-url=http://localhost:${mockServerPort}/odata/v2/"})
+@RecordApplicationEvents
 public class S4HanaClientIntegrationTest {
 
     private MockServerClient mockServer;
@@ -35,6 +41,9 @@ public class S4HanaClientIntegrationTest {
     @Autowired
     private S4HanaCsrfTokenCache tokenCache;
 
+    @Autowired
+    private ApplicationEvents events;
+
     @BeforeEach
     void setUp(){
         tokenCache.update("dummy-csrf-token", List.of("_session=dummy-session-cookie"));
@@ -62,7 +71,8 @@ public class S4HanaClientIntegrationTest {
         er.setMid(new BigDecimal("1.23"));
         er.setTimestamp(ZonedDateTime.of(LocalDateTime.of(2025, 12, 30, 12, 13, 30), ZoneOffset.UTC));
 
-        s4HanaClient.sendExchangeRate(er);
+        assertTrue(s4HanaClient.sendExchangeRate(er));
+        assertEquals(List.of(er), events.stream(RateSyncedEvent.class).map(RateSyncedEvent::rate).toList());
 
         // verify request was received with expected JSON fields
         mockServer.verify(request()
@@ -103,4 +113,110 @@ public class S4HanaClientIntegrationTest {
         assertEquals("Exchange rate couldn't be updated on S/4HANA", exception.getMessage());
     }
 
+    @Test
+    public void shouldSendEachExchangeRateInItsOwnChangesetOfOneBatch() {
+        mockServer.when(request()
+                        .withMethod("POST")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/\\$batch"))
+                .respond(response()
+                        .withStatusCode(202)
+                        .withHeader("Content-Type", "multipart/mixed; boundary=batchresponse")
+                        .withBody("""
+                                --batchresponse\r
+                                Content-Type: multipart/mixed; boundary=changeset_1\r
+                                \r
+                                --changeset_1\r
+                                Content-Type: application/http\r
+                                \r
+                                HTTP/1.1 201 Created\r
+                                \r
+                                --changeset_1--\r
+                                --batchresponse\r
+                                Content-Type: multipart/mixed; boundary=changeset_2\r
+                                \r
+                                --changeset_2\r
+                                Content-Type: application/http\r
+                                \r
+                                HTTP/1.1 201 Created\r
+                                \r
+                                --changeset_2--\r
+                                --batchresponse--\r
+                                """));
+
+        List<S4HanaClient.RateOutcome> outcomes =
+                s4HanaClient.sendExchangeRates(List.of(rate("EUR", "USD", "1.23"), rate("GBP", "USD", "1.34")));
+
+        assertTrue(outcomes.stream().allMatch(S4HanaClient.RateOutcome::written));
+        assertEquals(2, events.stream(RateSyncedEvent.class).count());
+        mockServer.verify(request()
+                .withMethod("POST")
+                .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/\\$batch")
+                .withHeader("x-csrf-token", "dummy-csrf-token")
+                .withHeader("Content-Type", "multipart/mixed; boundary=batch_.*")
+                .withBody(subString("POST A_ExchangeRate HTTP/1.1")));
+        mockServer.verify(request()
+                .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/\\$batch")
+                .withBody(subString("\"SourceCurrency\":\"GBP\"")));
+    }
+
+    @Test
+    public void shouldFailOnlyRateOfFailedChangeset() {
+        mockServer.when(request()
+                        .withMethod("POST")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/\\$batch"))
+                .respond(response()
+                        .withStatusCode(202)
+                        .withHeader("Content-Type", "multipart/mixed; boundary=batchresponse")
+                        .withBody("""
+                                --batchresponse\r
+                                Content-Type: application/http\r
+                                \r
+                                HTTP/1.1 400 Bad Request\r
+                                \r
+                                --batchresponse\r
+                                Content-Type: multipart/mixed; boundary=changeset_2\r
+                                \r
+                                --changeset_2\r
+                                Content-Type: application/http\r
+                                \r
+                                HTTP/1.1 201 Created\r
+                                \r
+                                --changeset_2--\r
+                                --batchresponse--\r
+                                """));
+
+        List<S4HanaClient.RateOutcome> outcomes =
+                s4HanaClient.sendExchangeRates(List.of(rate("EUR", "JPY", "160.1"), rate("GBP", "JPY", "190.2")));
+
+        assertTrue(outcomes.getFirst().isFailed());
+        assertEquals("Exchange rate couldn't be updated on S/4HANA", outcomes.getFirst().failure().getMessage());
+        assertFalse(outcomes.getLast().isFailed());
+        assertTrue(outcomes.getLast().written());
+        // Only the rate S/4 took is published.
+        assertEquals(List.of(outcomes.getLast().rate()), events.stream(RateSyncedEvent.class).map(RateSyncedEvent::rate).toList());
+    }
+
+    @Test
+    public void shouldThrowWhenBatchRequestFails() {
+        mockServer.when(request()
+                        .withMethod("POST")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/\\$batch"))
+                .respond(response()
+                        .withStatusCode(500));
+
+        S4IntegrationException exception = assertThrows(S4IntegrationException.class,
+                () -> s4HanaClient.sendExchangeRates(List.of(rate("EUR", "CHF", "0.93"), rate("GBP", "CHF", "1.07"))));
+
+        assertEquals("Exchange rates couldn't be updated on S/4HANA", exception.getMessage());
+    }
+
+    private static FxClient.ExchangeRate rate(String base, String target, String mid) {
+        FxClient.ExchangeRate er = new FxClient.ExchangeRate();
+        er.setBase(base);
+        er.setTarget(target);
+        er.setMid(new BigDecimal(mid));
+        er.setTimestamp(ZonedDateTime.of(LocalDateTime.of(2025, 12, 30, 12, 13, 30), ZoneOffset.UTC));
+        return er;
+    }
+
 }
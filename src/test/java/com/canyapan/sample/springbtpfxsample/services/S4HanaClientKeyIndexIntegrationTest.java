@@ -0,0 +1,123 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4KeyIndexProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.springtest.MockServerTest;
+import org.mockserver.verify.VerificationTimes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+
+import java.util.List;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.doReturn;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+import static org.mockserver.model.JsonBody.json;
+
+@SpringBootTest(properties = "sap.s4.key-index.enabled=true")
+@ActiveProfiles("test")
+@MockServerTest({"sap.s4.base-url=http://localhost:${mockServerPort}/odata/v2/"})
+@RecordApplicationEvents
+public class S4HanaClientKeyIndexIntegrationTest {
+
+    private MockServerClient mockServer;
+
+    @Autowired
+    private S4HanaClient s4HanaClient;
+
+    @MockitoSpyBean
+    private S4ExchangeRateKeyIndex keyIndex;
+
+    @Autowired
+    private ApplicationEvents events;
+
+    @Autowired
+    private S4HanaCsrfTokenCache tokenCache;
+
+    @BeforeEach
+    void setUp() {
+        tokenCache.update("dummy-csrf-token", List.of("_session=dummy-session-cookie"));
+
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate")
+                        .withQueryStringParameter("\\$skip", "0"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withBody(json("""
+                                {"d":{"results":[
+                                  {"ExchangeRateType":"M","SourceCurrency":"EUR","TargetCurrency":"USD","ValidityStartDate":"/Date(1767052800000)/"},
+                                  {"ExchangeRateType":"M","SourceCurrency":"EUR","TargetCurrency":"GBP","ValidityStartDate":"/Date(1767052800000)/"}
+                                ]}}""")));
+        mockServer.when(request()
+                        .withMethod("POST")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate"))
+                .respond(response().withStatusCode(201));
+        mockServer.when(request()
+                        .withMethod("PATCH")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate\\(.*\\)"))
+                .respond(response().withStatusCode(204));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        mockServer.reset();
+    }
+
+    @Test
+    public void shouldSeedIndexFromS4AndUpdateExistingRates() {
+        assertEquals(2, keyIndex.seed());
+
+        s4HanaClient.sendExchangeRate(rate("EUR", "USD"));
+
+        mockServer.verify(request()
+                .withMethod("PATCH")
+                .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate\\(ExchangeRateType='M',SourceCurrency='EUR',TargetCurrency='USD',ValidityStartDate=datetime'2025-12-30T00:00:00'\\)")
+                .withHeader("x-csrf-token", "dummy-csrf-token")
+                .withBody(json("""
+                        {"ExchangeRate" : 1.23}""")));
+        mockServer.verify(request()
+                .withMethod("POST")
+                .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate"), VerificationTimes.never());
+    }
+
+    @Test
+    public void shouldCreateUnknownRateOnceAndUpdateItAfterwards() {
+        s4HanaClient.sendExchangeRate(rate("GBP", "USD"));
+        s4HanaClient.sendExchangeRate(rate("GBP", "USD"));
+
+        mockServer.verify(request()
+                .withMethod("POST")
+                .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate"), VerificationTimes.once());
+        mockServer.verify(request()
+                .withMethod("PATCH")
+                .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate\\(.*GBP.*\\)"), VerificationTimes.once());
+    }
+
+    @Test
+    public void shouldReportRatesSkippedAsExistingAsNotWritten() {
+        doReturn(S4KeyIndexProperties.OnExisting.SKIP).when(keyIndex).getOnExisting();
+        keyIndex.seed();
+
+        assertFalse(s4HanaClient.sendExchangeRate(rate("EUR", "USD")));
+        List<S4HanaClient.RateOutcome> outcomes = s4HanaClient.sendExchangeRates(List.of(rate("EUR", "USD"), rate("EUR", "GBP")));
+
+        assertEquals(List.of(false, false), outcomes.stream().map(S4HanaClient.RateOutcome::written).toList());
+        assertEquals(0, events.stream(RateSyncedEvent.class).count());
+        mockServer.verify(request()
+                .withMethod("PATCH")
+                .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/A_ExchangeRate\\(.*\\)"), VerificationTimes.never());
+        mockServer.verify(request()
+                .withMethod("POST"), VerificationTimes.never());
+    }
+}
@@ -0,0 +1,131 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.HttpCompressionProperties;
+import com.canyapan.sample.springbtpfxsample.configs.S4TenancyProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class S4TenantClientsTest {
+
+    private static final Map<String, S4TenancyProperties.Route> ROUTES = Map.of(
+            "zone-a", new S4TenancyProperties.Route("http://localhost/a/"),
+            "zone-b", new S4TenancyProperties.Route("http://localhost/b/"),
+            "zone-c", new S4TenancyProperties.Route("http://localhost/c/"));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RestClient defaultClient = mock(RestClient.class);
+    private final S4HanaCsrfTokenInterceptor defaultInterceptor = mock(S4HanaCsrfTokenInterceptor.class);
+
+    private S4TenantClients tenantClients(boolean enabled, int maxCached, Duration idleTimeout) {
+        return new S4TenantClients(new S4TenancyProperties(enabled, "zid", maxCached, idleTimeout, ROUTES),
+                RestClient.builder(), defaultClient, defaultInterceptor,
+                new HttpCompressionInterceptor("s4", new HttpCompressionProperties(true, false, DataSize.ofKilobytes(1)), false, meterRegistry),
+                Duration.ofMinutes(25), meterRegistry);
+    }
+
+    private static JwtAuthenticationToken token(String zone) {
+        return new JwtAuthenticationToken(Jwt.withTokenValue("token")
+                .header("alg", "none")
+                .subject("user")
+                .claim("zid", zone)
+                .build());
+    }
+
+    @Test
+    public void shouldUseDefaultTenantWhenTenancyIsDisabled() {
+        S4TenantClients tenantClients = tenantClients(false, 2, Duration.ofMinutes(30));
+
+        assertEquals(S4TenantClients.DEFAULT, tenantClients.resolve(token("zone-a")));
+        assertSame(defaultClient, tenantClients.lease(S4TenantClients.DEFAULT).tenant().restClient());
+        assertSame(defaultInterceptor, tenantClients.lease(S4TenantClients.DEFAULT).tenant().csrfTokenInterceptor());
+    }
+
+    @Test
+    public void shouldResolveTenantFromZoneClaim() {
+        S4TenantClients tenantClients = tenantClients(true, 2, Duration.ofMinutes(30));
+
+        assertEquals("zone-b", tenantClients.resolve(token("zone-b")));
+        assertThrows(AccessDeniedException.class, () -> tenantClients.resolve(token("zone-unknown")));
+    }
+
+    @Test
+    public void shouldKeepClientsAndCsrfSessionPerTenant() {
+        S4TenantClients tenantClients = tenantClients(true, 2, Duration.ofMinutes(30));
+
+        S4TenantClients.Tenant a = tenantClients.lease("zone-a").tenant();
+        S4TenantClients.Tenant b = tenantClients.lease("zone-b").tenant();
+
+        assertSame(a, tenantClients.lease("zone-a").tenant());
+        assertNotSame(a.restClient(), b.restClient());
+        assertNotSame(a.csrfTokenInterceptor(), b.csrfTokenInterceptor());
+        assertNotSame(defaultClient, a.restClient());
+        assertEquals(2, tenantClients.size());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedTenantBeyondMaxCached() {
+        S4TenantClients tenantClients = tenantClients(true, 2, Duration.ofMinutes(30));
+
+        S4TenantClients.Tenant a = tenantClients.lease("zone-a").tenant();
+        S4TenantClients.Tenant b = tenantClients.lease("zone-b").tenant();
+        tenantClients.lease("zone-a").close();
+        tenantClients.lease("zone-c").close();
+
+        assertEquals(2, tenantClients.size());
+        assertSame(a, tenantClients.lease("zone-a").tenant());
+        assertNotSame(b, tenantClients.lease("zone-b").tenant());
+        assertEquals(2.0, meterRegistry.get("s4.tenants.evictions").tag("reason", "size").counter().count());
+    }
+
+    @Test
+    public void shouldEvictIdleTenants() {
+        S4TenantClients tenantClients = tenantClients(true, 10, Duration.ZERO);
+
+        tenantClients.lease("zone-a").close();
+        tenantClients.lease("zone-b").close();
+
+        assertEquals(1, tenantClients.size());
+        assertEquals(1.0, meterRegistry.get("s4.tenants.evictions").tag("reason", "idle").counter().count());
+    }
+
+    @Test
+    public void shouldEvictIdleTenantsWithoutFurtherLeases() {
+        S4TenantClients tenantClients = tenantClients(true, 10, Duration.ZERO);
+        S4TenantClients.Lease a = tenantClients.lease("zone-a");
+        a.close();
+
+        tenantClients.evictIdleTenants();
+
+        assertEquals(0, tenantClients.size());
+        assertTrue(a.isClientClosed());
+    }
+
+    @Test
+    public void shouldCloseEvictedTenantOnlyWithItsLastLease() {
+        S4TenantClients tenantClients = tenantClients(true, 1, Duration.ofMinutes(30));
+
+        S4TenantClients.Lease a = tenantClients.lease("zone-a");
+        S4TenantClients.Lease again = tenantClients.lease("zone-a");
+        again.close();
+        tenantClients.lease("zone-b").close();
+
+        // Evicted, but a call still runs on its clients.
+        assertEquals(1, tenantClients.size());
+        assertFalse(a.isClientClosed());
+
+        a.close();
+        assertTrue(a.isClientClosed());
+        a.close();
+    }
+}
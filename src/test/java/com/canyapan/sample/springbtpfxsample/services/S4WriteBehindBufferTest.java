@@ -0,0 +1,195 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.S4WriteBehindProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.S4IntegrationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class S4WriteBehindBufferTest {
+
+    private static final ZonedDateTime NOW = ZonedDateTime.parse("2025-12-30T12:00:00Z");
+
+    private final S4HanaClient s4HanaClient = mock(S4HanaClient.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private S4WriteBehindBuffer buffer;
+
+    @AfterEach
+    void tearDown() {
+        if (null != buffer) {
+            buffer.stop();
+        }
+    }
+
+    private S4WriteBehindBuffer start(int maxBatchSize, Duration linger, int capacity) {
+        buffer = new S4WriteBehindBuffer(
+                new S4WriteBehindProperties(true, maxBatchSize, linger, capacity, Duration.ofMillis(100)),
+                s4HanaClient, meterRegistry);
+        buffer.start();
+        return buffer;
+    }
+
+    private static List<S4HanaClient.RateOutcome> written(List<FxClient.ExchangeRate> rates) {
+        return rates.stream().map(r -> new S4HanaClient.RateOutcome(r, true, null)).toList();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldFlushOneBatchWhenMaxBatchSizeIsReached() {
+        when(s4HanaClient.sendExchangeRates(anyString(), anyList())).thenAnswer(invocation -> written(invocation.getArgument(1)));
+        start(3, Duration.ofSeconds(10), 100);
+
+        List<CompletableFuture<S4WriteBehindBuffer.Outcome>> results = List.of(
+                buffer.submit(rate("EUR", "USD", "1.1", NOW)),
+                buffer.submit(rate("GBP", "USD", "1.2", NOW)),
+                buffer.submit(rate("EUR", "GBP", "0.9", NOW)));
+        results.forEach(CompletableFuture::join);
+
+        ArgumentCaptor<List<FxClient.ExchangeRate>> captor = ArgumentCaptor.forClass(List.class);
+        verify(s4HanaClient, times(1)).sendExchangeRates(eq(S4TenantClients.DEFAULT), captor.capture());
+        assertEquals(3, captor.getValue().size());
+        verify(s4HanaClient, never()).sendExchangeRate(anyString(), any());
+    }
+
+    @Test
+    public void shouldFlushSingleRateAfterLinger() {
+        when(s4HanaClient.sendExchangeRate(anyString(), any())).thenReturn(true, false);
+        start(50, Duration.ofMillis(50), 100);
+
+        assertEquals(S4WriteBehindBuffer.Outcome.WRITTEN, buffer.submit(rate("EUR", "USD", "1.1", NOW)).join());
+        assertEquals(S4WriteBehindBuffer.Outcome.STALE, buffer.submit(rate("EUR", "USD", "1.0", NOW.minusMinutes(1))).join());
+
+        verify(s4HanaClient, times(2)).sendExchangeRate(anyString(), any());
+        verify(s4HanaClient, never()).sendExchangeRates(anyString(), anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldKeepNewestRateForSamePairAndDate() {
+        when(s4HanaClient.sendExchangeRates(anyString(), anyList())).thenAnswer(invocation -> written(invocation.getArgument(1)));
+        start(3, Duration.ofSeconds(10), 100);
+
+        List<CompletableFuture<S4WriteBehindBuffer.Outcome>> results = List.of(
+                buffer.submit(rate("EUR", "USD", "1.1", NOW)),
+                buffer.submit(rate("EUR", "USD", "1.3", NOW.plusMinutes(5))),
+                buffer.submit(rate("GBP", "USD", "1.2", NOW)));
+
+        assertEquals(List.of(S4WriteBehindBuffer.Outcome.SUPERSEDED, S4WriteBehindBuffer.Outcome.WRITTEN, S4WriteBehindBuffer.Outcome.WRITTEN),
+                results.stream().map(CompletableFuture::join).toList());
+        ArgumentCaptor<List<FxClient.ExchangeRate>> captor = ArgumentCaptor.forClass(List.class);
+        verify(s4HanaClient).sendExchangeRates(eq(S4TenantClients.DEFAULT), captor.capture());
+        List<FxClient.ExchangeRate> sent = captor.getValue();
+        assertEquals(2, sent.size());
+        assertEquals(new BigDecimal("1.3"), sent.getFirst().getMid());
+        assertEquals(1.0, meterRegistry.get("s4.write-behind.duplicates").counter().count());
+    }
+
+    @Test
+    public void shouldFailEveryRateOfFailedBatch() {
+        doThrow(new S4IntegrationException("s4 failed", new RuntimeException("cause"))).when(s4HanaClient).sendExchangeRates(anyString(), anyList());
+        start(2, Duration.ofSeconds(10), 100);
+
+        CompletableFuture<S4WriteBehindBuffer.Outcome> first = buffer.submit(rate("EUR", "USD", "1.1", NOW));
+        CompletableFuture<S4WriteBehindBuffer.Outcome> second = buffer.submit(rate("GBP", "USD", "1.2", NOW));
+
+        for (CompletableFuture<S4WriteBehindBuffer.Outcome> result : List.of(first, second)) {
+            CompletionException e = assertThrows(CompletionException.class, result::join);
+            assertInstanceOf(S4IntegrationException.class, e.getCause());
+        }
+    }
+
+    @Test
+    public void shouldFailOnlyCallersOfRejectedRate() {
+        S4IntegrationException rejected = new S4IntegrationException("s4 failed", new IllegalStateException("HTTP 400"));
+        when(s4HanaClient.sendExchangeRates(anyString(), anyList())).thenAnswer(invocation -> {
+            List<FxClient.ExchangeRate> rates = invocation.getArgument(1);
+            return rates.stream()
+                    .map(r -> "GBP".equals(r.getBase())
+                            ? new S4HanaClient.RateOutcome(r, false, rejected)
+                            : new S4HanaClient.RateOutcome(r, !"CHF".equals(r.getBase()), null))
+                    .toList();
+        });
+        start(4, Duration.ofSeconds(10), 100);
+
+        CompletableFuture<S4WriteBehindBuffer.Outcome> written = buffer.submit(rate("EUR", "USD", "1.1", NOW));
+        CompletableFuture<S4WriteBehindBuffer.Outcome> superseded = buffer.submit(rate("GBP", "USD", "1.2", NOW));
+        CompletableFuture<S4WriteBehindBuffer.Outcome> failed = buffer.submit(rate("GBP", "USD", "1.3", NOW.plusMinutes(1)));
+        CompletableFuture<S4WriteBehindBuffer.Outcome> stale = buffer.submit(rate("CHF", "USD", "0.9", NOW));
+
+        assertEquals(S4WriteBehindBuffer.Outcome.WRITTEN, written.join());
+        assertEquals(S4WriteBehindBuffer.Outcome.STALE, stale.join());
+        // The older GBP rate shares the outcome of the newer one that replaced it.
+        for (CompletableFuture<S4WriteBehindBuffer.Outcome> result : List.of(superseded, failed)) {
+            CompletionException e = assertThrows(CompletionException.class, result::join);
+            assertSame(rejected, e.getCause());
+        }
+        assertEquals(1.0, meterRegistry.get("s4.write-behind.batches").tag("outcome", "failure").counter().count());
+    }
+
+    @Test
+    public void shouldFlushTenantsOfBatchInParallel() {
+        CountDownLatch fastWritten = new CountDownLatch(1);
+        // Written before the fast tenant only if the tenants are flushed one after the other.
+        when(s4HanaClient.sendExchangeRate(eq("slow"), any())).thenAnswer(invocation -> fastWritten.await(5, TimeUnit.SECONDS));
+        when(s4HanaClient.sendExchangeRate(eq("fast"), any())).thenAnswer(invocation -> {
+            fastWritten.countDown();
+            return true;
+        });
+        start(2, Duration.ofSeconds(10), 100);
+
+        CompletableFuture<S4WriteBehindBuffer.Outcome> slow = buffer.submit("slow", rate("EUR", "USD", "1.1", NOW));
+        CompletableFuture<S4WriteBehindBuffer.Outcome> fast = buffer.submit("fast", rate("EUR", "USD", "1.1", NOW));
+
+        assertEquals(S4WriteBehindBuffer.Outcome.WRITTEN, fast.orTimeout(2, TimeUnit.SECONDS).join());
+        assertEquals(S4WriteBehindBuffer.Outcome.WRITTEN, slow.orTimeout(2, TimeUnit.SECONDS).join());
+    }
+
+    @Test
+    public void shouldRejectWhenBufferStaysFull() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            blocked.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return true;
+        }).when(s4HanaClient).sendExchangeRate(anyString(), any());
+        start(1, Duration.ZERO, 2);
+
+        buffer.submit(rate("EUR", "USD", "1.1", NOW));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        IntStream.range(0, 2).forEach(i -> buffer.submit(rate("GBP", "USD", "1.2", NOW)));
+
+        assertThrows(S4IntegrationException.class, () -> buffer.submit(rate("EUR", "GBP", "0.9", NOW)));
+        release.countDown();
+    }
+
+    @Test
+    public void shouldRejectWhenNotStarted() {
+        buffer = new S4WriteBehindBuffer(
+                new S4WriteBehindProperties(false, 50, Duration.ofMillis(200), 100, Duration.ofSeconds(1)),
+                s4HanaClient, meterRegistry);
+        buffer.start();
+
+        assertFalse(buffer.isEnabled());
+        assertThrows(S4IntegrationException.class, () -> buffer.submit(rate("EUR", "USD", "1.1", NOW)));
+    }
+}
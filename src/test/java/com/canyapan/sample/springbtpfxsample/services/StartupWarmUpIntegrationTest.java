@@ -0,0 +1,100 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.springtest.MockServerTest;
+import org.mockserver.verify.VerificationTimes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@MockServerTest({
+        "fx.api.base-url=http://localhost:${mockServerPort}/api/",
+        "sap.s4.base-url=http://localhost:${mockServerPort}/odata/v2/",
+        "spring.security.oauth2.resourceserver.jwt.jwk-set-uri=http://localhost:${mockServerPort}/jwks",
+        "warmup.iterations=10"
+})
+public class StartupWarmUpIntegrationTest {
+
+    private MockServerClient mockServer;
+
+    @Autowired
+    private StartupWarmUp warmUp;
+
+    @Autowired
+    private S4HanaCsrfTokenCache cache;
+
+    @Autowired
+    private ApplicationAvailability availability;
+
+    @AfterEach
+    void cleanUp() {
+        mockServer.reset();
+    }
+
+    @Test
+    void shouldWarmUpConnectionsTokenAndJwks() {
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/api/currencies"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("""
+                                {"status_code":200,"data":["EUR","GBP","USD"]}"""));
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("x-csrf-token", "warm-token")
+                        .withCookie("_session", "session-cookie"));
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/odata/v2/API_EXCHANGE_RATE_SRV/"))
+                .respond(response()
+                        .withStatusCode(200));
+        mockServer.when(request()
+                        .withMethod("GET")
+                        .withPath("/jwks"))
+                .respond(response()
+                        .withStatusCode(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"keys\":[]}"));
+
+        List<StartupWarmUp.Step> steps = warmUp.warmUp();
+
+        assertEquals(5, steps.size());
+        steps.forEach(step -> assertTrue(step.success(), step.name()));
+
+        assertTrue(cache.isValid());
+        assertEquals("warm-token", cache.getToken());
+
+        mockServer.verify(request().withMethod("GET").withPath("/api/currencies"), VerificationTimes.once());
+        // Warming the connection costs no rate lookup.
+        mockServer.verify(request().withPath("/api/rates/.*"), VerificationTimes.never());
+        mockServer.verify(request().withMethod("GET").withPath("/odata/v2/API_EXCHANGE_RATE_SRV/"), VerificationTimes.once());
+        mockServer.verify(request().withMethod("GET").withPath("/jwks"), VerificationTimes.atLeast(1));
+    }
+
+    @Test
+    void shouldReportFailedStepsWithoutFailing() {
+        List<StartupWarmUp.Step> steps = warmUp.warmUp();
+
+        assertEquals(5, steps.size());
+        assertFalse(steps.stream().filter(step -> step.name().equals("fx-connection")).findFirst().orElseThrow().success());
+        assertTrue(steps.stream().filter(step -> step.name().equals("jit")).findFirst().orElseThrow().success());
+        assertEquals(ReadinessState.ACCEPTING_TRAFFIC, availability.getReadinessState());
+    }
+}
@@ -0,0 +1,144 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.FreshnessProperties;
+import com.canyapan.sample.springbtpfxsample.configs.FxRateCacheProperties;
+import com.canyapan.sample.springbtpfxsample.configs.S4KeyIndexProperties;
+import com.canyapan.sample.springbtpfxsample.configs.SnapshotProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestClient;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.canyapan.sample.springbtpfxsample.services.Rates.rate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StateSnapshotsTest {
+
+    private static final LocalDate DAY = LocalDate.of(2025, 12, 30);
+
+    @TempDir
+    private Path dir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * The state of one run of the service.
+     */
+    private final class Node {
+
+        private final RateFreshnessTracker tracker = new RateFreshnessTracker(
+                new FreshnessProperties(true, Duration.ofHours(1), Duration.ofMinutes(1), new FreshnessProperties.Resync(false, 5)),
+                meterRegistry, CurrencyRegistryTest.accepting(mock(FxClient.class), meterRegistry, "USD", "EUR", "GBP"));
+        private final FxRateAggregator aggregator = mock(FxRateAggregator.class);
+        private final List<Runnable> refreshes = new ArrayList<>();
+        private final FxRateCache rateCache;
+        private final S4ExchangeRateKeyIndex keyIndex = new S4ExchangeRateKeyIndex(
+                new S4KeyIndexProperties(true, S4KeyIndexProperties.OnExisting.UPDATE, 400, 1000),
+                RestClient.create(), JsonMapper.builder().build(), meterRegistry);
+        private final S4HanaCsrfTokenCache csrfTokenCache = new S4HanaCsrfTokenCache(Duration.ofMinutes(10));
+        private final StateSnapshots snapshots;
+
+        private Node(Duration ttl) {
+            this(ttl, Clock.systemUTC());
+        }
+
+        private Node(Duration ttl, Clock cacheClock) {
+            rateCache = new FxRateCache(aggregator,
+                    new FxRateCacheProperties(true, Duration.ofSeconds(30), Duration.ofMinutes(5)),
+                    meterRegistry, cacheClock, refreshes::add);
+            snapshots = new StateSnapshots(new SnapshotProperties(true, dir, Duration.ofMinutes(1), ttl),
+                    tracker, rateCache, keyIndex, csrfTokenCache, meterRegistry);
+        }
+    }
+
+    @Test
+    public void shouldRestoreRatesKeysAndCsrfSessionOfPreviousRun() throws IOException {
+        Instant fetchedAt = Instant.now().minusSeconds(30);
+        // Its cache fetched the rate 20 s ago.
+        Node before = new Node(Duration.ofMinutes(15), Clock.offset(Clock.systemUTC(), Duration.ofSeconds(-20)));
+        when(before.aggregator.fetchExchangeRate("USD", "EUR")).thenReturn(rate("USD", "EUR", "0.849365", fetchedAt));
+        before.rateCache.fetchExchangeRate("USD", "EUR");
+        before.tracker.recordFetched(rate("USD", "EUR", "0.849365", fetchedAt));
+        before.tracker.recordWritten(rate("USD", "EUR", "0.849365", fetchedAt.minusSeconds(60)));
+        before.keyIndex.add("B", "EUR", "GBP", DAY);
+        before.keyIndex.add("M", "USD", "EUR", DAY);
+        before.csrfTokenCache.update("token", List.of("SAP_SESSIONID=abc", "sap-usercontext=100"));
+        assertTrue(before.snapshots.write() > 0);
+
+        Node after = new Node(Duration.ofMinutes(15));
+        // Numbered the other way around than in the previous run.
+        after.keyIndex.add("M", "GBP", "USD", DAY);
+        assertTrue(after.snapshots.load());
+
+        // Served from the cache, still within the stale-while-revalidate window but no younger than it was.
+        FxRateCache.Served served = after.rateCache.fetchExchangeRate("USD", "EUR");
+        assertEquals(FxRateCache.Freshness.STALE, served.freshness());
+        assertEquals(new BigDecimal("0.849365"), served.rate().getMid());
+        assertEquals(fetchedAt.toEpochMilli(), served.rate().getTimestamp().toInstant().toEpochMilli());
+        assertTrue(served.age().compareTo(Duration.ofSeconds(20)) >= 0);
+        assertEquals(1, after.refreshes.size());
+
+        assertEquals(before.tracker.entries(), after.tracker.entries());
+        assertTrue(after.tracker.check().stream().noneMatch(s -> s.base().equals("USD") && s.target().equals("EUR")));
+
+        assertTrue(after.keyIndex.contains("M", "USD", "EUR", DAY));
+        assertTrue(after.keyIndex.contains("B", "EUR", "GBP", DAY));
+        assertFalse(after.keyIndex.contains("M", "EUR", "GBP", DAY));
+        assertEquals(3, after.keyIndex.size());
+
+        assertTrue(after.csrfTokenCache.isValid());
+        assertEquals("token", after.csrfTokenCache.getToken());
+        assertEquals(List.of("SAP_SESSIONID=abc", "sap-usercontext=100"), after.csrfTokenCache.getCookies());
+    }
+
+    @Test
+    public void shouldIgnoreSnapshotPastTtl() throws IOException {
+        Node before = new Node(Duration.ofMinutes(15));
+        before.keyIndex.add("M", "USD", "EUR", DAY);
+        before.snapshots.write();
+
+        Node after = new Node(Duration.ZERO);
+        assertFalse(after.snapshots.load());
+        assertEquals(0, after.keyIndex.size());
+    }
+
+    @Test
+    public void shouldIgnoreDamagedSnapshot() throws IOException {
+        Node before = new Node(Duration.ofMinutes(15));
+        before.keyIndex.add("M", "USD", "EUR", DAY);
+        before.snapshots.write();
+
+        Path file = dir.resolve("state.snapshot");
+        byte[] content = Files.readAllBytes(file);
+        content[content.length / 2] ^= 0x01;
+        Files.write(file, content);
+
+        Node after = new Node(Duration.ofMinutes(15));
+        assertFalse(after.snapshots.load());
+        assertEquals(0, after.keyIndex.size());
+    }
+
+    @Test
+    public void shouldKeepCsrfTokenAgeAcrossRestart() {
+        S4HanaCsrfTokenCache cache = new S4HanaCsrfTokenCache(Duration.ofMinutes(10));
+
+        assertFalse(cache.restore(new S4HanaCsrfTokenCache.Entry("token", List.of("c"), Instant.now().minus(Duration.ofMinutes(11)))));
+        assertFalse(cache.isValid());
+        assertTrue(cache.restore(new S4HanaCsrfTokenCache.Entry("token", List.of("c"), Instant.now().minus(Duration.ofMinutes(9)))));
+        assertTrue(cache.isValid());
+    }
+}
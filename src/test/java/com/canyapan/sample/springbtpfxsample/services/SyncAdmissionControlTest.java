@@ -0,0 +1,118 @@
+package com.canyapan.sample.springbtpfxsample.services;
+
+import com.canyapan.sample.springbtpfxsample.configs.SyncAdmissionProperties;
+import com.canyapan.sample.springbtpfxsample.exceptions.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncAdmissionControlTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private SyncAdmissionControl admissionControl(int maxConcurrent, int maxQueued, Duration maxQueueWait,
+                                                  double requestsPerSecond, int burst) {
+        return new SyncAdmissionControl(new SyncAdmissionProperties(true, maxConcurrent, maxQueued, maxQueueWait,
+                new SyncAdmissionProperties.PrincipalQuota(requestsPerSecond, burst)), meterRegistry);
+    }
+
+    @Test
+    public void shouldRejectImmediatelyWhenQueueIsFull() {
+        SyncAdmissionControl control = admissionControl(1, 0, Duration.ofSeconds(5), 0, 1);
+
+        try (SyncAdmissionControl.Permit ignored = control.acquire("a")) {
+            long start = System.nanoTime();
+            TooManyRequestsException e = assertThrows(TooManyRequestsException.class, () -> control.acquire("b"));
+
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "rejection should not wait");
+            assertTrue(e.getRetryAfter().compareTo(Duration.ofSeconds(1)) >= 0);
+        }
+        assertEquals(1.0, meterRegistry.get("sync.admission.rejected").tag("reason", "queue-full").counter().count());
+    }
+
+    @Test
+    public void shouldAdmitQueuedRequestWhenSlotIsReleased() throws Exception {
+        SyncAdmissionControl control = admissionControl(1, 1, Duration.ofSeconds(5), 0, 1);
+        CountDownLatch waiting = new CountDownLatch(1);
+
+        SyncAdmissionControl.Permit first = control.acquire("a");
+        CompletableFuture<SyncAdmissionControl.Permit> second = CompletableFuture.supplyAsync(() -> {
+            waiting.countDown();
+            return control.acquire("b");
+        });
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertFalse(second.isDone());
+
+        first.close();
+        second.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    public void shouldRejectQueuedRequestAfterMaxQueueWait() {
+        SyncAdmissionControl control = admissionControl(1, 1, Duration.ofMillis(50), 0, 1);
+
+        try (SyncAdmissionControl.Permit ignored = control.acquire("a")) {
+            assertThrows(TooManyRequestsException.class, () -> control.acquire("b"));
+        }
+        assertEquals(1.0, meterRegistry.get("sync.admission.rejected").tag("reason", "queue-timeout").counter().count());
+    }
+
+    @Test
+    public void shouldEnforceQuotaPerPrincipal() {
+        SyncAdmissionControl control = admissionControl(10, 0, Duration.ZERO, 0.1, 2);
+
+        control.acquire("a").close();
+        control.acquire("a").close();
+        TooManyRequestsException e = assertThrows(TooManyRequestsException.class, () -> control.acquire("a"));
+
+        // One token every 10 seconds.
+        assertTrue(e.getRetryAfter().compareTo(Duration.ofSeconds(9)) > 0);
+        assertDoesNotThrow(() -> control.acquire("b").close());
+    }
+
+    @Test
+    public void shouldGiveTokenBackWhenRejectedForWantOfSlot() {
+        SyncAdmissionControl control = admissionControl(1, 0, Duration.ZERO, 0.1, 2);
+
+        try (SyncAdmissionControl.Permit ignored = control.acquire("a")) {
+            assertThrows(TooManyRequestsException.class, () -> control.acquire("a"));
+        }
+
+        // The rejected request didn't use up the second token.
+        assertDoesNotThrow(() -> control.acquire("a").close());
+        assertEquals(1.0, meterRegistry.get("sync.admission.rejected").tag("reason", "queue-full").counter().count());
+        assertEquals(0.0, meterRegistry.get("sync.admission.rejected").tag("reason", "quota").counter().count());
+    }
+
+    @Test
+    public void shouldEvictOnlyRefilledBuckets() throws InterruptedException {
+        SyncAdmissionControl control = admissionControl(10, 0, Duration.ZERO, 1000, 1);
+        control.acquire("a").close();
+        Thread.sleep(20);
+        control.acquire("b").close();
+
+        control.evictIdleBuckets();
+        assertTrue(control.bucketCount() <= 1, "refilled bucket of a should be gone");
+
+        Thread.sleep(20);
+        control.evictIdleBuckets();
+        assertEquals(0, control.bucketCount());
+    }
+
+    @Test
+    public void shouldAdmitEverythingWhenDisabled() {
+        SyncAdmissionControl control = new SyncAdmissionControl(new SyncAdmissionProperties(false, 1, 0, Duration.ZERO,
+                new SyncAdmissionProperties.PrincipalQuota(0.1, 1)), meterRegistry);
+
+        SyncAdmissionControl.Permit first = control.acquire("a");
+        assertDoesNotThrow(() -> control.acquire("a").close());
+        first.close();
+    }
+}